@@ -9,14 +9,26 @@ public class AsyncRunner {
         int clientCount = 50;
         int requestsPerClient = 1000;
         int keyRange = 50;
+        int nearCacheSize = 0;
+        double writeProbability = 0.3;
         if (args.length > 0) port = Integer.parseInt(args[0]);
         if (args.length > 1) clientCount = Integer.parseInt(args[1]);
         if (args.length > 2) requestsPerClient = Integer.parseInt(args[2]);
         if (args.length > 3) keyRange = Integer.parseInt(args[3]);
+        if (args.length > 4) nearCacheSize = Integer.parseInt(args[4]);
+        if (args.length > 5) writeProbability = Double.parseDouble(args[5]);
         System.out.printf("Starting Async Simulator: %d clients, %d reqs/client...%n",
                 clientCount, requestsPerClient);
         try {
-            System.out.println(simulateStatic(port, clientCount, requestsPerClient, keyRange));
+            if (nearCacheSize > 0 || args.length > 5) {
+                AsyncSimulator simulator = new AsyncSimulator(port, clientCount, requestsPerClient, keyRange,
+                        nearCacheSize, writeProbability);
+                System.out.println(simulator.call());
+                System.out.println("Remote requests " + simulator.getRemoteRequests()
+                        + ", near cache hits " + simulator.getNearCacheHits());
+            } else {
+                System.out.println(simulateStatic(port, clientCount, requestsPerClient, keyRange));
+            }
         } catch (ExecutionException | InterruptedException e) {
             e.printStackTrace();
         }
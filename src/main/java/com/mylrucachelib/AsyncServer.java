@@ -1,33 +1,184 @@
 package com.mylrucachelib;
 
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.DiskTier;
+import com.mylrucachelib.persistence.SnapshotManager;
 import com.mylrucachelib.persistence.StringSerializer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class AsyncServer {
     private static final int DEFAULT_PORT = 8080;
     private static final String DEFAULT_FILE = "lru-cache.dump";
+    private static final int DEFAULT_HOT_KEYS = 10;
+    private static final long HOT_KEY_WINDOW_MS = 10_000;
+    private static final int DISK_TIER_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int WRITE_BEHIND_BATCH = 500;
+    private static final long WRITE_BEHIND_INTERVAL_MS = 100;
+    private static final int MAX_TRACKED_KEYS = 1_000_000;
+    private static final int SCAN_DEFAULT_COUNT = 100;
+    private static final int SCAN_MAX_COUNT = 1000;
+    // keys DELPREFIX takes from the index at a time
+    private static final int DELPREFIX_BATCH = 1000;
+    private static final long REPLICA_HEARTBEAT_MS = 1_000;
+    // a key of a selected namespace is stored as <namespace><separator><key>, one without it is in the default one
+    private static final char NS_SEPARATOR = '\u001f';
+    private static final String DEFAULT_NAMESPACE = "default";
+    // commands whose first argument is a key (a prefix, a tag), qualified with the connection's namespace
+    private static final Set<String> KEY_COMMANDS = Set.of("PUT", "GET", "GETS", "DEL", "TOUCH", "EXPIRE",
+            "PEEK", "EXISTS", "PUTIFABSENT", "CAS", "INCR", "DECR", "INCRBY", "TAGPUT", "INVALIDATETAG", "SCAN", "DELPREFIX");
+    // single-key commands, run by the loop that owns the key's segment in shard-per-core mode
+    private static final Set<String> ROUTED_COMMANDS = Set.of("PUT", "GET", "GETS", "DEL", "TOUCH", "EXPIRE",
+            "PEEK", "EXISTS", "PUTIFABSENT", "CAS", "INCR", "DECR", "INCRBY", "TAGPUT");
+    // a replica that falls this far behind is dropped and has to resync
+    private static final long MAX_REPLICA_BACKLOG_BYTES = 64L * 1024 * 1024;
+    // stands in a write queue for the connection's next file region
+    private static final ByteBuffer FILE_MARKER = ByteBuffer.allocate(0);
     private LRUCache<String,String> cache;
     private ServerSocketChannel serverSocketChannel;
     private Selector selector;
     private volatile boolean running = false;
+    private int hotKeyTopK = 0;
+    private double hotKeySampleRate;
+    private Path diskTierDir;
+    private long diskTierBytes;
+    private CacheWriter<String,String> storeWriter;
+    private boolean keyIndex;
+    private boolean namespaces;
+    // shard-per-core mode once above 1: loop 0 is the one start runs and also accepts, the others are shards[1..]
+    private int eventLoops = 1;
+    private ShardLoop[] shards;
+    private int nextLoop;
+    // key -> connections that may hold it in a near cache. read by the removal hook, written by the loop
+    private final ConcurrentHashMap<String, Set<ServerClientState>> trackingTable = new ConcurrentHashMap<>();
+    // keys evicted, expired or replicated off the event loop, pushed out on its next turn
+    private final Queue<String> pendingRemovals = new ConcurrentLinkedQueue<>();
+    // work handed to the event loop by other threads
+    private final Queue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+    private volatile Thread loopThread;
+    // primary side, the set and the offset belong to the loop
+    private final Set<ServerClientState> replicas = new HashSet<>();
+    private volatile boolean replicasAttached;
+    private long replicationOffset;
+    private Path snapshotDir;
+    private ExecutorService snapshotWorker;
+    private ScheduledExecutorService replicationHeartbeat;
+    // replica side
+    private String replicaOfHost;
+    private int replicaOfPort;
+    private volatile ReplicaLink replicaLink;
+    // warm-up source for a fresh node
+    private String syncFromHost;
+    private int syncFromPort;
+    private volatile SnapshotSync snapshotSync;
     private static final Logger logger = Logger.getLogger(AsyncServer.class.getName());
 
     static class ServerClientState {
         ByteBuffer readBuffer = ByteBuffer.allocate(1024);
         Queue<ByteBuffer> writeQueue = new LinkedList<>();
+        long pendingBytes;
+        SelectionKey selectionKey;
+        boolean tracking;
+        Set<String> trackedKeys = new HashSet<>();
+        // chosen with SELECT, null for the default namespace
+        String namespace;
+        // the event loop that owns the connection, 0 outside shard-per-core mode
+        int loop;
+        // a command is out on another loop, the lines behind it wait for its response
+        boolean awaiting;
+        boolean replica;
+        // ops that arrive while the replica's snapshot is being taken, sent right after it
+        List<ByteBuffer> replicaBacklog;
+        boolean syncing;
+        boolean closeWhenFlushed;
+        Queue<FileRegion> files;
+    }
+
+    // a snapshot file on its way out through transferTo, deleted once sent or abandoned
+    static class FileRegion {
+        final Path path;
+        final FileChannel channel;
+        final long end;
+        long position;
+
+        FileRegion(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.end = channel.size();
+        }
+
+        void release() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not remove snapshot file " + path, e);
+            }
+        }
+    }
+
+    // an event loop of its own in shard-per-core mode. it serves the connections handed to it and runs the
+    // single-key commands of the segments it owns, for its own connections and for those of the other loops
+    private class ShardLoop implements Runnable {
+        final int index;
+        final Selector selector;
+        // commands and connections handed over by the other loops, many producers and this loop consuming
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        ShardLoop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running && selector.isOpen()) {
+                    selector.select();
+                    if (!running) break;
+                    runQueued(tasks);
+                    handleReady(selector);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Event loop " + index + " failed", e);
+            } finally {
+                closeAll(selector);
+            }
+        }
     }
 
     public static void main(String[] args) throws IOException {
@@ -38,14 +189,31 @@ public class AsyncServer {
         if (args.length > 1) concurrencyLevel = Integer.parseInt(args[1]);
         if (args.length > 2) port = Integer.parseInt(args[2]);
         AsyncServer service = new AsyncServer();
+        if (args.length > 3) service.setHotKeyTracking(Integer.parseInt(args[3]), 0.01);
+        if (args.length > 4) {
+            String primary = args[4];
+            int colon = primary.lastIndexOf(':');
+            service.setReplicaOf(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1)));
+        }
         service.start(capacity, concurrencyLevel, port, DEFAULT_FILE);
     }
 
     public void stop() {
         running = false;
+        ReplicaLink link = replicaLink;
+        if (link != null) link.stop();
+        SnapshotSync sync = snapshotSync;
+        if (sync != null) sync.stop();
+        if (snapshotWorker != null) snapshotWorker.shutdownNow();
+        if (replicationHeartbeat != null) replicationHeartbeat.shutdownNow();
         if (selector != null) {
             selector.wakeup(); // Unblock the select() call immediately
         }
+        if (shards != null) {
+            for (int i = 1; i < shards.length; i++) {
+                if (shards[i] != null) shards[i].selector.wakeup();
+            }
+        }
         if (cache != null) {
             cache.removeShutdownHook();
             cache.shutdown();
@@ -54,68 +222,211 @@ public class AsyncServer {
 
     private void close() {
         try {
-            if (selector != null) selector.close();
+            if (selector != null) {
+                // connections go down with the server, followers notice and resync or get promoted
+                closeAll(selector);
+                // snapshots that were handed over after the loop stopped find their connection gone
+                runLoopTasks();
+            }
             if (serverSocketChannel != null) serverSocketChannel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private static void closeAll(Selector selector) {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+                if (key.attachment() instanceof ServerClientState state) releaseFiles(state);
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close event loop", e);
+        }
+    }
+
+    // must be called before start, topK <= 0 keeps tracking off
+    public void setHotKeyTracking(int topK, double sampleRate) {
+        this.hotKeyTopK = topK;
+        this.hotKeySampleRate = sampleRate;
+    }
+
+    // must be called before start, evicted entries then go to memory-mapped files in dir and are
+    // served from there until the tier runs out of its maxBytes
+    public void setDiskTier(Path dir, long maxBytes) {
+        this.diskTierDir = dir;
+        this.diskTierBytes = maxBytes;
+    }
+
+    // must be called before start, PUTs then reach the store in batches behind the cache instead of
+    // waiting for it. a replica leaves the writing to its primary
+    public void setWriteBehind(CacheWriter<String,String> writer) {
+        this.storeWriter = writer;
+    }
+
+    // must be called before start, SCAN and DELPREFIX need the ordered key index
+    public void setKeyIndex(boolean enabled) {
+        this.keyIndex = enabled;
+    }
+
+    // must be called before start, SELECT then moves a connection into a namespace with its own quota
+    public void setNamespaces(boolean enabled) {
+        this.namespaces = enabled;
+    }
+
+    // must be called before start. with more than one loop each loop serves a share of the connections, and a
+    // key is only ever touched by the loop owning its segment (segment index modulo loops), others hand
+    // their commands for it over. near-cache tracking and replication need the single loop and are refused
+    public void setEventLoops(int loops) {
+        if (loops < 1) {
+            throw new IllegalArgumentException("Illegal number of event loops: " + loops);
+        }
+        this.eventLoops = loops;
+    }
+
+    // must be called before start, the server then follows that primary and refuses writes until promoted
+    public void setReplicaOf(String host, int port) {
+        this.replicaOfHost = host;
+        this.replicaOfPort = port;
+    }
+
+    // must be called before start, the server then loads a snapshot of that node in the background
+    // while it already serves requests
+    public void setSyncFrom(String host, int port) {
+        this.syncFromHost = host;
+        this.syncFromPort = port;
+    }
+
     public void start(int cap, int concLevel, int port, String filePath) throws IOException {
+        if (replicaOfHost != null && syncFromHost != null) {
+            throw new IllegalStateException("A replica syncs from its primary, sync source not allowed");
+        }
+        if (replicaOfHost != null && eventLoops > 1) {
+            throw new IllegalStateException("A replica applies its stream on one loop, more event loops not allowed");
+        }
+        // before the port is visible, or a stop() right after it would be overwritten
+        running = true;
         LoggerSetup.setupLogger(AsyncServer.class.getName(), "async-server.log", true);
         this.cache = new LRUCache<>(cap, concLevel);
+        this.cache.enableCounters(Long::parseLong, Long::toString);
         this.cache.enablePersistence(
                 filePath,
                 new StringSerializer(),
                 new StringSerializer()
         );
         this.cache.addShutdownHook();
+        this.cache.setRemovalHook(this::onKeyRemoved);
+        if (diskTierDir != null) {
+            int segmentBytes = (int) Math.min(DISK_TIER_SEGMENT_BYTES, diskTierBytes / 2);
+            this.cache.enableDiskTier(new DiskTier<>(diskTierDir, Codecs.STRING, Codecs.STRING, segmentBytes, diskTierBytes));
+        }
+        if (storeWriter != null && replicaOfHost == null) {
+            // at most half the cache waits for the store, the rest stays free to evict
+            this.cache.enableWriteBehind(storeWriter, WRITE_BEHIND_BATCH, WRITE_BEHIND_INTERVAL_MS, Math.max(WRITE_BEHIND_BATCH, cap / 2));
+        }
+        if (keyIndex) {
+            this.cache.enableKeyIndex(Comparator.naturalOrder());
+        }
+        if (namespaces) {
+            this.cache.enableNamespaces(AsyncServer::namespaceOf);
+        }
+        if (hotKeyTopK > 0) {
+            this.cache.enableHotKeyTracking(hotKeyTopK, hotKeySampleRate, HOT_KEY_WINDOW_MS);
+        }
+        this.snapshotDir = Path.of(filePath).toAbsolutePath().getParent();
         this.selector = Selector.open();
+        if (syncFromHost != null) {
+            this.snapshotSync = new SnapshotSync(syncFromHost, syncFromPort, cache,
+                    Runtime.getRuntime().availableProcessors());
+            this.snapshotSync.start();
+        }
+        if (replicaOfHost != null) {
+            this.replicaLink = new ReplicaLink(replicaOfHost, replicaOfPort, cache, this::onKeyRemoved);
+            this.replicaLink.start();
+        }
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress("localhost", port));
         serverSocketChannel.configureBlocking(false);
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
         port = getPort();
         logger.info("Nio LRU Cache Server started on port " + port);
-        running = true;
+        loopThread = Thread.currentThread();
+        if (eventLoops > 1) {
+            shards = new ShardLoop[eventLoops];
+            for (int i = 1; i < eventLoops; i++) {
+                shards[i] = new ShardLoop(i);
+                Thread t = new Thread(shards[i], "Event-Loop-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            logger.info("Shard-per-core mode with " + eventLoops + " event loops");
+        }
         while (running && selector.isOpen()) {
             int readyChannels = selector.select();
             if (!running) break;
+            runLoopTasks();
+            drainRemovals();
             if (readyChannels == 0) continue;
-            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-            while (iter.hasNext()) {
-                SelectionKey key = iter.next();
-                iter.remove();
-                try {
-                    if (!key.isValid()) continue;
-                    if (key.isAcceptable()) {
-                        handleAccept(key);
-                    }
-                    if (key.isValid() && key.isReadable()) {
-                        handleRead(key);
-                    }
-                    if (key.isValid() && key.isWritable()) {
-                        handleWrite(key);
-                    }
-                } catch (IOException e) {
-                    logger.log(Level.SEVERE, "IO Error in event loop", e);
-                    key.cancel();
-                    try {
-                        key.channel().close();
-                    } catch (IOException ignored) {}
-                }
-            }
+            handleReady(selector);
+            drainRemovals();
         }
         close();
         logger.info("Server stopped on port" + port);
     }
 
+    private void handleReady(Selector selector) {
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+            try {
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    handleAccept(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    handleRead(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    handleWrite(key);
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "IO Error in event loop", e);
+                closeConnection(key);
+            }
+        }
+    }
+
     private void handleAccept(SelectionKey key) throws IOException {
         ServerSocketChannel server = (ServerSocketChannel) key.channel();
         SocketChannel client = server.accept();
+        if (client == null) return;
         client.configureBlocking(false);
-        client.register(selector, SelectionKey.OP_READ, new ServerClientState());
+        ServerClientState state = new ServerClientState();
         logger.fine("Accepted new connection: " + client.getRemoteAddress());
+        if (shards == null) {
+            state.selectionKey = client.register(selector, SelectionKey.OP_READ, state);
+            return;
+        }
+        // round robin over the loops, a selector is only registered with from its own thread
+        state.loop = nextLoop;
+        nextLoop = (nextLoop + 1) % eventLoops;
+        if (state.loop == 0) {
+            state.selectionKey = client.register(selector, SelectionKey.OP_READ, state);
+            return;
+        }
+        ShardLoop shard = shards[state.loop];
+        shard.execute(() -> {
+            try {
+                state.selectionKey = client.register(shard.selector, SelectionKey.OP_READ, state);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not hand connection to event loop " + shard.index, e);
+                try {
+                    client.close();
+                } catch (IOException ignored) {}
+            }
+        });
     }
 
     private void handleRead(SelectionKey key) throws IOException {
@@ -123,12 +434,17 @@ public class AsyncServer {
         ServerClientState state = (ServerClientState) key.attachment();
         int bytes = channel.read(state.readBuffer);
         if (bytes == -1) {
-            channel.close();
+            closeConnection(key);
             return;
         }
 
+        processLines(key, state);
+    }
+
+    // the read buffer is in write mode before and after
+    private void processLines(SelectionKey key, ServerClientState state) {
         state.readBuffer.flip(); // to read mode
-        while (true) {
+        while (!state.awaiting) {
             int limit = state.readBuffer.limit();
             int position = state.readBuffer.position();
             int newlineIdx = -1;
@@ -144,7 +460,7 @@ public class AsyncServer {
                     int newCap = state.readBuffer.capacity()*2;
                     if (newCap > 1024*1024) {
                         logger.log(Level.SEVERE, "Request too large, closing.");
-                        channel.close();
+                        closeConnection(key);
                         return;
                     }
                     ByteBuffer newBuf = ByteBuffer.allocate(newCap);
@@ -161,9 +477,16 @@ public class AsyncServer {
             state.readBuffer.get(); // skip \n
             String line = new String(lineBytes, StandardCharsets.UTF_8).trim();
 
-            String response = processCommand(line) + "\n";
-            state.writeQueue.add(ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8)));
-            key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+            if (state.replica || state.syncing) continue; // these only listen
+            int owner = ownerOf(line, state);
+            if (owner != state.loop) {
+                handOff(owner, line, state);
+                continue;
+            }
+            String response = processCommand(line, state);
+            if (response != null) {
+                enqueue(state, ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
         }
         state.readBuffer.compact();
     }
@@ -176,7 +499,18 @@ public class AsyncServer {
         try {
             while (!state.writeQueue.isEmpty()) {
                 ByteBuffer buf = state.writeQueue.peek();
-                channel.write(buf);
+                if (buf == FILE_MARKER) {
+                    // zero copy from the page cache to the socket
+                    FileRegion region = state.files.peek();
+                    long sent = region.channel.transferTo(region.position, region.end - region.position, channel);
+                    region.position += sent;
+                    state.pendingBytes -= sent;
+                    if (region.position < region.end) return;
+                    state.files.poll().release();
+                    state.writeQueue.poll();
+                    continue;
+                }
+                state.pendingBytes -= channel.write(buf);
                 // if socket buffer is full, stop writing and wait for next op_write trigger
                 if (buf.hasRemaining()) {
                     return;
@@ -186,16 +520,390 @@ public class AsyncServer {
             }
         } catch (IOException e) {
             logger.log(Level.WARNING, "IO Error in event loop", e);
-            key.cancel();
+            closeConnection(key);
+            return;
+        }
+        if (state.closeWhenFlushed) {
+            closeConnection(key);
+            return;
+        }
+        key.interestOps(interest(state, false));
+    }
+
+    // a connection with a command out on another loop reads nothing more until the response is back
+    private static int interest(ServerClientState state, boolean write) {
+        return (state.awaiting ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0);
+    }
+
+    private void enqueue(ServerClientState state, ByteBuffer buf) {
+        state.writeQueue.add(buf);
+        state.pendingBytes += buf.remaining();
+        state.selectionKey.interestOps(interest(state, true));
+    }
+
+    private void enqueueFile(ServerClientState state, FileRegion region) {
+        if (state.files == null) state.files = new LinkedList<>();
+        state.files.add(region);
+        state.writeQueue.add(FILE_MARKER);
+        state.pendingBytes += region.end;
+        state.selectionKey.interestOps(interest(state, true));
+    }
+
+    private static void releaseFiles(ServerClientState state) {
+        if (state.files == null) return;
+        FileRegion region;
+        while ((region = state.files.poll()) != null) {
+            region.release();
+        }
+    }
+
+    private void runOnLoop(Runnable task) {
+        loopTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void runOn(int loop, Runnable task) {
+        if (loop == 0) {
+            runOnLoop(task);
+        } else {
+            shards[loop].execute(task);
+        }
+    }
+
+    // the loop whose segments hold the key of a single-key command, the connection's own loop for anything else
+    private int ownerOf(String line, ServerClientState state) {
+        if (shards == null) return state.loop;
+        int firstSpace = line.indexOf(' ');
+        if (firstSpace == -1 || !ROUTED_COMMANDS.contains(line.substring(0, firstSpace).toUpperCase())) return state.loop;
+        int end = line.indexOf(' ', firstSpace + 1);
+        String key = line.substring(firstSpace + 1, end == -1 ? line.length() : end);
+        if (key.isEmpty()) return state.loop;
+        return this.cache.segmentIndexOf(qualify(state, key)) % eventLoops;
+    }
+
+    // the command runs on the owning loop and its response comes back through the connection's one. one
+    // command at a time is out per connection, which keeps the responses in the order of the requests
+    private void handOff(int owner, String line, ServerClientState state) {
+        state.awaiting = true;
+        state.selectionKey.interestOps(interest(state, !state.writeQueue.isEmpty()));
+        runOn(owner, () -> {
+            String response = processCommand(line, state);
+            runOn(state.loop, () -> {
+                state.awaiting = false;
+                SelectionKey key = state.selectionKey;
+                if (!key.isValid()) return;
+                if (response != null) {
+                    enqueue(state, ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    key.interestOps(interest(state, !state.writeQueue.isEmpty()));
+                }
+                processLines(key, state);
+            });
+        });
+    }
+
+    private void runLoopTasks() {
+        runQueued(loopTasks);
+    }
+
+    // only the tasks queued so far. one that queues its continuation, like a DELPREFIX page, runs again
+    // on the next turn after the ready connections had theirs
+    private static void runQueued(Queue<Runnable> tasks) {
+        for (int n = tasks.size(); n > 0; n--) {
+            Runnable task = tasks.poll();
+            if (task == null) return;
+            task.run();
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        if (key.attachment() instanceof ServerClientState state) {
+            untrackAll(state);
+            releaseFiles(state);
+            if (state.replica) {
+                replicas.remove(state);
+                replicasAttached = !replicas.isEmpty();
+            }
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    // eviction and expiry hook, also told about keys the replication stream changed. runs on the
+    // loop itself when a put there evicts, otherwise on the janitor or the replica link
+    private void onKeyRemoved(String key) {
+        if (Thread.currentThread() == loopThread) {
+            // inside a put on the loop: the DEL goes out ahead of that put's own op
+            invalidate(key);
+            replicate("DEL " + key);
+            return;
+        }
+        if (!trackingTable.containsKey(key) && !replicasAttached) return;
+        pendingRemovals.add(key);
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    private void drainRemovals() {
+        String key;
+        while ((key = pendingRemovals.poll()) != null) {
+            invalidate(key);
+            // a put on the loop may have brought the key back since, its op is already out
+            if (!replicas.isEmpty() && !cache.containsKey(key)) replicate("DEL " + key);
+        }
+    }
+
+    // REPLICATE: the snapshot is taken off the loop while new ops queue up behind it
+    private String startReplicaSync(ServerClientState state) {
+        if (replicaLink != null) return "ERROR_NOT_PRIMARY";
+        if (state.replica || state.syncing) return "ERROR_ALREADY_SYNCING";
+        state.replica = true;
+        state.replicaBacklog = new ArrayList<>();
+        replicas.add(state);
+        replicasAttached = true;
+        if (replicationHeartbeat == null) {
+            replicationHeartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Replication-Heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            replicationHeartbeat.scheduleAtFixedRate(() -> runOnLoop(this::sendHeartbeat),
+                    REPLICA_HEARTBEAT_MS, REPLICA_HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        }
+        sendSnapshot(state, () -> {
+            for (ByteBuffer op : state.replicaBacklog) {
+                enqueue(state, op);
+            }
+            state.replicaBacklog = null;
+        });
+        return null;
+    }
+
+    // SYNC: one snapshot for a node warming up, the connection closes once it is sent
+    private String startSync(ServerClientState state) {
+        if (state.replica || state.syncing) return "ERROR_ALREADY_SYNCING";
+        state.syncing = true;
+        sendSnapshot(state, () -> state.closeWhenFlushed = true);
+        return null;
+    }
+
+    // "SNAPSHOT <offset> <bytes>" and the snapshot itself. the file is written on the worker, then
+    // streamed with transferTo; afterQueued runs on the loop right after the file was queued
+    private void sendSnapshot(ServerClientState state, Runnable afterQueued) {
+        long offset = replicationOffset;
+        if (snapshotWorker == null) {
+            snapshotWorker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "Snapshot-Writer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        snapshotWorker.submit(() -> {
+            Path file = null;
             try {
-                key.channel().close();
-            } catch (IOException ignored) {}
+                file = Files.createTempFile(snapshotDir, "snapshot-", ".tmp");
+                long start = System.currentTimeMillis();
+                int entries = new SnapshotManager<>(new StringSerializer(), new StringSerializer(), System::currentTimeMillis)
+                        .writeTo(file, cache);
+                FileRegion region = new FileRegion(file);
+                logger.info("Snapshot of " + entries + " entries, " + region.end + " bytes written in "
+                        + (System.currentTimeMillis() - start) + "ms");
+                runOn(state.loop, () -> {
+                    if (!state.selectionKey.isValid()) {
+                        region.release();
+                        return;
+                    }
+                    String header = "SNAPSHOT " + offset + " " + region.end + "\n";
+                    enqueue(state, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+                    enqueueFile(state, region);
+                    afterQueued.run();
+                });
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Snapshot for transfer failed", e);
+                if (file != null) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {}
+                }
+                runOn(state.loop, () -> closeConnection(state.selectionKey));
+            }
+        });
+    }
+
+    public String syncInfo() {
+        SnapshotSync sync = snapshotSync;
+        if (sync == null) return "state=none";
+        return "state=" + sync.state() + " entries=" + sync.entries() + " bytes=" + sync.bytes() + " ms=" + sync.millis();
+    }
+
+    // ops carry absolute expiry times so that stream lag does not stretch ttls
+    private void replicate(String op) {
+        if (replicas.isEmpty()) return;
+        replicationOffset++;
+        sendToReplicas(op);
+    }
+
+    private void sendHeartbeat() {
+        if (replicas.isEmpty()) return;
+        sendToReplicas("PING " + replicationOffset + " " + System.currentTimeMillis());
+    }
+
+    private void sendToReplicas(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        for (ServerClientState replica : new ArrayList<>(replicas)) {
+            if (replica.replicaBacklog != null) {
+                replica.replicaBacklog.add(ByteBuffer.wrap(bytes));
+            } else if (replica.pendingBytes > MAX_REPLICA_BACKLOG_BYTES) {
+                logger.warning("Replica fell " + replica.pendingBytes + " bytes behind, dropping it");
+                closeConnection(replica.selectionKey);
+            } else {
+                enqueue(replica, ByteBuffer.wrap(bytes));
+            }
+        }
+    }
+
+    public void promote() {
+        ReplicaLink link = replicaLink;
+        if (link == null) return;
+        link.stop();
+        replicaLink = null;
+        logger.info("Promoted to primary");
+    }
+
+    public String replicationInfo() {
+        ReplicaLink link = replicaLink;
+        if (link != null) {
+            return "role=replica state=" + link.state() + " offset=" + link.offset() + " lag_ms=" + link.lagMillis()
+                    + " last_sync_entries=" + link.lastSyncEntries() + " last_sync_ms=" + link.lastSyncMillis();
+        }
+        // the counters belong to the loop, read them there unless we already are on it
+        if (Thread.currentThread() == loopThread) return primaryInfo();
+        CompletableFuture<String> info = new CompletableFuture<>();
+        runOnLoop(() -> info.complete(primaryInfo()));
+        return info.join();
+    }
+
+    private String primaryInfo() {
+        long backlog = 0;
+        for (ServerClientState replica : replicas) {
+            backlog += replica.pendingBytes;
+        }
+        return "role=primary offset=" + replicationOffset + " replicas=" + replicas.size() + " backlog_bytes=" + backlog;
+    }
+
+    // tracking is one-shot like in redis: after the push the client has to read the key again to be told next time
+    private void invalidate(String key) {
+        Set<ServerClientState> holders = trackingTable.remove(key);
+        if (holders == null) return;
+        for (ServerClientState holder : holders) {
+            holder.trackedKeys.remove(key);
+            pushInvalidation(holder, key);
+        }
+    }
+
+    private void pushInvalidation(ServerClientState state, String key) {
+        SelectionKey selectionKey = state.selectionKey;
+        if (selectionKey == null || !selectionKey.isValid()) return;
+        enqueue(state, ByteBuffer.wrap(("INVALIDATE " + unqualified(key) + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String namespaceOf(String key) {
+        int sep = key.indexOf(NS_SEPARATOR);
+        return sep < 0 ? DEFAULT_NAMESPACE : key.substring(0, sep);
+    }
+
+    // the key as the connection that wrote it knows it
+    private static String unqualified(String key) {
+        return key.substring(key.indexOf(NS_SEPARATOR) + 1);
+    }
+
+    private static String qualify(ServerClientState state, String key) {
+        return state.namespace == null ? key : state.namespace + NS_SEPARATOR + key;
+    }
+
+    // puts the connection's namespace in front of the key argument of the line
+    private static String qualifyLine(String line, ServerClientState state) {
+        int firstSpace = line.indexOf(' ');
+        if (firstSpace == -1 || firstSpace + 1 == line.length() || line.charAt(firstSpace + 1) == ' ') return line;
+        if (!KEY_COMMANDS.contains(line.substring(0, firstSpace).toUpperCase())) return line;
+        return line.substring(0, firstSpace + 1) + state.namespace + NS_SEPARATOR + line.substring(firstSpace + 1);
+    }
+
+    // false when the table is full and the key could not be watched
+    private boolean track(ServerClientState state, String key) {
+        if (state.trackedKeys.contains(key)) return true;
+        if (trackingTable.size() >= MAX_TRACKED_KEYS && !trackingTable.containsKey(key)) return false;
+        state.trackedKeys.add(key);
+        trackingTable.computeIfAbsent(key, k -> new HashSet<>()).add(state);
+        return true;
+    }
+
+    private void untrackAll(ServerClientState state) {
+        for (String key : state.trackedKeys) {
+            Set<ServerClientState> holders = trackingTable.get(key);
+            if (holders != null) {
+                holders.remove(state);
+                if (holders.isEmpty()) trackingTable.remove(key);
+            }
+        }
+        state.trackedKeys.clear();
+    }
+
+    // one page of a prefix scan: KEYS <cursor> <key>... where the cursor is 0 once the prefix is done and
+    // otherwise goes into the next SCAN as it is
+    private String scanPage(String prefix, String cursor, int count) {
+        boolean start = cursor.equals("0");
+        List<String> keys = this.cache.scan(start ? prefix : cursor.substring(1), start, prefix + Character.MAX_VALUE, count);
+        StringBuilder sb = new StringBuilder("KEYS ");
+        sb.append(keys.size() < count ? "0" : ">" + unqualified(keys.get(keys.size() - 1)));
+        for (String k : keys) {
+            sb.append(' ').append(unqualified(k));
         }
-        key.interestOps(SelectionKey.OP_READ);
+        return sb.toString();
     }
 
-    private String processCommand(String line) {
+    // one page of the index per turn of the loop, every delete a short hold of one segment lock, so a large
+    // prefix does not hold up the other connections. the connection itself reads nothing more until the
+    // count is out, which keeps its responses in order. null while pages are left
+    private String deletePrefix(ServerClientState state, String prefix, String from, boolean inclusive, int deleted) {
+        List<String> keys = this.cache.scan(from, inclusive, prefix + Character.MAX_VALUE, DELPREFIX_BATCH);
+        for (String k : keys) {
+            if (this.cache.remove(k)) {
+                deleted++;
+                invalidate(k);
+                replicate("DEL " + k);
+            }
+        }
+        if (keys.size() < DELPREFIX_BATCH) return "DELETED " + deleted;
+        String last = keys.get(keys.size() - 1);
+        int sofar = deleted;
+        if (!state.awaiting) {
+            state.awaiting = true;
+            state.selectionKey.interestOps(interest(state, !state.writeQueue.isEmpty()));
+        }
+        runOn(state.loop, () -> {
+            String response;
+            try {
+                response = deletePrefix(state, prefix, last, false, sofar);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error deleting prefix: " + prefix, e);
+                response = "ERROR_INTERNAL " + e.getMessage();
+            }
+            if (response == null) return;
+            state.awaiting = false;
+            SelectionKey key = state.selectionKey;
+            if (!key.isValid()) return;
+            enqueue(state, ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8)));
+            processLines(key, state);
+        });
+        return null;
+    }
+
+    private String processCommand(String line, ServerClientState state) {
         if (line == null || line.isEmpty()) return "ERROR_EMPTY_COMMAND";
+        if (state.namespace != null) line = qualifyLine(line, state);
         int firstSpace = line.indexOf(' ');
         String command;
         String key = null;
@@ -229,7 +937,13 @@ public class AsyncServer {
                     if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
                         return "ERROR_USAGE_PUT";
                     }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    long expireAt = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
                     this.cache.put(key, value, ttl);
+                    invalidate(key);
+                    replicate("PUT " + key + " " + expireAt + " " + value);
                     return "OK";
                 }
                 case "GET" -> {
@@ -240,8 +954,342 @@ public class AsyncServer {
                     if (result == null) {
                         return "NOT_FOUND";
                     }
+                    // a tagged key is not watched either, its tag can be invalidated without the server
+                    // knowing which keys that hits
+                    if (state.tracking && (this.cache.tagsOf(key) != null || !track(state, key))) {
+                        // invalidate right behind the value rather than leave a copy nobody watches
+                        return "VALUE " + result + "\nINVALIDATE " + unqualified(key);
+                    }
+                    if (state.tracking) {
+                        // the push for an expired key waits for the janitor, so the near cache is told the
+                        // remaining ttl and expires its copy on its own
+                        long expireAt = this.cache.expireAt(key);
+                        if (expireAt > 0) {
+                            long remaining = Math.max(1, expireAt - System.currentTimeMillis());
+                            return "TTL " + unqualified(key) + " " + remaining + "\nVALUE " + result;
+                        }
+                    }
+                    return "VALUE " + result;
+                }
+                case "PEEK" -> {
+                    // a probe, neither a use of the key nor watched for a near cache
+                    if (key == null || key.isEmpty()) {
+                        return "ERROR_USAGE_PEEK";
+                    }
+                    String result = this.cache.getIfPresentQuietly(key);
+                    return result == null ? "NOT_FOUND" : "VALUE " + result;
+                }
+                case "EXISTS" -> {
+                    if (key == null || key.isEmpty()) {
+                        return "ERROR_USAGE_EXISTS";
+                    }
+                    return this.cache.containsKey(key) ? "EXISTS" : "NOT_FOUND";
+                }
+                case "GETS" -> {
+                    if (key == null || key.isEmpty()) {
+                        return "ERROR_USAGE_GETS";
+                    }
+                    CacheSegment.Versioned<String> result = this.cache.getVersioned(key);
+                    if (result == null) {
+                        return "NOT_FOUND";
+                    }
+                    return "VALUE " + result.version() + " " + result.value();
+                }
+                case "DEL" -> {
+                    if (key == null || key.isEmpty()) {
+                        return "ERROR_USAGE_DEL";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    // marked even when absent, the key may still be on its way in from a SYNC
+                    SnapshotSync sync = snapshotSync;
+                    if (sync != null) sync.deleting(key);
+                    if (!this.cache.remove(key)) {
+                        return "NOT_FOUND";
+                    }
+                    invalidate(key);
+                    replicate("DEL " + key);
+                    return "DELETED";
+                }
+                case "TOUCH", "EXPIRE" -> {
+                    long newTtl;
+                    try {
+                        newTtl = value == null ? -1 : Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        newTtl = -1;
+                    }
+                    if (key == null || key.isEmpty() || newTtl < 0) {
+                        return "ERROR_USAGE_TOUCH";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    if (!this.cache.touch(key, newTtl)) {
+                        return "NOT_FOUND";
+                    }
+                    // the replication stream only knows whole entries. touch brought the entry into memory, a
+                    // peek reads it there without counting as a use
+                    String current = this.cache.peek(key);
+                    if (current != null) {
+                        long expireAt = newTtl > 0 ? System.currentTimeMillis() + newTtl : 0;
+                        String[] tags = this.cache.tagsOf(key);
+                        if (tags == null) replicate("PUT " + key + " " + expireAt + " " + current);
+                        else replicate("TAGPUT " + key + " " + expireAt + " " + String.join(",", tags) + " " + current);
+                    }
+                    return "TOUCHED";
+                }
+                case "PUTIFABSENT" -> {
+                    if (key == null || value == null || key.isEmpty() || value.isEmpty()) {
+                        return "ERROR_USAGE_PUTIFABSENT";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    long expireAt = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+                    if (!this.cache.putIfAbsent(key, value, ttl)) {
+                        return "EXISTS";
+                    }
+                    invalidate(key);
+                    replicate("PUT " + key + " " + expireAt + " " + value);
+                    return "OK";
+                }
+                case "CAS" -> {
+                    // CAS <key> <version> <value> [ttl], the version comes from GETS
+                    String[] args = line.split(" ");
+                    long version;
+                    long casTtl = 0;
+                    try {
+                        if (args.length < 4 || args.length > 5) return "ERROR_USAGE_CAS";
+                        version = Long.parseLong(args[2]);
+                        if (args.length == 5) casTtl = Long.parseLong(args[4]);
+                    } catch (NumberFormatException e) {
+                        return "ERROR_USAGE_CAS";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    long expireAt = casTtl > 0 ? System.currentTimeMillis() + casTtl : 0;
+                    long result = this.cache.compareAndSet(args[1], version, args[3], casTtl);
+                    if (result == LRUCache.CAS_NOT_FOUND) {
+                        return "NOT_FOUND";
+                    }
+                    if (result == LRUCache.CAS_CONFLICT) {
+                        return "EXISTS";
+                    }
+                    invalidate(args[1]);
+                    replicate("PUT " + args[1] + " " + expireAt + " " + args[3]);
+                    return "OK " + result;
+                }
+                case "INCR", "DECR", "INCRBY" -> {
+                    // INCR|DECR <key> [ttl], INCRBY <key> <delta> [ttl]. the ttl only applies to a new counter
+                    String[] args = line.split(" ");
+                    int ttlAt = command.equals("INCRBY") ? 3 : 2;
+                    long delta;
+                    long incrTtl;
+                    try {
+                        if (args.length < ttlAt || args.length > ttlAt + 1 || args[1].isEmpty()) return "ERROR_USAGE_" + command;
+                        delta = command.equals("INCR") ? 1 : command.equals("DECR") ? -1 : Long.parseLong(args[2]);
+                        incrTtl = args.length == ttlAt + 1 ? Long.parseLong(args[ttlAt]) : 0;
+                    } catch (NumberFormatException e) {
+                        return "ERROR_USAGE_" + command;
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    long result;
+                    try {
+                        result = this.cache.incrementBy(args[1], delta, incrTtl);
+                    } catch (NumberFormatException e) {
+                        return "ERROR_NOT_A_NUMBER";
+                    } catch (ArithmeticException e) {
+                        return "ERROR_OVERFLOW";
+                    }
+                    invalidate(args[1]);
+                    // the result rather than the increment: a replica whose snapshot already counted it
+                    // replays the op from the backlog, and the counter keeps its window
+                    long counterExpireAt = this.cache.expireAt(args[1]);
+                    if (counterExpireAt < 0) replicate("DEL " + args[1]);
+                    else replicate("PUT " + args[1] + " " + counterExpireAt + " " + result);
                     return "VALUE " + result;
                 }
+                case "TAGPUT" -> {
+                    // TAGPUT <key> <value> <ttl> <tag>[,<tag>...]
+                    String[] args = line.split(" ");
+                    long tagTtl;
+                    try {
+                        if (args.length != 5 || args[1].isEmpty() || args[2].isEmpty() || args[4].isEmpty()) return "ERROR_USAGE_TAGPUT";
+                        tagTtl = Long.parseLong(args[3]);
+                    } catch (NumberFormatException e) {
+                        return "ERROR_USAGE_TAGPUT";
+                    }
+                    if (tagTtl < 0) {
+                        return "ERROR_USAGE_TAGPUT";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    long expireAt = tagTtl > 0 ? System.currentTimeMillis() + tagTtl : 0;
+                    // tags are per namespace like keys
+                    String[] tags = args[4].split(",");
+                    for (int i = 0; i < tags.length; i++) {
+                        tags[i] = qualify(state, tags[i]);
+                    }
+                    this.cache.put(args[1], args[2], tagTtl, tags);
+                    invalidate(args[1]);
+                    replicate("TAGPUT " + args[1] + " " + expireAt + " " + String.join(",", tags) + " " + args[2]);
+                    return "OK";
+                }
+                case "INVALIDATETAG" -> {
+                    if (key == null || key.isEmpty() || value != null) {
+                        return "ERROR_USAGE_INVALIDATETAG";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    this.cache.invalidateTag(key);
+                    replicate("INVALIDATETAG " + key);
+                    return "OK";
+                }
+                case "SCAN" -> {
+                    // SCAN <prefix> [cursor] [count], cursor 0 starts at the first key
+                    if (!this.cache.isKeyIndexEnabled()) {
+                        return "ERROR_SCAN_DISABLED";
+                    }
+                    String[] args = line.split(" ");
+                    int count = SCAN_DEFAULT_COUNT;
+                    try {
+                        if (args.length < 2 || args.length > 4 || args[1].isEmpty()) return "ERROR_USAGE_SCAN";
+                        if (args.length == 4) count = Integer.parseInt(args[3]);
+                    } catch (NumberFormatException e) {
+                        return "ERROR_USAGE_SCAN";
+                    }
+                    String cursor = args.length > 2 ? args[2] : "0";
+                    if (cursor.startsWith(">")) cursor = ">" + qualify(state, cursor.substring(1));
+                    // a cursor is the last key of the page before, so it always has the prefix
+                    if (count <= 0 || count > SCAN_MAX_COUNT || !(cursor.equals("0") || cursor.startsWith(">" + args[1]))) {
+                        return "ERROR_USAGE_SCAN";
+                    }
+                    return scanPage(args[1], cursor, count);
+                }
+                case "DELPREFIX" -> {
+                    if (!this.cache.isKeyIndexEnabled()) {
+                        return "ERROR_SCAN_DISABLED";
+                    }
+                    if (key == null || key.isEmpty() || value != null) {
+                        return "ERROR_USAGE_DELPREFIX";
+                    }
+                    if (replicaLink != null) {
+                        return "ERROR_READONLY_REPLICA";
+                    }
+                    SnapshotSync sync = snapshotSync;
+                    if (sync != null) sync.deletingPrefix(key);
+                    return deletePrefix(state, key, key, true, 0);
+                }
+                case "REPLICATE" -> {
+                    if (shards != null) {
+                        return "ERROR_REPLICATION_DISABLED";
+                    }
+                    return startReplicaSync(state);
+                }
+                case "SYNC" -> {
+                    return startSync(state);
+                }
+                case "SYNCINFO" -> {
+                    return "SYNCINFO " + syncInfo();
+                }
+                case "REPLINFO" -> {
+                    return "REPLINFO " + replicationInfo();
+                }
+                case "PROMOTE" -> {
+                    if (replicaLink == null) return "ERROR_NOT_REPLICA";
+                    promote();
+                    return "OK";
+                }
+                case "SELECT" -> {
+                    if (!namespaces) {
+                        return "ERROR_NAMESPACES_DISABLED";
+                    }
+                    if (key == null || key.isEmpty() || value != null || key.indexOf(NS_SEPARATOR) != -1) {
+                        return "ERROR_USAGE_SELECT";
+                    }
+                    // pushes name keys without their namespace, so they must all come from one
+                    if (state.tracking) {
+                        return "ERROR_TRACKING_ON";
+                    }
+                    state.namespace = key.equals(DEFAULT_NAMESPACE) ? null : key;
+                    return "OK";
+                }
+                case "QUOTA" -> {
+                    // QUOTA <namespace> <entries>, local to this node
+                    if (!namespaces) {
+                        return "ERROR_NAMESPACES_DISABLED";
+                    }
+                    long quota;
+                    try {
+                        quota = value == null ? -1 : Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        quota = -1;
+                    }
+                    if (key == null || key.isEmpty() || quota < 0 || key.indexOf(NS_SEPARATOR) != -1) {
+                        return "ERROR_USAGE_QUOTA";
+                    }
+                    this.cache.getNamespaces().setQuota(key, quota);
+                    return "OK";
+                }
+                case "NSINFO" -> {
+                    // NSINFO [namespace], the connection's own by default
+                    if (!namespaces) {
+                        return "ERROR_NAMESPACES_DISABLED";
+                    }
+                    if (value != null) {
+                        return "ERROR_USAGE_NSINFO";
+                    }
+                    String name = key != null && !key.isEmpty() ? key
+                            : state.namespace != null ? state.namespace : DEFAULT_NAMESPACE;
+                    return "NSINFO " + this.cache.getNamespaces().namespace(name);
+                }
+                case "TRACKING" -> {
+                    if ("ON".equalsIgnoreCase(key)) {
+                        // invalidations would have to reach connections on every loop
+                        if (shards != null) {
+                            return "ERROR_TRACKING_DISABLED";
+                        }
+                        state.tracking = true;
+                        // pushes are small unsolicited writes, nagle would hold them back behind an unacked response
+                        ((SocketChannel) state.selectionKey.channel()).setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    } else if ("OFF".equalsIgnoreCase(key)) {
+                        state.tracking = false;
+                        untrackAll(state);
+                    } else {
+                        return "ERROR_USAGE_TRACKING";
+                    }
+                    return "OK";
+                }
+                case "HOTKEYS", "HOTSEGMENTS" -> {
+                    if (!this.cache.isHotKeyTrackingEnabled()) {
+                        return "ERROR_HOTKEYS_DISABLED";
+                    }
+                    // a sketch of topK keys cannot rank more than topK, nor a table more segments than it has
+                    int max = command.equals("HOTKEYS") ? this.cache.hotKeyCapacity() : this.cache.segmentCount();
+                    int n = Math.min(DEFAULT_HOT_KEYS, max);
+                    if (key != null && !key.isEmpty()) {
+                        try {
+                            n = Integer.parseInt(key);
+                        } catch (NumberFormatException e) {
+                            return "ERROR_USAGE_" + command;
+                        }
+                        if (n < 1 || n > max) {
+                            return "ERROR_USAGE_" + command;
+                        }
+                    }
+                    List<?> report = command.equals("HOTKEYS") ? this.cache.hotKeys(n) : this.cache.hotSegments(n);
+                    StringBuilder sb = new StringBuilder(command);
+                    for (var entry : report) {
+                        sb.append(' ').append(entry);
+                    }
+                    return sb.toString();
+                }
                 default -> {
                     return "ERROR_UNKNOWN_COMMAND";
                 }
@@ -252,6 +1300,10 @@ public class AsyncServer {
         }
     }
 
+    public int trackedKeyCount() {
+        return trackingTable.size();
+    }
+
     public int getPort() {
         try {
             if (serverSocketChannel != null && serverSocketChannel.isOpen()) {
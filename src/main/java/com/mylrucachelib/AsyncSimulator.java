@@ -19,25 +19,40 @@ import java.util.logging.Logger;
 
 public class AsyncSimulator implements Callable<Stats> {
     private static final String HOST = "localhost";
+    private static final double WRITE_PROBABILITY = 0.3;
     private final int port;
     private final int clientCount;
     private int activeClients;
     private final AtomicInteger successfulRequests = new AtomicInteger(0);
     private final AtomicInteger failedRequests = new AtomicInteger(0);
     private final AtomicLong latency = new AtomicLong(0);
+    private final AtomicInteger remoteRequests = new AtomicInteger(0);
+    private final AtomicInteger nearCacheHits = new AtomicInteger(0);
     private final int reqsPerClient;
+    private final int nearCacheSize;
     private Selector selector;
     private final List<List<String>> allClientCommands;
     private static final Logger logger = Logger.getLogger(AsyncSimulator.class.getName());
 
     public AsyncSimulator(int port, int clientCount, int requestsPerClient, int keyRange) {
+        this(port, clientCount, requestsPerClient, keyRange, 0);
+    }
+
+    // nearCacheSize > 0 gives every client a local cache kept coherent by server pushes
+    public AsyncSimulator(int port, int clientCount, int requestsPerClient, int keyRange, int nearCacheSize) {
+        this(port, clientCount, requestsPerClient, keyRange, nearCacheSize, WRITE_PROBABILITY);
+    }
+
+    public AsyncSimulator(int port, int clientCount, int requestsPerClient, int keyRange, int nearCacheSize,
+                          double writeProbability) {
         this.port = port;
+        this.nearCacheSize = nearCacheSize;
         this.clientCount = clientCount;
         this.activeClients = clientCount;
         this.reqsPerClient = requestsPerClient;
         this.allClientCommands = new java.util.ArrayList<>();
         for(int i = 0; i < clientCount; i++) {
-            allClientCommands.add(generateCommands(requestsPerClient, keyRange));
+            allClientCommands.add(generateCommands(requestsPerClient, keyRange, writeProbability));
         }
         LoggerSetup.setupLogger(AsyncSimulator.class.getName(), "simulator.log", false);
     }
@@ -51,6 +66,14 @@ public class AsyncSimulator implements Callable<Stats> {
         long latency;
         int successfulReqs = 0;
         int failedReqs = 0;
+        int remoteReqs = 0;
+        int nearHits = 0;
+        // near cache mode only
+        LRUCacheSegment<String,String> nearCache;
+        boolean trackingSent;
+        boolean awaitingTrackingAck;
+        String inflightGetKey;
+        long inflightTtlMs;
         public ClientState(List<String> commands) {
             this.commands = commands;
         }
@@ -65,6 +88,7 @@ public class AsyncSimulator implements Callable<Stats> {
                 channel.configureBlocking(false);
                 channel.connect(new InetSocketAddress(HOST, port));
                 ClientState state = new ClientState(allClientCommands.get(i));
+                if (nearCacheSize > 0) state.nearCache = new LRUCacheSegment<>(nearCacheSize);
                 channel.register(selector, SelectionKey.OP_CONNECT, state);
             }
             long start = System.nanoTime();
@@ -128,14 +152,25 @@ public class AsyncSimulator implements Callable<Stats> {
         SocketChannel channel = (SocketChannel) key.channel();
         ClientState state = (ClientState) key.attachment();
         if (state.writeBuffer.position() == 0) {
-            if (state.currentRequestIndex >= state.commands.size()) {
-                updateGlobalStats(state);
-                channel.close();
-                key.cancel();
-                activeClients--;
-                return;
+            String command;
+            if (state.nearCache != null && !state.trackingSent) {
+                command = "TRACKING ON\n";
+                state.trackingSent = true;
+                state.awaitingTrackingAck = true;
+            } else {
+                if (state.nearCache != null) serveFromNearCache(state);
+                if (state.currentRequestIndex >= state.commands.size()) {
+                    updateGlobalStats(state);
+                    channel.close();
+                    key.cancel();
+                    activeClients--;
+                    return;
+                }
+                String next = state.commands.get(state.currentRequestIndex);
+                if (state.nearCache != null) prepareRemote(state, next);
+                state.remoteReqs++;
+                command = next + "\n";
             }
-            String command = state.commands.get(state.currentRequestIndex) + "\n";
             state.writeBuffer
                     .put(command.getBytes(StandardCharsets.UTF_8))
                     .flip(); // prepare buf to be read from
@@ -189,13 +224,33 @@ public class AsyncSimulator implements Callable<Stats> {
                 break;
             }
             // \n found, get the line
-            foundLine = true;
             int lineLength = newlineIdx - position;
             byte[] lineBytes = new byte[lineLength];
             state.readBuffer.get(lineBytes);
             state.readBuffer.get();
 
             String response = new String(lineBytes, StandardCharsets.UTF_8).trim();
+            if (state.nearCache != null) {
+                if (response.startsWith("INVALIDATE ")) {
+                    state.nearCache.remove(response.substring("INVALIDATE ".length()));
+                    continue;
+                }
+                if (response.startsWith("TTL ")) {
+                    state.inflightTtlMs = Long.parseLong(response.substring(response.lastIndexOf(' ') + 1));
+                    continue;
+                }
+                if (state.awaitingTrackingAck) {
+                    state.awaitingTrackingAck = false;
+                    foundLine = true;
+                    continue;
+                }
+                if (state.inflightGetKey != null && response.startsWith("VALUE ")) {
+                    state.nearCache.put(state.inflightGetKey, response.substring("VALUE ".length()), state.inflightTtlMs);
+                }
+                state.inflightGetKey = null;
+                state.inflightTtlMs = 0;
+            }
+            foundLine = true;
             processResponse(state, response);
             state.currentRequestIndex++;
             if (state.currentRequestIndex >= state.commands.size()) {
@@ -221,15 +276,50 @@ public class AsyncSimulator implements Callable<Stats> {
             state.failedReqs++;
         }
     }
+    // answers the gets the near cache can serve without a round trip, stops at the first remote command
+    private void serveFromNearCache(ClientState state) {
+        while (state.currentRequestIndex < state.commands.size()) {
+            String command = state.commands.get(state.currentRequestIndex);
+            if (!command.startsWith("get ")) return;
+            long start = System.nanoTime();
+            String value = state.nearCache.get(command.substring(4));
+            if (value == null) return;
+            state.latency += System.nanoTime() - start;
+            state.successfulReqs++;
+            state.nearHits++;
+            state.currentRequestIndex++;
+        }
+    }
+
+    private void prepareRemote(ClientState state, String command) {
+        if (command.startsWith("get ")) {
+            state.inflightGetKey = command.substring(4);
+        } else if (command.startsWith("put ")) {
+            int keyEnd = command.indexOf(' ', 4);
+            state.nearCache.remove(keyEnd == -1 ? command.substring(4) : command.substring(4, keyEnd));
+        }
+    }
+
     private void updateGlobalStats(ClientState state) {
         this.latency.addAndGet(state.latency);
         this.successfulRequests.addAndGet(state.successfulReqs);
         this.failedRequests.addAndGet(state.failedReqs);
+        this.remoteRequests.addAndGet(state.remoteReqs);
+        this.nearCacheHits.addAndGet(state.nearHits);
+    }
+
+    // requests that went over the network, the tracking handshake not included
+    public int getRemoteRequests() {
+        return remoteRequests.get();
+    }
+
+    public int getNearCacheHits() {
+        return nearCacheHits.get();
     }
-    private List<String> generateCommands(int requests, int keyRange) {
+    private List<String> generateCommands(int requests, int keyRange, double writeProbability) {
         List<String> cmds = new ArrayList<>(requests);
         for (int i = 0; i < requests; i++) {
-            if (ThreadLocalRandom.current().nextDouble() < 0.3) { // 30% write chance
+            if (ThreadLocalRandom.current().nextDouble() < writeProbability) {
                 int key = ThreadLocalRandom.current().nextInt(keyRange);
                 cmds.add("put key" + key + " value" + i);
             } else {
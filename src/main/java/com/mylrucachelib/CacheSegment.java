@@ -0,0 +1,255 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.PersistentCache;
+
+import java.util.NavigableSet;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToLongFunction;
+
+// common base of the segment types an LRUCache can be built from.
+// operations that only make sense for the linked-list segment throw by default.
+public abstract class CacheSegment<K,V> {
+    // told about keys the segment drops on its own (eviction, expiry), runs under the segment lock
+    volatile Consumer<? super K> removalHook;
+    // takes live entries evicted for capacity, which then count as moved rather than removed. runs
+    // under the segment lock
+    volatile LRUCacheSegment.EntryConsumer<K,V> spillHook;
+    // queues every entry that leaves the segment for the removal listener, called under the segment lock
+    volatile RemovalDispatcher<K,V> removals;
+    // writes and removes are marked dirty under the segment lock, dirty keys are never evicted
+    volatile WriteBehind<K,V> writeBehind;
+    // ordered keys for range scans, shared by all segments. a key goes in with its entry and out when
+    // the entry leaves, both under the segment lock
+    volatile NavigableSet<K> keyIndex;
+    // generations of the cache's tags, an entry whose tag was invalidated after its write counts as expired
+    volatile TagVersions tagVersions;
+    // quotas of the tenants sharing the cache, every entry is booked to its key's namespace under the
+    // segment lock
+    volatile Namespaces<K> namespaces;
+
+    public record Metrics(int capacity, int size, long hits, long misses, long evictions,
+                          long acquisitions, long contended) {
+        long pressure() {
+            return misses + evictions;
+        }
+    }
+
+    // value of a live entry with the version of its last write, the token for compareAndSet
+    public record Versioned<V>(V value, long version) {}
+
+    public abstract V get(K key);
+
+    public abstract Versioned<V> getVersioned(K key);
+
+    public abstract void put(K key, V value, long ttlMs);
+
+    public void put(K key, V value) {
+        put(key, value, 0);
+    }
+
+    // false when the key was not there
+    public abstract boolean remove(K key);
+
+    // sets a new ttl on a live entry and counts as a use, ttlMs <= 0 lets it live forever.
+    // false when there is no live entry
+    public abstract boolean touch(K key, long ttlMs);
+
+    // true when the value went in, false when a live entry was there
+    public boolean putIfAbsent(K key, V value, long ttlMs) {
+        return putIfAbsentCounting(key, value, ttlMs, true) >= 0;
+    }
+
+    // swaps the value of a live entry equal to expected, the expiry stays
+    public abstract boolean replace(K key, V expected, V value);
+
+    // writes the value if the live entry is still at that version. returns the new version, or
+    // LRUCache.CAS_NOT_FOUND / LRUCache.CAS_CONFLICT
+    public abstract long compareAndSet(K key, long version, V value, long ttlMs);
+
+    // the function sees the live value or null and runs under the segment lock, so it has to be
+    // quick and must not touch the cache. null removes the entry, a present one keeps its expiry
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        Object[] result = new Object[1];
+        computeCounting(key, (k, v) -> {
+            V value = function.apply(k, v);
+            result[0] = value;
+            return value;
+        });
+        @SuppressWarnings("unchecked") V value = (V) result[0];
+        return value;
+    }
+
+    // adds delta to the number stored under key and returns the sum, see LRUCache.incrementBy
+    public long incrementBy(K key, long delta, long ttlMs) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep counters");
+    }
+
+    // put of an entry carrying tags, stamped with the tag generation read before the write. returns the
+    // growth like putCounting
+    int putTagged(K key, V value, long ttlMs, String[] tags, long stamp) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not tag entries");
+    }
+
+    // tags of the live entry without touching recency, null when it has none or is not there
+    String[] tagsOf(K key) {
+        return null;
+    }
+
+    // compute returning the growth like putCounting, -1 when an entry was removed
+    abstract int computeCounting(K key, BiFunction<? super K, ? super V, ? extends V> function);
+
+    // presence of a live entry without touching recency or the hit counters
+    abstract boolean containsKey(K key);
+
+    // value of a live entry without touching recency or the hit counters
+    abstract V peek(K key);
+
+    // absolute expiry of a live entry, 0 when it has none and -1 when it is not there. not a use either
+    abstract long expireAt(K key);
+
+    public abstract int size();
+
+    public abstract int capacity();
+
+    public abstract int cleanupExpired(int sampleSize);
+
+    public abstract void forEach(LRUCacheSegment.EntryConsumer<K,V> action);
+
+    // forEach with the tagged entries it leaves out, for callers that must see every key
+    void forEachIncludingTagged(LRUCacheSegment.EntryConsumer<K,V> action) {
+        forEach(action);
+    }
+
+    public abstract boolean checkSizeInvariance();
+
+    // returns the counters of the window since the previous call and starts a new one
+    public abstract Metrics drainMetrics();
+
+    // returns how much the segment grew: 1 for a new key, 0 for an update or an insert that evicted
+    abstract int putCounting(K key, V value, long ttlMs);
+
+    // adds the entry as most recently used unless the key is live already. returns the growth like
+    // putCounting, -1 when the key was there. write false keeps it out of write-behind, for entries
+    // coming back from the disk tier
+    abstract int putIfAbsentCounting(K key, V value, long ttlMs, boolean write);
+
+    // snapshot restore, see PersistentCache.restore. an entry colder than everything in a full segment is dropped
+    // returns 1 when the entry was added, like putCounting. idleMs counts back from the nanoTime now
+    abstract int restore(K key, V value, long ttlMs, long idleMs, int hits, long now);
+
+    // the segment's entries as recency runs, see PersistentCache.forEachRun. idle times are taken at the
+    // nanoTime now, the same for every segment of a snapshot
+    abstract void forEachRun(PersistentCache.RunConsumer<K,V> action, long now);
+
+    // marks the entry as recently used and hands it to the action while the segment is still locked
+    abstract boolean promote(K key, LRUCacheSegment.EntryConsumer<K,V> action);
+
+    // expires the entries a tag invalidation made stale for good, see TagVersions.prune
+    void expireStaleTags() {}
+
+    void setRemovalHook(Consumer<? super K> hook) {
+        this.removalHook = hook;
+    }
+
+    void setSpillHook(LRUCacheSegment.EntryConsumer<K,V> hook) {
+        this.spillHook = hook;
+    }
+
+    // an evicted entry goes to the spill hook if there is one, expired and tagged ones are removed either
+    // way. a spilled key stays in the key index
+    void notifyEvicted(K key, V value, long expireAtMs, boolean drop) {
+        LRUCacheSegment.EntryConsumer<K,V> spill = spillHook;
+        if (spill != null && !drop) {
+            spill.accept(key, value, expireAtMs);
+        } else {
+            unindexKey(key);
+            notifyRemoved(key);
+        }
+    }
+
+    void indexKey(K key) {
+        NavigableSet<K> index = keyIndex;
+        if (index != null) index.add(key);
+    }
+
+    void unindexKey(K key) {
+        NavigableSet<K> index = keyIndex;
+        if (index != null) index.remove(key);
+    }
+
+    void setRemovals(RemovalDispatcher<K,V> removals) {
+        this.removals = removals;
+    }
+
+    void notifyListener(K key, V value, RemovalCause cause) {
+        RemovalDispatcher<K,V> dispatcher = removals;
+        if (dispatcher != null) dispatcher.add(key, value, cause);
+    }
+
+    void setWriteBehind(WriteBehind<K,V> writeBehind) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot hold back dirty entries");
+    }
+
+    // guarded by the segment lock, a null value marks a delete
+    void markDirty(K key, V value) {
+        WriteBehind<K,V> dirty = writeBehind;
+        if (dirty != null) dirty.markDirty(key, value);
+    }
+
+    void notifyRemoved(K key) {
+        Consumer<? super K> hook = removalHook;
+        if (hook != null) hook.accept(key);
+    }
+
+    public void setCapacity(int newCapacity) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has a fixed capacity");
+    }
+
+    void setTrackAccess(boolean track) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not track access time");
+    }
+
+    void setWeigher(ToIntBiFunction<? super K, ? super V> weigher, long maxWeight) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not weigh entries");
+    }
+
+    // how counter values are read from and turned back into V
+    void setCounters(ToLongFunction<? super V> parse, LongFunction<? extends V> format) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep counters");
+    }
+
+    // indexes the keys already there and every one added from now on
+    void setKeyIndex(NavigableSet<K> index) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not index keys");
+    }
+
+    // books the entries already there to their namespaces, and every one added from now on
+    void setNamespaces(Namespaces<K> namespaces) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep namespaces");
+    }
+
+    // drops a key from the index unless the segment holds it or elsewhere (the disk tier) does
+    void pruneIndex(K key, Predicate<? super K> elsewhere) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not index keys");
+    }
+
+    long weight() {
+        return 0;
+    }
+
+    CacheSegment<K,V>[] split(int bit) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be split");
+    }
+
+    long lruAccessTime() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not track access time");
+    }
+
+    boolean evictOldest() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support sampled eviction");
+    }
+}
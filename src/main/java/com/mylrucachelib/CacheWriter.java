@@ -0,0 +1,12 @@
+package com.mylrucachelib;
+
+import java.util.Map;
+import java.util.Set;
+
+// backing store of a write-behind cache. each call gets the latest write per key since the last batch,
+// a throw leaves the whole batch dirty and it comes again, so both have to be safe to repeat
+public interface CacheWriter<K,V> {
+    void writeAll(Map<K,V> entries) throws Exception;
+
+    void deleteAll(Set<K> keys) throws Exception;
+}
@@ -0,0 +1,486 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.PersistentCache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+// CLOCK (second chance) over preallocated parallel arrays. a hit only sets the slot's reference bit,
+// so reads never take the lock; writers and the clock hand are serialized by it.
+public class ClockCacheSegment<K,V> extends CacheSegment<K,V> {
+    private static final Object NULL_KEY = new Object();
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    // most slots a snapshot looks at per lock hold
+    private static final int SNAPSHOT_SLICE = 512;
+
+    private final int capacity;
+    private final Object[] keys;
+    private final Object[] values;
+    private final long[] expireAt;
+    // written under the lock, read under it too
+    private final long[] versions;
+    private long lastVersion;
+    private final byte[] referenced;
+    private final ConcurrentHashMap<Object, Integer> index;
+    private final int[] freeSlots;
+    private int freeCount;
+    private int hand;
+    private int cleanupCursor;
+    private final Lock lock = new ReentrantLock();
+    private final TimeSource clock;
+
+    // guarded by lock, reads are not counted to keep them free of shared writes
+    private long evictions;
+    private long acquisitions;
+    private long contended;
+
+    public ClockCacheSegment(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    public ClockCacheSegment(int capacity, TimeSource clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.clock = clock;
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+        this.expireAt = new long[capacity];
+        this.versions = new long[capacity];
+        this.referenced = new byte[capacity];
+        this.index = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmask(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    private void lockCounted() {
+        if (!lock.tryLock()) {
+            lock.lock();
+            contended++;
+        }
+        acquisitions++;
+    }
+
+    private boolean isExpired(int slot) {
+        long expiry = expireAt[slot];
+        return expiry != 0 && clock.currentTimeMillis() > expiry;
+    }
+
+    // the key is written before the value is released, so a reader that saw the value also sees its key.
+    // a slot reused under the reader's feet shows a different key and is reported as a miss.
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Object masked = mask(key);
+        Integer slot = index.get(masked);
+        if (slot == null) return null;
+        int s = slot;
+        Object value = VALUES.getAcquire(values, s);
+        if (!masked.equals(keys[s]) || isExpired(s)) return null;
+        if (referenced[s] == 0) referenced[s] = 1;
+        return (V) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V peek(K key) {
+        Object masked = mask(key);
+        Integer slot = index.get(masked);
+        if (slot == null) return null;
+        int s = slot;
+        Object value = VALUES.getAcquire(values, s);
+        if (!masked.equals(keys[s]) || isExpired(s)) return null;
+        return (V) value;
+    }
+
+    @Override
+    long expireAt(K key) {
+        lock.lock();
+        try {
+            Integer slot = index.get(mask(key));
+            return slot == null || isExpired(slot) ? -1 : expireAt[slot];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under the lock, unlike get, so the value and its version belong together
+    @Override
+    @SuppressWarnings("unchecked")
+    public Versioned<V> getVersioned(K key) {
+        lock.lock();
+        try {
+            Integer slot = index.get(mask(key));
+            if (slot == null || isExpired(slot)) return null;
+            referenced[slot] = 1;
+            return new Versioned<>((V) values[slot], versions[slot]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean promote(K key, LRUCacheSegment.EntryConsumer<K,V> action) {
+        lock.lock();
+        try {
+            Integer slot = index.get(mask(key));
+            if (slot == null || isExpired(slot)) return false;
+            referenced[slot] = 1;
+            action.accept(key, (V) values[slot], expireAt[slot]);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(K key, V value, long ttlMs) {
+        putCounting(key, value, ttlMs);
+    }
+
+    @Override
+    int putCounting(K key, V value, long ttlMs) {
+        lockCounted();
+        try {
+            return putLocked(mask(key), value, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // write-behind is not supported here, so write only matters to the linked-list segment
+    @Override
+    int putIfAbsentCounting(K key, V value, long ttlMs, boolean write) {
+        Object masked = mask(key);
+        lockCounted();
+        try {
+            Integer existing = index.get(masked);
+            if (existing != null && !isExpired(existing)) return -1;
+            return putLocked(masked, value, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean touch(K key, long ttlMs) {
+        lockCounted();
+        try {
+            Integer slot = index.get(mask(key));
+            if (slot == null || isExpired(slot)) return false;
+            expireAt[slot] = expiryFor(ttlMs);
+            referenced[slot] = 1;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V expected, V value) {
+        Object masked = mask(key);
+        lockCounted();
+        try {
+            Integer slot = index.get(masked);
+            if (slot == null || isExpired(slot) || !Objects.equals(values[slot], expected)) return false;
+            putLocked(masked, value, expireAt[slot]);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long compareAndSet(K key, long version, V value, long ttlMs) {
+        Object masked = mask(key);
+        lockCounted();
+        try {
+            Integer slot = index.get(masked);
+            if (slot == null || isExpired(slot)) return LRUCache.CAS_NOT_FOUND;
+            if (versions[slot] != version) return LRUCache.CAS_CONFLICT;
+            putLocked(masked, value, expiryFor(ttlMs));
+            return versions[slot];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    int computeCounting(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        Object masked = mask(key);
+        lockCounted();
+        try {
+            Integer slot = index.get(masked);
+            boolean live = slot != null && !isExpired(slot);
+            V value = function.apply(key, live ? (V) values[slot] : null);
+            if (value != null) return putLocked(masked, value, live ? expireAt[slot] : 0);
+            if (!live) return 0;
+            V old = (V) values[slot];
+            clearSlot(slot);
+            notifyListener(key, old, RemovalCause.EXPLICIT);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long expiryFor(long ttlMs) {
+        return ttlMs <= 0 ? 0 : clock.currentTimeMillis() + ttlMs;
+    }
+
+    // guarded by lock, expiry is absolute
+    @SuppressWarnings("unchecked")
+    private int putLocked(Object masked, V value, long expiry) {
+        Integer existing = index.get(masked);
+        if (existing != null) {
+            int s = existing;
+            notifyListener(unmask(masked), (V) values[s], isExpired(s) ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+            versions[s] = ++lastVersion;
+            expireAt[s] = expiry;
+            VALUES.setRelease(values, s, value);
+            referenced[s] = 1;
+            return 0;
+        }
+        int grown = 1;
+        int s;
+        if (freeCount > 0) {
+            s = freeSlots[--freeCount];
+        } else {
+            s = advanceHand();
+            index.remove(keys[s]);
+            evictions++;
+            boolean expired = isExpired(s);
+            notifyEvicted(unmask(keys[s]), (V) values[s], expireAt[s], expired);
+            notifyListener(unmask(keys[s]), (V) values[s], expired ? RemovalCause.EXPIRED : RemovalCause.EVICTED);
+            grown = 0;
+        }
+        keys[s] = masked;
+        expireAt[s] = expiry;
+        versions[s] = ++lastVersion;
+        referenced[s] = 0;
+        VALUES.setRelease(values, s, value);
+        index.put(masked, s);
+        return grown;
+    }
+
+    // a clock has no order to rebuild, the snapshot's hit count comes back as the reference bit
+    @Override
+    int restore(K key, V value, long ttlMs, long idleMs, int hits, long now) {
+        Object masked = mask(key);
+        lock.lock();
+        try {
+            if (index.containsKey(masked) || freeCount == 0) return 0;
+            int s = freeSlots[--freeCount];
+            keys[s] = masked;
+            expireAt[s] = expiryFor(ttlMs);
+            versions[s] = ++lastVersion;
+            referenced[s] = (byte) (hits > 0 ? 1 : 0);
+            VALUES.setRelease(values, s, value);
+            index.put(masked, s);
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    boolean containsKey(K key) {
+        Object masked = mask(key);
+        Integer slot = index.get(masked);
+        if (slot == null) return false;
+        int s = slot;
+        VALUES.getAcquire(values, s); // same ordering as get
+        return masked.equals(keys[s]) && !isExpired(s);
+    }
+
+    @Override
+    public boolean remove(K key) {
+        lock.lock();
+        try {
+            Integer slot = index.get(mask(key));
+            if (slot == null) return false;
+            @SuppressWarnings("unchecked") V value = (V) values[slot];
+            clearSlot(slot);
+            notifyListener(key, value, RemovalCause.EXPLICIT);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // second chance: clear reference bits until an unreferenced slot comes under the hand
+    private int advanceHand() {
+        while (true) {
+            int s = hand;
+            hand = (hand + 1) % capacity;
+            if (referenced[s] == 0 || isExpired(s)) return s;
+            referenced[s] = 0;
+        }
+    }
+
+    private void clearSlot(int s) {
+        index.remove(keys[s]);
+        keys[s] = null;
+        VALUES.setRelease(values, s, null);
+        expireAt[s] = 0;
+        referenced[s] = 0;
+        freeSlots[freeCount++] = s;
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return capacity - freeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public Metrics drainMetrics() {
+        lock.lock();
+        try {
+            Metrics m = new Metrics(capacity, capacity - freeCount, 0, 0, evictions, acquisitions, contended);
+            evictions = acquisitions = contended = 0;
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int cleanupExpired(int sampleSize) {
+        lock.lock();
+        int removed = 0;
+        try {
+            for (int checked = 0; checked < sampleSize && checked < capacity; checked++) {
+                int s = cleanupCursor;
+                cleanupCursor = (cleanupCursor + 1) % capacity;
+                if (keys[s] != null && isExpired(s)) {
+                    K key = unmask(keys[s]);
+                    @SuppressWarnings("unchecked") V value = (V) values[s];
+                    clearSlot(s);
+                    notifyRemoved(key);
+                    notifyListener(key, value, RemovalCause.EXPIRED);
+                    removed++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(LRUCacheSegment.EntryConsumer<K,V> action) {
+        lock.lock();
+        try {
+            for (int s = 0; s < capacity; s++) {
+                Object key = keys[s];
+                if (key != null) {
+                    action.accept(unmask(key), (V) values[s], expireAt[s]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // slots in clock order from the hand on, referenced ones first as they survive the next sweep.
+    // the lock is held for one slice of slots at a time, so a slot that changes between slices is
+    // written as it is when the walk gets there
+    @Override
+    @SuppressWarnings("unchecked")
+    void forEachRun(PersistentCache.RunConsumer<K,V> action, long now) {
+        Object[] sliceKeys = new Object[SNAPSHOT_SLICE];
+        Object[] sliceValues = new Object[SNAPSHOT_SLICE];
+        long[] sliceExpiry = new long[SNAPSHOT_SLICE];
+        int start;
+        lock.lock();
+        try {
+            start = hand;
+        } finally {
+            lock.unlock();
+        }
+        action.startRun();
+        for (int bit = 1; bit >= 0; bit--) {
+            for (int from = 0; from < capacity; from += SNAPSHOT_SLICE) {
+                int n = 0;
+                lock.lock();
+                try {
+                    for (int i = from; i < Math.min(capacity, from + SNAPSHOT_SLICE); i++) {
+                        int s = (start + i) % capacity;
+                        if (keys[s] != null && referenced[s] == bit) {
+                            sliceKeys[n] = keys[s];
+                            sliceValues[n] = values[s];
+                            sliceExpiry[n] = expireAt[s];
+                            n++;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                for (int i = 0; i < n; i++) {
+                    action.accept(unmask(sliceKeys[i]), (V) sliceValues[i], sliceExpiry[i], -1, bit);
+                    sliceKeys[i] = null;
+                    sliceValues[i] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSizeInvariance() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (int s = 0; s < capacity; s++) {
+                if (keys[s] != null) {
+                    Integer slot = index.get(keys[s]);
+                    if (slot == null || slot != s) return false;
+                    count++;
+                }
+            }
+            return count == index.size() && count == capacity - freeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        forEach((key, value, expiry) -> {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append("Slot:[").append(key).append(", ").append(value).append("]");
+        });
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,213 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.Codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// keeps values of threshold bytes or more compressed and inflates them on get. the underlying cache is
+// weighed by what it actually stores, so maxBytes counts compressed sizes. an optional small cache of
+// inflated values spares the hottest keys the decompression; it is not counted against maxBytes
+public class CompressedCache<K,V> {
+    // charged per entry on top of its payload for the node, map entry and holder
+    static final int ENTRY_OVERHEAD = 64;
+    // compressed values have to come out at least this much smaller to be worth inflating later
+    private static final double MIN_SAVING = 0.9;
+
+    private final LRUCache<K, Stored> cache;
+    private final LRUCache<K, Inflated<V>> inflated;
+    private final Codec<V> codec;
+    private final Compressor compressor;
+    private final int threshold;
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final LongAdder inflatedHits = new LongAdder();
+
+    public interface Compressor {
+        byte[] compress(byte[] raw);
+
+        byte[] decompress(byte[] data, int rawLength);
+
+        // deflater and inflater are kept per thread, creating them is what costs
+        static Compressor deflate(int level) {
+            ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+            ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+            return new Compressor() {
+                @Override
+                public byte[] compress(byte[] raw) {
+                    Deflater deflater = deflaters.get();
+                    deflater.reset();
+                    deflater.setInput(raw);
+                    deflater.finish();
+                    byte[] out = new byte[Math.max(64, raw.length / 4)];
+                    int n = 0;
+                    while (!deflater.finished()) {
+                        if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                        n += deflater.deflate(out, n, out.length - n);
+                    }
+                    return Arrays.copyOf(out, n);
+                }
+
+                @Override
+                public byte[] decompress(byte[] data, int rawLength) {
+                    Inflater inflater = inflaters.get();
+                    inflater.reset();
+                    inflater.setInput(data);
+                    byte[] out = new byte[rawLength];
+                    try {
+                        int n = 0;
+                        while (n < rawLength) {
+                            int read = inflater.inflate(out, n, rawLength - n);
+                            if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                                throw new IllegalStateException("Compressed value is truncated");
+                            }
+                            n += read;
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IllegalStateException("Compressed value is corrupt", e);
+                    }
+                    return out;
+                }
+            };
+        }
+    }
+
+    // the value itself below the threshold, its compressed encoding above
+    static final class Stored {
+        final Object value;
+        final int rawLength;
+        final boolean compressed;
+        final int weight;
+
+        Stored(Object value, int rawLength, boolean compressed, int weight) {
+            this.value = value;
+            this.rawLength = rawLength;
+            this.compressed = compressed;
+            this.weight = weight;
+        }
+    }
+
+    // only valid while the main cache still holds the same Stored
+    private record Inflated<V>(Stored source, V value) {}
+
+    public record CompressionStats(long compressions, long rejected, long rawBytes, long compressedBytes,
+                                   long compressNanos, long decompressions, long decompressNanos,
+                                   long inflatedHits) {
+        // raw over compressed bytes of everything compressed so far
+        public double ratio() {
+            return compressedBytes == 0 ? 1.0 : (double) rawBytes / compressedBytes;
+        }
+
+        public double avgCompressMicros() {
+            return compressions + rejected == 0 ? 0 : compressNanos / 1000.0 / (compressions + rejected);
+        }
+
+        public double avgDecompressMicros() {
+            return decompressions == 0 ? 0 : decompressNanos / 1000.0 / decompressions;
+        }
+    }
+
+    public CompressedCache(int capacity, int concurrencyLevel, long maxBytes, Codec<V> codec, int threshold) {
+        this(capacity, concurrencyLevel, maxBytes, codec, threshold, Compressor.deflate(Deflater.BEST_SPEED), 0);
+    }
+
+    // inflatedCapacity 0 goes without the cache of inflated values
+    public CompressedCache(int capacity, int concurrencyLevel, long maxBytes, Codec<V> codec, int threshold,
+                           Compressor compressor, int inflatedCapacity) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Illegal threshold: " + threshold);
+        }
+        if (inflatedCapacity < 0) {
+            throw new IllegalArgumentException("Illegal inflated capacity: " + inflatedCapacity);
+        }
+        this.cache = new LRUCache<>(capacity, concurrencyLevel);
+        this.cache.setWeigher((key, stored) -> stored.weight, maxBytes);
+        this.inflated = inflatedCapacity == 0 ? null : new LRUCache<>(inflatedCapacity, Math.min(concurrencyLevel, inflatedCapacity));
+        this.codec = codec;
+        this.compressor = compressor;
+        this.threshold = threshold;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, 0);
+    }
+
+    public void put(K key, V value, long ttlMs) {
+        cache.put(key, store(value), ttlMs);
+        if (inflated != null) inflated.remove(key);
+    }
+
+    private Stored store(V value) {
+        int size = codec.encodedSize(value);
+        if (size < threshold) {
+            return new Stored(value, size, false, size + ENTRY_OVERHEAD);
+        }
+        ByteBuffer raw = ByteBuffer.allocate(size);
+        codec.encode(value, raw);
+        long start = System.nanoTime();
+        byte[] compressed = compressor.compress(raw.array());
+        compressNanos.add(System.nanoTime() - start);
+        if (compressed.length > size * MIN_SAVING) {
+            rejected.increment();
+            return new Stored(value, size, false, size + ENTRY_OVERHEAD);
+        }
+        compressions.increment();
+        rawBytes.add(size);
+        compressedBytes.add(compressed.length);
+        return new Stored(compressed, size, true, compressed.length + ENTRY_OVERHEAD);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Stored stored = cache.get(key);
+        if (stored == null) return null;
+        if (!stored.compressed) return (V) stored.value;
+        if (inflated != null) {
+            Inflated<V> hit = inflated.get(key);
+            if (hit != null && hit.source() == stored) {
+                inflatedHits.increment();
+                return hit.value();
+            }
+        }
+        long start = System.nanoTime();
+        byte[] raw = compressor.decompress((byte[]) stored.value, stored.rawLength);
+        V value = codec.decode(ByteBuffer.wrap(raw));
+        decompressNanos.add(System.nanoTime() - start);
+        decompressions.increment();
+        if (inflated != null) inflated.put(key, new Inflated<>(stored, value));
+        return value;
+    }
+
+    public boolean remove(K key) {
+        if (inflated != null) inflated.remove(key);
+        return cache.remove(key);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    // bytes held by the entries as counted against maxBytes, compressed where they are
+    public long storedBytes() {
+        return cache.weight();
+    }
+
+    public CompressionStats stats() {
+        return new CompressionStats(compressions.sum(), rejected.sum(), rawBytes.sum(), compressedBytes.sum(),
+                compressNanos.sum(), decompressions.sum(), decompressNanos.sum(), inflatedHits.sum());
+    }
+
+    public void shutdown() {
+        cache.shutdown();
+        if (inflated != null) inflated.shutdown();
+    }
+}
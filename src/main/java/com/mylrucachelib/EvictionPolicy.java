@@ -0,0 +1,10 @@
+package com.mylrucachelib;
+
+public enum EvictionPolicy {
+    // every segment owns a fixed share of the capacity and evicts its own tail
+    SEGMENTED_LRU,
+    // one global capacity, on overflow the oldest of a few sampled segment tails is evicted (Redis-style)
+    SAMPLED_LRU,
+    // fixed share per segment like SEGMENTED_LRU, but each segment is an array-backed CLOCK whose reads are lock-free
+    CLOCK
+}
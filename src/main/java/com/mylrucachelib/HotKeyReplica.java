@@ -0,0 +1,69 @@
+package com.mylrucachelib;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// small read-mostly copy of the hottest entries, read without taking any segment lock.
+// entries are only installed while the owning segment lock is held and writers invalidate
+// after their segment put, so a replica never outlives a newer write.
+public class HotKeyReplica<K,V> {
+    private final int maxKeys;
+    private final ConcurrentHashMap<K, Entry<V>> table;
+    private final LongAdder hits = new LongAdder();
+
+    record Entry<V>(V value, long expireAtMs) {}
+
+    public HotKeyReplica(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Illegal replica size: " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+        this.table = new ConcurrentHashMap<>(maxKeys * 2);
+    }
+
+    // null means "ask the segment", the entry itself may hold a null value
+    Entry<V> get(K key, TimeSource clock) {
+        if (key == null) return null;
+        Entry<V> entry = table.get(key);
+        if (entry == null) return null;
+        if (entry.expireAtMs != 0 && clock.currentTimeMillis() > entry.expireAtMs) {
+            table.remove(key, entry);
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    // must be called under the segment lock that owns the key
+    void install(K key, V value, long expireAtMs) {
+        if (key == null) return;
+        if (table.size() >= maxKeys && !table.containsKey(key)) return;
+        table.put(key, new Entry<>(value, expireAtMs));
+    }
+
+    void invalidate(K key) {
+        if (key == null) return;
+        table.remove(key);
+    }
+
+    void retainAll(Set<K> keys) {
+        table.keySet().retainAll(keys);
+    }
+
+    public boolean contains(K key) {
+        return key != null && table.containsKey(key);
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public int maxKeys() {
+        return maxKeys;
+    }
+}
@@ -0,0 +1,153 @@
+package com.mylrucachelib;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// space-saving top-k sketch over a sliding window made of two buckets (current + previous)
+public class HotKeyTracker<K> {
+    private final int capacity;
+    private final double sampleRate;
+    private final long windowMs;
+    private final TimeSource clock;
+    private Map<K, Counter> current;
+    private Map<K, Counter> previous;
+    private long[] currentSegments;
+    private long[] previousSegments;
+    private long windowStart;
+
+    public record Entry<T>(T item, long count, long error) {
+        @Override
+        public String toString() {
+            return item + "=" + count;
+        }
+    }
+
+    private static class Counter {
+        long count;
+        long error;
+        Counter(long count, long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    public HotKeyTracker(int capacity, double sampleRate, long windowMs, int segments, TimeSource clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal tracker capacity: " + capacity);
+        }
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Illegal sample rate: " + sampleRate);
+        }
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("Illegal window: " + windowMs);
+        }
+        this.capacity = capacity;
+        this.sampleRate = sampleRate;
+        this.windowMs = windowMs;
+        this.clock = clock;
+        this.current = new HashMap<>(capacity * 2);
+        this.previous = new HashMap<>();
+        this.currentSegments = new long[segments];
+        this.previousSegments = new long[segments];
+        this.windowStart = clock.currentTimeMillis();
+    }
+
+    // called on the get/put path, cheap when the access is not sampled
+    public void sample(K key, int segmentIndex) {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        record(key, segmentIndex);
+    }
+
+    private synchronized void record(K key, int segmentIndex) {
+        // the index may come from a segment table newer than our counters
+        if (segmentIndex < currentSegments.length) {
+            currentSegments[segmentIndex]++;
+        }
+        Counter counter = current.get(key);
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+        if (current.size() < capacity) {
+            current.put(key, new Counter(1, 0));
+            return;
+        }
+        // replace the minimum, new key inherits its count as the overestimation error
+        K minKey = null;
+        Counter min = null;
+        for (var e : current.entrySet()) {
+            if (min == null || e.getValue().count < min.count) {
+                min = e.getValue();
+                minKey = e.getKey();
+            }
+        }
+        current.remove(minKey);
+        current.put(key, new Counter(min.count + 1, min.count));
+    }
+
+    public synchronized void rotateIfDue() {
+        long now = clock.currentTimeMillis();
+        if (now - windowStart >= windowMs) {
+            rotate();
+            windowStart = now;
+        }
+    }
+
+    private void rotate() {
+        previous = current;
+        current = new HashMap<>(capacity * 2);
+        previousSegments = currentSegments;
+        currentSegments = new long[previousSegments.length];
+    }
+
+    // segment count changed after a split, the old per-segment numbers no longer map to anything
+    synchronized void resizeSegments(int segments) {
+        currentSegments = new long[segments];
+        previousSegments = new long[segments];
+    }
+
+    public synchronized List<Entry<K>> topKeys(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Illegal count: " + n);
+        }
+        Map<K, Counter> merged = new HashMap<>(previous.size() + current.size());
+        for (var map : List.of(previous, current)) {
+            for (var e : map.entrySet()) {
+                Counter c = merged.computeIfAbsent(e.getKey(), k -> new Counter(0, 0));
+                c.count += e.getValue().count;
+                c.error += e.getValue().error;
+            }
+        }
+        List<Entry<K>> result = new ArrayList<>(merged.size());
+        for (var e : merged.entrySet()) {
+            result.add(new Entry<>(e.getKey(), scale(e.getValue().count), scale(e.getValue().error)));
+        }
+        result.sort(Comparator.comparingLong((Entry<K> e) -> e.count).reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+
+    public synchronized List<Entry<Integer>> topSegments(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Illegal count: " + n);
+        }
+        List<Entry<Integer>> result = new ArrayList<>(currentSegments.length);
+        for (int i = 0; i < currentSegments.length; i++) {
+            long count = currentSegments[i] + (i < previousSegments.length ? previousSegments[i] : 0);
+            if (count > 0) result.add(new Entry<>(i, scale(count), 0));
+        }
+        result.sort(Comparator.comparingLong((Entry<Integer> e) -> e.count).reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized int trackedKeys() {
+        return current.size();
+    }
+
+    private long scale(long sampled) {
+        return Math.round(sampled / sampleRate);
+    }
+}
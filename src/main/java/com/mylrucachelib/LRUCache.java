@@ -1,24 +1,78 @@
 package com.mylrucachelib;
 
+import com.mylrucachelib.persistence.DiskTier;
+import com.mylrucachelib.persistence.PersistentCache;
 import com.mylrucachelib.persistence.Serializer;
 import com.mylrucachelib.persistence.SnapshotManager;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class LRUCache<K,V> {
-    private final LRUCacheSegment<K,V>[] segments;
-    private final int segmentMask;
+public class LRUCache<K,V> implements PersistentCache<K,V> {
+    // compareAndSet outcomes next to the new version, which is always positive
+    public static final long CAS_NOT_FOUND = 0;
+    public static final long CAS_CONFLICT = -1;
+    // replaced as a whole when the cache splits into more segments
+    private volatile CacheSegment<K,V>[] segments;
     private final ScheduledExecutorService janitor;
     private final TimeSource clock;
+    private final EvictionPolicy policy;
+    private final int capacity;
+    private final AtomicInteger globalSize = new AtomicInteger();
+    // puts and removes so far, a snapshot schedule saves once enough of them piled up
+    private final LongAdder writes = new LongAdder();
     private SnapshotManager<K,V> snapshotManager;
+    // one snapshot at a time, the scheduler and the shutdown hook may both want one
+    private final Object saveLock = new Object();
+    private volatile boolean accessMetadata;
+    // the start of a snapshot load, idle times of the file count back from it so that entries restored
+    // later do not look more recent. 0 while no load runs
+    private volatile long restoreAnchor;
+    // loads the cold part of a hot-first restore in the background
+    private volatile Thread restoreThread;
     private Thread shutdownHook;
+    private volatile HotKeyTracker<K> hotKeyTracker;
+    private volatile HotKeyReplica<K,V> replica;
+    private volatile boolean rebalancing;
+    private volatile double splitContentionThreshold;
+    // a weighed segment keeps its budget, so it is never split
+    private volatile boolean weighted;
+    private volatile DiskTier<K,V> diskTier;
+    private volatile WriteBehind<K,V> writeBehind;
+    private volatile NavigableSet<K> keyIndex;
+    private final TagVersions tagVersions = new TagVersions();
+    // invalidated tags recorded before the janitor prunes them, doubles with what a prune leaves
+    private volatile int tagPruneAt = TAG_PRUNE_MIN;
+    private volatile Namespaces<K> namespaces;
+    private volatile Consumer<? super K> removalHook;
+    private volatile int maxSegments;
+    private final int minSegmentCapacity;
+    private static final int EVICTION_SAMPLES = 5;
+    private static final int TAG_PRUNE_MIN = 1024;
     private static final Logger logger = Logger.getLogger(LRUCache.class.getName());
 
     static {
@@ -30,7 +84,11 @@ public class LRUCache<K,V> {
     }
 
     public LRUCache(int capacity, int concurrencyLevel, TimeSource clock) {
-        logger.info("LRUCache initialized. Cap: " + capacity + ", Concurrency: " + concurrencyLevel);
+        this(capacity, concurrencyLevel, clock, EvictionPolicy.SEGMENTED_LRU);
+    }
+
+    public LRUCache(int capacity, int concurrencyLevel, TimeSource clock, EvictionPolicy policy) {
+        logger.info("LRUCache initialized. Cap: " + capacity + ", Concurrency: " + concurrencyLevel + ", Policy: " + policy);
         if (concurrencyLevel <= 0) {
             logger.severe("Concurrency level <= than 0.");
             throw new IllegalArgumentException("Illegal initial concurrency level: " + concurrencyLevel);
@@ -40,6 +98,8 @@ public class LRUCache<K,V> {
             throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
         }
         this.clock = clock;
+        this.policy = policy;
+        this.capacity = capacity;
         int validConcurrencyLevel = 1;
         while (validConcurrencyLevel < concurrencyLevel) {
             validConcurrencyLevel *= 2; // cap should be closest bigger power of 2
@@ -47,8 +107,9 @@ public class LRUCache<K,V> {
         while (validConcurrencyLevel > capacity) {
             validConcurrencyLevel /= 2;
         }
-        this.segments = new LRUCacheSegment[validConcurrencyLevel];
-        this.segmentMask = validConcurrencyLevel - 1;
+        this.segments = newSegmentTable(validConcurrencyLevel);
+        // a donor segment never goes below a quarter of its fair share
+        this.minSegmentCapacity = Math.max(1, capacity / validConcurrencyLevel / 4);
 
         calculateCapacity(capacity, validConcurrencyLevel);
         this.janitor = Executors.newSingleThreadScheduledExecutor(r -> {
@@ -60,42 +121,707 @@ public class LRUCache<K,V> {
     }
     private void performCleanup() {
         for (var segment : segments) {
-            segment.cleanupExpired(20);
+            int removed = segment.cleanupExpired(20);
+            if (policy == EvictionPolicy.SAMPLED_LRU) globalSize.addAndGet(-removed);
+        }
+        if (tagVersions.invalidatedTags() >= tagPruneAt) pruneTags();
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker != null) tracker.rotateIfDue();
+        refreshReplica();
+        if (rebalancing) {
+            try {
+                rebalance();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Rebalancing failed", e);
+            }
         }
     }
     public void shutdown() {
         janitor.shutdown();
+        DiskTier<K,V> tier = diskTier;
+        if (tier != null) tier.close();
+        WriteBehind<K,V> dirty = writeBehind;
+        if (dirty != null) dirty.close();
     }
 
     private void calculateCapacity(int cap, int concLvl) {
+        if (policy == EvictionPolicy.SAMPLED_LRU) {
+            // the global bound is enforced by sampled eviction, a segment may hold all entries
+            for (int i = 0; i < concLvl; i++) {
+                LRUCacheSegment<K,V> segment = new LRUCacheSegment<>(cap, clock, true);
+                segment.tagVersions = tagVersions;
+                segments[i] = segment;
+            }
+            return;
+        }
         int baseCap = cap / concLvl;
         int remainingItems = cap % concLvl;
         for (int i = 0; i < concLvl; i++) {
             if (remainingItems > 0) {
-                segments[i] = new LRUCacheSegment<>(baseCap + 1, clock);
+                segments[i] = newSegment(baseCap + 1);
                 remainingItems--;
             }
-            else segments[i] = new LRUCacheSegment<>(baseCap, clock);
+            else segments[i] = newSegment(baseCap);
+        }
+    }
+
+    private CacheSegment<K,V> newSegment(int cap) {
+        if (policy == EvictionPolicy.CLOCK) {
+            return new ClockCacheSegment<>(cap, clock);
         }
+        LRUCacheSegment<K,V> segment = new LRUCacheSegment<>(cap, clock);
+        segment.tagVersions = tagVersions;
+        return segment;
     }
 
-    private int getSegmentIndex(K key) {
+    static int spread(Object key) {
         int hash = key == null ? 0 : key.hashCode();
-        return (hash ^ (hash >>> 16)) & segmentMask;
+        return hash ^ (hash >>> 16);
+    }
+
+    private CacheSegment<K,V> segmentFor(K key) {
+        CacheSegment<K,V>[] segs = segments;
+        return segs[spread(key) & (segs.length - 1)];
     }
 
+    // index of the segment the key lives in, valid until the next split
+    public int segmentIndexOf(K key) {
+        return spread(key) & (segments.length - 1);
+    }
+
+    @Override
     public void put (K key, V value, long ttlMs) {
-        segments[getSegmentIndex(key)].put(key, value, ttlMs);
+        CacheSegment<K,V>[] segs = segments;
+        int index = spread(key) & (segs.length - 1);
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker != null) tracker.sample(key, index);
+        writes.increment();
+        awaitWriteSpace();
+        // before the put, so that an older copy can only reach the disk by being evicted after it
+        DiskTier<K,V> tier = diskTier;
+        if (tier != null) tier.remove(key);
+        if (policy == EvictionPolicy.SAMPLED_LRU) {
+            if (segs[index].putCounting(key, value, ttlMs) > 0 && globalSize.incrementAndGet() > capacity) {
+                evictSampled(segs);
+            }
+        } else {
+            segs[index].put(key, value, ttlMs);
+        }
+        HotKeyReplica<K,V> replica = this.replica;
+        if (replica != null) replica.invalidate(key);
     }
 
     public void put(K key, V value) {
-        segments[getSegmentIndex(key)].put(key, value);
+        put(key, value, 0);
+    }
+
+    // a put whose entry goes away with invalidateTag of any of its tags. tagged entries are derived
+    // data: they skip the disk tier and snapshots, which keep no tags
+    public void put(K key, V value, long ttlMs, String... tags) {
+        if (tags.length == 0) {
+            put(key, value, ttlMs);
+            return;
+        }
+        if (policy == EvictionPolicy.CLOCK) {
+            throw new IllegalStateException("Tags do not apply to " + EvictionPolicy.CLOCK);
+        }
+        for (String tag : tags) {
+            if (tag == null) throw new IllegalArgumentException("Null tag");
+        }
+        awaitWriteSpace();
+        DiskTier<K,V> tier = diskTier;
+        if (tier != null) tier.remove(key);
+        // read before the write, so an invalidation that overlaps it always wins
+        long stamp = tagVersions.stamp();
+        grew(segmentFor(key).putTagged(key, value, ttlMs, tags.clone(), stamp));
+        afterWrite(key);
+    }
+
+    // every entry written with the tag before this call turns into a miss. constant time however many
+    // entries carry the tag, the stale ones are dropped as gets, evictions and the janitor come across them
+    public void invalidateTag(String tag) {
+        if (tag == null) throw new IllegalArgumentException("Null tag");
+        tagVersions.invalidate(tag);
+    }
+
+    // once every entry an invalidation made stale is expired for good, the invalidation is not needed any
+    // more. a pass over every entry, hence only once the records have doubled since the last one
+    void pruneTags() {
+        long floor = tagVersions.raiseFloor();
+        for (var segment : segments) {
+            segment.expireStaleTags();
+        }
+        int left = tagVersions.prune(floor);
+        tagPruneAt = Math.max(TAG_PRUNE_MIN, 2 * left);
+    }
+
+    public int invalidatedTagCount() {
+        return tagVersions.invalidatedTags();
+    }
+
+    // tags of the live entry, null when it was put without any or is not there
+    public String[] tagsOf(K key) {
+        String[] tags = segmentFor(key).tagsOf(key);
+        return tags == null ? null : tags.clone();
+    }
+
+    public boolean remove(K key) {
+        awaitWriteSpace();
+        boolean inMemory = segmentFor(key).remove(key);
+        boolean removed = inMemory;
+        DiskTier<K,V> tier = diskTier;
+        if (tier != null && tier.remove(key)) removed = true;
+        if (removed) writes.increment();
+        // a key only the tier held was never counted
+        if (inMemory && policy == EvictionPolicy.SAMPLED_LRU) globalSize.decrementAndGet();
+        HotKeyReplica<K,V> replica = this.replica;
+        if (replica != null) replica.invalidate(key);
+        return removed;
+    }
+
+    // a live entry on the disk tier comes back into memory first, so the conditional operations below
+    // see it like any other entry
+    private CacheSegment<K,V> segmentLoaded(K key) {
+        DiskTier<K,V> tier = diskTier;
+        if (tier != null && !segmentFor(key).containsKey(key)) promote(tier, key);
+        return segmentFor(key);
+    }
+
+    private void afterWrite(K key) {
+        writes.increment();
+        HotKeyReplica<K,V> replica = this.replica;
+        if (replica != null) replica.invalidate(key);
+    }
+
+    private void awaitWriteSpace() {
+        WriteBehind<K,V> dirty = writeBehind;
+        if (dirty != null) dirty.awaitSpace();
+    }
+
+    // keeps the global count of the sampled policy in step with an insert or a removal
+    private void grew(int grown) {
+        if (policy != EvictionPolicy.SAMPLED_LRU || grown == 0) return;
+        if (globalSize.addAndGet(grown) > capacity) evictSampled(segments);
+    }
+
+    public boolean touch(K key, long ttlMs) {
+        if (!segmentLoaded(key).touch(key, ttlMs)) return false;
+        // a replica copy would keep the old expiry
+        afterWrite(key);
+        return true;
+    }
+
+    public boolean putIfAbsent(K key, V value) {
+        return putIfAbsent(key, value, 0);
+    }
+
+    public boolean putIfAbsent(K key, V value, long ttlMs) {
+        awaitWriteSpace();
+        int grown = segmentLoaded(key).putIfAbsentCounting(key, value, ttlMs, true);
+        if (grown < 0) return false;
+        grew(grown);
+        afterWrite(key);
+        return true;
+    }
+
+    public boolean replace(K key, V expected, V value) {
+        awaitWriteSpace();
+        if (!segmentLoaded(key).replace(key, expected, value)) return false;
+        afterWrite(key);
+        return true;
+    }
+
+    public CacheSegment.Versioned<V> getVersioned(K key) {
+        return segmentLoaded(key).getVersioned(key);
+    }
+
+    // one round trip optimistic update: the version comes from getVersioned, a write in between
+    // makes this return CAS_CONFLICT
+    public long compareAndSet(K key, long version, V value, long ttlMs) {
+        awaitWriteSpace();
+        long result = segmentLoaded(key).compareAndSet(key, version, value, ttlMs);
+        if (result > 0) afterWrite(key);
+        return result;
+    }
+
+    // see CacheSegment.compute, the function runs under the segment lock
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        awaitWriteSpace();
+        Object[] result = new Object[1];
+        int grown = segmentLoaded(key).computeCounting(key, (k, v) -> {
+            V value = function.apply(k, v);
+            result[0] = value;
+            return value;
+        });
+        grew(grown);
+        afterWrite(key);
+        @SuppressWarnings("unchecked") V value = (V) result[0];
+        return value;
+    }
+
+    // adds delta to the number stored under key and returns the sum. a missing or expired key starts
+    // from zero with ttlMs, a live one keeps its expiry, so a ttl turns the key into a fixed-window
+    // rate limiter. a live counter is a CAS away from the next increment, only its first increment
+    // parses the value. throws what parse throws for a value that is not a number and
+    // ArithmeticException when the sum overflows
+    public long incrementBy(K key, long delta, long ttlMs) {
+        awaitWriteSpace();
+        long value = segmentLoaded(key).incrementBy(key, delta, ttlMs);
+        afterWrite(key);
+        return value;
+    }
+
+    public long increment(K key) {
+        return incrementBy(key, 1, 0);
+    }
+
+    public long writeCount() {
+        return writes.sum();
+    }
+
+    // the live value without counting as a use: no recency, no hit or miss, nothing promoted from the
+    // disk tier. a probe that never queues behind the segment's writers
+    public V peek(K key) {
+        return segmentFor(key).peek(key);
+    }
+
+    // absolute expiry in ms of the entry in memory, 0 when it never expires and -1 when it is not there
+    public long expireAt(K key) {
+        return segmentFor(key).expireAt(key);
+    }
+
+    // peek that also reads the disk tier, leaving the entry there
+    public V getIfPresentQuietly(K key) {
+        V value = segmentFor(key).peek(key);
+        if (value != null) return value;
+        DiskTier<K,V> tier = diskTier;
+        return tier == null ? null : tier.get(key);
+    }
+
+    // in memory or in the disk tier, quiet like peek
+    public boolean containsKey(K key) {
+        if (segmentFor(key).containsKey(key)) return true;
+        DiskTier<K,V> tier = diskTier;
+        return tier != null && tier.containsKey(key);
+    }
+
+    // the hook sees keys dropped by eviction or expiry, not overwrites or explicit removes.
+    // it runs under a segment lock, so it has to be quick and must not call back into the cache
+    public synchronized void setRemovalHook(Consumer<? super K> hook) {
+        this.removalHook = hook;
+        for (var segment : segments) {
+            segment.setRemovalHook(hook);
+        }
+    }
+
+    // every entry that leaves memory with its cause, delivered in order and in batches on the executor.
+    // unlike the removal hook this never runs under a segment lock and it also sees overwrites and
+    // explicit removes. null detaches the listener
+    public synchronized void setRemovalListener(RemovalListener<? super K, ? super V> listener, Executor executor) {
+        RemovalDispatcher<K,V> dispatcher = listener == null ? null : new RemovalDispatcher<>(listener, executor);
+        for (var segment : segments) {
+            segment.setRemovals(dispatcher);
+        }
+    }
+
+    public void setRemovalListener(RemovalListener<? super K, ? super V> listener) {
+        setRemovalListener(listener, ForkJoinPool.commonPool());
+    }
+
+    // entries evicted for capacity move to the disk tier instead of being lost, a miss in memory looks
+    // there and moves a hit back in as most recently used. the removal hook then hears about keys the
+    // tier loses rather than about evictions. the tier has to use the cache's clock
+    public synchronized void enableDiskTier(DiskTier<K,V> tier) {
+        tier.setDropHook(key -> {
+            Consumer<? super K> hook = removalHook;
+            if (hook != null) hook.accept(key);
+        });
+        for (var segment : segments) {
+            segment.setSpillHook(tier::put);
+        }
+        this.diskTier = tier;
+        logger.info("Disk tier enabled");
+    }
+
+    // puts and removes reach the writer in coalesced batches from a background thread, see WriteBehind.
+    // dirty entries are not evicted until they are flushed. shutdown flushes what is left
+    public synchronized void enableWriteBehind(CacheWriter<K,V> writer, int batchSize, long flushIntervalMs, int maxDirty) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Write-behind only applies to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        if (writeBehind != null) {
+            throw new IllegalStateException("Write-behind already enabled");
+        }
+        WriteBehind<K,V> dirty = new WriteBehind<>(writer, batchSize, flushIntervalMs, maxDirty);
+        for (var segment : segments) {
+            segment.setWriteBehind(dirty);
+        }
+        this.writeBehind = dirty;
+        logger.info("Write-behind enabled. Batch: " + batchSize + ", interval: " + flushIntervalMs + "ms");
+    }
+
+    // lets incrementBy treat values as numbers, parse reads the value a counter starts from and format
+    // turns the number back into a value whenever the entry is read
+    public synchronized void enableCounters(ToLongFunction<? super V> parse, LongFunction<? extends V> format) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Counters only apply to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        for (var segment : segments) {
+            segment.setCounters(parse, format);
+        }
+    }
+
+    // keeps the keys in a skip list in comparator order for scan, at the price of a skip list insert and
+    // remove per entry. keys spilled to the disk tier stay in it, but only those spilled after this call
+    public synchronized void enableKeyIndex(Comparator<? super K> comparator) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Key index only applies to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        if (keyIndex != null) {
+            throw new IllegalStateException("Key index already enabled");
+        }
+        NavigableSet<K> index = new ConcurrentSkipListSet<>(comparator);
+        for (var segment : segments) {
+            segment.setKeyIndex(index);
+        }
+        this.keyIndex = index;
+    }
+
+    // shares the cache between the namespaces namespaceOf puts keys in, quotas are set on the returned
+    // Namespaces. entries already there are booked right away
+    public synchronized Namespaces<K> enableNamespaces(Function<? super K, String> namespaceOf) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Namespaces only apply to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        if (namespaces != null) {
+            throw new IllegalStateException("Namespaces already enabled");
+        }
+        Namespaces<K> spaces = new Namespaces<>(namespaceOf);
+        for (var segment : segments) {
+            segment.setNamespaces(spaces);
+        }
+        this.namespaces = spaces;
+        return spaces;
+    }
+
+    // null until enableNamespaces
+    public Namespaces<K> getNamespaces() {
+        return namespaces;
+    }
+
+    public boolean isKeyIndexEnabled() {
+        return keyIndex != null;
+    }
+
+    // up to count live keys in index order from from (null for the first one) to before to (null for no
+    // end). the walk holds no lock, each key is checked with a short hold of its segment's lock. pass the
+    // last key of a page with inclusive false to get the next one
+    public List<K> scan(K from, boolean inclusive, K to, int count) {
+        NavigableSet<K> index = keyIndex;
+        if (index == null) {
+            throw new IllegalStateException("Key index is not enabled");
+        }
+        if (count <= 0) {
+            throw new IllegalArgumentException("Illegal count: " + count);
+        }
+        NavigableSet<K> range;
+        if (from == null) range = to == null ? index : index.headSet(to, false);
+        else range = to == null ? index.tailSet(from, inclusive) : index.subSet(from, inclusive, to, false);
+        List<K> keys = new ArrayList<>(Math.min(count, 1024));
+        DiskTier<K,V> tier = diskTier;
+        for (K key : range) {
+            if (containsKey(key)) {
+                keys.add(key);
+                if (keys.size() == count) break;
+            } else if (tier != null) {
+                // the tier drops keys without telling the index
+                segmentFor(key).pruneIndex(key, tier::containsKey);
+            }
+        }
+        return keys;
+    }
+
+    public WriteBehind<K,V> getWriteBehind() {
+        return writeBehind;
+    }
+
+    public DiskTier<K,V> getDiskTier() {
+        return diskTier;
+    }
+
+    private V promote(DiskTier<K,V> tier, K key) {
+        DiskTier.Hit<V> hit = tier.take(key);
+        if (hit == null) return null;
+        long ttlMs = 0;
+        if (hit.expireAt() != 0) {
+            ttlMs = hit.expireAt() - clock.currentTimeMillis();
+            if (ttlMs <= 0) return null;
+        }
+        // a put that got in since the miss is newer and stays
+        CacheSegment<K,V>[] segs = segments;
+        int grown = segs[spread(key) & (segs.length - 1)].putIfAbsentCounting(key, hit.value(), ttlMs, false);
+        if (grown > 0 && policy == EvictionPolicy.SAMPLED_LRU && globalSize.incrementAndGet() > capacity) {
+            evictSampled(segs);
+        }
+        return hit.value();
     }
 
     public V get(K key) {
-        return segments[getSegmentIndex(key)].get(key);
+        CacheSegment<K,V>[] segs = segments;
+        int index = spread(key) & (segs.length - 1);
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker != null) tracker.sample(key, index);
+        HotKeyReplica<K,V> replica = this.replica;
+        HotKeyReplica.Entry<V> entry = replica == null ? null : replica.get(key, clock);
+        V value = entry != null ? entry.value() : segs[index].get(key);
+        if (value == null) {
+            DiskTier<K,V> tier = diskTier;
+            if (tier != null) value = promote(tier, key);
+        }
+        Namespaces<K> spaces = namespaces;
+        if (spaces != null) {
+            Namespaces.Namespace space = spaces.of(key);
+            (value != null ? space.hits : space.misses).increment();
+        }
+        return value;
+    }
+
+    public void enableHotKeyTracking(int topK, double sampleRate, long windowMs) {
+        this.hotKeyTracker = new HotKeyTracker<>(topK, sampleRate, windowMs, segments.length, clock);
+        logger.info("Hot key tracking enabled. Top: " + topK + ", sample rate: " + sampleRate);
+    }
+
+    public void disableHotKeyTracking() {
+        this.hotKeyTracker = null;
+    }
+
+    public List<HotKeyTracker.Entry<K>> hotKeys(int n) {
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker == null) {
+            throw new IllegalStateException("Hot key tracking is not enabled");
+        }
+        return tracker.topKeys(n);
+    }
+
+    public List<HotKeyTracker.Entry<Integer>> hotSegments(int n) {
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker == null) {
+            throw new IllegalStateException("Hot key tracking is not enabled");
+        }
+        return tracker.topSegments(n);
+    }
+
+    // adaptive mode: the top tracked keys are copied into a lock-free replica consulted before the segment
+    public void enableHotKeyReplication(int maxKeys) {
+        if (hotKeyTracker == null) {
+            throw new IllegalStateException("Hot key replication requires hot key tracking");
+        }
+        this.replica = new HotKeyReplica<>(maxKeys);
+        logger.info("Hot key replication enabled. Max keys: " + maxKeys);
+    }
+
+    public void disableHotKeyReplication() {
+        this.replica = null;
+    }
+
+    public HotKeyReplica<K,V> getHotKeyReplica() {
+        return replica;
+    }
+
+    public void refreshReplica() {
+        HotKeyReplica<K,V> replica = this.replica;
+        HotKeyTracker<K> tracker = this.hotKeyTracker;
+        if (replica == null || tracker == null) return;
+        Set<K> hot = new HashSet<>();
+        for (var entry : tracker.topKeys(replica.maxKeys())) {
+            hot.add(entry.item());
+        }
+        replica.retainAll(hot);
+        for (K key : hot) {
+            // installs under the segment lock, so a concurrent put either happens before and is seen,
+            // or happens after and invalidates the fresh copy
+            if (!segmentFor(key).promote(key, replica::install)) {
+                replica.invalidate(key);
+            }
+        }
+    }
+
+    // the most keys hotKeys can report, 0 without tracking
+    public int hotKeyCapacity() {
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        return tracker == null ? 0 : tracker.capacity();
+    }
+
+    public boolean isHotKeyTrackingEnabled() {
+        return hotKeyTracker != null;
+    }
+
+    // samples a few segment tails and evicts the one accessed longest ago until back under capacity
+    private void evictSampled(CacheSegment<K,V>[] segs) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (globalSize.get() > capacity) {
+            CacheSegment<K,V> oldest = null;
+            long oldestTime = Long.MAX_VALUE;
+            int samples = Math.min(EVICTION_SAMPLES, segs.length);
+            int start = random.nextInt(segs.length);
+            for (int i = 0; i < samples; i++) {
+                CacheSegment<K,V> candidate = segs[(start + i * 7) & (segs.length - 1)];
+                long accessTime = candidate.lruAccessTime();
+                if (accessTime < oldestTime) {
+                    oldestTime = accessTime;
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null || !oldest.evictOldest()) {
+                // every sampled segment was empty, fall back to the first one that is not
+                boolean evicted = false;
+                for (var segment : segs) {
+                    if (segment.evictOldest()) {
+                        evicted = true;
+                        break;
+                    }
+                }
+                if (!evicted) return;
+            }
+            globalSize.decrementAndGet();
+        }
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    // moves capacity from segments with little miss/eviction pressure to the ones under the most,
+    // and splits every segment in two when lock contention stays above the threshold
+    public void enableRebalancing(double splitContentionThreshold, int maxSegments) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Rebalancing only applies to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        this.splitContentionThreshold = splitContentionThreshold;
+        this.maxSegments = maxSegments;
+        this.rebalancing = true;
+        logger.info("Rebalancing enabled. Split threshold: " + splitContentionThreshold + ", max segments: " + maxSegments);
+    }
+
+    public void disableRebalancing() {
+        this.rebalancing = false;
+    }
+
+    public synchronized void rebalance() {
+        CacheSegment<K,V>[] segs = segments;
+        int n = segs.length;
+        CacheSegment.Metrics[] metrics = new CacheSegment.Metrics[n];
+        long acquisitions = 0;
+        long contended = 0;
+        for (int i = 0; i < n; i++) {
+            metrics[i] = segs[i].drainMetrics();
+            acquisitions += metrics[i].acquisitions();
+            contended += metrics[i].contended();
+        }
+        if (splitContentionThreshold > 0 && acquisitions > 0
+                && (double) contended / acquisitions > splitContentionThreshold
+                && n * 2 <= maxSegments) {
+            if (splitSegments()) return;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(metrics[a].pressure(), metrics[b].pressure()));
+        int[] capacities = new int[n];
+        for (int i = 0; i < n; i++) capacities[i] = metrics[i].capacity();
+        // the calmest segments each donate a slice to the busiest one still evicting
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            int donor = order[lo];
+            int receiver = order[hi];
+            if (metrics[receiver].pressure() <= 2 * metrics[donor].pressure() + 16) break;
+            if (metrics[receiver].evictions() == 0) { // misses alone, more room would not help
+                hi--;
+                continue;
+            }
+            int step = Math.min(Math.max(1, capacities[donor] / 16), capacities[donor] - minSegmentCapacity);
+            if (step > 0) {
+                // shrink first so the total never exceeds the configured capacity
+                capacities[donor] -= step;
+                segs[donor].setCapacity(capacities[donor]);
+                capacities[receiver] += step;
+                segs[receiver].setCapacity(capacities[receiver]);
+            }
+            lo++;
+        }
+    }
+
+    // java cannot create a generic array, the raw one only ever holds segments of this cache
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K,V> CacheSegment<K,V>[] newSegmentTable(int length) {
+        return new CacheSegment[length];
+    }
+
+    // online split: each segment is moved into two successors under its own lock only,
+    // calls routed through the old table are forwarded until the new table is published
+    public synchronized boolean splitSegments() {
+        if (policy != EvictionPolicy.SEGMENTED_LRU || weighted) return false;
+        CacheSegment<K,V>[] old = segments;
+        int n = old.length;
+        for (var segment : old) {
+            if (segment.capacity() < 2) return false;
+        }
+        CacheSegment<K,V>[] next = newSegmentTable(n * 2);
+        for (int i = 0; i < n; i++) {
+            CacheSegment<K,V>[] halves = old[i].split(n);
+            next[i] = halves[0];
+            next[i + n] = halves[1];
+        }
+        this.segments = next;
+        HotKeyTracker<K> tracker = hotKeyTracker;
+        if (tracker != null) tracker.resizeSegments(next.length);
+        logger.info("Split cache into " + next.length + " segments");
+        return true;
+    }
+
+    // bounds the summed weight of the entries (bytes, usually) on top of their count. the budget is shared
+    // out in proportion to the segment capacities and every segment evicts from its lru end to stay
+    // within its share. segments stop splitting from then on. a null weigher lifts the budget
+    public synchronized void setWeigher(ToIntBiFunction<? super K, ? super V> weigher, long maxWeight) {
+        if (policy != EvictionPolicy.SEGMENTED_LRU) {
+            throw new IllegalStateException("Weighing only applies to " + EvictionPolicy.SEGMENTED_LRU);
+        }
+        if (weigher != null && maxWeight <= 0) {
+            throw new IllegalArgumentException("Illegal max weight: " + maxWeight);
+        }
+        CacheSegment<K,V>[] segs = segments;
+        long total = 0;
+        for (var segment : segs) total += segment.capacity();
+        for (var segment : segs) {
+            long share = weigher == null ? 0 : Math.max(1, (long) ((double) maxWeight * segment.capacity() / total));
+            segment.setWeigher(weigher, share);
+        }
+        this.weighted = weigher != null;
+    }
+
+    // summed weight of the entries, 0 without a weigher
+    public long weight() {
+        long weight = 0;
+        for (var segment : segments) {
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    public int[] segmentCapacities() {
+        CacheSegment<K,V>[] segs = segments;
+        int[] capacities = new int[segs.length];
+        for (int i = 0; i < segs.length; i++) {
+            capacities[i] = segs[i].capacity();
+        }
+        return capacities;
     }
 
+    @Override
     public int size() {
         int size = 0;
         for (var s : segments) {
@@ -108,7 +834,7 @@ public class LRUCache<K,V> {
         for (var s : segments) {
             if (!s.checkSizeInvariance()) return false;
         }
-        return true;
+        return policy != EvictionPolicy.SAMPLED_LRU || size() <= capacity;
     }
 
     @Override
@@ -116,28 +842,135 @@ public class LRUCache<K,V> {
         return Arrays.toString(segments);
     }
 
+    @Override
     public void forEach(LRUCacheSegment.EntryConsumer<K,V> action) {
         for (var segment : segments) {
             segment.forEach(action);
         }
     }
-    
+
+    // tagged entries never go into snapshots, so forEach leaves them out. this one does not
+    public void forEachIncludingTagged(LRUCacheSegment.EntryConsumer<K,V> action) {
+        for (var segment : segments) {
+            segment.forEachIncludingTagged(action);
+        }
+    }
+
+    @Override
+    public void forEachRun(RunConsumer<K,V> action) {
+        // one instant for all segments, or the later ones would look idler than they are
+        long now = System.nanoTime();
+        for (var segment : segments) {
+            segment.forEachRun(action, now);
+        }
+    }
+
+    @Override
+    public void restore(K key, V value, long ttlMs, long idleMs, int hits) {
+        long anchor = restoreAnchor;
+        long now = anchor != 0 ? anchor : System.nanoTime();
+        CacheSegment<K,V>[] segs = segments;
+        int index = spread(key) & (segs.length - 1);
+        if (policy == EvictionPolicy.SAMPLED_LRU) {
+            // colder than everything already in, snapshot entries never push others out of a full cache
+            if (globalSize.get() >= capacity) return;
+            if (segs[index].restore(key, value, ttlMs, idleMs, hits, now) > 0) globalSize.incrementAndGet();
+        } else {
+            segs[index].restore(key, value, ttlMs, idleMs, hits, now);
+        }
+    }
+
+    // keeps last access time and hit count per entry and writes them into snapshots, so a restore can
+    // rebuild the recency order across segments and sampled eviction compares the right ages.
+    // call before enablePersistence for the load to use them
+    public synchronized void enableAccessMetadata() {
+        if (policy == EvictionPolicy.CLOCK) {
+            throw new IllegalStateException("CLOCK segments keep only a reference bit");
+        }
+        for (var segment : segments) {
+            segment.setTrackAccess(true);
+        }
+        this.accessMetadata = true;
+        if (snapshotManager != null) snapshotManager.setAccessMetadata(true);
+    }
+
     public void enablePersistence(String filePath, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        this.snapshotManager = new SnapshotManager<>(filePath, keySerializer, valueSerializer, clock);
+        enablePersistence(filePath, keySerializer, valueSerializer, 1.0);
+    }
+
+    // loads the most recently used hotFraction of every segment before returning, the rest follows on a
+    // background thread. keys written meanwhile are newer and are not overwritten by the snapshot
+    public void enablePersistence(String filePath, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                  double hotFraction) {
+        if (hotFraction <= 0 || hotFraction > 1) {
+            throw new IllegalArgumentException("Illegal hot fraction: " + hotFraction);
+        }
+        SnapshotManager<K,V> manager = new SnapshotManager<>(filePath, keySerializer, valueSerializer, clock);
+        manager.setAccessMetadata(accessMetadata);
+        this.snapshotManager = manager;
+        restoreAnchor = System.nanoTime();
         try {
-            this.snapshotManager.load(this);
+            if (hotFraction == 1.0) {
+                manager.load(this);
+                restoreAnchor = 0;
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int hot = manager.loadHot(this, hotFraction);
+            logger.info("Hot set of " + hot + " entries restored in " + (System.currentTimeMillis() - start) + "ms");
         } catch (IOException e) {
+            restoreAnchor = 0;
             logger.severe("Failed to load snapshot: " + e.getMessage());
             throw new UncheckedIOException("Failed to load snapshot ", e);
         }
+        Thread loader = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                int cold = manager.loadCold(this, hotFraction);
+                logger.info("Remaining " + cold + " entries restored in " + (System.currentTimeMillis() - start) + "ms");
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to load the rest of the snapshot", e);
+            } finally {
+                restoreAnchor = 0;
+            }
+        }, "Snapshot-Restore");
+        loader.setDaemon(true);
+        this.restoreThread = loader;
+        loader.start();
     }
-    
+
+    public boolean isRestoring() {
+        Thread loader = restoreThread;
+        return loader != null && loader.isAlive();
+    }
+
     public void saveSnapshot() throws IOException {
-        if (snapshotManager != null) {
+        saveSnapshotCounted();
+    }
+
+    SnapshotManager<K,V> snapshotManager() {
+        return snapshotManager;
+    }
+
+    // returns the number of entries saved, -1 without persistence
+    int saveSnapshotCounted() throws IOException {
+        Thread loader = restoreThread;
+        if (loader != null) {
+            // saving half a restore would lose the entries still on their way in
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the snapshot restore", e);
+            }
+        }
+        if (snapshotManager == null) return -1;
+        synchronized (saveLock) {
             long start = System.currentTimeMillis();
-            snapshotManager.save(this);
+            int saved = snapshotManager.save(this);
             long duration = System.currentTimeMillis() - start;
-            logger.info("Snapshot saved in " + duration + "ms");
+            logger.info("Snapshot of " + saved + " entries saved in " + duration + "ms");
+            return saved;
         }
     }
     
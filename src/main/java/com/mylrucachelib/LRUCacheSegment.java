@@ -1,24 +1,98 @@
 package com.mylrucachelib;
 
+import com.mylrucachelib.persistence.PersistentCache;
+
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToLongFunction;
 
-public class LRUCacheSegment<K,V> {
-    private final int capacity;
-    private final Map<K, Node<K,V>> map;
+public class LRUCacheSegment<K,V> extends CacheSegment<K,V> {
+    // most nodes a snapshot walks per lock hold
+    private static final int SNAPSHOT_SLICE = 512;
+    // optimistic reads tried before a reader waits for the writer on the read lock
+    private static final int OPTIMISTIC_READS = 4;
+    private static final Object NULL_KEY = new Object();
+    // what peek finds for a live entry when the value is not asked for
+    private static final Object PRESENT = new Object();
+    // expiry of a tagged entry known to be stale, long past for any clock
+    private static final long STALE = 1;
+    private int capacity;
+    // concurrent so that peek can look a key up while a writer changes the map, every write is still
+    // made under the lock
+    private final Map<Object, Node<K,V>> map;
     private final Node<K,V> head; // mru
     private final Node<K,V> tail; // lru
-    private final Lock lock = new ReentrantLock();
+    // everything that changes the segment takes the write lock, also for get since it moves the entry.
+    // peek and containsKey read optimistically and only check that no write got in between
+    private final StampedLock stamped = new StampedLock();
+    private final Lock lock = stamped.asWriteLock();
+    // held for a whole snapshot walk, keeps a second walk and splits out of it
+    private final Lock snapshotLock = new ReentrantLock();
     private final TimeSource clock;
+    // stamp nodes with System.nanoTime on access so tails can be compared across segments, and count
+    // hits for snapshots. guarded by lock
+    private boolean trackAccessTime;
 
     private Node<K,V> cleanupCursor;
+    // last node placed by restore, the next one of the same run goes behind it
+    private Node<K,V> restoreCursor;
+    // running snapshot, guarded by lock. nodes that predate it carry an older epoch until they are
+    // written out; one that moves, changes or goes before that is copied to preserved first
+    private int snapshotEpoch;
+    private int lastEpoch;
+    private Node<K,V> snapshotCursor;
+    private List<Node<K,V>> preserved;
+    // optional budget on the summed weight of the entries next to their count, guarded by lock
+    private ToIntBiFunction<? super K, ? super V> weigher;
+    private long maxWeight;
+    private long weight;
+    // set once the segment has been split, every operation is forwarded from then on
+    private LRUCacheSegment<K,V>[] successors;
+    private int splitBit;
+    // version of the latest write, successors carry it on so a key's versions only go up. guarded by lock
+    private long lastVersion;
+    // live counters by masked key, read without the lock. entries are added and removed under it
+    private final ConcurrentHashMap<Object, Counter> counters = new ConcurrentHashMap<>();
+    private ToLongFunction<? super V> parseCounter;
+    private LongFunction<? extends V> formatCounter;
+    // per namespace recency of this segment's entries, a sentinel node each. guarded by lock
+    private final Map<Namespaces.Namespace, Node<K,V>> rings = new HashMap<>();
+
+    // pressure counters for the current rebalancing window, guarded by lock
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long acquisitions;
+    private long contended;
+
     private class Node<K,V> {
         final K key;
         V value;
         Node<K,V> prev;
         Node<K,V> next;
         long expireAtMs;
+        long accessedAt;
+        int hits;
+        int epoch;
+        int weight;
+        long version;
+        // set while the entry is a live counter, its number is then the value and node.value is stale
+        Counter counter;
+        // tags of the write and the tag generation it saw, see TagVersions
+        String[] tags;
+        long tagStamp;
+        // namespace the entry is booked to and its place in that namespace's ring
+        Namespaces.Namespace namespace;
+        Node<K,V> nsPrev;
+        Node<K,V> nsNext;
         Node(K key, V value) {
             this(key, value, 0);
         }
@@ -28,8 +102,10 @@ public class LRUCacheSegment<K,V> {
             this.expireAtMs = expireAtMs;
         }
 
+        // also true once a tag of the entry was invalidated, everything treats it as gone from then on
         boolean isExpired() {
-            return expireAtMs != 0 && clock.currentTimeMillis() > expireAtMs;
+            return (expireAtMs != 0 && clock.currentTimeMillis() > expireAtMs)
+                    || (tags != null && tagVersions.isStale(tags, tagStamp));
         }
 
         @Override
@@ -38,17 +114,68 @@ public class LRUCacheSegment<K,V> {
         }
     }
 
+    // number of a counter entry, bumped with a CAS outside the segment lock. whatever needs the value
+    // to hold still (a versioned read, an overwrite, a removal) folds it back into the node under the
+    // lock and leaves DEAD behind, which sends the next increment down the locked path
+    private static final class Counter {
+        static final long DEAD = Long.MIN_VALUE;
+        final AtomicLong value;
+        // mirrors the node's expiry for the lock-free path
+        volatile long expireAtMs;
+        // an increment since the last time eviction looked, the counter then gets a second chance
+        volatile boolean used;
+
+        Counter(long value, long expireAtMs) {
+            this.value = new AtomicLong(value);
+            this.expireAtMs = expireAtMs;
+        }
+
+        boolean isExpired(TimeSource clock) {
+            long expiry = expireAtMs;
+            return expiry != 0 && clock.currentTimeMillis() > expiry;
+        }
+
+        // DEAD when the counter was retired
+        long add(long delta) {
+            while (true) {
+                long current = value.get();
+                if (current == DEAD) return DEAD;
+                long next = sum(current, delta);
+                if (value.compareAndSet(current, next)) {
+                    if (!used) used = true;
+                    return next;
+                }
+            }
+        }
+
+        long retire() {
+            return value.getAndSet(DEAD);
+        }
+
+        // DEAD is taken, so it counts as an overflow too
+        static long sum(long current, long delta) {
+            long next = Math.addExact(current, delta);
+            if (next == DEAD) throw new ArithmeticException("long overflow");
+            return next;
+        }
+    }
+
     public LRUCacheSegment(int capacity) {
         this(capacity, System::currentTimeMillis);
     }
 
     public LRUCacheSegment(int capacity, TimeSource clock) {
+        this(capacity, clock, false);
+    }
+
+    public LRUCacheSegment(int capacity, TimeSource clock, boolean trackAccessTime) {
         this.clock = clock;
+        this.trackAccessTime = trackAccessTime;
         if (capacity <= 0) {
             throw new IllegalArgumentException("Illegal capacity: " + capacity);
         }
         this.capacity = capacity;
-        this.map = new HashMap<>();
+        this.map = new ConcurrentHashMap<>();
         this.head = new Node<>(null, null);
         this.tail = new Node<>(null, null);
         head.next = tail;
@@ -58,18 +185,76 @@ public class LRUCacheSegment<K,V> {
 
     @Override
     public String toString() {
-        List<Node<K,V>> list = new ArrayList<>();
-        Node<K,V> current = this.head;
-        while ((current = current.next) != this.tail) {
-            list.add(current);
+        lock.lock();
+        try {
+            if (successors != null) return Arrays.toString(successors);
+            List<Node<K,V>> list = new ArrayList<>();
+            Node<K,V> current = this.head;
+            while ((current = current.next) != this.tail) {
+                list.add(current);
+            }
+            return list.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    // counts how often the lock was already held by someone else, used as the contention metric
+    private void lockCounted() {
+        if (!lock.tryLock()) {
+            lock.lock();
+            contended++;
         }
-        return list.toString();
+        acquisitions++;
+    }
+
+    private LRUCacheSegment<K,V> successorFor(K key) {
+        return (LRUCache.spread(key) & splitBit) == 0 ? successors[0] : successors[1];
+    }
+
+    // copy-on-write for a running snapshot, keeps the entry as it was when the snapshot started
+    private void preserve(Node<K,V> node) {
+        if (snapshotEpoch == 0 || node.epoch == snapshotEpoch) return;
+        node.epoch = snapshotEpoch;
+        Node<K,V> copy = new Node<>(node.key, valueOf(node), node.expireAtMs);
+        copy.tags = node.tags;
+        copy.accessedAt = node.accessedAt;
+        copy.hits = node.hits;
+        preserved.add(copy);
+    }
+
+    // guarded by lock, the live number of a counter entry
+    private V valueOf(Node<K,V> node) {
+        Counter counter = node.counter;
+        return counter == null ? node.value : formatCounter.apply(counter.value.get());
+    }
+
+    // guarded by lock, turns a counter entry back into a plain one. increments that got in first are in
+    // the value, later ones find the counter dead and queue up on the lock
+    private void retire(Node<K,V> node) {
+        Counter counter = node.counter;
+        if (counter == null) return;
+        node.counter = null;
+        counters.remove(mask(node.key), counter);
+        node.value = formatCounter.apply(counter.retire());
     }
 
     private void removeNode(Node<K,V> node) {
+        preserve(node);
         if (node == cleanupCursor) cleanupCursor = node.prev;
+        if (node == restoreCursor) restoreCursor = null;
+        if (node == snapshotCursor) snapshotCursor = node.prev;
         node.prev.next = node.next;
         node.next.prev = node.prev;
+        if (node.nsPrev != null) {
+            node.nsPrev.nsNext = node.nsNext;
+            node.nsNext.nsPrev = node.nsPrev;
+            node.nsPrev = node.nsNext = null;
+        }
     }
 
     private void addToHead(Node<K,V> node) {
@@ -77,88 +262,930 @@ public class LRUCacheSegment<K,V> {
         node.next = head.next;
         head.next.prev = node;
         head.next = node;
+        if (node.namespace != null) linkRing(node, true);
+    }
+
+    // guarded by lock, at the mru or the lru end of the namespace's ring
+    private void linkRing(Node<K,V> node, boolean mru) {
+        Node<K,V> ring = rings.get(node.namespace);
+        if (ring == null) {
+            ring = new Node<>(null, null);
+            ring.nsPrev = ring.nsNext = ring;
+            rings.put(node.namespace, ring);
+        }
+        Node<K,V> after = mru ? ring : ring.nsPrev;
+        node.nsPrev = after;
+        node.nsNext = after.nsNext;
+        after.nsNext.nsPrev = node;
+        after.nsNext = node;
+    }
+
+    // what an entry counts against its namespace's quota
+    private long units(Node<K,V> node) {
+        return weigher == null ? 1 : node.weight;
+    }
+
+    // guarded by lock, before the new node is linked in
+    private void account(Node<K,V> node, Namespaces.Namespace owner) {
+        if (owner == null) return;
+        node.namespace = owner;
+        owner.used.add(units(node));
+    }
+
+    // guarded by lock, when the node leaves the segment
+    private void unaccount(Node<K,V> node) {
+        if (node.namespace != null) node.namespace.used.add(-units(node));
+    }
+
+    private Namespaces.Namespace namespaceOf(K key) {
+        Namespaces<K> spaces = namespaces;
+        return spaces == null ? null : spaces.of(key);
     }
 
     private void moveToHead(Node<K,V> node) {
         removeNode(node);
         addToHead(node);
+        if (trackAccessTime) {
+            node.accessedAt = System.nanoTime();
+            if (node.hits < Integer.MAX_VALUE) node.hits++;
+        }
     }
 
+    @Override
     public V get(K key) {
-        lock.lock();
+        lockCounted();
         try {
-            if (!map.containsKey(key)) {
+            if (successors != null) return successorFor(key).get(key);
+            Node<K,V> node = map.get(mask(key));
+            // an expired entry stays until the janitor or an eviction gets to it
+            if (node == null || node.isExpired()) {
+                misses++;
                 return null;
             }
-            Node<K,V> node = map.get(key);
+            hits++;
             moveToHead(node); // mru
-            return node.value;
+            return valueOf(node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Versioned<V> getVersioned(K key) {
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).getVersioned(key);
+            Node<K,V> node = map.get(mask(key));
+            if (node == null || node.isExpired()) {
+                misses++;
+                return null;
+            }
+            hits++;
+            moveToHead(node);
+            // the version has to cover the value, so lock-free increments stop here. the next one
+            // starts a new counter under a new version
+            retire(node);
+            return new Versioned<>(node.value, node.version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // bumps recency and hands the live entry to the action while the lock is still held
+    @Override
+    boolean promote(K key, EntryConsumer<K,V> action) {
+        lock.lock();
+        try {
+            if (successors != null) return successorFor(key).promote(key, action);
+            Node<K,V> node = map.get(mask(key));
+            // a copy outside the segment would miss the invalidation of a tag
+            if (node == null || node.isExpired() || node.tags != null) {
+                return false;
+            }
+            moveToHead(node);
+            action.accept(node.key, valueOf(node), node.expireAtMs);
+            return true;
         } finally {
             lock.unlock();
         }
     }
 
-    private void evictLRU() {
+    // the lru entry that may go, dirty ones are passed over until they are flushed. null when there is none
+    private Node<K,V> victim() {
         Node<K,V> lruNode = tail.prev;
-        if (lruNode == head) return;
+        WriteBehind<K,V> dirty = writeBehind;
+        if (dirty != null) {
+            while (lruNode != head && dirty.isDirty(lruNode.key)) {
+                lruNode = lruNode.prev;
+            }
+        }
+        return lruNode == head ? null : lruNode;
+    }
+
+    // room for a new entry of owner. at its quota the owner gives up its own lru entry, below it (or with
+    // none here) the namespace furthest over its quota gives back the lru entry of what it borrowed. without
+    // an owner, or with nothing to take in this segment, the plain lru entry goes
+    private Node<K,V> victim(Namespaces.Namespace owner) {
+        if (owner == null || rings.isEmpty()) return victim();
+        Node<K,V> node = owner.used() >= owner.quota() ? lruOf(rings.get(owner)) : null;
+        if (node != null) return node;
+        Node<K,V> ring = null;
+        long most = 0;
+        for (Map.Entry<Namespaces.Namespace, Node<K,V>> e : rings.entrySet()) {
+            long borrowed = e.getKey().borrowed();
+            if (borrowed > most && e.getValue().nsPrev != e.getValue()) {
+                most = borrowed;
+                ring = e.getValue();
+            }
+        }
+        node = lruOf(ring);
+        return node != null ? node : victim();
+    }
+
+    // the lru entry of a namespace ring that may go, null when there is none
+    private Node<K,V> lruOf(Node<K,V> ring) {
+        if (ring == null) return null;
+        WriteBehind<K,V> dirty = writeBehind;
+        for (Node<K,V> node = ring.nsPrev; node != ring; node = node.nsPrev) {
+            if (dirty == null || !dirty.isDirty(node.key)) return node;
+        }
+        return null;
+    }
+
+    private boolean evictLRU() {
+        return evictLRU(null);
+    }
+
+    // false when nothing could be evicted, with write-behind the segment then stays over capacity
+    // until its dirty entries are flushed
+    private boolean evictLRU(Namespaces.Namespace owner) {
+        Node<K,V> lruNode = victim(owner);
+        // lock-free increments never move a counter, so one that was bumped since gets another round
+        for (int spins = map.size(); spins > 0 && lruNode != null && lruNode.counter != null && lruNode.counter.used; spins--) {
+            lruNode.counter.used = false;
+            moveToHead(lruNode);
+            lruNode = victim(owner);
+        }
+        if (lruNode == null) return false;
+        evict(lruNode);
+        return true;
+    }
+
+    private void evict(Node<K,V> lruNode) {
+        retire(lruNode);
         removeNode(lruNode);
-        map.remove(lruNode.key);
+        map.remove(mask(lruNode.key));
+        weight -= lruNode.weight;
+        unaccount(lruNode);
+        evictions++;
+        if (lruNode.namespace != null) lruNode.namespace.evictions.increment();
+        boolean expired = lruNode.isExpired();
+        // the disk tier keeps no tags, so a tagged entry could not be invalidated there
+        notifyEvicted(lruNode.key, lruNode.value, lruNode.expireAtMs, expired || lruNode.tags != null);
+        notifyListener(lruNode.key, lruNode.value, expired ? RemovalCause.EXPIRED : RemovalCause.EVICTED);
     }
 
-    public void put(K key, V value, long ttlMs) {
+    @Override
+    boolean containsKey(K key) {
+        return peek(key, false) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V peek(K key) {
+        return (V) peek(key, true);
+    }
+
+    // the live value, or PRESENT without withValue, null when there is none. the fields of the node are
+    // read without the lock and only count if no write lock was taken since the stamp, so the value,
+    // expiry and tags all belong to one state of the entry. a reader that keeps losing to writers waits
+    // on the read lock, which writers hold for a handful of pointer moves
+    @SuppressWarnings("unchecked")
+    private Object peek(K key, boolean withValue) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = stamped.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            LRUCacheSegment<K,V> next = successors == null ? null : successorFor(key);
+            Object result = null;
+            try {
+                if (next == null) result = liveValue(map.get(mask(key)), withValue);
+            } catch (RuntimeException e) {
+                // a torn read, e.g. a counter retired in between, the stamp tells
+            }
+            if (stamped.validate(stamp)) {
+                return next != null ? next.peek(key, withValue) : result;
+            }
+        }
+        long stamp = stamped.readLock();
+        try {
+            if (successors != null) return successorFor(key).peek(key, withValue);
+            return liveValue(map.get(mask(key)), withValue);
+        } finally {
+            stamped.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    long expireAt(K key) {
+        long stamp = stamped.readLock();
+        try {
+            if (successors != null) return successorFor(key).expireAt(key);
+            Node<K,V> node = map.get(mask(key));
+            return node == null || node.isExpired() ? -1 : node.expireAtMs;
+        } finally {
+            stamped.unlockRead(stamp);
+        }
+    }
+
+    private Object liveValue(Node<K,V> node, boolean withValue) {
+        if (node == null || node.isExpired()) return null;
+        return withValue ? valueOf(node) : PRESENT;
+    }
+
+    @Override
+    String[] tagsOf(K key) {
+        lock.lock();
+        try {
+            if (successors != null) return successorFor(key).tagsOf(key);
+            Node<K,V> node = map.get(mask(key));
+            return node == null || node.isExpired() ? null : node.tags;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(K key) {
         lock.lock();
         try {
-            long now = clock.currentTimeMillis();
-            long expiry = (ttlMs <= 0) ? 0 : now + ttlMs;
-            if (map.containsKey(key)) {
-                Node<K,V> node = map.get(key);
-                node.value = value;
-                node.expireAtMs = expiry;
-                moveToHead(node); // mru
+            if (successors != null) return successorFor(key).remove(key);
+            // the store may hold the key even when the cache does not
+            markDirty(key, null);
+            Node<K,V> node = map.remove(mask(key));
+            // also when only the disk tier has it, the cache removes it there next
+            unindexKey(key);
+            if (node == null) return false;
+            retire(node);
+            removeNode(node);
+            weight -= node.weight;
+            unaccount(node);
+            notifyListener(node.key, node.value, RemovalCause.EXPLICIT);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean touch(K key, long ttlMs) {
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).touch(key, ttlMs);
+            Node<K,V> node = map.get(mask(key));
+            if (node == null || node.isExpired()) return false;
+            preserve(node);
+            node.expireAtMs = expiryFor(ttlMs);
+            if (node.counter != null) node.counter.expireAtMs = node.expireAtMs;
+            moveToHead(node);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V expected, V value) {
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).replace(key, expected, value);
+            Node<K,V> node = map.get(mask(key));
+            if (node == null || node.isExpired()) return false;
+            retire(node);
+            if (!Objects.equals(node.value, expected)) return false;
+            markDirty(key, value);
+            putLocked(key, value, node.expireAtMs);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long compareAndSet(K key, long version, V value, long ttlMs) {
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).compareAndSet(key, version, value, ttlMs);
+            Node<K,V> node = map.get(mask(key));
+            if (node == null || node.isExpired()) return LRUCache.CAS_NOT_FOUND;
+            if (node.version != version) return LRUCache.CAS_CONFLICT;
+            markDirty(key, value);
+            putLocked(key, value, expiryFor(ttlMs));
+            return node.version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int computeCounting(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).computeCounting(key, function);
+            Node<K,V> node = map.get(mask(key));
+            boolean live = node != null && !node.isExpired();
+            if (live) retire(node);
+            V value = function.apply(key, live ? node.value : null);
+            if (value != null) {
+                markDirty(key, value);
+                return putLocked(key, value, live ? node.expireAtMs : 0);
+            }
+            if (!live) return 0;
+            markDirty(key, null);
+            map.remove(mask(key));
+            unindexKey(key);
+            removeNode(node);
+            weight -= node.weight;
+            unaccount(node);
+            notifyListener(node.key, node.value, RemovalCause.EXPLICIT);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(K key, V value, long ttlMs) {
+        putCounting(key, value, ttlMs);
+    }
+
+    @Override
+    int putCounting(K key, V value, long ttlMs) {
+        lockCounted();
+        try {
+            if (successors != null) {
+                return successorFor(key).putCounting(key, value, ttlMs);
+            }
+            // marked first, so the entry is safe from the eviction making room for it
+            markDirty(key, value);
+            return putLocked(key, value, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int putIfAbsentCounting(K key, V value, long ttlMs, boolean write) {
+        lockCounted();
+        try {
+            if (successors != null) {
+                return successorFor(key).putIfAbsentCounting(key, value, ttlMs, write);
+            }
+            Node<K,V> node = map.get(mask(key));
+            if (node != null && !node.isExpired()) return -1;
+            if (write) markDirty(key, value);
+            return putLocked(key, value, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // increments of a live counter are a CAS and skip the lock. the first one on a key, any after the
+    // counter was retired and all of them under write-behind take the lock, the latter so that the
+    // dirty values reach the store in order
+    @Override
+    public long incrementBy(K key, long delta, long ttlMs) {
+        if (writeBehind == null) {
+            Counter counter = counters.get(mask(key));
+            if (counter != null && !counter.isExpired(clock)) {
+                long value = counter.add(delta);
+                if (value != Counter.DEAD) return value;
+            }
+        }
+        lockCounted();
+        try {
+            if (successors != null) return successorFor(key).incrementBy(key, delta, ttlMs);
+            if (parseCounter == null) {
+                throw new IllegalStateException("Counters are not enabled");
+            }
+            Node<K,V> node = map.get(mask(key));
+            long value;
+            if (node == null || node.isExpired()) {
+                // a new window starts from zero with the given ttl
+                value = Counter.sum(0, delta);
+                V formatted = formatCounter.apply(value);
+                markDirty(key, formatted);
+                putLocked(key, formatted, expiryFor(ttlMs));
+                node = map.get(mask(key));
+            } else if (node.counter == null) {
+                // parsed once, the number stays a number from here on
+                value = Counter.sum(parseCounter.applyAsLong(node.value), delta);
+                node.version = ++lastVersion;
+                moveToHead(node);
+                if (writeBehind != null) markDirty(key, formatCounter.apply(value));
             } else {
-                if (map.size() >= capacity) {
-                    evictLRU();
+                // only retired under this lock, so it is live
+                value = node.counter.add(delta);
+                moveToHead(node);
+                if (writeBehind != null) markDirty(key, formatCounter.apply(value));
+                return value;
+            }
+            node.counter = new Counter(value, node.expireAtMs);
+            // the lock-free path cannot see tags, so a tagged counter is only counted under the lock
+            if (node.tags == null) counters.put(mask(key), node.counter);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int putTagged(K key, V value, long ttlMs, String[] tags, long stamp) {
+        lockCounted();
+        try {
+            if (successors != null) {
+                return successorFor(key).putTagged(key, value, ttlMs, tags, stamp);
+            }
+            markDirty(key, value);
+            int grown = putLocked(key, value, expiryFor(ttlMs));
+            Node<K,V> node = map.get(mask(key));
+            node.tags = tags;
+            node.tagStamp = stamp;
+            // raced a prune and cannot tell whether a pruned invalidation hit it, so it is a miss
+            if (stamp < tagVersions.floor()) node.expireAtMs = STALE;
+            return grown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void expireStaleTags() {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successors[0].expireStaleTags();
+                successors[1].expireStaleTags();
+                return;
+            }
+            for (Node<K,V> node = head.next; node != tail; node = node.next) {
+                if (node.tags != null && tagVersions.isStale(node.tags, node.tagStamp)) node.expireAtMs = STALE;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long expiryFor(long ttlMs) {
+        return ttlMs <= 0 ? 0 : clock.currentTimeMillis() + ttlMs;
+    }
+
+    // guarded by lock, expiry is absolute
+    private int putLocked(K key, V value, long expiry) {
+        if (map.containsKey(mask(key))) {
+            Node<K,V> node = map.get(mask(key));
+            preserve(node);
+            retire(node);
+            notifyListener(node.key, node.value, node.isExpired() ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+            node.value = value;
+            node.expireAtMs = expiry;
+            node.tags = null;
+            node.version = ++lastVersion;
+            moveToHead(node); // mru
+            if (weigher != null) {
+                int w = weigher.applyAsInt(key, value);
+                weight += w - node.weight;
+                if (node.namespace != null) node.namespace.used.add(w - node.weight);
+                node.weight = w;
+                // an entry heavier than the whole budget stays on its own
+                while (weight > maxWeight && tail.prev != node && evictLRU()) {
+                    // until the budget holds or only pinned entries are left
+                }
+            }
+            return 0;
+        }
+        int grown = 1;
+        Namespaces.Namespace owner = namespaceOf(key);
+        // one eviction at a time, more only when a flush unpinned entries of an overfull segment
+        while (map.size() >= capacity && evictLRU(owner)) {
+            grown = 0;
+        }
+        int w = weigher == null ? 0 : weigher.applyAsInt(key, value);
+        while (w > 0 && weight + w > maxWeight && evictLRU(owner)) {
+            grown = 0;
+        }
+        Node<K,V> newNode = new Node<>(key, value, expiry);
+        newNode.version = ++lastVersion;
+        newNode.weight = w;
+        weight += w;
+        account(newNode, owner);
+        newNode.epoch = snapshotEpoch; // not part of a running snapshot
+        if (trackAccessTime) newNode.accessedAt = System.nanoTime();
+        map.put(mask(key), newNode);
+        indexKey(key);
+        addToHead(newNode); // mru
+        return grown;
+    }
+
+    // with access tracking the node goes behind everything used more recently, found by walking from the
+    // previous restore of the run, otherwise it is appended at the lru end
+    @Override
+    int restore(K key, V value, long ttlMs, long idleMs, int hits, long now) {
+        lock.lock();
+        try {
+            if (successors != null) return successorFor(key).restore(key, value, ttlMs, idleMs, hits, now);
+            if (map.containsKey(mask(key))) return 0;
+            long expiry = (ttlMs <= 0) ? 0 : clock.currentTimeMillis() + ttlMs;
+            Node<K,V> node = new Node<>(key, value, expiry);
+            node.hits = hits;
+            node.version = ++lastVersion;
+            node.epoch = snapshotEpoch;
+            Node<K,V> after = tail.prev;
+            if (trackAccessTime && idleMs >= 0) {
+                node.accessedAt = now - idleMs * 1_000_000;
+                Node<K,V> start = restoreCursor != null && restoreCursor.accessedAt >= node.accessedAt ? restoreCursor : head;
+                after = start;
+                while (after.next != tail && after.next.accessedAt >= node.accessedAt) {
+                    after = after.next;
                 }
-                Node<K,V> newNode = new Node<>(key, value, expiry);
-                map.put(key, newNode);
-                addToHead(newNode); // mru
             }
+            int w = weigher == null ? 0 : weigher.applyAsInt(key, value);
+            int grown = 1;
+            Namespaces.Namespace owner = namespaceOf(key);
+            while (!map.isEmpty() && (map.size() >= capacity || (w > 0 && weight + w > maxWeight))) {
+                Node<K,V> victim = victim(owner);
+                if (after == tail.prev || victim == null || victim == after) return 0; // colder than all of it
+                evict(victim);
+                grown = 0;
+            }
+            node.weight = w;
+            weight += w;
+            account(node, owner);
+            map.put(mask(key), node);
+            indexKey(key);
+            node.prev = after;
+            node.next = after.next;
+            after.next.prev = node;
+            after.next = node;
+            // cold, so it also goes behind the rest of its namespace
+            if (owner != null) linkRing(node, false);
+            restoreCursor = node;
+            return grown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void setTrackAccess(boolean track) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successors[0].setTrackAccess(track);
+                successors[1].setTrackAccess(track);
+                return;
+            }
+            this.trackAccessTime = track;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void setWriteBehind(WriteBehind<K,V> writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    @Override
+    void setCounters(ToLongFunction<? super V> parse, LongFunction<? extends V> format) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successors[0].setCounters(parse, format);
+                successors[1].setCounters(parse, format);
+                return;
+            }
+            this.parseCounter = parse;
+            this.formatCounter = format;
         } finally {
             lock.unlock();
         }
     }
 
-    public void put (K key, V value) {
-        put(key, value, 0);
+    @Override
+    void setKeyIndex(NavigableSet<K> index) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successors[0].setKeyIndex(index);
+                successors[1].setKeyIndex(index);
+                return;
+            }
+            for (Node<K,V> node = head.next; node != tail; node = node.next) {
+                index.add(node.key);
+            }
+            this.keyIndex = index;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void setNamespaces(Namespaces<K> spaces) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successors[0].setNamespaces(spaces);
+                successors[1].setNamespaces(spaces);
+                return;
+            }
+            // lru to mru, so each ring comes out in the segment's order
+            for (Node<K,V> node = tail.prev; node != head; node = node.prev) {
+                account(node, spaces.of(node.key));
+                linkRing(node, true);
+            }
+            this.namespaces = spaces;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under the lock, so an insert of the key cannot slip in between the check and the removal
+    @Override
+    void pruneIndex(K key, Predicate<? super K> elsewhere) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                successorFor(key).pruneIndex(key, elsewhere);
+                return;
+            }
+            NavigableSet<K> index = keyIndex;
+            if (index != null && !map.containsKey(mask(key)) && !elsewhere.test(key)) index.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // access time of the lru entry, Long.MAX_VALUE when the segment is empty
+    @Override
+    long lruAccessTime() {
+        lock.lock();
+        try {
+            if (successors != null) {
+                return Math.min(successors[0].lruAccessTime(), successors[1].lruAccessTime());
+            }
+            Node<K,V> lruNode = tail.prev;
+            return lruNode == head ? Long.MAX_VALUE : lruNode.accessedAt;
+        } finally {
+            lock.unlock();
+        }
     }
 
+    // evicts the lru entry on behalf of the global capacity, false when there was nothing to evict
+    @Override
+    boolean evictOldest() {
+        lock.lock();
+        try {
+            if (successors != null) {
+                LRUCacheSegment<K,V> older = successors[0].lruAccessTime() <= successors[1].lruAccessTime()
+                        ? successors[0] : successors[1];
+                return older.evictOldest();
+            }
+            return evictLRU();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
     public int size() {
         lock.lock();
         try {
+            if (successors != null) return successors[0].size() + successors[1].size();
             return map.size();
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public int capacity() {
+        lock.lock();
+        try {
+            if (successors != null) return successors[0].capacity() + successors[1].capacity();
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // shrinking evicts from the lru end straight away
+    @Override
+    public void setCapacity(int newCapacity) {
+        if (newCapacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + newCapacity);
+        }
+        lock.lock();
+        try {
+            if (successors != null) {
+                throw new IllegalStateException("Segment has been split");
+            }
+            this.capacity = newCapacity;
+            while (map.size() > capacity && evictLRU()) {
+                // dirty entries stay
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // weighs every entry again and evicts from the lru end until the total is within maxWeight,
+    // a null weigher drops the budget
+    @Override
+    void setWeigher(ToIntBiFunction<? super K, ? super V> weigher, long maxWeight) {
+        lock.lock();
+        try {
+            if (successors != null) {
+                throw new IllegalStateException("Segment has been split");
+            }
+            for (Node<K,V> node = head.next; node != tail; node = node.next) {
+                unaccount(node);
+            }
+            this.weigher = weigher;
+            this.maxWeight = maxWeight;
+            weight = 0;
+            for (Node<K,V> node = head.next; node != tail; node = node.next) {
+                node.weight = weigher == null ? 0 : weigher.applyAsInt(node.key, valueOf(node));
+                weight += node.weight;
+                // quotas are in the new unit from here on
+                if (node.namespace != null) node.namespace.used.add(units(node));
+            }
+            while (weight > maxWeight && map.size() > 1 && evictLRU()) {
+                // dirty entries stay
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    long weight() {
+        lock.lock();
+        try {
+            if (successors != null) return successors[0].weight() + successors[1].weight();
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Metrics drainMetrics() {
+        lock.lock();
+        try {
+            Metrics m = new Metrics(capacity, map.size(), hits, misses, evictions, acquisitions, contended);
+            hits = misses = evictions = acquisitions = contended = 0;
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isRetired() {
+        lock.lock();
+        try {
+            return successors != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // moves every entry into two new segments picked by the given hash bit, keeping recency order.
+    // the segment stays reachable through the old table and forwards all calls to its successors.
+    @SuppressWarnings("unchecked")
+    @Override
+    LRUCacheSegment<K,V>[] split(int bit) {
+        snapshotLock.lock();
+        lock.lock();
+        try {
+            if (successors != null) {
+                throw new IllegalStateException("Segment has already been split");
+            }
+            if (capacity < 2) {
+                throw new IllegalStateException("Segment too small to split: " + capacity);
+            }
+            if (weigher != null) {
+                throw new IllegalStateException("Weighted segments cannot be split");
+            }
+            // halves by default, shifted just enough that the split itself evicts nothing
+            int low = 0;
+            for (Node<K,V> node = head.next; node != tail; node = node.next) {
+                if ((LRUCache.spread(node.key) & bit) == 0) low++;
+            }
+            int high = map.size() - low;
+            int lowCapacity = Math.max(low, Math.min(capacity - high, capacity / 2));
+            lowCapacity = Math.max(1, Math.min(capacity - 1, lowCapacity));
+            // no generic array creation, both slots hold an LRUCacheSegment<K,V>
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            LRUCacheSegment<K,V>[] next = new LRUCacheSegment[] {
+                    new LRUCacheSegment<>(lowCapacity, clock, trackAccessTime),
+                    new LRUCacheSegment<>(capacity - lowCapacity, clock, trackAccessTime)
+            };
+            next[0].removalHook = removalHook;
+            next[1].removalHook = removalHook;
+            next[0].spillHook = spillHook;
+            next[1].spillHook = spillHook;
+            next[0].removals = removals;
+            next[1].removals = removals;
+            next[0].writeBehind = writeBehind;
+            next[1].writeBehind = writeBehind;
+            next[0].keyIndex = keyIndex;
+            next[1].keyIndex = keyIndex;
+            next[0].tagVersions = tagVersions;
+            next[1].tagVersions = tagVersions;
+            next[0].namespaces = namespaces;
+            next[1].namespaces = namespaces;
+            next[0].lastVersion = lastVersion;
+            next[1].lastVersion = lastVersion;
+            next[0].parseCounter = next[1].parseCounter = parseCounter;
+            next[0].formatCounter = next[1].formatCounter = formatCounter;
+            // lru to mru so that the successors end up with the same relative order
+            Node<K,V> current = tail;
+            while ((current = current.prev) != head) {
+                LRUCacheSegment<K,V> target = (LRUCache.spread(current.key) & bit) == 0 ? next[0] : next[1];
+                // the successors start without counters, the next increment sets one up there
+                retire(current);
+                target.adopt(current);
+            }
+            map.clear();
+            rings.clear();
+            head.next = tail;
+            tail.prev = head;
+            cleanupCursor = head;
+            this.splitBit = bit;
+            this.successors = next;
+            return next;
+        } finally {
+            lock.unlock();
+            snapshotLock.unlock();
+        }
+    }
+
+    // insert at mru during a split, the target is not published yet
+    private void adopt(Node<K,V> source) {
+        Node<K,V> node = new Node<>(source.key, source.value, source.expireAtMs);
+        node.accessedAt = source.accessedAt;
+        node.hits = source.hits;
+        node.version = source.version;
+        node.tags = source.tags;
+        node.tagStamp = source.tagStamp;
+        // stays booked to its namespace, only the ring is this segment's
+        node.namespace = source.namespace;
+        map.put(mask(node.key), node);
+        addToHead(node);
+        while (map.size() > capacity && evictLRU()) {
+            // dirty entries stay
+        }
+    }
+
+    @Override
     public boolean checkSizeInvariance() {
         lock.lock();
         try {
+            if (successors != null) {
+                return successors[0].checkSizeInvariance() && successors[1].checkSizeInvariance();
+            }
             int count = 0;
+            long total = 0;
             Node<K,V> current = this.head;
             while ((current = current.next) != this.tail) {
                 count++;
+                total += current.weight;
             }
-            return map.size() == count;
+            if (namespaces != null) {
+                int booked = 0;
+                for (Node<K,V> ring : rings.values()) {
+                    for (Node<K,V> node = ring.nsNext; node != ring; node = node.nsNext) booked++;
+                }
+                if (booked != count) return false;
+            }
+            // write-behind lets dirty entries hold a segment over its capacity
+            return map.size() == count && (map.size() <= capacity || writeBehind != null) && total == weight;
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
     public int cleanupExpired(int sampleSize) {
         lock.lock();
         int removed = 0;
         try {
+            if (successors != null) {
+                return successors[0].cleanupExpired(sampleSize) + successors[1].cleanupExpired(sampleSize);
+            }
             int checked = 0;
             Node<K,V> current = cleanupCursor;
             while (checked < sampleSize) {
@@ -168,8 +1195,14 @@ public class LRUCacheSegment<K,V> {
                 }
                 if (current.isExpired()) {
                     Node<K,V> nextNode = current.next;
+                    retire(current);
                     removeNode(current);
-                    map.remove(current.key);
+                    map.remove(mask(current.key));
+                    weight -= current.weight;
+                    unaccount(current);
+                    unindexKey(current.key);
+                    notifyRemoved(current.key);
+                    notifyListener(current.key, current.value, RemovalCause.EXPIRED);
                     removed++;
                     current = nextNode;
                 } else current = current.next;
@@ -186,15 +1219,110 @@ public class LRUCacheSegment<K,V> {
         void accept(K key, V value, long expiryTime);
     }
 
+    // point-in-time walk from mru to lru that holds the lock for one slice at a time. entries are copied
+    // out under the lock and handed to the action outside it, so a slow writer only slows the snapshot
+    @Override
+    @SuppressWarnings("unchecked")
+    void forEachRun(PersistentCache.RunConsumer<K,V> action, long now) {
+        snapshotLock.lock();
+        try {
+            lock.lock();
+            try {
+                if (successors == null) {
+                    lastEpoch = lastEpoch == Integer.MAX_VALUE ? 1 : lastEpoch + 1;
+                    snapshotEpoch = lastEpoch;
+                    snapshotCursor = head;
+                    preserved = new ArrayList<>();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (successors != null) {
+                successors[0].forEachRun(action, now);
+                successors[1].forEachRun(action, now);
+                return;
+            }
+            action.startRun();
+            Object[] keys = new Object[SNAPSHOT_SLICE];
+            Object[] values = new Object[SNAPSHOT_SLICE];
+            long[] expiries = new long[SNAPSHOT_SLICE];
+            long[] idles = new long[SNAPSHOT_SLICE];
+            int[] hitCounts = new int[SNAPSHOT_SLICE];
+            boolean done = false;
+            while (!done) {
+                int n = 0;
+                lock.lock();
+                try {
+                    int visited = 0;
+                    while (visited < SNAPSHOT_SLICE && !(preserved.isEmpty() && snapshotCursor.next == tail)) {
+                        Node<K,V> node;
+                        if (!preserved.isEmpty()) {
+                            node = preserved.remove(preserved.size() - 1);
+                        } else {
+                            node = snapshotCursor.next;
+                            snapshotCursor = node;
+                            visited++;
+                            if (node.epoch == snapshotEpoch) continue; // added since the start
+                            node.epoch = snapshotEpoch;
+                        }
+                        // tags are not saved, restored they could not be invalidated any more
+                        if (node.tags != null) continue;
+                        keys[n] = node.key;
+                        values[n] = valueOf(node);
+                        expiries[n] = node.expireAtMs;
+                        idles[n] = trackAccessTime ? Math.max(0, (now - node.accessedAt) / 1_000_000) : -1;
+                        hitCounts[n] = node.hits;
+                        n++;
+                        if (n == SNAPSHOT_SLICE) break;
+                    }
+                    done = preserved.isEmpty() && snapshotCursor.next == tail;
+                } finally {
+                    lock.unlock();
+                }
+                for (int i = 0; i < n; i++) {
+                    action.accept((K) keys[i], (V) values[i], expiries[i], idles[i], hitCounts[i]);
+                    keys[i] = null;
+                    values[i] = null;
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                snapshotEpoch = 0;
+                snapshotCursor = null;
+                preserved = null;
+            } finally {
+                lock.unlock();
+            }
+            snapshotLock.unlock();
+        }
+    }
+
+    @Override
     public void forEach(EntryConsumer<K,V> action) {
+        forEach(action, false);
+    }
+
+    @Override
+    void forEachIncludingTagged(EntryConsumer<K,V> action) {
+        forEach(action, true);
+    }
+
+    private void forEach(EntryConsumer<K,V> action, boolean tagged) {
         lock.lock();
         try {
+            if (successors != null) {
+                successors[0].forEach(action, tagged);
+                successors[1].forEach(action, tagged);
+                return;
+            }
             Node<K,V> current = head;
             while ((current = current.next) != tail) {
-                action.accept(current.key, current.value, current.expireAtMs);
+                if (current.tags != null && !tagged) continue;
+                action.accept(current.key, valueOf(current), current.expireAtMs);
             }
         } finally {
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package com.mylrucachelib;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// tenants sharing one cache. every key belongs to the namespace namespaceOf names, and each namespace has
+// a quota in the cache's unit (entries, or weight once a weigher is set) that is its guaranteed share.
+// while there is room a namespace may grow past its quota into what the others leave idle. once a segment
+// is full, a namespace at its quota makes room out of its own entries, and one below it takes back what
+// was lent from the namespace furthest over its quota. the books are per namespace adders, so nothing
+// but the segment lock of the write is held
+public final class Namespaces<K> {
+    private final Function<? super K, String> namespaceOf;
+    // created on first use, without a quota until one is set
+    private final ConcurrentHashMap<String, Namespace> spaces = new ConcurrentHashMap<>();
+
+    Namespaces(Function<? super K, String> namespaceOf) {
+        this.namespaceOf = namespaceOf;
+    }
+
+    public static final class Namespace {
+        private final String name;
+        private volatile long quota;
+        final LongAdder used = new LongAdder();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        Namespace(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long quota() {
+            return quota;
+        }
+
+        public long used() {
+            return used.sum();
+        }
+
+        // how far the namespace is into quota it does not own
+        public long borrowed() {
+            return Math.max(0, used.sum() - quota);
+        }
+
+        public long hits() {
+            return hits.sum();
+        }
+
+        public long misses() {
+            return misses.sum();
+        }
+
+        public long evictions() {
+            return evictions.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "name=" + name + " quota=" + quota + " used=" + used() + " borrowed=" + borrowed()
+                    + " hits=" + hits() + " misses=" + misses() + " evictions=" + evictions();
+        }
+    }
+
+    Namespace of(K key) {
+        return namespace(namespaceOf.apply(key));
+    }
+
+    public Namespace namespace(String name) {
+        Namespace space = spaces.get(name);
+        return space != null ? space : spaces.computeIfAbsent(name, Namespace::new);
+    }
+
+    // takes effect with the next eviction, entries over a lowered quota are reclaimed as others need room
+    public void setQuota(String name, long quota) {
+        if (quota < 0) {
+            throw new IllegalArgumentException("Illegal quota: " + quota);
+        }
+        namespace(name).quota = quota;
+    }
+
+    public List<Namespace> list() {
+        List<Namespace> list = new ArrayList<>(spaces.values());
+        list.sort(Comparator.comparing(Namespace::name));
+        return list;
+    }
+}
@@ -0,0 +1,12 @@
+package com.mylrucachelib;
+
+public enum RemovalCause {
+    // dropped for capacity or weight
+    EVICTED,
+    // found past its ttl by a read, the janitor or an eviction
+    EXPIRED,
+    // overwritten by a put, the listener gets the old value
+    REPLACED,
+    // removed by the caller
+    EXPLICIT
+}
@@ -0,0 +1,66 @@
+package com.mylrucachelib;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// notifications are queued lock-free while the segment lock is held and delivered outside of it by
+// one drain task at a time, so the listener sees them in order and a slow listener only lets the
+// queue grow. the first notification after a quiet spell waits FLUSH_DELAY_MS for others to pile up,
+// handing the executor a task per eviction cost more than the eviction itself
+final class RemovalDispatcher<K,V> {
+    private static final int BATCH = 1024;
+    private static final long FLUSH_DELAY_MS = 10;
+    private final RemovalListener<? super K, ? super V> listener;
+    private final Executor executor;
+    private final Executor delayed;
+    private final ConcurrentLinkedQueue<Notification<K,V>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private static final Logger logger = Logger.getLogger(RemovalDispatcher.class.getName());
+
+    private record Notification<K,V>(K key, V value, RemovalCause cause) {}
+
+    RemovalDispatcher(RemovalListener<? super K, ? super V> listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        this.delayed = CompletableFuture.delayedExecutor(FLUSH_DELAY_MS, TimeUnit.MILLISECONDS, executor);
+    }
+
+    void add(K key, V value, RemovalCause cause) {
+        queue.add(new Notification<>(key, value, cause));
+        if (!scheduled.get()) schedule(delayed);
+    }
+
+    private void schedule(Executor executor) {
+        if (!scheduled.compareAndSet(false, true)) return;
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            logger.log(Level.WARNING, "Removal listener executor rejected the drain, notifications stay queued", e);
+        }
+    }
+
+    private void drain() {
+        int delivered = 0;
+        try {
+            Notification<K,V> n;
+            for (; delivered < BATCH && (n = queue.poll()) != null; delivered++) {
+                try {
+                    listener.onRemoval(n.key(), n.value(), n.cause());
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Removal listener failed on " + n.key(), e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // a full batch means writers are ahead, keep going without the delay
+            if (!queue.isEmpty()) schedule(delivered == BATCH ? executor : delayed);
+        }
+    }
+}
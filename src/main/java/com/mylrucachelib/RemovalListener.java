@@ -0,0 +1,7 @@
+package com.mylrucachelib;
+
+// told about every entry that leaves the cache, after the fact and off the caller's thread
+@FunctionalInterface
+public interface RemovalListener<K,V> {
+    void onRemoval(K key, V value, RemovalCause cause);
+}
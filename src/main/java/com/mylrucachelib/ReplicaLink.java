@@ -0,0 +1,244 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// follows a primary AsyncServer: full snapshot first, then the live op stream. runs on its own
+// thread and writes into the replica's cache directly, reads keep being served by the event loop.
+// a broken link resyncs from scratch after a backoff until the replica is promoted.
+class ReplicaLink {
+    private static final long MIN_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 2_000;
+    private final String host;
+    private final int port;
+    private final LRUCache<String,String> cache;
+    private final Consumer<String> onApplied;
+    private final SnapshotManager<String,String> snapshots;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile String state = "connecting";
+    private volatile long offset;
+    private volatile long lagMillis = -1;
+    private volatile long lastSyncEntries;
+    private volatile long lastSyncMillis;
+    private static final Logger logger = Logger.getLogger(ReplicaLink.class.getName());
+
+    // onApplied hears about every key the stream changed, for near-cache invalidation
+    ReplicaLink(String host, int port, LRUCache<String,String> cache, Consumer<String> onApplied) {
+        this.host = host;
+        this.port = port;
+        this.cache = cache;
+        this.onApplied = onApplied;
+        this.snapshots = new SnapshotManager<>(new StringSerializer(), new StringSerializer(), System::currentTimeMillis);
+        this.thread = new Thread(this::run, "Replica-Link");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        long retry = MIN_RETRY_MS;
+        while (running) {
+            try (Socket s = new Socket(host, port)) {
+                this.socket = s;
+                s.setTcpNoDelay(true);
+                follow(s);
+            } catch (IOException e) {
+                if (running) logger.log(Level.WARNING, "Replication link to " + host + ":" + port + " broken", e);
+            }
+            if (!running) break;
+            state = "down";
+            try {
+                Thread.sleep(retry);
+            } catch (InterruptedException e) {
+                break;
+            }
+            retry = Math.min(MAX_RETRY_MS, retry * 2);
+        }
+        state = "stopped";
+    }
+
+    private void follow(Socket s) throws IOException {
+        OutputStream out = s.getOutputStream();
+        out.write("REPLICATE\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+        state = "syncing";
+        // SNAPSHOT <offset> <bytes>
+        String header = readLine(in);
+        String[] parts = header.split(" ");
+        if (parts.length != 3 || !parts[0].equals("SNAPSHOT")) {
+            throw new IOException("Unexpected replication header: " + header);
+        }
+        long snapshotOffset = Long.parseLong(parts[1]);
+        long start = System.currentTimeMillis();
+        lastSyncEntries = restore(in);
+        lastSyncMillis = System.currentTimeMillis() - start;
+        offset = snapshotOffset;
+        state = "streaming";
+        logger.info("Replica synced " + lastSyncEntries + " entries in " + lastSyncMillis + "ms");
+        while (running) {
+            apply(readLine(in));
+        }
+    }
+
+    // loads the snapshot and drops whatever the replica held that the primary no longer has
+    private long restore(InputStream in) throws IOException {
+        Set<String> present = new HashSet<>();
+        int restored = snapshots.readFrom(in, new PersistentCache<>() {
+            @Override
+            public int size() {
+                return present.size();
+            }
+
+            @Override
+            public void forEach(LRUCacheSegment.EntryConsumer<String, String> action) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void put(String key, String value, long ttlMs) {
+                restore(key, value, ttlMs, -1, 0);
+            }
+
+            // the primary's value wins over a stale local one, new keys keep the snapshot's order
+            @Override
+            public void restore(String key, String value, long ttlMs, long idleMs, int hits) {
+                if (cache.containsKey(key)) cache.put(key, value, ttlMs);
+                else cache.restore(key, value, ttlMs, idleMs, hits);
+                present.add(key);
+                onApplied.accept(key);
+            }
+        });
+        List<String> stale = new ArrayList<>();
+        // tagged keys are not in the snapshot either, and one the primary changed or dropped meanwhile
+        // would be served forever, so they go as well
+        cache.forEachIncludingTagged((key, value, expiry) -> {
+            if (!present.contains(key)) stale.add(key);
+        });
+        for (String key : stale) {
+            cache.remove(key);
+            onApplied.accept(key);
+        }
+        return restored;
+    }
+
+    // PUT <key> <expireAtMs> <value> | DEL <key>
+    // | TAGPUT <key> <expireAtMs> <tag>[,<tag>...] <value> | INVALIDATETAG <tag> | PING <offset> <primaryTimeMs>
+    private void apply(String line) throws IOException {
+        int first = line.indexOf(' ');
+        String op = first == -1 ? line : line.substring(0, first);
+        switch (op) {
+            case "PUT" -> {
+                int second = line.indexOf(' ', first + 1);
+                int third = line.indexOf(' ', second + 1);
+                if (second == -1 || third == -1) throw new IOException("Bad replication op: " + line);
+                String key = line.substring(first + 1, second);
+                long expireAt = Long.parseLong(line.substring(second + 1, third));
+                String value = line.substring(third + 1);
+                if (expireAt == 0) {
+                    cache.put(key, value, 0);
+                } else {
+                    long ttl = expireAt - System.currentTimeMillis();
+                    if (ttl > 0) cache.put(key, value, ttl);
+                    else cache.remove(key);
+                }
+                offset++;
+                onApplied.accept(key);
+            }
+            case "TAGPUT" -> {
+                String[] parts = line.split(" ", 5);
+                if (parts.length != 5) throw new IOException("Bad replication op: " + line);
+                long expireAt = Long.parseLong(parts[2]);
+                long ttl = expireAt == 0 ? 0 : expireAt - System.currentTimeMillis();
+                if (expireAt == 0 || ttl > 0) cache.put(parts[1], parts[4], ttl, parts[3].split(","));
+                else cache.remove(parts[1]);
+                offset++;
+                onApplied.accept(parts[1]);
+            }
+            case "INVALIDATETAG" -> {
+                // tagged keys are never watched by near caches, so there is nobody to tell
+                cache.invalidateTag(line.substring(first + 1));
+                offset++;
+            }
+            case "DEL" -> {
+                String key = line.substring(first + 1);
+                cache.remove(key);
+                offset++;
+                onApplied.accept(key);
+            }
+            case "PING" -> {
+                String[] parts = line.split(" ");
+                long primaryOffset = Long.parseLong(parts[1]);
+                if (primaryOffset != offset) {
+                    throw new IOException("Replication offset mismatch: primary " + primaryOffset + ", replica " + offset);
+                }
+                lagMillis = Math.max(0, System.currentTimeMillis() - Long.parseLong(parts[2]));
+            }
+            default -> throw new IOException("Unknown replication op: " + line);
+        }
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) throw new EOFException("Primary closed the replication stream");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    void stop() {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+        thread.interrupt();
+    }
+
+    String state() {
+        return state;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    // delay of the stream as of the last heartbeat, -1 before the first one
+    long lagMillis() {
+        return lagMillis;
+    }
+
+    long lastSyncEntries() {
+        return lastSyncEntries;
+    }
+
+    long lastSyncMillis() {
+        return lastSyncMillis;
+    }
+}
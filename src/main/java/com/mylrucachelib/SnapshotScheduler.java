@@ -0,0 +1,140 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.SnapshotManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// saves a persistent cache in the background whenever one of its save points is due, e.g. every 60s
+// if at least 1000 writes happened. snapshots run on the scheduler's own thread, take segment locks
+// one slice at a time and can be capped to a disk write rate
+public class SnapshotScheduler implements AutoCloseable {
+    private static final long CHECK_INTERVAL_MS = 100;
+    private final LRUCache<?,?> cache;
+    private final SnapshotManager<?,?> manager;
+    private final List<SavePoint> savePoints;
+    private final ScheduledExecutorService executor;
+    // write count and start time of the data the last good snapshot holds
+    private volatile long savedWrites;
+    private volatile long savedAt;
+    private volatile long lastDurationMs = -1;
+    private volatile long lastBytes = -1;
+    private volatile int lastEntries = -1;
+    private volatile long snapshots;
+    private volatile long failures;
+    private static final Logger logger = Logger.getLogger(SnapshotScheduler.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(SnapshotScheduler.class.getName(), "persistence.log", false);
+    }
+
+    // a snapshot is due once intervalMs passed since the last one and at least minWrites writes came in
+    public record SavePoint(long intervalMs, long minWrites) {
+        public SavePoint {
+            if (intervalMs <= 0) {
+                throw new IllegalArgumentException("Illegal interval: " + intervalMs);
+            }
+            if (minWrites <= 0) {
+                throw new IllegalArgumentException("Illegal write threshold: " + minWrites);
+            }
+        }
+    }
+
+    // maxBytesPerSecond 0 leaves the writes unthrottled. the cache needs persistence enabled
+    public SnapshotScheduler(LRUCache<?,?> cache, long maxBytesPerSecond, SavePoint... savePoints) {
+        if (savePoints.length == 0) {
+            throw new IllegalArgumentException("No save points");
+        }
+        this.manager = cache.snapshotManager();
+        if (manager == null) {
+            throw new IllegalStateException("Cache has no persistence enabled");
+        }
+        manager.setMaxBytesPerSecond(maxBytesPerSecond);
+        this.cache = cache;
+        this.savePoints = List.of(savePoints);
+        this.savedWrites = cache.writeCount();
+        this.savedAt = System.currentTimeMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Snapshot-Scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        long pending = pendingWrites();
+        long since = System.currentTimeMillis() - savedAt;
+        for (SavePoint point : savePoints) {
+            if (pending >= point.minWrites() && since >= point.intervalMs()) {
+                snapshot();
+                return;
+            }
+        }
+    }
+
+    // takes a snapshot right away on the calling thread, false when it failed
+    public boolean saveNow() {
+        return snapshot();
+    }
+
+    private synchronized boolean snapshot() {
+        // writes landing during the snapshot may be missing from it, they count towards the next one
+        long writes = cache.writeCount();
+        long start = System.currentTimeMillis();
+        try {
+            int entries = cache.saveSnapshotCounted();
+            lastDurationMs = System.currentTimeMillis() - start;
+            lastEntries = entries;
+            lastBytes = Files.size(manager.path());
+            savedWrites = writes;
+            savedAt = start;
+            snapshots++;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failures++;
+            logger.log(Level.SEVERE, "Scheduled snapshot failed", e);
+            return false;
+        }
+    }
+
+    public long lastDurationMs() {
+        return lastDurationMs;
+    }
+
+    public long lastBytes() {
+        return lastBytes;
+    }
+
+    public int lastEntries() {
+        return lastEntries;
+    }
+
+    // how old the data of the last good snapshot is, counted from the start of that snapshot
+    public long stalenessMs() {
+        return System.currentTimeMillis() - savedAt;
+    }
+
+    public long pendingWrites() {
+        return cache.writeCount() - savedWrites;
+    }
+
+    public long snapshots() {
+        return snapshots;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
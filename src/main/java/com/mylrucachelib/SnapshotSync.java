@@ -0,0 +1,277 @@
+package com.mylrucachelib;
+
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// one-shot warm-up of a fresh node from another one: SYNC, then the snapshot is decoded straight off
+// the socket while the event loop already serves reads. decoding is sequential, the puts are handed
+// to restore threads in batches. keys the node got written meanwhile are newer and are left alone,
+// and so are keys or prefixes deleted meanwhile, which the snapshot would otherwise bring back.
+// without access metadata in the snapshot, batches restored side by side may interleave, so the
+// recency order then only holds up to a batch.
+class SnapshotSync {
+    private static final int BATCH = 4096;
+    private static final int SOCKET_BUFFER = 256 * 1024;
+    private final String host;
+    private final int port;
+    private final LRUCache<String,String> cache;
+    private final int restoreThreads;
+    private final Thread thread;
+    private volatile Socket socket;
+    private volatile String state = "connecting";
+    private final AtomicLong entries = new AtomicLong();
+    // local deletes until the restore is over. a key is restored inside a compute on its mark, so a
+    // delete either comes first and is seen, or waits and then removes the restored entry
+    private final ConcurrentHashMap<String, Boolean> deleted = new ConcurrentHashMap<>();
+    // a prefix cannot be marked key by key, a batch holds the read lock so the prefix delete's scan
+    // comes after any entry restored before the prefix was added
+    private final List<String> deletedPrefixes = new CopyOnWriteArrayList<>();
+    private final ReentrantReadWriteLock prefixLock = new ReentrantReadWriteLock();
+    private volatile boolean restoring = true;
+    private volatile long bytes;
+    private volatile long millis;
+    private static final Logger logger = Logger.getLogger(SnapshotSync.class.getName());
+
+    SnapshotSync(String host, int port, LRUCache<String,String> cache, int restoreThreads) {
+        if (restoreThreads <= 0) {
+            throw new IllegalArgumentException("Illegal restore thread count: " + restoreThreads);
+        }
+        this.host = host;
+        this.port = port;
+        this.cache = cache;
+        this.restoreThreads = restoreThreads;
+        this.thread = new Thread(this::run, "Snapshot-Sync");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(restoreThreads, r -> {
+            Thread t = new Thread(r, "Snapshot-Restore");
+            t.setDaemon(true);
+            return t;
+        });
+        try (Socket s = new Socket(host, port)) {
+            this.socket = s;
+            s.setReceiveBufferSize(SOCKET_BUFFER);
+            OutputStream out = s.getOutputStream();
+            out.write("SYNC\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = new BufferedInputStream(s.getInputStream(), SOCKET_BUFFER);
+            // SNAPSHOT <offset> <bytes>
+            String header = ReplicaLink.readLine(in);
+            String[] parts = header.split(" ");
+            if (parts.length != 3 || !parts[0].equals("SNAPSHOT")) {
+                throw new IOException("Unexpected sync header: " + header);
+            }
+            state = "restoring";
+            BatchedRestore restore = new BatchedRestore(pool);
+            new SnapshotManager<>(new StringSerializer(), new StringSerializer(), System::currentTimeMillis)
+                    .readFrom(new CountingInputStream(in), restore);
+            restore.finish();
+            millis = System.currentTimeMillis() - start;
+            state = "done";
+            logger.info("Synced " + entries + " entries, " + bytes + " bytes from " + host + ":" + port + " in " + millis + "ms");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            millis = System.currentTimeMillis() - start;
+            if (!"stopped".equals(state)) {
+                state = "failed";
+                logger.log(Level.WARNING, "Sync from " + host + ":" + port + " failed", e);
+            }
+        } finally {
+            pool.shutdownNow();
+            restoring = false;
+            deleted.clear();
+            deletedPrefixes.clear();
+        }
+    }
+
+    // called before the node deletes the key itself
+    void deleting(String key) {
+        if (restoring) deleted.put(key, Boolean.TRUE);
+    }
+
+    // called before the node deletes the keys under the prefix itself
+    void deletingPrefix(String prefix) {
+        if (!restoring) return;
+        prefixLock.writeLock().lock();
+        try {
+            deletedPrefixes.add(prefix);
+        } finally {
+            prefixLock.writeLock().unlock();
+        }
+    }
+
+    private void restoreUnlessDeleted(String key, String value, long ttlMs, long idleMs, int hitCount) {
+        for (String prefix : deletedPrefixes) {
+            if (key.startsWith(prefix)) return;
+        }
+        deleted.compute(key, (k, mark) -> {
+            if (mark == null) cache.restore(k, value, ttlMs, idleMs, hitCount);
+            return mark;
+        });
+    }
+
+    // fills a batch on the decoding thread and hands it over when full. at most two batches per
+    // restore thread are in flight so a slow cache pushes back on the socket
+    private class BatchedRestore implements PersistentCache<String,String> {
+        private final ExecutorService pool;
+        private final Semaphore inFlight;
+        private final int permits;
+        private volatile RuntimeException failure;
+        private String[] keys = new String[BATCH];
+        private String[] values = new String[BATCH];
+        private long[] ttls = new long[BATCH];
+        private long[] idles = new long[BATCH];
+        private int[] hits = new int[BATCH];
+        private int n;
+
+        BatchedRestore(ExecutorService pool) {
+            this.pool = pool;
+            this.permits = restoreThreads * 2;
+            this.inFlight = new Semaphore(permits);
+        }
+
+        @Override
+        public int size() {
+            return (int) entries.get();
+        }
+
+        @Override
+        public void forEach(LRUCacheSegment.EntryConsumer<String, String> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void put(String key, String value, long ttlMs) {
+            restore(key, value, ttlMs, -1, 0);
+        }
+
+        @Override
+        public void restore(String key, String value, long ttlMs, long idleMs, int hitCount) {
+            keys[n] = key;
+            values[n] = value;
+            ttls[n] = ttlMs;
+            idles[n] = idleMs;
+            hits[n] = hitCount;
+            if (++n == BATCH) {
+                try {
+                    submit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Sync interrupted", e);
+                }
+            }
+        }
+
+        private void submit() throws InterruptedException {
+            if (failure != null) throw failure;
+            String[] k = keys;
+            String[] v = values;
+            long[] t = ttls;
+            long[] idle = idles;
+            int[] h = hits;
+            int count = n;
+            keys = new String[BATCH];
+            values = new String[BATCH];
+            ttls = new long[BATCH];
+            idles = new long[BATCH];
+            hits = new int[BATCH];
+            n = 0;
+            inFlight.acquire();
+            pool.execute(() -> {
+                prefixLock.readLock().lock();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        restoreUnlessDeleted(k[i], v[i], t[i], idle[i], h[i]);
+                    }
+                    entries.addAndGet(count);
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    prefixLock.readLock().unlock();
+                    inFlight.release();
+                }
+            });
+        }
+
+        void finish() throws InterruptedException {
+            if (n > 0) submit();
+            inFlight.acquire(permits);
+            inFlight.release(permits);
+            if (failure != null) throw failure;
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) bytes += read;
+            return read;
+        }
+    }
+
+    void stop() {
+        if (!"done".equals(state)) state = "stopped";
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+        thread.interrupt();
+    }
+
+    String state() {
+        return state;
+    }
+
+    // entries handed to the cache so far, including ones skipped because the key was written or deleted locally
+    long entries() {
+        return entries.get();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    // time from connect to the last entry restored
+    long millis() {
+        return millis;
+    }
+}
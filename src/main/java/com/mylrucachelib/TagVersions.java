@@ -0,0 +1,56 @@
+package com.mylrucachelib;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// generation counters behind tag invalidation. a tagged write is stamped with the current generation,
+// invalidating a tag moves the generation on and records it for the tag. an entry is stale once one of
+// its tags was invalidated after its stamp, so invalidation costs the same however many keys carry the
+// tag, and the stale entries go as misses, evictions and janitor passes find them. records no tagged
+// entry can predate any more are pruned, see raiseFloor and prune
+final class TagVersions {
+    private final AtomicLong generation = new AtomicLong();
+    // tags invalidated since the last prune that still matter, one long each
+    private final ConcurrentHashMap<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+    // a write stamped below this may have missed a pruned record, it arrives stale
+    private volatile long floor;
+
+    long stamp() {
+        return generation.get();
+    }
+
+    void invalidate(String tag) {
+        // max, so two invalidations of a tag racing each other cannot move it back
+        invalidatedAt.merge(tag, generation.incrementAndGet(), Math::max);
+    }
+
+    boolean isStale(String[] tags, long stamp) {
+        for (String tag : tags) {
+            Long at = invalidatedAt.get(tag);
+            if (at != null && at > stamp) return true;
+        }
+        return false;
+    }
+
+    long floor() {
+        return floor;
+    }
+
+    // first step of a prune, before the segments expire their stale entries. a write that read its stamp
+    // earlier but lands after the pass over its segment is caught by the floor instead
+    long raiseFloor() {
+        long current = generation.get();
+        floor = current;
+        return current;
+    }
+
+    // drops the records up to the floor once the entries they made stale are expired, returns how many are left
+    int prune(long floor) {
+        invalidatedAt.values().removeIf(at -> at <= floor);
+        return invalidatedAt.size();
+    }
+
+    int invalidatedTags() {
+        return invalidatedAt.size();
+    }
+}
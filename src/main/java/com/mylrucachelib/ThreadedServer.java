@@ -8,6 +8,8 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
@@ -16,10 +18,13 @@ import java.util.logging.Logger;
 public class ThreadedServer {
     private static final int DEFAULT_PORT = 8080;
     private static final int THREAD_POOL_SIZE = 50;
+    private static final int SCAN_DEFAULT_COUNT = 100;
+    private static final int SCAN_MAX_COUNT = 1000;
 
     private LRUCache<String,String> cache;
     private ServerSocket serverSocket;
     private ExecutorService threadPool;
+    private boolean keyIndex;
     private final static Logger logger = Logger.getLogger(ThreadedServer.class.getName());
     static {
         LoggerSetup.setupLogger(ThreadedServer.class.getName(), "threaded-server.log", true);
@@ -35,8 +40,15 @@ public class ThreadedServer {
         service.start(capacity, concurrencyLevel, port);
     }
 
+    // must be called before start, SCAN and DELPREFIX need the ordered key index
+    public void setKeyIndex(boolean enabled) {
+        this.keyIndex = enabled;
+    }
+
     public void start(int cap, int concLevel, int port) throws IOException {
         this.cache = new LRUCache<>(cap, concLevel);
+        this.cache.enableCounters(Long::parseLong, Long::toString);
+        if (keyIndex) this.cache.enableKeyIndex(Comparator.naturalOrder());
         this.threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
         try (ServerSocket socket = new ServerSocket(port)) {
             this.serverSocket = socket;
@@ -103,6 +115,63 @@ public class ThreadedServer {
             }
         }
 
+        // -1 for anything that is not a non-negative number
+        private static long parseNumber(String token) {
+            try {
+                return Long.parseLong(token);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        // 1 for INCR, -1 for DECR, the argument of INCRBY. null when that is not a number
+        private static Long deltaOf(String command, String[] parts) {
+            if (command.equals("INCR")) return 1L;
+            if (command.equals("DECR")) return -1L;
+            try {
+                return Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private String increment(String key, long delta, long ttl) {
+            try {
+                return "VALUE " + this.cacheInstance.incrementBy(key, delta, ttl);
+            } catch (NumberFormatException e) {
+                return "ERROR_NOT_A_NUMBER";
+            } catch (ArithmeticException e) {
+                return "ERROR_OVERFLOW";
+            }
+        }
+
+        // KEYS <cursor> <key>..., the cursor is 0 once the prefix is done
+        private String scanPage(String prefix, String cursor, int count) {
+            boolean start = cursor.equals("0");
+            List<String> keys = this.cacheInstance.scan(start ? prefix : cursor.substring(1), start, prefix + Character.MAX_VALUE, count);
+            StringBuilder sb = new StringBuilder("KEYS ");
+            sb.append(keys.size() < count ? "0" : ">" + keys.get(keys.size() - 1));
+            for (String key : keys) {
+                sb.append(' ').append(key);
+            }
+            return sb.toString();
+        }
+
+        private int deletePrefix(String prefix) {
+            int deleted = 0;
+            String from = prefix;
+            boolean inclusive = true;
+            while (true) {
+                List<String> keys = this.cacheInstance.scan(from, inclusive, prefix + Character.MAX_VALUE, SCAN_MAX_COUNT);
+                for (String key : keys) {
+                    if (this.cacheInstance.remove(key)) deleted++;
+                }
+                if (keys.size() < SCAN_MAX_COUNT) return deleted;
+                from = keys.get(keys.size() - 1);
+                inclusive = false;
+            }
+        }
+
         private void processCommand(String line, PrintWriter output) {
             String[] parts = line.trim().split("\\s+");
             if (parts.length == 0) {
@@ -135,6 +204,104 @@ public class ThreadedServer {
                             }
                         }
                     }
+                    case "GETS" -> {
+                        if (parts.length != 2) {
+                            output.println("ERROR_USAGE_GETS");
+                        } else {
+                            CacheSegment.Versioned<String> result = this.cacheInstance.getVersioned(parts[1]);
+                            if (result == null) {
+                                output.println("NOT_FOUND");
+                            } else {
+                                output.println("VALUE " + result.version() + " " + result.value());
+                            }
+                        }
+                    }
+                    case "DEL" -> {
+                        if (parts.length != 2) {
+                            output.println("ERROR_USAGE_DEL");
+                        } else {
+                            output.println(this.cacheInstance.remove(parts[1]) ? "DELETED" : "NOT_FOUND");
+                        }
+                    }
+                    case "TOUCH", "EXPIRE" -> {
+                        long ttl = parts.length == 3 ? parseNumber(parts[2]) : -1;
+                        if (ttl < 0) {
+                            output.println("ERROR_USAGE_TOUCH");
+                        } else {
+                            output.println(this.cacheInstance.touch(parts[1], ttl) ? "TOUCHED" : "NOT_FOUND");
+                        }
+                    }
+                    case "PUTIFABSENT" -> {
+                        long ttl = parts.length == 4 ? parseNumber(parts[3]) : 0;
+                        if (parts.length < 3 || parts.length > 4 || ttl < 0) {
+                            output.println("ERROR_USAGE_PUTIFABSENT");
+                        } else {
+                            output.println(this.cacheInstance.putIfAbsent(parts[1], parts[2], ttl) ? "OK" : "EXISTS");
+                        }
+                    }
+                    case "CAS" -> {
+                        long version = parts.length >= 4 ? parseNumber(parts[2]) : -1;
+                        long ttl = parts.length == 5 ? parseNumber(parts[4]) : 0;
+                        if (parts.length < 4 || parts.length > 5 || version < 0 || ttl < 0) {
+                            output.println("ERROR_USAGE_CAS");
+                        } else {
+                            long result = this.cacheInstance.compareAndSet(parts[1], version, parts[3], ttl);
+                            if (result == LRUCache.CAS_NOT_FOUND) output.println("NOT_FOUND");
+                            else if (result == LRUCache.CAS_CONFLICT) output.println("EXISTS");
+                            else output.println("OK " + result);
+                        }
+                    }
+                    case "INCR", "DECR", "INCRBY" -> {
+                        // INCR|DECR <key> [ttl], INCRBY <key> <delta> [ttl]. the ttl only applies to a new counter
+                        int ttlAt = command.equals("INCRBY") ? 3 : 2;
+                        long ttl = parts.length == ttlAt + 1 ? parseNumber(parts[ttlAt]) : 0;
+                        Long delta = parts.length < ttlAt || parts.length > ttlAt + 1 ? null : deltaOf(command, parts);
+                        if (delta == null || ttl < 0) {
+                            output.println("ERROR_USAGE_" + command);
+                        } else {
+                            output.println(increment(parts[1], delta, ttl));
+                        }
+                    }
+                    case "TAGPUT" -> {
+                        // TAGPUT <key> <value> <ttl> <tag>[,<tag>...]
+                        long ttl = parts.length == 5 ? parseNumber(parts[3]) : -1;
+                        if (ttl < 0) {
+                            output.println("ERROR_USAGE_TAGPUT");
+                        } else {
+                            this.cacheInstance.put(parts[1], parts[2], ttl, parts[4].split(","));
+                            output.println("OK");
+                        }
+                    }
+                    case "INVALIDATETAG" -> {
+                        if (parts.length != 2) {
+                            output.println("ERROR_USAGE_INVALIDATETAG");
+                        } else {
+                            this.cacheInstance.invalidateTag(parts[1]);
+                            output.println("OK");
+                        }
+                    }
+                    case "SCAN" -> {
+                        // SCAN <prefix> [cursor] [count], cursor 0 starts at the first key
+                        String cursor = parts.length > 2 ? parts[2] : "0";
+                        long count = parts.length == 4 ? parseNumber(parts[3]) : SCAN_DEFAULT_COUNT;
+                        if (!this.cacheInstance.isKeyIndexEnabled()) {
+                            output.println("ERROR_SCAN_DISABLED");
+                        } else if (parts.length < 2 || parts.length > 4 || count <= 0 || count > SCAN_MAX_COUNT
+                                || !(cursor.equals("0") || cursor.startsWith(">" + parts[1]))) {
+                            output.println("ERROR_USAGE_SCAN");
+                        } else {
+                            output.println(scanPage(parts[1], cursor, (int) count));
+                        }
+                    }
+                    case "DELPREFIX" -> {
+                        if (!this.cacheInstance.isKeyIndexEnabled()) {
+                            output.println("ERROR_SCAN_DISABLED");
+                        } else if (parts.length != 2) {
+                            output.println("ERROR_USAGE_DELPREFIX");
+                        } else {
+                            output.println("DELETED " + deletePrefix(parts[1]));
+                        }
+                    }
                     default -> output.println("ERROR_UNKNOWN_COMMAND");
                 }
             } catch (Exception e) {
@@ -0,0 +1,190 @@
+package com.mylrucachelib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// dirty entries of a write-behind cache. writes only mark the key with its latest value, a flusher
+// thread hands them to the CacheWriter in batches once batchSize keys are dirty or flushIntervalMs
+// passed. segments do not evict a dirty key, and writers wait while maxDirty keys are dirty, so a
+// slow store holds up puts instead of losing writes or growing the cache without bound
+public class WriteBehind<K,V> implements AutoCloseable {
+    // marks a key removed since it was last flushed
+    private static final Object DELETED = new Object();
+    private static final long MAX_BACKOFF_MS = 5000;
+    private final CacheWriter<K,V> writer;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final int maxDirty;
+    private final ConcurrentHashMap<K,Object> dirty = new ConcurrentHashMap<>();
+    // writers wait on it while the queue is full
+    private final Object space = new Object();
+    private final Thread flusher;
+    private volatile boolean closed;
+    // flusher thread only
+    private long lastFlush = System.currentTimeMillis();
+    private volatile long flushes;
+    private volatile long flushedEntries;
+    private volatile long failures;
+    private final LongAdder blockedWrites = new LongAdder();
+    private static final Logger logger = Logger.getLogger(WriteBehind.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(WriteBehind.class.getName(), "cache.log", false);
+    }
+
+    public WriteBehind(CacheWriter<K,V> writer, int batchSize, long flushIntervalMs, int maxDirty) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Illegal batch size: " + batchSize);
+        }
+        if (flushIntervalMs <= 0) {
+            throw new IllegalArgumentException("Illegal flush interval: " + flushIntervalMs);
+        }
+        if (maxDirty < batchSize) {
+            throw new IllegalArgumentException("Dirty limit " + maxDirty + " below the batch size " + batchSize);
+        }
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxDirty = maxDirty;
+        this.flusher = new Thread(this::run, "Write-Behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // called by a writer before it takes the segment lock. the limit is soft, every writer that got
+    // past it may still add its key
+    void awaitSpace() {
+        if (dirty.size() < maxDirty) return;
+        blockedWrites.increment();
+        synchronized (space) {
+            while (dirty.size() >= maxDirty && !closed) {
+                try {
+                    space.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // under the segment lock, so the order of two writes to a key is the order they hit the cache.
+    // a null value is a delete
+    void markDirty(K key, V value) {
+        dirty.put(key, value == null ? DELETED : value);
+        if (dirty.size() >= batchSize) LockSupport.unpark(flusher);
+    }
+
+    boolean isDirty(K key) {
+        return dirty.containsKey(key);
+    }
+
+    private void run() {
+        long backoffMs = 0;
+        while (!closed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs > 0 ? backoffMs : flushIntervalMs));
+            if (closed) break;
+            if (backoffMs == 0 && dirty.size() < batchSize && !intervalDue()) continue;
+            try {
+                // whole batches come back to back while writers keep up with the flusher
+                int flushed;
+                do {
+                    flushed = flushBatch();
+                } while (flushed == batchSize && !closed);
+                backoffMs = 0;
+            } catch (Exception e) {
+                failures++;
+                backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(flushIntervalMs, backoffMs * 2));
+                logger.log(Level.WARNING, "Write-behind flush failed, retrying in " + backoffMs + "ms", e);
+            }
+        }
+        // a last pass so a clean shutdown loses nothing the store takes
+        try {
+            while (flushBatch() > 0) {
+                // until nothing is dirty
+            }
+        } catch (Exception e) {
+            failures++;
+            logger.log(Level.SEVERE, "Write-behind lost " + dirty.size() + " dirty entries on close", e);
+        }
+    }
+
+    private boolean intervalDue() {
+        return System.currentTimeMillis() - lastFlush >= flushIntervalMs;
+    }
+
+    // flusher thread only, returns how many keys went out
+    @SuppressWarnings("unchecked")
+    private int flushBatch() throws Exception {
+        lastFlush = System.currentTimeMillis();
+        Map<K,V> writes = new HashMap<>();
+        Set<K> deletes = new HashSet<>();
+        List<Map.Entry<K,Object>> taken = new ArrayList<>();
+        for (Map.Entry<K,Object> entry : dirty.entrySet()) {
+            if (taken.size() == batchSize) break;
+            Object value = entry.getValue();
+            if (value == DELETED) deletes.add(entry.getKey());
+            else writes.put(entry.getKey(), (V) value);
+            taken.add(Map.entry(entry.getKey(), value));
+        }
+        if (taken.isEmpty()) return 0;
+        if (!writes.isEmpty()) writer.writeAll(writes);
+        if (!deletes.isEmpty()) writer.deleteAll(deletes);
+        // a key written again meanwhile stays dirty with its newer value
+        for (Map.Entry<K,Object> entry : taken) {
+            dirty.remove(entry.getKey(), entry.getValue());
+        }
+        flushes++;
+        flushedEntries += taken.size();
+        synchronized (space) {
+            space.notifyAll();
+        }
+        return taken.size();
+    }
+
+    public int dirtyCount() {
+        return dirty.size();
+    }
+
+    public long flushes() {
+        return flushes;
+    }
+
+    public long flushedEntries() {
+        return flushedEntries;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    // writes that had to wait for the flusher
+    public long blockedWrites() {
+        return blockedWrites.sum();
+    }
+
+    // flushes what is dirty and stops the flusher, writers still waiting go ahead
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(flusher);
+        synchronized (space) {
+            space.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
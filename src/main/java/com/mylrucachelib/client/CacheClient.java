@@ -0,0 +1,532 @@
+package com.mylrucachelib.client;
+
+import com.mylrucachelib.CacheSegment;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.LoggerSetup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// non-blocking AsyncServer client. a single io thread drives a pool of connections; requests are
+// pipelined and matched to responses by order, since the server answers each connection in order.
+// whatever callers queued while the io thread was busy goes out in one write.
+public class CacheClient implements Closeable {
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long DEFAULT_TIMEOUT_MS = 5_000;
+    private static final long MIN_RECONNECT_DELAY_MS = 50;
+    private static final long MAX_RECONNECT_DELAY_MS = 2_000;
+    private static final int MAX_LINE = 1024 * 1024;
+    private final InetSocketAddress address;
+    private final long timeoutMs;
+    // selected on every connection as it comes up, null for the default namespace
+    private final String namespace;
+    private final Connection[] pool;
+    private final Selector selector;
+    private final Thread ioThread;
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private volatile boolean running = true;
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private static final Logger logger = Logger.getLogger(CacheClient.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(CacheClient.class.getName(), "cache-client.log", false);
+    }
+
+    private record Request(byte[] line, CompletableFuture<String> response) {}
+
+    // keys of one SCAN page, cursor is "0" once the prefix is done and otherwise goes into the next scan
+    public record ScanPage(String cursor, List<String> keys) {}
+
+    // everything but the submitted queue is owned by the io thread
+    private class Connection {
+        final Queue<Request> submitted = new ConcurrentLinkedQueue<>();
+        final Queue<Request> inflight = new ArrayDeque<>();
+        ByteBuffer out = ByteBuffer.allocate(8192);
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        SocketChannel channel;
+        SelectionKey key;
+        volatile boolean connected;
+        long reconnectAt;
+        long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    }
+
+    public CacheClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_POOL_SIZE, DEFAULT_TIMEOUT_MS);
+    }
+
+    public CacheClient(String host, int port, int poolSize, long timeoutMs) throws IOException {
+        this(host, port, poolSize, timeoutMs, null);
+    }
+
+    // all requests of the client then go to that namespace of the server
+    public CacheClient(String host, int port, int poolSize, long timeoutMs, String namespace) throws IOException {
+        if (namespace != null) checkToken(namespace, "namespace");
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Illegal pool size: " + poolSize);
+        }
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Illegal timeout: " + timeoutMs);
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.timeoutMs = timeoutMs;
+        this.namespace = namespace;
+        this.selector = Selector.open();
+        this.pool = new Connection[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            pool[i] = new Connection();
+        }
+        this.ioThread = new Thread(this::ioLoop, "CacheClient-IO");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    // completes with null when the key is not there
+    public CompletableFuture<String> get(String key) {
+        checkToken(key, "key");
+        return send("GET " + key).thenApply(response -> {
+            if (response.startsWith("VALUE ")) return response.substring(6);
+            if (response.equals("NOT_FOUND")) return null;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    public CompletableFuture<Void> put(String key, String value) {
+        return put(key, value, 0);
+    }
+
+    public CompletableFuture<Void> put(String key, String value, long ttlMs) {
+        checkToken(key, "key");
+        checkToken(value, "value");
+        String command = "PUT " + key + " " + value + (ttlMs > 0 ? " " + ttlMs : "");
+        return send(command).thenAccept(response -> {
+            if (!response.equals("OK")) throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // the entry turns into a miss once any of its tags is invalidated, tags must not contain commas
+    public CompletableFuture<Void> put(String key, String value, long ttlMs, String... tags) {
+        if (tags.length == 0) return put(key, value, ttlMs);
+        checkToken(key, "key");
+        checkToken(value, "value");
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("Illegal ttl: " + ttlMs);
+        }
+        for (String tag : tags) {
+            checkToken(tag, "tag");
+            if (tag.indexOf(',') != -1) throw new IllegalArgumentException("Illegal tag: " + tag);
+        }
+        return send("TAGPUT " + key + " " + value + " " + ttlMs + " " + String.join(",", tags)).thenAccept(response -> {
+            if (!response.equals("OK")) throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    public CompletableFuture<Void> invalidateTag(String tag) {
+        checkToken(tag, "tag");
+        return send("INVALIDATETAG " + tag).thenAccept(response -> {
+            if (!response.equals("OK")) throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // like get, but the read does not count as a use of the key on the server
+    public CompletableFuture<String> peek(String key) {
+        checkToken(key, "key");
+        return send("PEEK " + key).thenApply(response -> {
+            if (response.equals("NOT_FOUND")) return null;
+            if (response.startsWith("VALUE ")) return response.substring(6);
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    public CompletableFuture<Boolean> exists(String key) {
+        checkToken(key, "key");
+        return send("EXISTS " + key).thenApply(response -> {
+            if (response.equals("EXISTS")) return true;
+            if (response.equals("NOT_FOUND")) return false;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // completes with false when the key was not there
+    public CompletableFuture<Boolean> delete(String key) {
+        checkToken(key, "key");
+        return send("DEL " + key).thenApply(response -> {
+            if (response.equals("DELETED")) return true;
+            if (response.equals("NOT_FOUND")) return false;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // new ttl for a live entry, 0 lets it live forever. completes with false when there is none
+    public CompletableFuture<Boolean> touch(String key, long ttlMs) {
+        checkToken(key, "key");
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("Illegal ttl: " + ttlMs);
+        }
+        return send("TOUCH " + key + " " + ttlMs).thenApply(response -> {
+            if (response.equals("TOUCHED")) return true;
+            if (response.equals("NOT_FOUND")) return false;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // completes with false when a live entry was there already
+    public CompletableFuture<Boolean> putIfAbsent(String key, String value, long ttlMs) {
+        checkToken(key, "key");
+        checkToken(value, "value");
+        String command = "PUTIFABSENT " + key + " " + value + (ttlMs > 0 ? " " + ttlMs : "");
+        return send(command).thenApply(response -> {
+            if (response.equals("OK")) return true;
+            if (response.equals("EXISTS")) return false;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // value with its version for compareAndSet, null when the key is not there
+    public CompletableFuture<CacheSegment.Versioned<String>> getVersioned(String key) {
+        checkToken(key, "key");
+        return send("GETS " + key).thenApply(response -> {
+            if (response.equals("NOT_FOUND")) return null;
+            int space = response.indexOf(' ', 6);
+            if (!response.startsWith("VALUE ") || space == -1) {
+                throw new IllegalStateException("Unexpected response: " + response);
+            }
+            return new CacheSegment.Versioned<>(response.substring(space + 1), Long.parseLong(response.substring(6, space)));
+        });
+    }
+
+    // completes with the new version, LRUCache.CAS_CONFLICT when the entry was written since the
+    // version was read, or LRUCache.CAS_NOT_FOUND when it is gone
+    public CompletableFuture<Long> compareAndSet(String key, long version, String value, long ttlMs) {
+        checkToken(key, "key");
+        checkToken(value, "value");
+        String command = "CAS " + key + " " + version + " " + value + (ttlMs > 0 ? " " + ttlMs : "");
+        return send(command).thenApply(response -> {
+            if (response.startsWith("OK ")) return Long.parseLong(response.substring(3));
+            if (response.equals("EXISTS")) return LRUCache.CAS_CONFLICT;
+            if (response.equals("NOT_FOUND")) return LRUCache.CAS_NOT_FOUND;
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // completes with the sum. a new counter starts from zero and lives ttlMs, a live one keeps its
+    // expiry. fails when the value is not a number or the sum overflows
+    public CompletableFuture<Long> incrementBy(String key, long delta, long ttlMs) {
+        checkToken(key, "key");
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("Illegal ttl: " + ttlMs);
+        }
+        return send("INCRBY " + key + " " + delta + (ttlMs > 0 ? " " + ttlMs : "")).thenApply(response -> {
+            if (response.startsWith("VALUE ")) return Long.parseLong(response.substring(6));
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    public CompletableFuture<Long> increment(String key) {
+        return incrementBy(key, 1, 0);
+    }
+
+    // the server has to run with its key index, pass cursor "0" for the first page
+    public CompletableFuture<ScanPage> scan(String prefix, String cursor, int count) {
+        checkToken(prefix, "prefix");
+        checkToken(cursor, "cursor");
+        return send("SCAN " + prefix + " " + cursor + " " + count).thenApply(response -> {
+            String[] parts = response.split(" ");
+            if (!parts[0].equals("KEYS") || parts.length < 2) {
+                throw new IllegalStateException("Unexpected response: " + response);
+            }
+            return new ScanPage(parts[1], List.of(Arrays.copyOfRange(parts, 2, parts.length)));
+        });
+    }
+
+    // completes with how many keys were deleted
+    public CompletableFuture<Integer> deletePrefix(String prefix) {
+        checkToken(prefix, "prefix");
+        return send("DELPREFIX " + prefix).thenApply(response -> {
+            if (response.startsWith("DELETED ")) return Integer.parseInt(response.substring(8));
+            throw new IllegalStateException("Unexpected response: " + response);
+        });
+    }
+
+    // raw protocol line, for commands without a typed method
+    public CompletableFuture<String> command(String line) {
+        if (line == null || line.isEmpty() || line.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("Illegal command: " + line);
+        }
+        return send(line);
+    }
+
+    private static void checkToken(String token, String what) {
+        if (token == null || token.isEmpty() || token.indexOf(' ') != -1 || token.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("Illegal " + what + ": " + token);
+        }
+    }
+
+    private CompletableFuture<String> send(String command) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        if (!running) {
+            response.completeExceptionally(new IOException("Client closed"));
+            return response;
+        }
+        // a late answer still lands on the timed out request, so the order stays aligned
+        response.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        pick().submitted.add(new Request((command + "\n").getBytes(StandardCharsets.UTF_8), response));
+        if (wakeupRequested.compareAndSet(false, true)) selector.wakeup();
+        return response;
+    }
+
+    // round robin over connected members, queued on a down one if none is up
+    private Connection pick() {
+        int start = Math.floorMod(nextConnection.getAndIncrement(), pool.length);
+        for (int i = 0; i < pool.length; i++) {
+            Connection c = pool[(start + i) % pool.length];
+            if (c.connected) return c;
+        }
+        return pool[start];
+    }
+
+    private void ioLoop() {
+        for (Connection c : pool) {
+            connect(c);
+        }
+        while (running) {
+            try {
+                selector.select(nextSelectTimeout());
+                wakeupRequested.set(false);
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isConnectable()) finishConnect(c);
+                        if (key.isValid() && key.isReadable()) read(c);
+                    } catch (IOException e) {
+                        drop(c, e);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                for (Connection c : pool) {
+                    if (c.channel == null && now >= c.reconnectAt) connect(c);
+                    if (!c.connected) {
+                        rehome(c);
+                    } else {
+                        try {
+                            flush(c);
+                        } catch (IOException e) {
+                            drop(c, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "IO Error in client loop", e);
+            }
+        }
+        for (Connection c : pool) {
+            drop(c, new IOException("Client closed"));
+            failAll(c.submitted, new IOException("Client closed"));
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    // unsent requests of a down connection move to a live one rather than wait for the reconnect
+    private void rehome(Connection c) {
+        if (c.submitted.isEmpty()) return;
+        Connection target = pick();
+        if (target == c || !target.connected) return;
+        Request r;
+        while ((r = c.submitted.poll()) != null) {
+            target.submitted.add(r);
+        }
+        if (wakeupRequested.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    private long nextSelectTimeout() {
+        long wait = 1_000;
+        long now = System.currentTimeMillis();
+        for (Connection c : pool) {
+            if (c.channel == null) wait = Math.min(wait, Math.max(1, c.reconnectAt - now));
+        }
+        return wait;
+    }
+
+    private void connect(Connection c) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            c.channel = channel;
+            if (channel.connect(address)) {
+                c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                onConnected(c);
+            } else {
+                c.key = channel.register(selector, SelectionKey.OP_CONNECT, c);
+            }
+        } catch (IOException e) {
+            drop(c, e);
+        }
+    }
+
+    private void finishConnect(Connection c) throws IOException {
+        if (c.channel.finishConnect()) {
+            c.key.interestOps(SelectionKey.OP_READ);
+            onConnected(c);
+        }
+    }
+
+    private void onConnected(Connection c) {
+        if (namespace != null) {
+            // ahead of anything queued, the next flush sends it first
+            byte[] select = ("SELECT " + namespace + "\n").getBytes(StandardCharsets.UTF_8);
+            CompletableFuture<String> selected = new CompletableFuture<>();
+            selected.thenAccept(response -> {
+                if (!response.equals("OK")) logger.warning("SELECT " + namespace + " refused: " + response);
+            });
+            c.out.put(select);
+            c.inflight.add(new Request(select, selected));
+        }
+        c.connected = true;
+        c.reconnectDelay = MIN_RECONNECT_DELAY_MS;
+        logger.fine("Connected to " + address);
+    }
+
+    // requests already written may or may not have run, so they fail; unsent ones wait for the reconnect
+    private void drop(Connection c, IOException cause) {
+        if (c.connected) {
+            logger.log(Level.WARNING, "Connection to " + address + " lost", cause);
+            reconnects.incrementAndGet();
+        }
+        if (c.channel != null) {
+            if (c.key != null) c.key.cancel();
+            try {
+                c.channel.close();
+            } catch (IOException ignored) {}
+        }
+        c.channel = null;
+        c.key = null;
+        c.connected = false;
+        c.out.clear();
+        c.in.clear();
+        failAll(c.inflight, cause);
+        c.reconnectAt = System.currentTimeMillis() + c.reconnectDelay;
+        c.reconnectDelay = Math.min(MAX_RECONNECT_DELAY_MS, c.reconnectDelay * 2);
+    }
+
+    private static void failAll(Queue<Request> requests, IOException cause) {
+        Request r;
+        while ((r = requests.poll()) != null) {
+            r.response.completeExceptionally(cause);
+        }
+    }
+
+    private void flush(Connection c) throws IOException {
+        Request r;
+        int batched = 0;
+        while ((r = c.submitted.poll()) != null) {
+            if (r.response.isDone()) continue; // timed out before it was sent
+            if (c.out.remaining() < r.line.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.out.capacity() * 2, c.out.position() + r.line.length));
+                c.out.flip();
+                bigger.put(c.out);
+                c.out = bigger;
+            }
+            c.out.put(r.line);
+            c.inflight.add(r);
+            batched++;
+        }
+        if (c.out.position() == 0) return;
+        c.out.flip();
+        c.channel.write(c.out);
+        c.out.compact();
+        writes.incrementAndGet();
+        requestsSent.addAndGet(batched);
+        // the socket buffer was full, finish when it drains
+        c.key.interestOps(c.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void read(Connection c) throws IOException {
+        int bytes = c.channel.read(c.in);
+        if (bytes == -1) throw new IOException("Server closed the connection");
+        c.in.flip();
+        int lineStart = c.in.position();
+        for (int i = lineStart; i < c.in.limit(); i++) {
+            if (c.in.get(i) != '\n') continue;
+            byte[] line = new byte[i - lineStart];
+            c.in.get(line);
+            c.in.get(); // skip \n
+            lineStart = i + 1;
+            Request r = c.inflight.poll();
+            if (r == null) {
+                logger.warning("Response without request from " + address);
+                continue;
+            }
+            r.response.complete(new String(line, StandardCharsets.UTF_8).trim());
+        }
+        c.in.compact();
+        if (!c.in.hasRemaining()) {
+            if (c.in.capacity() >= MAX_LINE) throw new IOException("Response too large");
+            ByteBuffer bigger = ByteBuffer.allocate(c.in.capacity() * 2);
+            c.in.flip();
+            bigger.put(c.in);
+            c.in = bigger;
+        }
+    }
+
+    public long requestsSent() {
+        return requestsSent.get();
+    }
+
+    // socket writes issued, lower than requestsSent when requests were coalesced
+    public long writes() {
+        return writes.get();
+    }
+
+    // established connections that were lost since the client started
+    public long reconnects() {
+        return reconnects.get();
+    }
+
+    public int connectedCount() {
+        int n = 0;
+        for (Connection c : pool) {
+            if (c.connected) n++;
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.mylrucachelib.client;
+
+import com.mylrucachelib.LoggerSetup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// spreads keys over several AsyncServer nodes with a consistent hash ring. every node owns many
+// points on the ring, so adding or removing one only moves the keys between it and its neighbours.
+public class ClusterClient implements Closeable {
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final int DEFAULT_POOL_SIZE = 2;
+    private static final long DEFAULT_TIMEOUT_MS = 5_000;
+    private final int virtualNodes;
+    private final int poolSize;
+    private final long timeoutMs;
+    private final Map<String, CacheClient> clients = new ConcurrentHashMap<>();
+    // replaced as a whole on membership changes, lookups never lock
+    private volatile Ring ring = new Ring(new long[0], new String[0]);
+    private static final Logger logger = Logger.getLogger(ClusterClient.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(ClusterClient.class.getName(), "cluster-client.log", false);
+    }
+
+    // points sorted ascending, owners[i] owns the arc that ends at points[i]
+    private record Ring(long[] points, String[] owners) {
+        String ownerOf(long hash) {
+            int i = Arrays.binarySearch(points, hash);
+            if (i < 0) i = -i - 1;
+            return owners[i == points.length ? 0 : i];
+        }
+    }
+
+    // nodes as "host:port"
+    public ClusterClient(Collection<String> nodes) throws IOException {
+        this(nodes, DEFAULT_VIRTUAL_NODES, DEFAULT_POOL_SIZE, DEFAULT_TIMEOUT_MS);
+    }
+
+    public ClusterClient(Collection<String> nodes, int virtualNodes, int poolSize, long timeoutMs) throws IOException {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Illegal virtual node count: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.poolSize = poolSize;
+        this.timeoutMs = timeoutMs;
+        for (String node : nodes) {
+            addNode(node);
+        }
+    }
+
+    public synchronized void addNode(String node) throws IOException {
+        if (clients.containsKey(node)) return;
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Node must be host:port, got " + node);
+        }
+        String host = node.substring(0, colon);
+        int port = Integer.parseInt(node.substring(colon + 1));
+        clients.put(node, new CacheClient(host, port, poolSize, timeoutMs));
+        rebuildRing(clients.keySet());
+        logger.info("Node added: " + node + ", cluster size " + clients.size());
+    }
+
+    // keys of the removed node fall to its ring successors, they come back as misses
+    public synchronized void removeNode(String node) {
+        if (!clients.containsKey(node)) return;
+        // the ring stops pointing at the node before its client goes away
+        List<String> remaining = new ArrayList<>(clients.keySet());
+        remaining.remove(node);
+        rebuildRing(remaining);
+        clients.remove(node).close();
+        logger.info("Node removed: " + node + ", cluster size " + clients.size());
+    }
+
+    private void rebuildRing(Collection<String> nodes) {
+        int n = nodes.size() * virtualNodes;
+        long[] hashes = new long[n];
+        String[] byPoint = new String[n];
+        Integer[] order = new Integer[n];
+        int p = 0;
+        for (String node : nodes) {
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[p] = hash(node + "#" + v);
+                byPoint[p] = node;
+                order[p] = p;
+                p++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        long[] points = new long[n];
+        String[] owners = new String[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = byPoint[order[i]];
+        }
+        this.ring = new Ring(points, owners);
+    }
+
+    // 64 bit fnv-1a with a murmur finalizer, String.hashCode clusters too much for ring points
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public String nodeFor(String key) {
+        Ring r = ring;
+        if (r.points.length == 0) {
+            throw new IllegalStateException("Cluster has no nodes");
+        }
+        return r.ownerOf(hash(key));
+    }
+
+    private CacheClient clientFor(String key) {
+        String node = nodeFor(key);
+        CacheClient client = clients.get(node);
+        if (client == null) { // removed after we read the ring, the new one no longer has it
+            return clientFor(key);
+        }
+        return client;
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return clientFor(key).get(key);
+    }
+
+    public CompletableFuture<Void> put(String key, String value) {
+        return clientFor(key).put(key, value);
+    }
+
+    public CompletableFuture<Void> put(String key, String value, long ttlMs) {
+        return clientFor(key).put(key, value, ttlMs);
+    }
+
+    // one pipelined burst per node, all nodes in parallel. missing keys are left out of the map
+    public CompletableFuture<Map<String, String>> getAll(Collection<String> keys) {
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        for (String key : keys) {
+            pending.computeIfAbsent(key, this::get);
+        }
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, String> result = new HashMap<>();
+            pending.forEach((key, future) -> {
+                String value = future.join();
+                if (value != null) result.put(key, value);
+            });
+            return result;
+        });
+    }
+
+    public Set<String> nodes() {
+        return Set.copyOf(clients.keySet());
+    }
+
+    @Override
+    public synchronized void close() {
+        for (CacheClient client : clients.values()) {
+            client.close();
+        }
+        clients.clear();
+        rebuildRing(List.of());
+    }
+}
@@ -0,0 +1,196 @@
+package com.mylrucachelib.client;
+
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.LoggerSetup;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// AsyncServer client with a local LRUCache in front of the connection. the server is asked to track
+// the keys this connection reads and pushes "INVALIDATE key" lines when they change, expire or get evicted.
+// all near cache updates coming from the connection are applied by the reader thread in wire order,
+// so a value is never installed after the invalidation that followed it.
+public class NearCacheClient implements Closeable {
+    private static final long DEFAULT_TIMEOUT_MS = 5_000;
+    private static final String INVALIDATE = "INVALIDATE ";
+    private static final String TTL = "TTL ";
+    private final Socket socket;
+    private final BufferedReader input;
+    private final OutputStream output;
+    private final LRUCache<String,String> nearCache;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final Lock writeLock = new ReentrantLock();
+    private final Thread reader;
+    private final long timeoutMs;
+    private volatile boolean closed;
+    private final AtomicLong nearHits = new AtomicLong();
+    private final AtomicLong remoteRequests = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private static final Logger logger = Logger.getLogger(NearCacheClient.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(NearCacheClient.class.getName(), "near-cache-client.log", false);
+    }
+
+    // key is set for GETs whose value should land in the near cache
+    private record Pending(String key, CompletableFuture<String> response) {}
+
+    public NearCacheClient(String host, int port, int nearCacheCapacity) throws IOException {
+        this(host, port, nearCacheCapacity, DEFAULT_TIMEOUT_MS);
+    }
+
+    public NearCacheClient(String host, int port, int nearCacheCapacity, long timeoutMs) throws IOException {
+        this.nearCache = new LRUCache<>(nearCacheCapacity, 4);
+        this.timeoutMs = timeoutMs;
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.output = socket.getOutputStream();
+        this.reader = new Thread(this::readLoop, "NearCache-Reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+        String ack = request("TRACKING ON", null);
+        if (!"OK".equals(ack)) {
+            close();
+            throw new IOException("Server refused tracking: " + ack);
+        }
+    }
+
+    public String get(String key) throws IOException {
+        if (closed) throw new IOException("Connection closed");
+        String value = nearCache.get(key);
+        if (value != null) {
+            nearHits.incrementAndGet();
+            return value;
+        }
+        String response = request("GET " + key, key);
+        if (response.startsWith("VALUE ")) return response.substring(6);
+        if (response.equals("NOT_FOUND")) return null;
+        throw new IOException("Unexpected response: " + response);
+    }
+
+    public void put(String key, String value) throws IOException {
+        put(key, value, 0);
+    }
+
+    public void put(String key, String value, long ttlMs) throws IOException {
+        // our own write is dropped locally at once, the server push for it arrives later
+        nearCache.remove(key);
+        String command = "PUT " + key + " " + value + (ttlMs > 0 ? " " + ttlMs : "");
+        String response = request(command, null);
+        if (!response.equals("OK")) throw new IOException("Unexpected response: " + response);
+    }
+
+    private String request(String command, String cacheKey) throws IOException {
+        if (closed) throw new IOException("Connection closed");
+        Pending p = new Pending(cacheKey, new CompletableFuture<>());
+        writeLock.lock();
+        try {
+            // enqueue and write together so that the pending order matches the wire order
+            pending.add(p);
+            output.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+        remoteRequests.incrementAndGet();
+        try {
+            return p.response.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // responses are matched by position, after a lost one the connection cannot be trusted
+            close();
+            throw new IOException("Timed out waiting for: " + command);
+        } catch (ExecutionException e) {
+            throw new IOException("Request failed: " + command, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for: " + command, e);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            String line;
+            // sent right before the value of a key with a ttl, which then expires here on its own
+            long ttlMs = 0;
+            while ((line = input.readLine()) != null) {
+                if (line.startsWith(INVALIDATE)) {
+                    nearCache.remove(line.substring(INVALIDATE.length()));
+                    invalidations.incrementAndGet();
+                    continue;
+                }
+                if (line.startsWith(TTL)) {
+                    ttlMs = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                    continue;
+                }
+                Pending p = pending.poll();
+                if (p == null) {
+                    logger.warning("Response without request: " + line);
+                    continue;
+                }
+                if (p.key != null && line.startsWith("VALUE ")) {
+                    nearCache.put(p.key, line.substring(6), ttlMs);
+                }
+                ttlMs = 0;
+                p.response.complete(line);
+            }
+        } catch (IOException e) {
+            if (!closed) logger.log(Level.WARNING, "Connection lost", e);
+        }
+        close();
+    }
+
+    public long nearHits() {
+        return nearHits.get();
+    }
+
+    public long remoteRequests() {
+        return remoteRequests.get();
+    }
+
+    public long invalidations() {
+        return invalidations.get();
+    }
+
+    public int nearCacheSize() {
+        return nearCache.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // without the connection nothing would invalidate the near cache, so it is not consulted afterwards
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        Pending p;
+        while ((p = pending.poll()) != null) {
+            p.response.completeExceptionally(new IOException("Connection closed"));
+        }
+        nearCache.shutdown();
+    }
+}
@@ -0,0 +1,16 @@
+package com.mylrucachelib.persistence;
+
+import java.nio.ByteBuffer;
+
+// buffer side counterpart of Serializer. the size is known before anything is written, so callers can
+// size or slice a buffer (heap, direct or mapped) up front and encode straight into it
+public interface Codec<T> {
+    // exact number of bytes encode writes for the value
+    int encodedSize(T value);
+
+    // writes at the buffer's position and moves it past the value
+    void encode(T value, ByteBuffer out);
+
+    // reads at the buffer's position and moves it past the value
+    T decode(ByteBuffer in);
+}
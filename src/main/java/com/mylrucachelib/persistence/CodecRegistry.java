@@ -0,0 +1,126 @@
+package com.mylrucachelib.persistence;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InaccessibleObjectException;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// codecs by type. comes with the built-ins for String, byte[] and the boxed primitives; a record gets
+// a codec made of its components' codecs the first time it is asked for
+public class CodecRegistry {
+    private final Map<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+
+    public CodecRegistry() {
+        register(String.class, Codecs.STRING);
+        register(byte[].class, Codecs.BYTES);
+        register(Integer.class, Codecs.INT);
+        register(Long.class, Codecs.LONG);
+        register(Double.class, Codecs.DOUBLE);
+        register(Boolean.class, Codecs.BOOLEAN);
+        register(int.class, Codecs.INT);
+        register(long.class, Codecs.LONG);
+        register(double.class, Codecs.DOUBLE);
+        register(boolean.class, Codecs.BOOLEAN);
+    }
+
+    public <T> CodecRegistry register(Class<T> type, Codec<? extends T> codec) {
+        codecs.put(type, codec);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> codecFor(Class<T> type) {
+        Codec<?> codec = codecs.get(type);
+        if (codec == null) {
+            if (!type.isRecord()) {
+                throw new IllegalArgumentException("No codec for " + type.getName());
+            }
+            // built outside the map, a record's components look up their own codecs on the way
+            Codec<?> built = new RecordCodec<>(type, this);
+            Codec<?> raced = codecs.putIfAbsent(type, built);
+            codec = raced != null ? raced : built;
+        }
+        return (Codec<T>) codec;
+    }
+
+    // the components one after the other in declaration order
+    private static class RecordCodec<R> implements Codec<R> {
+        private final MethodHandle[] accessors;
+        private final Codec<Object>[] components;
+        private final MethodHandle constructor;
+
+        @SuppressWarnings("unchecked")
+        RecordCodec(Class<R> type, CodecRegistry registry) {
+            RecordComponent[] parts = type.getRecordComponents();
+            this.accessors = new MethodHandle[parts.length];
+            // no generic array creation, every slot gets a Codec<Object> below
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Codec<Object>[] codecs = new Codec[parts.length];
+            this.components = codecs;
+            Class<?>[] types = new Class<?>[parts.length];
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                for (int i = 0; i < parts.length; i++) {
+                    types[i] = parts[i].getType();
+                    Method accessor = parts[i].getAccessor();
+                    accessor.setAccessible(true); // records declared private or package-private elsewhere
+                    accessors[i] = lookup.unreflect(accessor).asType(MethodType.methodType(Object.class, Object.class));
+                    components[i] = (Codec<Object>) registry.codecFor(types[i]);
+                }
+                Constructor<R> canonical = type.getDeclaredConstructor(types);
+                canonical.setAccessible(true);
+                this.constructor = lookup.unreflectConstructor(canonical)
+                        .asType(MethodType.methodType(Object.class, types))
+                        .asSpreader(Object[].class, parts.length);
+            } catch (ReflectiveOperationException | InaccessibleObjectException e) {
+                throw new IllegalArgumentException("Record " + type.getName() + " is not accessible", e);
+            }
+        }
+
+        private Object component(R value, int i) {
+            try {
+                return accessors[i].invokeExact((Object) value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read a component", e);
+            }
+        }
+
+        @Override
+        public int encodedSize(R value) {
+            int size = 0;
+            for (int i = 0; i < components.length; i++) {
+                size += components[i].encodedSize(component(value, i));
+            }
+            return size;
+        }
+
+        @Override
+        public void encode(R value, ByteBuffer out) {
+            for (int i = 0; i < components.length; i++) {
+                components[i].encode(component(value, i), out);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public R decode(ByteBuffer in) {
+            Object[] args = new Object[components.length];
+            for (int i = 0; i < components.length; i++) {
+                args[i] = components[i].decode(in);
+            }
+            try {
+                return (R) constructor.invokeExact(args);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to construct the record", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.mylrucachelib.persistence;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// the built-in codecs. lengths are unsigned varints (7 bits per byte, low group first), VAR_INT and
+// VAR_LONG zigzag the sign so small negative numbers stay short as well
+public final class Codecs {
+    private Codecs() {}
+
+    // raw UTF-8 behind a varint byte length, no 64KB limit and no modified UTF-8 like writeUTF.
+    // a lone surrogate is written as '?', the same as String.getBytes does
+    public static final Codec<String> STRING = new Codec<>() {
+        @Override
+        public int encodedSize(String value) {
+            int length = utf8Length(value);
+            return varIntSize(length) + length;
+        }
+
+        // String.getBytes has intrinsics for latin-1 and utf-16 strings, it beats a char loop even with the copy
+        @Override
+        public void encode(String value, ByteBuffer out) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(out, bytes.length);
+            out.put(bytes);
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+            int length = getVarInt(in);
+            if (length > in.remaining()) throw new BufferUnderflowException();
+            if (in.hasArray()) {
+                String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+                return value;
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final Codec<byte[]> BYTES = new Codec<>() {
+        @Override
+        public int encodedSize(byte[] value) {
+            return varIntSize(value.length) + value.length;
+        }
+
+        @Override
+        public void encode(byte[] value, ByteBuffer out) {
+            putVarInt(out, value.length);
+            out.put(value);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer in) {
+            int length = getVarInt(in);
+            if (length > in.remaining()) throw new BufferUnderflowException();
+            byte[] value = new byte[length];
+            in.get(value);
+            return value;
+        }
+    };
+
+    public static final Codec<Integer> INT = new Codec<>() {
+        @Override
+        public int encodedSize(Integer value) {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void encode(Integer value, ByteBuffer out) {
+            out.putInt(value);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<>() {
+        @Override
+        public int encodedSize(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+
+    public static final Codec<Double> DOUBLE = new Codec<>() {
+        @Override
+        public int encodedSize(Double value) {
+            return Double.BYTES;
+        }
+
+        @Override
+        public void encode(Double value, ByteBuffer out) {
+            out.putDouble(value);
+        }
+
+        @Override
+        public Double decode(ByteBuffer in) {
+            return in.getDouble();
+        }
+    };
+
+    public static final Codec<Boolean> BOOLEAN = new Codec<>() {
+        @Override
+        public int encodedSize(Boolean value) {
+            return 1;
+        }
+
+        @Override
+        public void encode(Boolean value, ByteBuffer out) {
+            out.put((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public Boolean decode(ByteBuffer in) {
+            return in.get() != 0;
+        }
+    };
+
+    public static final Codec<Integer> VAR_INT = new Codec<>() {
+        @Override
+        public int encodedSize(Integer value) {
+            return varIntSize(zigzag(value));
+        }
+
+        @Override
+        public void encode(Integer value, ByteBuffer out) {
+            putVarInt(out, zigzag(value));
+        }
+
+        @Override
+        public Integer decode(ByteBuffer in) {
+            int v = getVarInt(in);
+            return (v >>> 1) ^ -(v & 1);
+        }
+    };
+
+    public static final Codec<Long> VAR_LONG = new Codec<>() {
+        @Override
+        public int encodedSize(Long value) {
+            return varLongSize(zigzag(value));
+        }
+
+        @Override
+        public void encode(Long value, ByteBuffer out) {
+            putVarLong(out, zigzag(value));
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+            long v = getVarLong(in);
+            return (v >>> 1) ^ -(v & 1);
+        }
+    };
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    public static int varIntSize(int v) {
+        return (32 - Integer.numberOfLeadingZeros(v | 1) + 6) / 7;
+    }
+
+    public static int varLongSize(long v) {
+        return (64 - Long.numberOfLeadingZeros(v | 1) + 6) / 7;
+    }
+
+    public static void putVarInt(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    public static int getVarInt(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static void putVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    public static long getVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static int utf8Length(String s) {
+        int n = s.length();
+        int length = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 2; // two chars, four bytes
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,384 @@
+package com.mylrucachelib.persistence;
+
+import com.mylrucachelib.LoggerSetup;
+import com.mylrucachelib.TimeSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// second cache tier on disk: entries go into append-only, memory-mapped segment files and an in-memory
+// index maps every key to the record holding its latest value. writes are serialized, reads go straight
+// to the mapping. a background collector copies the live records out of mostly dead segments and drops
+// the oldest segments once the tier is over its size; the tier is a cache, nothing survives a restart
+public class DiskTier<K,V> implements AutoCloseable {
+    private static final String SUFFIX = ".tier";
+    // record: length, expiry, key, value
+    private static final int HEADER = Integer.BYTES + Long.BYTES;
+    // segments with less than this share of live bytes get compacted
+    private static final double MIN_LIVE_RATIO = 0.5;
+    private final Path dir;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final TimeSource clock;
+    // key -> segment id << 32 | offset
+    private final ConcurrentHashMap<K, Long> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService collector;
+    private volatile Consumer<? super K> dropHook;
+    // guarded by this
+    private Segment active;
+    private int nextId;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder compacted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private static final Logger logger = Logger.getLogger(DiskTier.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(DiskTier.class.getName(), "persistence.log", false);
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // end of the last record, written under the tier lock and read by the collector after sealing
+        volatile int position;
+        final AtomicLong dead = new AtomicLong();
+
+        Segment(int id, Path path, int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        double liveRatio() {
+            int written = position;
+            return written == 0 ? 1.0 : 1.0 - (double) dead.get() / written;
+        }
+
+        // the mapping stays valid for readers still holding it until it is garbage collected
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not delete tier segment " + path, e);
+            }
+        }
+    }
+
+    public record Hit<V>(V value, long expireAt) {}
+
+    public DiskTier(Path dir, Codec<K> keyCodec, Codec<V> valueCodec, int segmentBytes, long maxBytes) {
+        this(dir, keyCodec, valueCodec, segmentBytes, maxBytes, System::currentTimeMillis);
+    }
+
+    // maxBytes is rounded down to whole segments, at least two: one being written and one to compact
+    public DiskTier(Path dir, Codec<K> keyCodec, Codec<V> valueCodec, int segmentBytes, long maxBytes, TimeSource clock) {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("Illegal segment size: " + segmentBytes);
+        }
+        if (maxBytes < 2L * segmentBytes) {
+            throw new IllegalArgumentException("Tier of " + maxBytes + " bytes holds less than two segments");
+        }
+        this.dir = dir;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+        this.clock = clock;
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                for (Path leftover : leftovers) Files.delete(leftover);
+            }
+            synchronized (this) {
+                this.active = newSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open disk tier in " + dir, e);
+        }
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Disk-Tier-GC");
+            t.setDaemon(true);
+            return t;
+        });
+        collector.scheduleWithFixedDelay(this::collect, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static long location(int segment, int offset) {
+        return (long) segment << 32 | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    // guarded by this
+    private Segment newSegment() throws IOException {
+        int id = nextId++;
+        Segment segment = new Segment(id, dir.resolve(String.format("%010d%s", id, SUFFIX)), segmentBytes);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // hears about keys the tier loses on its own: expired, or in a segment dropped to stay within size
+    public void setDropHook(Consumer<? super K> hook) {
+        this.dropHook = hook;
+    }
+
+    // expireAt is absolute, 0 for none. false when the entry does not fit into a segment
+    public synchronized boolean put(K key, V value, long expireAt) {
+        int length = HEADER + keyCodec.encodedSize(key) + valueCodec.encodedSize(value);
+        if (length > segmentBytes) return false;
+        try {
+            ensureRoom(length);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Disk tier could not roll its segment", e);
+            return false;
+        }
+        ByteBuffer out = active.buffer.duplicate();
+        int offset = active.position;
+        out.position(offset);
+        out.putInt(length);
+        out.putLong(expireAt);
+        keyCodec.encode(key, out);
+        valueCodec.encode(value, out);
+        active.position = offset + length;
+        Long previous = index.put(key, location(active.id, offset));
+        if (previous != null) markDead(previous);
+        spills.increment();
+        return true;
+    }
+
+    // guarded by this
+    private void ensureRoom(int length) throws IOException {
+        if (active.position + length <= segmentBytes) return;
+        active = newSegment();
+        // over size: the oldest segment goes with whatever is still live in it
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active) break;
+            drop(oldest);
+        }
+    }
+
+    private void drop(Segment segment) {
+        List<K> lost = new ArrayList<>();
+        scan(segment, (key, location, expireAt, length) -> {
+            if (index.remove(key, location)) lost.add(key);
+        });
+        segments.remove(segment.id);
+        segment.delete();
+        dropped.add(lost.size());
+        Consumer<? super K> hook = dropHook;
+        if (hook != null) lost.forEach(hook);
+    }
+
+    private void markDead(long location) {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment != null) segment.dead.addAndGet(segment.buffer.getInt(offsetOf(location)));
+    }
+
+    public V get(K key) {
+        Hit<V> hit = read(key, false);
+        return hit == null ? null : hit.value();
+    }
+
+    // removes the entry and hands it over, for promotion into the memory tier. whoever takes it owns
+    // the latest value: a put or take that got in first makes this one miss
+    public Hit<V> take(K key) {
+        return read(key, true);
+    }
+
+    private Hit<V> read(K key, boolean remove) {
+        while (true) {
+            Long location = index.get(key);
+            if (location == null) {
+                misses.increment();
+                return null;
+            }
+            Segment segment = segments.get(segmentOf(location));
+            if (segment == null) continue; // compacted meanwhile, the index already points at the copy
+            ByteBuffer in = segment.buffer.duplicate();
+            in.position(offsetOf(location) + Integer.BYTES);
+            long expireAt = in.getLong();
+            keyCodec.decode(in);
+            V value = valueCodec.decode(in);
+            if (expireAt != 0 && clock.currentTimeMillis() > expireAt) {
+                if (index.remove(key, location)) {
+                    markDead(location);
+                    Consumer<? super K> hook = dropHook;
+                    if (hook != null) hook.accept(key);
+                }
+                misses.increment();
+                return null;
+            }
+            if (remove) {
+                if (!index.remove(key, location)) continue;
+                markDead(location);
+            }
+            hits.increment();
+            return new Hit<>(value, expireAt);
+        }
+    }
+
+    public boolean remove(K key) {
+        Long location = index.remove(key);
+        if (location == null) return false;
+        markDead(location);
+        return true;
+    }
+
+    public boolean containsKey(K key) {
+        return index.containsKey(key);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // mapped file space in use
+    public long diskBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long spills() {
+        return spills.sum();
+    }
+
+    // live records moved by compaction so far
+    public long compacted() {
+        return compacted.sum();
+    }
+
+    // live entries lost with dropped segments so far
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private interface RecordVisitor<K> {
+        void visit(K key, long location, long expireAt, int length);
+    }
+
+    private void scan(Segment segment, RecordVisitor<K> visitor) {
+        ByteBuffer in = segment.buffer.duplicate();
+        int end = segment.position;
+        int offset = 0;
+        while (offset < end) {
+            in.position(offset);
+            int length = in.getInt();
+            long expireAt = in.getLong();
+            K key = keyCodec.decode(in);
+            visitor.visit(key, location(segment.id, offset), expireAt, length);
+            offset += length;
+        }
+    }
+
+    // compacts sealed segments that are mostly dead, oldest first
+    void collect() {
+        try {
+            for (Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+                Segment segment = entry.getValue();
+                synchronized (this) {
+                    if (segment == active || !segments.containsKey(segment.id)) continue;
+                }
+                if (segment.liveRatio() < MIN_LIVE_RATIO) compact(segment);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Disk tier collection failed", e);
+        }
+    }
+
+    public void compactNow() {
+        collect();
+    }
+
+    // copies one live record at a time, so writers wait for a single copy at most
+    private void compact(Segment segment) {
+        long now = clock.currentTimeMillis();
+        scan(segment, (key, location, expireAt, length) -> {
+            Long current = index.get(key);
+            if (current == null || current != location) return; // superseded or removed
+            if (expireAt != 0 && now > expireAt) {
+                if (index.remove(key, location)) {
+                    Consumer<? super K> hook = dropHook;
+                    if (hook != null) hook.accept(key);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (!segments.containsKey(segment.id)) return; // dropped for size meanwhile
+                try {
+                    ensureRoom(length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                ByteBuffer from = segment.buffer.duplicate();
+                from.position(offsetOf(location)).limit(offsetOf(location) + length);
+                ByteBuffer to = active.buffer.duplicate();
+                int offset = active.position;
+                to.position(offset);
+                to.put(from);
+                active.position = offset + length;
+                if (index.replace(key, location, location(active.id, offset))) {
+                    compacted.increment();
+                } else {
+                    active.dead.addAndGet(length);
+                }
+            }
+        });
+        synchronized (this) {
+            if (segments.remove(segment.id) != null) segment.delete();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        collector.shutdownNow();
+        index.clear();
+        for (Segment segment : segments.values()) {
+            segment.delete();
+        }
+        segments.clear();
+    }
+}
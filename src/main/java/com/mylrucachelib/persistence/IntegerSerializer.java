@@ -0,0 +1,17 @@
+package com.mylrucachelib.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class IntegerSerializer implements Serializer<Integer> {
+    @Override
+    public void serialize(DataOutputStream out, Integer object) throws IOException {
+        out.writeInt(object);
+    }
+
+    @Override
+    public Integer deserialize(DataInputStream in) throws IOException {
+        return in.readInt();
+    }
+}
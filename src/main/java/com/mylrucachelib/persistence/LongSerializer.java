@@ -0,0 +1,17 @@
+package com.mylrucachelib.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class LongSerializer implements Serializer<Long> {
+    @Override
+    public void serialize(DataOutputStream out, Long object) throws IOException {
+        out.writeLong(object);
+    }
+
+    @Override
+    public Long deserialize(DataInputStream in) throws IOException {
+        return in.readLong();
+    }
+}
@@ -0,0 +1,28 @@
+package com.mylrucachelib.persistence;
+
+import com.mylrucachelib.LRUCacheSegment;
+
+// what SnapshotManager needs from a cache to save and restore it
+public interface PersistentCache<K, V> {
+    int size();
+    void forEach(LRUCacheSegment.EntryConsumer<K, V> action);
+    void put(K key, V value, long ttlMs);
+
+    // entries in recency runs, one per segment and each from most to least recently used, along with
+    // idle time and hit count where the cache keeps them (-1 and 0 otherwise)
+    default void forEachRun(RunConsumer<K, V> action) {
+        action.startRun();
+        forEach((key, value, expiry) -> action.accept(key, value, expiry, -1, 0));
+    }
+
+    // adds a snapshot entry on the cold side of what is there, placed by idle time when that is known.
+    // keys already present are newer and stay. fed hottest first, this rebuilds the saved order
+    default void restore(K key, V value, long ttlMs, long idleMs, int hits) {
+        put(key, value, ttlMs);
+    }
+
+    interface RunConsumer<K, V> {
+        void startRun();
+        void accept(K key, V value, long expiryTime, long idleMs, int hits);
+    }
+}
@@ -3,8 +3,75 @@ package com.mylrucachelib.persistence;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 public interface Serializer<T> {
     void serialize(DataOutputStream out, T objects) throws IOException;
     T deserialize(DataInputStream in) throws IOException;
+
+    // a stream serializer on top of a codec. every value goes behind a varint byte length so the
+    // reader knows how much to pull off the stream before decoding
+    static <T> Serializer<T> of(Codec<T> codec) {
+        return new Serializer<>() {
+            // serializers are shared between threads
+            private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+            private ByteBuffer buffer(int size) {
+                ByteBuffer buffer = buffers.get();
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocate(size);
+                    buffers.set(buffer);
+                }
+                buffer.clear();
+                return buffer;
+            }
+
+            // encodes first and grows on overflow rather than asking encodedSize, which may cost a pass of its own
+            @Override
+            public void serialize(DataOutputStream out, T object) throws IOException {
+                ByteBuffer buf = buffer(0);
+                while (true) {
+                    try {
+                        codec.encode(object, buf);
+                        break;
+                    } catch (BufferOverflowException e) {
+                        buf = buffer(buf.capacity() * 2);
+                    }
+                }
+                int size = buf.position();
+                for (int v = size; ; v >>>= 7) {
+                    if ((v & ~0x7F) == 0) {
+                        out.writeByte(v);
+                        break;
+                    }
+                    out.writeByte((v & 0x7F) | 0x80);
+                }
+                out.write(buf.array(), 0, size);
+            }
+
+            @Override
+            public T deserialize(DataInputStream in) throws IOException {
+                int size = 0;
+                for (int shift = 0; ; shift += 7) {
+                    if (shift > 28) throw new IOException("Malformed length");
+                    int b = in.readUnsignedByte();
+                    size |= (b & 0x7F) << shift;
+                    if (b < 0x80) break;
+                }
+                if (size < 0) throw new IOException("Malformed length");
+                ByteBuffer buf = buffer(Math.max(size, 256));
+                in.readFully(buf.array(), 0, size);
+                buf.limit(size);
+                try {
+                    T value = codec.decode(buf);
+                    if (buf.hasRemaining()) throw new IOException("Value shorter than its length");
+                    return value;
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Malformed value", e);
+                }
+            }
+        };
+    }
 }
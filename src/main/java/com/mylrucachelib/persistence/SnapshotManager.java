@@ -1,14 +1,16 @@
 package com.mylrucachelib.persistence;
 
-import com.mylrucachelib.LRUCache;
 import com.mylrucachelib.LoggerSetup;
-import com.mylrucachelib.ThreadedServer;
 import com.mylrucachelib.TimeSource;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
@@ -16,16 +18,27 @@ import java.util.zip.CheckedOutputStream;
 
 public class SnapshotManager<K, V> {
     private static final int SIGNATURE = 0xCAFEBABE;
-    private static final int VERSION = 1;
+    // v2 keeps the segments' recency runs apart and may carry idle time and hit count per entry
+    private static final int VERSION = 2;
+    private static final int COUNT_OFFSET = 16; // signature, version, timestamp
+    private static final int RUNS_OFFSET = 24; // count, flags
+    private static final int FLAG_ACCESS_METADATA = 1;
+    private static final int FILE_BUFFER = 64 * 1024;
     private final Path filePath;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final TimeSource clock;
+    private volatile boolean accessMetadata;
+    // 0 writes as fast as the disk takes it
+    private volatile long maxBytesPerSecond;
     private static final Logger logger = Logger.getLogger(SnapshotManager.class.getName());
     static {
         LoggerSetup.setupLogger(SnapshotManager.class.getName(), "persistence.log", false);
     }
 
+    // which entries of each run a read restores
+    private enum Part { ALL, HOT, COLD }
+
     public SnapshotManager(String path, Serializer<K> keySer, Serializer<V> valSer, TimeSource clock) {
         this.filePath = Path.of(path);
         this.keySerializer = keySer;
@@ -33,78 +46,300 @@ public class SnapshotManager<K, V> {
         this.clock = clock;
     }
 
-    public void save(LRUCache<K,V> cache) throws IOException {
-        Path temp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
-        try (
-                FileOutputStream fos = new FileOutputStream(temp.toFile());
-                CheckedOutputStream cos = new CheckedOutputStream(fos, new CRC32());
-                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(cos))
-        ) {
-            // header
-            out.writeInt(SIGNATURE);
-            out.writeInt(VERSION);
-            out.writeLong(clock.currentTimeMillis());
-            out.writeInt(cache.size());
-
-            // data
-            cache.forEach((key, value, expiryTime) -> {
-                try {
-                    keySerializer.serialize(out, key);
-                    valueSerializer.serialize(out, value);
-                    out.writeLong(expiryTime);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-            });
-            out.flush();
+    // stream only, for snapshots that never touch the disk
+    public SnapshotManager(Serializer<K> keySer, Serializer<V> valSer, TimeSource clock) {
+        this.filePath = null;
+        this.keySerializer = keySer;
+        this.valueSerializer = valSer;
+        this.clock = clock;
+    }
 
-            // checksum
-            long checksum = cos.getChecksum().getValue();
-            out.writeLong(checksum);
-            fos.getFD().sync();
+    // writes idle time and hit count of every entry, 12 bytes each
+    public void setAccessMetadata(boolean accessMetadata) {
+        this.accessMetadata = accessMetadata;
+    }
+
+    // caps the write rate of file snapshots so they leave disk bandwidth to everything else
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Illegal rate: " + maxBytesPerSecond);
         }
-        Files.move(temp, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public Path path() {
+        return filePath;
     }
 
-    public void load(LRUCache<K,V> cache) throws IOException {
-        if (!Files.exists(filePath)) {
-            return;
+    // returns the number of entries saved
+    public int save(PersistentCache<K,V> cache) throws IOException {
+        Path file = requireFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int saved = writeTo(temp, cache);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return saved;
+    }
+
+    public void load(PersistentCache<K,V> cache) throws IOException {
+        load(cache, 1.0, Part.ALL);
+    }
+
+    // the most recently used fraction of every run, so a node can serve its hot set before the rest is in
+    public int loadHot(PersistentCache<K,V> cache, double fraction) throws IOException {
+        return load(cache, fraction, Part.HOT);
+    }
+
+    // whatever loadHot with the same fraction left out
+    public int loadCold(PersistentCache<K,V> cache, double fraction) throws IOException {
+        return load(cache, fraction, Part.COLD);
+    }
+
+    private int load(PersistentCache<K,V> cache, double fraction, Part part) throws IOException {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Illegal fraction: " + fraction);
+        }
+        Path file = requireFile();
+        if (!Files.exists(file)) {
+            return 0;
         }
         try (
-                FileInputStream fis = new FileInputStream(filePath.toFile());
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                CheckedInputStream cis = new CheckedInputStream(bis, new CRC32());
-                DataInputStream in = new DataInputStream(cis)) {
-            // header
-            int signature = in.readInt();
-            if (signature != SIGNATURE) {
-                logger.severe("Invalid signature");
-                throw new IOException("Invalid file format: bad signature");
+                FileInputStream fis = new FileInputStream(file.toFile());
+                BufferedInputStream bis = new BufferedInputStream(fis, FILE_BUFFER)) {
+            return read(bis, cache, fraction, part);
+        }
+    }
+
+    private Path requireFile() {
+        if (filePath == null) {
+            throw new IllegalStateException("Snapshot manager has no file");
+        }
+        return filePath;
+    }
+
+    // streams the snapshot into a file holding at most one run in memory. count and runs are only known
+    // at the end, so they are patched into the header and the checksum is taken over the finished file
+    public int writeTo(Path path, PersistentCache<K,V> cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // not closed, that would close the channel
+            OutputStream os = Channels.newOutputStream(channel);
+            long rate = maxBytesPerSecond;
+            if (rate > 0) os = new ThrottledOutputStream(os, rate);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, FILE_BUFFER));
+            boolean metadata = accessMetadata;
+            writeHeader(out, 0, metadata, 0);
+            int[] totals = writeRuns(out, cache, metadata);
+            out.flush();
+            channel.write(ByteBuffer.allocate(4).putInt(0, totals[0]), COUNT_OFFSET);
+            channel.write(ByteBuffer.allocate(4).putInt(0, totals[1]), RUNS_OFFSET);
+
+            CRC32 crc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocateDirect(FILE_BUFFER);
+            long position = 0;
+            long end = channel.size();
+            while (position < end) {
+                buf.clear();
+                int read = channel.read(buf, position);
+                if (read < 0) throw new EOFException("Snapshot file shrank while checksumming");
+                buf.flip();
+                crc.update(buf);
+                position += read;
             }
-            int version = in.readInt();
-            if (version != VERSION) {
-                logger.severe("Unsupported version");
-                throw new IOException("Unsupported file version: " + version);
+            channel.write(ByteBuffer.allocate(8).putLong(0, crc.getValue()), end);
+            return totals[0];
+        }
+    }
+
+    // writes a whole snapshot, the stream is flushed but left open. entries are serialized before the
+    // header so that its count matches what follows even while the cache keeps changing
+    public int writeTo(OutputStream os, PersistentCache<K,V> cache) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(32, cache.size() * 32));
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        boolean metadata = accessMetadata;
+        int[] totals = writeRuns(bodyOut, cache, metadata);
+        bodyOut.flush();
+
+        CheckedOutputStream cos = new CheckedOutputStream(os, new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(cos));
+        writeHeader(out, totals[0], metadata, totals[1]);
+        // data
+        body.writeTo(out);
+        out.flush();
+        // checksum
+        long checksum = cos.getChecksum().getValue();
+        out.writeLong(checksum);
+        out.flush();
+        return totals[0];
+    }
+
+    private void writeHeader(DataOutputStream out, int count, boolean metadata, int runs) throws IOException {
+        out.writeInt(SIGNATURE);
+        out.writeInt(VERSION);
+        out.writeLong(clock.currentTimeMillis());
+        out.writeInt(count);
+        out.writeInt(metadata ? FLAG_ACCESS_METADATA : 0);
+        out.writeInt(runs);
+    }
+
+    // every run is buffered to learn its length, then written as the length and its entries. returns
+    // the entry count and the run count
+    private int[] writeRuns(DataOutputStream out, PersistentCache<K,V> cache, boolean metadata) throws IOException {
+        ByteArrayOutputStream run = new ByteArrayOutputStream(FILE_BUFFER);
+        DataOutputStream runOut = new DataOutputStream(run);
+        int[] totals = new int[2];
+        int[] inRun = new int[1];
+        try {
+            cache.forEachRun(new PersistentCache.RunConsumer<>() {
+                @Override
+                public void startRun() {
+                    flushRun();
+                    totals[1]++;
+                }
+
+                @Override
+                public void accept(K key, V value, long expiryTime, long idleMs, int hits) {
+                    try {
+                        keySerializer.serialize(runOut, key);
+                        valueSerializer.serialize(runOut, value);
+                        runOut.writeLong(expiryTime);
+                        if (metadata) {
+                            runOut.writeLong(idleMs);
+                            runOut.writeInt(hits);
+                        }
+                        inRun[0]++;
+                        totals[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                private void flushRun() {
+                    if (totals[1] == 0) return;
+                    try {
+                        runOut.flush();
+                        out.writeInt(inRun[0]);
+                        run.writeTo(out);
+                        run.reset();
+                        inRun[0] = 0;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            if (totals[1] > 0) {
+                runOut.flush();
+                out.writeInt(inRun[0]);
+                run.writeTo(out);
             }
-            long timestamp = in.readLong();
-            int count = in.readInt();
-            logger.fine("Recovering " + count + " items from " + timestamp);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return totals;
+    }
+
+    // reads exactly one snapshot off the stream and restores its live entries, returns how many
+    public int readFrom(InputStream is, PersistentCache<K,V> cache) throws IOException {
+        return read(is, cache, 1.0, Part.ALL);
+    }
 
-            // data
-            for (int i = 0; i < count; i++) {
+    private int read(InputStream is, PersistentCache<K,V> cache, double fraction, Part part) throws IOException {
+        CheckedInputStream cis = new CheckedInputStream(is, new CRC32());
+        DataInputStream in = new DataInputStream(cis);
+        // header
+        int signature = in.readInt();
+        if (signature != SIGNATURE) {
+            logger.severe("Invalid signature");
+            throw new IOException("Invalid file format: bad signature");
+        }
+        int version = in.readInt();
+        if (version != 1 && version != VERSION) {
+            logger.severe("Unsupported version");
+            throw new IOException("Unsupported file version: " + version);
+        }
+        long timestamp = in.readLong();
+        int count = in.readInt();
+        // v1 is one run of count entries without metadata
+        boolean metadata = false;
+        int runs = 1;
+        if (version >= 2) {
+            metadata = (in.readInt() & FLAG_ACCESS_METADATA) != 0;
+            runs = in.readInt();
+        }
+        logger.fine("Recovering " + count + " items in " + runs + " runs from " + timestamp);
+        // idle times were taken at save time, entries have been idle since as well
+        long sinceSave = Math.max(0, clock.currentTimeMillis() - timestamp);
+
+        // data
+        int restored = 0;
+        for (int r = 0; r < runs; r++) {
+            int n = version >= 2 ? in.readInt() : count;
+            int hot = (int) Math.ceil(n * fraction);
+            for (int i = 0; i < n; i++) {
                 K key = keySerializer.deserialize(in);
                 V value = valueSerializer.deserialize(in);
                 long expiryTime = in.readLong();
-                if (expiryTime == 0 || expiryTime > clock.currentTimeMillis()) {
-                    long ttl = expiryTime - clock.currentTimeMillis();
-                    cache.put(key, value, ttl);
+                long idleMs = -1;
+                int hits = 0;
+                if (metadata) {
+                    idleMs = in.readLong();
+                    hits = in.readInt();
+                    if (idleMs >= 0) idleMs += sinceSave;
+                }
+                boolean wanted = part == Part.ALL || (part == Part.HOT) == (i < hot);
+                if (!wanted) continue;
+                long now = clock.currentTimeMillis();
+                if (expiryTime == 0 || expiryTime > now) {
+                    cache.restore(key, value, expiryTime == 0 ? 0 : expiryTime - now, idleMs, hits);
+                    restored++;
                 }
             }
-            long checksum = cis.getChecksum().getValue();
-            long fileChecksum = in.readLong();
-            if (checksum != fileChecksum) {
-                logger.severe("File corrupted, checksum mismatch");
-                throw new IOException("File corrupted: checksums do not match");
+        }
+        long checksum = cis.getChecksum().getValue();
+        long fileChecksum = in.readLong();
+        if (checksum != fileChecksum) {
+            logger.severe("File corrupted, checksum mismatch");
+            throw new IOException("File corrupted: checksums do not match");
+        }
+        return restored;
+    }
+
+    // paces the writes to an average rate by sleeping the writer, which is the snapshot thread
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+            pace();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+            pace();
+        }
+
+        private void pace() throws IOException {
+            long due = (long) (written * 1e9 / bytesPerSecond);
+            long aheadMs = (due - (System.nanoTime() - start)) / 1_000_000;
+            if (aheadMs <= 0) return;
+            try {
+                Thread.sleep(aheadMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while pacing the snapshot");
             }
         }
     }
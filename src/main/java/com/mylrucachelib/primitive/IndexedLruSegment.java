@@ -0,0 +1,217 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.TimeSource;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+// shared part of the primitive segments: entries live in slots of parallel arrays, recency is kept
+// as int links between slots and lookup goes through an open-addressing table of slot numbers.
+// subclasses own the key/value arrays and do the probing since the key type differs.
+abstract class IndexedLruSegment {
+    static final int NIL = -1;
+
+    protected final int capacity;
+    protected final int[] table; // bucket -> slot, linear probing, no tombstones
+    protected final int mask;
+    protected final long[] expireAt;
+    protected final Lock lock = new ReentrantLock();
+    protected final TimeSource clock;
+    private final int[] prev;
+    private final int[] next;
+    private final boolean[] used;
+    private final int[] free;
+    private int freeCount;
+    private int head = NIL; // mru
+    private int tail = NIL; // lru
+    private int size;
+    private int cleanupCursor;
+
+    IndexedLruSegment(int capacity, TimeSource clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.clock = clock;
+        int buckets = Integer.highestOneBit(capacity * 2 - 1) << 1; // load factor <= 0.5
+        this.table = new int[buckets];
+        Arrays.fill(table, NIL);
+        this.mask = buckets - 1;
+        this.expireAt = new long[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+        this.used = new boolean[capacity];
+        this.free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    // bucket hash of the key stored in the slot, needed to shift entries back on removal
+    abstract int hashOfSlot(int slot);
+
+    // drop references held by the slot so that evicted objects can be collected
+    abstract void clearSlot(int slot);
+
+    boolean isExpired(int slot) {
+        long expiry = expireAt[slot];
+        return expiry != 0 && clock.currentTimeMillis() > expiry;
+    }
+
+    long expiryFor(long ttlMs) {
+        return (ttlMs <= 0) ? 0 : clock.currentTimeMillis() + ttlMs;
+    }
+
+    // a free slot, evicting the lru entry when the segment is full. caller fills it and calls link
+    int allocate() {
+        if (freeCount == 0) {
+            removeSlot(tail);
+        }
+        return free[--freeCount];
+    }
+
+    void link(int slot, int hash, long expiry) {
+        index(slot, hash, expiry);
+        addToHead(slot);
+    }
+
+    // snapshot restore fills the segment from the mru end of the saved order down
+    void linkAtTail(int slot, int hash, long expiry) {
+        index(slot, hash, expiry);
+        prev[slot] = tail;
+        next[slot] = NIL;
+        if (tail != NIL) next[tail] = slot;
+        tail = slot;
+        if (head == NIL) head = slot;
+    }
+
+    boolean hasFreeSlot() {
+        return freeCount > 0;
+    }
+
+    private void index(int slot, int hash, long expiry) {
+        int i = hash & mask;
+        while (table[i] != NIL) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+        expireAt[slot] = expiry;
+        used[slot] = true;
+        size++;
+    }
+
+    void removeSlot(int slot) {
+        int i = hashOfSlot(slot) & mask;
+        while (table[i] != slot) {
+            i = (i + 1) & mask;
+        }
+        // backward shift deletion keeps probe chains intact without tombstones
+        table[i] = NIL;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int s = table[j];
+            if (s == NIL) break;
+            int k = hashOfSlot(s) & mask;
+            boolean stays = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays) {
+                table[i] = s;
+                table[j] = NIL;
+                i = j;
+            }
+        }
+        unlink(slot);
+        clearSlot(slot);
+        used[slot] = false;
+        expireAt[slot] = 0;
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    private void addToHead(int slot) {
+        prev[slot] = NIL;
+        next[slot] = head;
+        if (head != NIL) prev[head] = slot;
+        head = slot;
+        if (tail == NIL) tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NIL) next[p] = n;
+        else head = n;
+        if (n != NIL) prev[n] = p;
+        else tail = p;
+    }
+
+    void moveToHead(int slot) {
+        if (head == slot) return;
+        unlink(slot);
+        addToHead(slot);
+    }
+
+    // mru to lru order, slot consumer runs under the lock
+    void forEachSlot(IntConsumer action) {
+        lock.lock();
+        try {
+            for (int s = head; s != NIL; s = next[s]) {
+                action.accept(s);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int cleanupExpired(int sampleSize) {
+        lock.lock();
+        int removed = 0;
+        try {
+            for (int checked = 0; checked < sampleSize && checked < capacity; checked++) {
+                int s = cleanupCursor;
+                cleanupCursor = (cleanupCursor + 1) % capacity;
+                if (used[s] && isExpired(s)) {
+                    removeSlot(s);
+                    removed++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    public boolean checkSizeInvariance() {
+        lock.lock();
+        try {
+            int listed = 0;
+            for (int s = head; s != NIL; s = next[s]) {
+                if (!used[s] || listed > capacity) return false;
+                listed++;
+            }
+            int indexed = 0;
+            for (int slot : table) {
+                if (slot != NIL) indexed++;
+            }
+            return listed == size && indexed == size && size + freeCount == capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
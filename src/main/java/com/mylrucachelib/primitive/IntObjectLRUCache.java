@@ -0,0 +1,83 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.IntegerSerializer;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.Serializer;
+
+// int keys stored unboxed, values as references
+public class IntObjectLRUCache<V> extends PrimitiveLRUCache<IntObjectSegment<V>, Integer, V> {
+
+    public interface EntryConsumer<V> {
+        void accept(int key, V value, long expiryTime);
+    }
+
+    public IntObjectLRUCache(int capacity, int concurrencyLevel) {
+        this(capacity, concurrencyLevel, System::currentTimeMillis);
+    }
+
+    public IntObjectLRUCache(int capacity, int concurrencyLevel, TimeSource clock) {
+        super(capacity, concurrencyLevel, clock);
+    }
+
+    @Override
+    IntObjectSegment<V> newSegment(int capacity, TimeSource clock) {
+        return new IntObjectSegment<>(capacity, clock);
+    }
+
+    public V get(int key) {
+        return segmentFor(IntObjectSegment.hash(key)).get(key);
+    }
+
+    public void put(int key, V value, long ttlMs) {
+        segmentFor(IntObjectSegment.hash(key)).put(key, value, ttlMs);
+    }
+
+    void restore(int key, V value, long ttlMs) {
+        segmentFor(IntObjectSegment.hash(key)).restore(key, value, ttlMs);
+    }
+
+    public void put(int key, V value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(int key) {
+        return segmentFor(IntObjectSegment.hash(key)).remove(key);
+    }
+
+    public void forEach(EntryConsumer<V> action) {
+        for (int i = 0; i < segmentCount(); i++) {
+            segmentAt(i).forEach(action);
+        }
+    }
+
+    public void enablePersistence(String filePath, Serializer<V> valueSerializer) {
+        enablePersistence(filePath, new IntegerSerializer(), valueSerializer);
+    }
+
+    @Override
+    PersistentCache<Integer, V> boxed() {
+        return new PersistentCache<>() {
+            @Override
+            public int size() {
+                return IntObjectLRUCache.this.size();
+            }
+
+            @Override
+            public void forEach(LRUCacheSegment.EntryConsumer<Integer, V> action) {
+                IntObjectLRUCache.this.forEach(action::accept);
+            }
+
+            @Override
+            public void put(Integer key, V value, long ttlMs) {
+                IntObjectLRUCache.this.put(key, value, ttlMs);
+            }
+
+            @Override
+            public void restore(Integer key, V value, long ttlMs, long idleMs, int hits) {
+                IntObjectLRUCache.this.restore(key, value, ttlMs);
+            }
+        };
+    }
+}
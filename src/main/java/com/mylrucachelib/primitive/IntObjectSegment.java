@@ -0,0 +1,112 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.TimeSource;
+
+public class IntObjectSegment<V> extends IndexedLruSegment {
+    private final int[] keys;
+    private final Object[] values;
+
+    public IntObjectSegment(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    public IntObjectSegment(int capacity, TimeSource clock) {
+        super(capacity, clock);
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    int hashOfSlot(int slot) {
+        return hash(keys[slot]);
+    }
+
+    @Override
+    void clearSlot(int slot) {
+        values[slot] = null;
+    }
+
+    private int find(int key, int hash) {
+        int i = hash & mask;
+        int s;
+        while ((s = table[i]) != NIL) {
+            if (keys[s] == key) return s;
+            i = (i + 1) & mask;
+        }
+        return NIL;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        lock.lock();
+        try {
+            int s = find(key, hash(key));
+            if (s == NIL || isExpired(s)) return null;
+            moveToHead(s); // mru
+            return (V) values[s];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(int key, V value, long ttlMs) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            int s = find(key, hash);
+            if (s != NIL) {
+                values[s] = value;
+                expireAt[s] = expiryFor(ttlMs);
+                moveToHead(s); // mru
+                return;
+            }
+            s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            link(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // snapshot restore: behind everything already there, skipped when the key exists or the segment is full
+    void restore(int key, V value, long ttlMs) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            if (find(key, hash) != NIL || !hasFreeSlot()) return;
+            int s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            linkAtTail(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(int key, V value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(int key) {
+        lock.lock();
+        try {
+            int s = find(key, hash(key));
+            if (s == NIL) return false;
+            removeSlot(s);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectLRUCache.EntryConsumer<V> action) {
+        forEachSlot(s -> action.accept(keys[s], (V) values[s], expireAt[s]));
+    }
+}
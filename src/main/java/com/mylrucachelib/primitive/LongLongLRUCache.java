@@ -0,0 +1,86 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.LongSerializer;
+import com.mylrucachelib.persistence.PersistentCache;
+
+// long -> long cache without boxing: keys and values sit in per-segment long arrays
+public class LongLongLRUCache extends PrimitiveLRUCache<LongLongSegment, Long, Long> {
+
+    public interface EntryConsumer {
+        void accept(long key, long value, long expiryTime);
+    }
+
+    public LongLongLRUCache(int capacity, int concurrencyLevel) {
+        this(capacity, concurrencyLevel, System::currentTimeMillis);
+    }
+
+    public LongLongLRUCache(int capacity, int concurrencyLevel, TimeSource clock) {
+        super(capacity, concurrencyLevel, clock);
+    }
+
+    @Override
+    LongLongSegment newSegment(int capacity, TimeSource clock) {
+        return new LongLongSegment(capacity, clock);
+    }
+
+    public long get(long key, long defaultValue) {
+        return segmentFor(LongLongSegment.hash(key)).get(key, defaultValue);
+    }
+
+    public boolean containsKey(long key) {
+        return segmentFor(LongLongSegment.hash(key)).containsKey(key);
+    }
+
+    public void put(long key, long value, long ttlMs) {
+        segmentFor(LongLongSegment.hash(key)).put(key, value, ttlMs);
+    }
+
+    void restore(long key, long value, long ttlMs) {
+        segmentFor(LongLongSegment.hash(key)).restore(key, value, ttlMs);
+    }
+
+    public void put(long key, long value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(long key) {
+        return segmentFor(LongLongSegment.hash(key)).remove(key);
+    }
+
+    public void forEach(EntryConsumer action) {
+        for (int i = 0; i < segmentCount(); i++) {
+            segmentAt(i).forEach(action);
+        }
+    }
+
+    public void enablePersistence(String filePath) {
+        enablePersistence(filePath, new LongSerializer(), new LongSerializer());
+    }
+
+    @Override
+    PersistentCache<Long, Long> boxed() {
+        return new PersistentCache<>() {
+            @Override
+            public int size() {
+                return LongLongLRUCache.this.size();
+            }
+
+            @Override
+            public void forEach(LRUCacheSegment.EntryConsumer<Long, Long> action) {
+                LongLongLRUCache.this.forEach(action::accept);
+            }
+
+            @Override
+            public void put(Long key, Long value, long ttlMs) {
+                LongLongLRUCache.this.put(key, value, ttlMs);
+            }
+
+            @Override
+            public void restore(Long key, Long value, long ttlMs, long idleMs, int hits) {
+                LongLongLRUCache.this.restore(key, value, ttlMs);
+            }
+        };
+    }
+}
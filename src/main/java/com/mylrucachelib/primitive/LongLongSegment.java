@@ -0,0 +1,120 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.TimeSource;
+
+public class LongLongSegment extends IndexedLruSegment {
+    private final long[] keys;
+    private final long[] values;
+
+    public LongLongSegment(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    public LongLongSegment(int capacity, TimeSource clock) {
+        super(capacity, clock);
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    int hashOfSlot(int slot) {
+        return hash(keys[slot]);
+    }
+
+    @Override
+    void clearSlot(int slot) {
+        // nothing to release
+    }
+
+    private int find(long key, int hash) {
+        int i = hash & mask;
+        int s;
+        while ((s = table[i]) != NIL) {
+            if (keys[s] == key) return s;
+            i = (i + 1) & mask;
+        }
+        return NIL;
+    }
+
+    public long get(long key, long defaultValue) {
+        lock.lock();
+        try {
+            int s = find(key, hash(key));
+            if (s == NIL || isExpired(s)) return defaultValue;
+            moveToHead(s); // mru
+            return values[s];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean containsKey(long key) {
+        lock.lock();
+        try {
+            int s = find(key, hash(key));
+            return s != NIL && !isExpired(s);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(long key, long value, long ttlMs) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            int s = find(key, hash);
+            if (s != NIL) {
+                values[s] = value;
+                expireAt[s] = expiryFor(ttlMs);
+                moveToHead(s); // mru
+                return;
+            }
+            s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            link(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // snapshot restore: behind everything already there, skipped when the key exists or the segment is full
+    void restore(long key, long value, long ttlMs) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            if (find(key, hash) != NIL || !hasFreeSlot()) return;
+            int s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            linkAtTail(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(long key, long value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(long key) {
+        lock.lock();
+        try {
+            int s = find(key, hash(key));
+            if (s == NIL) return false;
+            removeSlot(s);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void forEach(LongLongLRUCache.EntryConsumer action) {
+        forEachSlot(s -> action.accept(keys[s], values[s], expireAt[s]));
+    }
+}
@@ -0,0 +1,83 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.LongSerializer;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.Serializer;
+
+// long keys stored unboxed, values as references
+public class LongObjectLRUCache<V> extends PrimitiveLRUCache<LongObjectSegment<V>, Long, V> {
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value, long expiryTime);
+    }
+
+    public LongObjectLRUCache(int capacity, int concurrencyLevel) {
+        this(capacity, concurrencyLevel, System::currentTimeMillis);
+    }
+
+    public LongObjectLRUCache(int capacity, int concurrencyLevel, TimeSource clock) {
+        super(capacity, concurrencyLevel, clock);
+    }
+
+    @Override
+    LongObjectSegment<V> newSegment(int capacity, TimeSource clock) {
+        return new LongObjectSegment<>(capacity, clock);
+    }
+
+    public V get(long key) {
+        return segmentFor(LongLongSegment.hash(key)).get(key);
+    }
+
+    public void put(long key, V value, long ttlMs) {
+        segmentFor(LongLongSegment.hash(key)).put(key, value, ttlMs);
+    }
+
+    void restore(long key, V value, long ttlMs) {
+        segmentFor(LongLongSegment.hash(key)).restore(key, value, ttlMs);
+    }
+
+    public void put(long key, V value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(long key) {
+        return segmentFor(LongLongSegment.hash(key)).remove(key);
+    }
+
+    public void forEach(EntryConsumer<V> action) {
+        for (int i = 0; i < segmentCount(); i++) {
+            segmentAt(i).forEach(action);
+        }
+    }
+
+    public void enablePersistence(String filePath, Serializer<V> valueSerializer) {
+        enablePersistence(filePath, new LongSerializer(), valueSerializer);
+    }
+
+    @Override
+    PersistentCache<Long, V> boxed() {
+        return new PersistentCache<>() {
+            @Override
+            public int size() {
+                return LongObjectLRUCache.this.size();
+            }
+
+            @Override
+            public void forEach(LRUCacheSegment.EntryConsumer<Long, V> action) {
+                LongObjectLRUCache.this.forEach(action::accept);
+            }
+
+            @Override
+            public void put(Long key, V value, long ttlMs) {
+                LongObjectLRUCache.this.put(key, value, ttlMs);
+            }
+
+            @Override
+            public void restore(Long key, V value, long ttlMs, long idleMs, int hits) {
+                LongObjectLRUCache.this.restore(key, value, ttlMs);
+            }
+        };
+    }
+}
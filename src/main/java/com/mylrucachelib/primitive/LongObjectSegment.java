@@ -0,0 +1,107 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.TimeSource;
+
+public class LongObjectSegment<V> extends IndexedLruSegment {
+    private final long[] keys;
+    private final Object[] values;
+
+    public LongObjectSegment(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    public LongObjectSegment(int capacity, TimeSource clock) {
+        super(capacity, clock);
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @Override
+    int hashOfSlot(int slot) {
+        return LongLongSegment.hash(keys[slot]);
+    }
+
+    @Override
+    void clearSlot(int slot) {
+        values[slot] = null;
+    }
+
+    private int find(long key, int hash) {
+        int i = hash & mask;
+        int s;
+        while ((s = table[i]) != NIL) {
+            if (keys[s] == key) return s;
+            i = (i + 1) & mask;
+        }
+        return NIL;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        lock.lock();
+        try {
+            int s = find(key, LongLongSegment.hash(key));
+            if (s == NIL || isExpired(s)) return null;
+            moveToHead(s); // mru
+            return (V) values[s];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(long key, V value, long ttlMs) {
+        int hash = LongLongSegment.hash(key);
+        lock.lock();
+        try {
+            int s = find(key, hash);
+            if (s != NIL) {
+                values[s] = value;
+                expireAt[s] = expiryFor(ttlMs);
+                moveToHead(s); // mru
+                return;
+            }
+            s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            link(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // snapshot restore: behind everything already there, skipped when the key exists or the segment is full
+    void restore(long key, V value, long ttlMs) {
+        int hash = LongLongSegment.hash(key);
+        lock.lock();
+        try {
+            if (find(key, hash) != NIL || !hasFreeSlot()) return;
+            int s = allocate();
+            keys[s] = key;
+            values[s] = value;
+            linkAtTail(s, hash, expiryFor(ttlMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(long key, V value) {
+        put(key, value, 0);
+    }
+
+    public boolean remove(long key) {
+        lock.lock();
+        try {
+            int s = find(key, LongLongSegment.hash(key));
+            if (s == NIL) return false;
+            removeSlot(s);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectLRUCache.EntryConsumer<V> action) {
+        forEachSlot(s -> action.accept(keys[s], (V) values[s], expireAt[s]));
+    }
+}
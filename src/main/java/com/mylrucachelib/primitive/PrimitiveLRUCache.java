@@ -0,0 +1,148 @@
+package com.mylrucachelib.primitive;
+
+import com.mylrucachelib.LoggerSetup;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.Serializer;
+import com.mylrucachelib.persistence.SnapshotManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// segmenting, expiry janitor and snapshots shared by the primitive-keyed caches.
+// BK and BV are the boxed types the snapshot file is written with.
+abstract class PrimitiveLRUCache<S extends IndexedLruSegment, BK, BV> {
+    private final IndexedLruSegment[] segments;
+    private final int segmentShift;
+    private final ScheduledExecutorService janitor;
+    protected final TimeSource clock;
+    private SnapshotManager<BK,BV> snapshotManager;
+    private Thread shutdownHook;
+    private static final Logger logger = Logger.getLogger(PrimitiveLRUCache.class.getName());
+
+    static {
+        LoggerSetup.setupLogger(PrimitiveLRUCache.class.getName(), "cache.log", false);
+    }
+
+    PrimitiveLRUCache(int capacity, int concurrencyLevel, TimeSource clock) {
+        logger.info(getClass().getSimpleName() + " initialized. Cap: " + capacity + ", Concurrency: " + concurrencyLevel);
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Illegal initial concurrency level: " + concurrencyLevel);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
+        }
+        this.clock = clock;
+        int validConcurrencyLevel = 1;
+        while (validConcurrencyLevel < concurrencyLevel) {
+            validConcurrencyLevel *= 2;
+        }
+        while (validConcurrencyLevel > capacity) {
+            validConcurrencyLevel /= 2;
+        }
+        // segment from the high hash bits, the segment tables probe with the low ones
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(validConcurrencyLevel);
+        this.segments = new IndexedLruSegment[validConcurrencyLevel];
+        int baseCap = capacity / validConcurrencyLevel;
+        int remainingItems = capacity % validConcurrencyLevel;
+        for (int i = 0; i < validConcurrencyLevel; i++) {
+            segments[i] = newSegment(i < remainingItems ? baseCap + 1 : baseCap, clock);
+        }
+        this.janitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LRU-Janitor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.janitor.scheduleAtFixedRate(this::performCleanup, 1, 1, TimeUnit.SECONDS);
+    }
+
+    abstract S newSegment(int capacity, TimeSource clock);
+
+    // boxed view handed to the snapshot manager
+    abstract PersistentCache<BK,BV> boxed();
+
+    @SuppressWarnings("unchecked")
+    S segmentFor(int hash) {
+        // a shift by 32 is a no-op in java, so the single segment case needs its own branch
+        return (S) (segments.length == 1 ? segments[0] : segments[hash >>> segmentShift]);
+    }
+
+    @SuppressWarnings("unchecked")
+    S segmentAt(int index) {
+        return (S) segments[index];
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    private void performCleanup() {
+        for (var segment : segments) {
+            segment.cleanupExpired(20);
+        }
+    }
+
+    public void shutdown() {
+        janitor.shutdown();
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean checkSizeInvariance() {
+        for (var segment : segments) {
+            if (!segment.checkSizeInvariance()) return false;
+        }
+        return true;
+    }
+
+    void enablePersistence(String filePath, Serializer<BK> keySerializer, Serializer<BV> valueSerializer) {
+        this.snapshotManager = new SnapshotManager<>(filePath, keySerializer, valueSerializer, clock);
+        try {
+            this.snapshotManager.load(boxed());
+        } catch (IOException e) {
+            logger.severe("Failed to load snapshot: " + e.getMessage());
+            throw new UncheckedIOException("Failed to load snapshot ", e);
+        }
+    }
+
+    public void saveSnapshot() throws IOException {
+        if (snapshotManager != null) {
+            long start = System.currentTimeMillis();
+            snapshotManager.save(boxed());
+            long duration = System.currentTimeMillis() - start;
+            logger.info("Snapshot saved in " + duration + "ms");
+        }
+    }
+
+    public void addShutdownHook() {
+        this.shutdownHook = new Thread(() -> {
+            try {
+                saveSnapshot();
+                logger.info("Shutdown hook: Cache snapshot saved");
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to save snapshot on shutdown: " + e.getMessage());
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+    }
+
+    public void removeShutdownHook() {
+        if (this.shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            } catch (IllegalStateException ignored) {}
+            this.shutdownHook = null;
+        }
+    }
+}
@@ -32,6 +32,7 @@ public class AsyncServerTest {
     void startServer() {
         String uniqueDumpFile = tempDir.resolve("server.dump").toAbsolutePath().toString();
         server = new AsyncServer();
+        server.setHotKeyTracking(16, 1.0);
         serverThread = new Thread(() -> {
             try {
                 server.start(CAPACITY, CONC_LVL, PORT, uniqueDumpFile);
@@ -125,4 +126,39 @@ public class AsyncServerTest {
             assertEquals("ERROR_USAGE_GET", reader.readLine());
         }
     }
+
+    @Test
+    void testHotKeysCommand() throws IOException {
+        try (Socket socket = new Socket(HOST, server.getPort());
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            writer.println("PUT hot 1");
+            assertEquals("OK", reader.readLine());
+            for (int i = 0; i < 20; i++) {
+                writer.println("GET hot");
+                assertEquals("VALUE 1", reader.readLine());
+                writer.println("GET cold" + i);
+                assertEquals("NOT_FOUND", reader.readLine());
+            }
+            writer.println("HOTKEYS 1");
+            assertEquals("HOTKEYS hot=21", reader.readLine());
+            writer.println("HOTSEGMENTS");
+            assertTrue(reader.readLine().startsWith("HOTSEGMENTS "));
+            writer.println("HOTKEYS abc");
+            assertEquals("ERROR_USAGE_HOTKEYS", reader.readLine());
+            // n is checked against what the sketch and the segment table can hold
+            for (String bad : new String[] {"0", "-1", "17"}) {
+                writer.println("HOTKEYS " + bad);
+                assertEquals("ERROR_USAGE_HOTKEYS", reader.readLine());
+            }
+            writer.println("HOTKEYS 16");
+            assertTrue(reader.readLine().startsWith("HOTKEYS hot=21"));
+            writer.println("HOTSEGMENTS -5");
+            assertEquals("ERROR_USAGE_HOTSEGMENTS", reader.readLine());
+            writer.println("HOTSEGMENTS " + Integer.MAX_VALUE);
+            assertEquals("ERROR_USAGE_HOTSEGMENTS", reader.readLine());
+            writer.println("HOTSEGMENTS " + CONC_LVL);
+            assertTrue(reader.readLine().startsWith("HOTSEGMENTS "));
+        }
+    }
 }
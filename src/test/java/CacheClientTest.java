@@ -0,0 +1,360 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.CacheSegment;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.client.CacheClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheClientTest {
+    private static final String HOST = "localhost";
+    private AsyncServer server;
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws InterruptedException {
+        String dumpFile = tempDir.resolve("server.dump").toAbsolutePath().toString();
+        server = new AsyncServer();
+        server.setKeyIndex(true);
+        server.setNamespaces(true);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(10_000, 16, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long start = System.currentTimeMillis();
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new RuntimeException("Server did not bind port within 5 seconds");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void testIllegalArguments() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> new CacheClient(HOST, server.getPort(), 0, 1000));
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            assertThrows(IllegalArgumentException.class, () -> client.get("two words"));
+            assertThrows(IllegalArgumentException.class, () -> client.put("k", ""));
+        }
+    }
+
+    @Test
+    void testPutAndGet() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            client.put("a", "1").get(5, TimeUnit.SECONDS);
+            assertEquals("1", client.get("a").get(5, TimeUnit.SECONDS));
+            assertNull(client.get("missing").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_UNKNOWN_COMMAND", client.command("NOPE").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testPipelinedResponsesMatchRequests() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort(), 2, 5000)) {
+            int n = 2000;
+            List<CompletableFuture<Void>> puts = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                puts.add(client.put("key" + i, "value" + i));
+            }
+            CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            List<CompletableFuture<String>> gets = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                gets.add(client.get("key" + i));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals("value" + i, gets.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertTrue(client.writes() < client.requestsSent(), "Queued requests should share writes");
+        }
+    }
+
+    @Test
+    void testConcurrentCallers() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            int threads = 8;
+            List<Thread> workers = new ArrayList<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                Thread worker = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        try {
+                            String key = "t" + id + "-" + i;
+                            client.put(key, key).get(5, TimeUnit.SECONDS);
+                            if (!key.equals(client.get(key).get(5, TimeUnit.SECONDS))) failures.incrementAndGet();
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(0, failures.get());
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        // accepts and reads but never answers
+        try (ServerSocket silent = new ServerSocket(0);
+             CacheClient client = new CacheClient(HOST, silent.getLocalPort(), 1, 200)) {
+            Thread acceptor = new Thread(() -> {
+                try (Socket s = silent.accept()) {
+                    s.getInputStream().readAllBytes();
+                } catch (IOException ignored) {}
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> client.get("k").get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void testReconnectAfterConnectionLoss() throws Exception {
+        // first connection is dropped on its first request, later ones answer OK
+        try (ServerSocket flaky = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                int accepted = 0;
+                while (!flaky.isClosed()) {
+                    try {
+                        Socket s = flaky.accept();
+                        boolean drop = accepted++ == 0;
+                        Thread handler = new Thread(() -> {
+                            try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+                                OutputStream out = s.getOutputStream();
+                                while (in.readLine() != null) {
+                                    if (drop) return;
+                                    out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+                                    out.flush();
+                                }
+                            } catch (IOException ignored) {}
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException ignored) {}
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            try (CacheClient client = new CacheClient(HOST, flaky.getLocalPort(), 1, 2000)) {
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> client.put("k", "v").get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+                client.put("k", "v").get(5, TimeUnit.SECONDS);
+                assertEquals(1, client.reconnects());
+                assertEquals(1, client.connectedCount());
+            }
+        }
+    }
+
+    @Test
+    void testConditionalCommands() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            assertTrue(client.putIfAbsent("a", "1", 0).get(5, TimeUnit.SECONDS));
+            assertFalse(client.putIfAbsent("a", "2", 0).get(5, TimeUnit.SECONDS));
+
+            CacheSegment.Versioned<String> read = client.getVersioned("a").get(5, TimeUnit.SECONDS);
+            assertEquals("1", read.value());
+            long next = client.compareAndSet("a", read.version(), "2", 0).get(5, TimeUnit.SECONDS);
+            assertTrue(next > read.version());
+            // the old token is stale now, one round trip tells the caller to read again
+            assertEquals(LRUCache.CAS_CONFLICT, client.compareAndSet("a", read.version(), "3", 0).get(5, TimeUnit.SECONDS));
+            assertEquals(LRUCache.CAS_NOT_FOUND, client.compareAndSet("b", 1, "3", 0).get(5, TimeUnit.SECONDS));
+            assertEquals("2", client.get("a").get(5, TimeUnit.SECONDS));
+
+            assertTrue(client.touch("a", 100).get(5, TimeUnit.SECONDS));
+            assertFalse(client.touch("b", 100).get(5, TimeUnit.SECONDS));
+            Thread.sleep(300);
+            assertNull(client.get("a").get(5, TimeUnit.SECONDS));
+
+            client.put("c", "1").get(5, TimeUnit.SECONDS);
+            assertTrue(client.delete("c").get(5, TimeUnit.SECONDS));
+            assertFalse(client.delete("c").get(5, TimeUnit.SECONDS));
+            assertNull(client.getVersioned("c").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_CAS", client.command("CAS c notanumber v").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_TOUCH", client.command("TOUCH c").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testNamespacesAreSeparate() throws Exception {
+        try (CacheClient plain = new CacheClient(HOST, server.getPort());
+             CacheClient orders = new CacheClient(HOST, server.getPort(), 2, 5_000, "orders")) {
+            plain.put("k", "default").get(5, TimeUnit.SECONDS);
+            orders.put("k", "orders").get(5, TimeUnit.SECONDS);
+            orders.put("scan:1", "v").get(5, TimeUnit.SECONDS);
+            assertEquals("default", plain.get("k").get(5, TimeUnit.SECONDS));
+            assertEquals("orders", orders.get("k").get(5, TimeUnit.SECONDS));
+            assertNull(plain.get("scan:1").get(5, TimeUnit.SECONDS));
+            // keys come back the way the namespace knows them
+            assertEquals(List.of("scan:1"), orders.scan("scan:", "0", 10).get(5, TimeUnit.SECONDS).keys());
+            assertEquals(1, orders.increment("hits").get(5, TimeUnit.SECONDS));
+
+            assertEquals("OK", plain.command("QUOTA orders 500").get(5, TimeUnit.SECONDS));
+            assertEquals("NSINFO name=orders quota=500 used=3 borrowed=0 hits=1 misses=0 evictions=0",
+                    plain.command("NSINFO orders").get(5, TimeUnit.SECONDS));
+            assertTrue(plain.command("NSINFO").get(5, TimeUnit.SECONDS).startsWith("NSINFO name=default quota=0 used=1 "));
+            assertEquals("ERROR_USAGE_QUOTA", plain.command("QUOTA orders lots").get(5, TimeUnit.SECONDS));
+            assertTrue(orders.delete("k").get(5, TimeUnit.SECONDS));
+            assertEquals("default", plain.get("k").get(5, TimeUnit.SECONDS));
+        }
+        try (Socket socket = new Socket(HOST, server.getPort());
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("SELECT");
+            assertEquals("ERROR_USAGE_SELECT", in.readLine());
+            out.println("SELECT orders");
+            assertEquals("OK", in.readLine());
+            out.println("GET scan:1");
+            assertEquals("VALUE v", in.readLine());
+            out.println("TRACKING ON");
+            assertEquals("OK", in.readLine());
+            out.println("SELECT default");
+            assertEquals("ERROR_TRACKING_ON", in.readLine());
+        }
+    }
+
+    @Test
+    void testTaggedPutAndInvalidateTag() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            client.put("product:1", "a", 0, "catalog").get(5, TimeUnit.SECONDS);
+            client.put("product:2", "b", 0, "catalog", "sale").get(5, TimeUnit.SECONDS);
+            client.put("cart:1", "c").get(5, TimeUnit.SECONDS);
+            client.invalidateTag("catalog").get(5, TimeUnit.SECONDS);
+            assertNull(client.get("product:1").get(5, TimeUnit.SECONDS));
+            assertNull(client.get("product:2").get(5, TimeUnit.SECONDS));
+            assertEquals("c", client.get("cart:1").get(5, TimeUnit.SECONDS));
+            client.put("product:1", "a2", 0, "catalog").get(5, TimeUnit.SECONDS);
+            assertEquals("a2", client.get("product:1").get(5, TimeUnit.SECONDS));
+            assertThrows(IllegalArgumentException.class, () -> client.put("k", "v", 0, "a,b"));
+            assertThrows(IllegalArgumentException.class, () -> client.invalidateTag("two words"));
+            assertEquals("ERROR_USAGE_TAGPUT", client.command("TAGPUT k v 0").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testScanAndDeletePrefix() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            for (int i = 0; i < 25; i++) {
+                client.put(String.format("scan:1:%02d", i), "v").get(5, TimeUnit.SECONDS);
+            }
+            client.put("scan:2:00", "v").get(5, TimeUnit.SECONDS);
+            List<String> keys = new ArrayList<>();
+            String cursor = "0";
+            do {
+                CacheClient.ScanPage page = client.scan("scan:1:", cursor, 10).get(5, TimeUnit.SECONDS);
+                assertTrue(page.keys().size() <= 10);
+                keys.addAll(page.keys());
+                cursor = page.cursor();
+            } while (!cursor.equals("0"));
+            assertEquals(25, keys.size());
+            assertEquals("scan:1:00", keys.get(0));
+            assertEquals("scan:1:24", keys.get(24));
+
+            assertEquals(25, client.deletePrefix("scan:1:").get(5, TimeUnit.SECONDS));
+            assertEquals(0, client.deletePrefix("scan:1:").get(5, TimeUnit.SECONDS));
+            assertNull(client.get("scan:1:00").get(5, TimeUnit.SECONDS));
+            assertEquals(List.of("scan:2:00"), client.scan("scan:", "0", 10).get(5, TimeUnit.SECONDS).keys());
+            assertEquals("ERROR_USAGE_SCAN", client.command("SCAN scan: >other:1").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_SCAN", client.command("SCAN scan: 0 100000").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testLargeDeletePrefixAnswersInOrder() throws Exception {
+        try (Socket socket = new Socket(HOST, server.getPort());
+             OutputStream out = socket.getOutputStream();
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             CacheClient other = new CacheClient(HOST, server.getPort())) {
+            StringBuilder puts = new StringBuilder();
+            for (int i = 0; i < 4500; i++) {
+                puts.append("PUT big:").append(i).append(" v\n");
+            }
+            out.write(puts.toString().getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 4500; i++) {
+                assertEquals("OK", in.readLine());
+            }
+            // several pages, each on its own turn of the loop. the commands behind it wait for the count
+            out.write("DELPREFIX big:\nGET big:1\nPUT after 1\nGET after\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            other.put("elsewhere", "v").get(5, TimeUnit.SECONDS);
+            assertEquals("DELETED 4500", in.readLine());
+            assertEquals("NOT_FOUND", in.readLine());
+            assertEquals("OK", in.readLine());
+            assertEquals("VALUE 1", in.readLine());
+            assertEquals("v", other.get("elsewhere").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testCounters() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            assertEquals(1L, client.increment("hits").get(5, TimeUnit.SECONDS));
+            assertEquals(11L, client.incrementBy("hits", 10, 0).get(5, TimeUnit.SECONDS));
+            assertEquals("VALUE 10", client.command("DECR hits").get(5, TimeUnit.SECONDS));
+            assertEquals("10", client.get("hits").get(5, TimeUnit.SECONDS));
+
+            // a window: the ttl starts with the counter and later increments keep it
+            assertEquals(1L, client.incrementBy("window", 1, 200).get(5, TimeUnit.SECONDS));
+            assertEquals(2L, client.incrementBy("window", 1, 200).get(5, TimeUnit.SECONDS));
+            Thread.sleep(400);
+            assertEquals(1L, client.incrementBy("window", 1, 200).get(5, TimeUnit.SECONDS));
+
+            client.put("name", "abc").get(5, TimeUnit.SECONDS);
+            assertEquals("ERROR_NOT_A_NUMBER", client.command("INCR name").get(5, TimeUnit.SECONDS));
+            client.put("big", String.valueOf(Long.MAX_VALUE)).get(5, TimeUnit.SECONDS);
+            assertEquals("ERROR_OVERFLOW", client.command("INCR big").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_INCRBY", client.command("INCRBY hits lots").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_INCR", client.command("INCR hits 1 2").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testPeekAndExists() throws Exception {
+        try (CacheClient client = new CacheClient(HOST, server.getPort())) {
+            client.put("k", "v").get(5, TimeUnit.SECONDS);
+            assertEquals("v", client.peek("k").get(5, TimeUnit.SECONDS));
+            assertNull(client.peek("missing").get(5, TimeUnit.SECONDS));
+            assertTrue(client.exists("k").get(5, TimeUnit.SECONDS));
+            assertFalse(client.exists("missing").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_USAGE_PEEK", client.command("PEEK").get(5, TimeUnit.SECONDS));
+            assertTrue(client.delete("k").get(5, TimeUnit.SECONDS));
+            assertFalse(client.exists("k").get(5, TimeUnit.SECONDS));
+        }
+    }
+}
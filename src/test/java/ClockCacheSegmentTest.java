@@ -0,0 +1,127 @@
+import com.mylrucachelib.ClockCacheSegment;
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.TimeSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClockCacheSegmentTest {
+
+    @Test
+    void testZeroCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ClockCacheSegment<>(0));
+    }
+
+    @Test
+    void testOneCapacity() {
+        ClockCacheSegment<Character,Character> cache = new ClockCacheSegment<>(1);
+        for (char a = 'A'; a <= 'G'; a++) {
+            cache.put(a, a);
+        }
+        assertEquals(1, cache.size());
+        assertEquals('G', cache.get('G'));
+    }
+
+    @Test
+    void testSecondChance() {
+        ClockCacheSegment<Character,Character> cache = new ClockCacheSegment<>(3);
+        for (char a = 'A'; a <= 'C'; a++) {
+            cache.put(a, a);
+        }
+        cache.get('A');
+        cache.put('D', 'D');
+        assertEquals('A', cache.get('A'), "Referenced entry should get a second chance");
+        assertNull(cache.get('B'), "First unreferenced entry under the hand should be evicted");
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void testPutExistingKey() {
+        ClockCacheSegment<Character,Character> cache = new ClockCacheSegment<>(3);
+        for (char a = 'A'; a <= 'C'; a++) {
+            cache.put(a, a);
+        }
+        cache.put('A', 'Z');
+        assertEquals('Z', cache.get('A'));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void testNullKeyAndValue() {
+        ClockCacheSegment<Character,Character> cache = new ClockCacheSegment<>(3);
+        cache.put(null, 'D');
+        cache.put('K', null);
+        assertEquals(2, cache.size());
+        assertEquals('D', cache.get(null));
+        assertNull(cache.get('K'));
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testTTL() {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        TimeSource mockClock = fakeTime::get;
+        ClockCacheSegment<Integer,Integer> cache = new ClockCacheSegment<>(50, mockClock);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i, 1000);
+        }
+        assertEquals(0, cache.cleanupExpired(50));
+        fakeTime.addAndGet(1001);
+        assertNull(cache.get(7), "Expired entry must not be served");
+        assertEquals(50, cache.cleanupExpired(50));
+        assertEquals(0, cache.size());
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testConcurrentReadersAndWriters() throws InterruptedException {
+        ClockCacheSegment<Integer,Integer> cache = new ClockCacheSegment<>(64);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                try {
+                    for (int i = 0; i < 50_000; i++) {
+                        int key = ThreadLocalRandom.current().nextInt(256);
+                        if (i % 4 == 0) cache.put(key, key);
+                        Integer value = cache.get(key);
+                        // a slot recycled for another key must never leak its value
+                        if (value != null && value != key) failed.set(true);
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        pool.shutdown();
+        assertFalse(failed.get(), "Reader observed a value belonging to another key");
+        assertEquals(64, cache.size());
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testSelectableOnLRUCache() {
+        LRUCache<Character,Character> cache = new LRUCache<>(5, 2, System::currentTimeMillis, EvictionPolicy.CLOCK);
+        for (char c = 'A'; c <= 'Z'; c++) {
+            cache.put(c, c);
+        }
+        assertEquals(5, cache.size());
+        assertEquals('Z', cache.get('Z'));
+        assertTrue(cache.checkSizeInvariance());
+        assertThrows(IllegalStateException.class, () -> cache.enableRebalancing(0.1, 64));
+        cache.shutdown();
+    }
+}
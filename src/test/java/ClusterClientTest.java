@@ -0,0 +1,153 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.client.CacheClient;
+import com.mylrucachelib.client.ClusterClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterClientTest {
+    private static final int KEYS = 20_000;
+    private final List<AsyncServer> servers = new ArrayList<>();
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(AsyncServer::stop);
+    }
+
+    private String startServer() throws InterruptedException {
+        AsyncServer server = new AsyncServer();
+        String dumpFile = tempDir.resolve("server" + servers.size() + ".dump").toAbsolutePath().toString();
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(10_000, 4, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long start = System.currentTimeMillis();
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new RuntimeException("Server did not bind port within 5 seconds");
+            }
+            Thread.sleep(20);
+        }
+        servers.add(server);
+        return "localhost:" + server.getPort();
+    }
+
+    // routing only, nothing listens on these ports
+    private static List<String> fakeNodes(int n) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 1; i <= n; i++) {
+            nodes.add("localhost:" + i);
+        }
+        return nodes;
+    }
+
+    private static Map<String, String> owners(ClusterClient cluster) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put("key" + i, cluster.nodeFor("key" + i));
+        }
+        return owners;
+    }
+
+    @Test
+    void testKeysSpreadEvenly() throws IOException {
+        try (ClusterClient cluster = new ClusterClient(fakeNodes(4))) {
+            Map<String, Integer> counts = new HashMap<>();
+            owners(cluster).values().forEach(node -> counts.merge(node, 1, Integer::sum));
+            assertEquals(4, counts.size());
+            for (int count : counts.values()) {
+                assertTrue(count > KEYS * 0.18 && count < KEYS * 0.32, "Unbalanced share: " + counts);
+            }
+        }
+    }
+
+    @Test
+    void testAddingNodeOnlyMovesKeysToIt() throws IOException {
+        try (ClusterClient cluster = new ClusterClient(fakeNodes(4))) {
+            Map<String, String> before = owners(cluster);
+            cluster.addNode("localhost:5");
+            Map<String, String> after = owners(cluster);
+            int moved = 0;
+            for (var e : before.entrySet()) {
+                String now = after.get(e.getKey());
+                if (!now.equals(e.getValue())) {
+                    assertEquals("localhost:5", now, "Keys may only move to the new node");
+                    moved++;
+                }
+            }
+            assertTrue(moved > KEYS * 0.1 && moved < KEYS * 0.3, "Moved " + moved + " of " + KEYS);
+        }
+    }
+
+    @Test
+    void testRemovingNodeOnlyMovesItsKeys() throws IOException {
+        try (ClusterClient cluster = new ClusterClient(fakeNodes(4))) {
+            Map<String, String> before = owners(cluster);
+            cluster.removeNode("localhost:2");
+            assertEquals(3, cluster.nodes().size());
+            Map<String, String> after = owners(cluster);
+            for (var e : before.entrySet()) {
+                if (!e.getValue().equals("localhost:2")) {
+                    assertEquals(e.getValue(), after.get(e.getKey()));
+                } else {
+                    assertNotEquals("localhost:2", after.get(e.getKey()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testEmptyCluster() throws IOException {
+        try (ClusterClient cluster = new ClusterClient(List.of())) {
+            assertThrows(IllegalStateException.class, () -> cluster.nodeFor("k"));
+            assertThrows(IllegalArgumentException.class, () -> cluster.addNode("no-port"));
+        }
+    }
+
+    @Test
+    void testPutAndGetAllAcrossServers() throws Exception {
+        List<String> nodes = List.of(startServer(), startServer(), startServer());
+        try (ClusterClient cluster = new ClusterClient(nodes)) {
+            List<CompletableFuture<Void>> puts = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                keys.add("key" + i);
+                puts.add(cluster.put("key" + i, "value" + i));
+            }
+            CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            keys.add("missing");
+            Map<String, String> all = cluster.getAll(keys).get(10, TimeUnit.SECONDS);
+            assertEquals(300, all.size());
+            for (int i = 0; i < 300; i++) {
+                assertEquals("value" + i, all.get("key" + i));
+            }
+            // every key lives only on the node the ring assigns it to
+            for (String node : nodes) {
+                int port = Integer.parseInt(node.substring(node.indexOf(':') + 1));
+                try (CacheClient direct = new CacheClient("localhost", port)) {
+                    for (int i = 0; i < 300; i += 7) {
+                        String key = "key" + i;
+                        String value = direct.get(key).get(5, TimeUnit.SECONDS);
+                        assertEquals(node.equals(cluster.nodeFor(key)), value != null, key + " on " + node);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import com.mylrucachelib.CompressedCache;
+import com.mylrucachelib.persistence.Codecs;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedCacheTest {
+    private static String text(int i, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("entry ").append(i).append(" lorem ipsum dolor sit amet; ");
+        }
+        return sb.substring(0, length);
+    }
+
+    private static byte[] noise(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testLargeValuesAreStoredCompressed() {
+        CompressedCache<String, String> cache = new CompressedCache<>(100, 4, 1 << 20, Codecs.STRING, 1024);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, text(i, 8192));
+        }
+        cache.put("small", "tiny");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(text(i, 8192), cache.get("k" + i));
+        }
+        assertEquals("tiny", cache.get("small"));
+        CompressedCache.CompressionStats stats = cache.stats();
+        assertEquals(10, stats.compressions());
+        assertEquals(10, stats.decompressions());
+        assertTrue(stats.ratio() > 5, "ratio " + stats.ratio());
+        assertTrue(stats.compressNanos() > 0);
+        assertTrue(cache.storedBytes() < 10 * 8192 / 5, "stored " + cache.storedBytes());
+        cache.shutdown();
+    }
+
+    @Test
+    void testBudgetCountsCompressedSize() {
+        long maxBytes = 64 * 1024;
+        CompressedCache<String, String> compressible = new CompressedCache<>(1000, 1, maxBytes, Codecs.STRING, 1024);
+        CompressedCache<String, byte[]> random = new CompressedCache<>(1000, 1, maxBytes, Codecs.BYTES, 1024);
+        Random rnd = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            compressible.put("k" + i, text(i, 8192));
+            random.put("k" + i, noise(rnd, 8192));
+        }
+        // 400KB of text fits in 64KB compressed, the same amount of noise does not compress
+        assertEquals(50, compressible.size());
+        assertTrue(random.size() < 8, "kept " + random.size());
+        assertTrue(random.storedBytes() <= maxBytes);
+        assertEquals(50, random.stats().rejected());
+        assertNotNull(random.get("k49"));
+        compressible.shutdown();
+        random.shutdown();
+    }
+
+    @Test
+    void testInflatedCacheServesHotKeysAndNeverGoesStale() {
+        CompressedCache<String, String> cache = new CompressedCache<>(100, 1, 1 << 20, Codecs.STRING, 1024,
+                CompressedCache.Compressor.deflate(6), 4);
+        cache.put("hot", text(1, 4096));
+        assertEquals(text(1, 4096), cache.get("hot"));
+        assertEquals(text(1, 4096), cache.get("hot"));
+        assertEquals(1, cache.stats().decompressions());
+        assertEquals(1, cache.stats().inflatedHits());
+
+        cache.put("hot", text(2, 4096));
+        assertEquals(text(2, 4096), cache.get("hot"));
+        assertEquals(2, cache.stats().decompressions());
+        assertTrue(cache.remove("hot"));
+        assertNull(cache.get("hot"));
+        cache.shutdown();
+    }
+}
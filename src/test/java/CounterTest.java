@@ -0,0 +1,220 @@
+import com.mylrucachelib.CacheSegment;
+import com.mylrucachelib.CacheWriter;
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.RemovalCause;
+import com.mylrucachelib.TimeSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CounterTest {
+    private static LRUCache<String, String> newCache(int capacity, int concurrencyLevel, TimeSource clock) {
+        LRUCache<String, String> cache = new LRUCache<>(capacity, concurrencyLevel, clock, EvictionPolicy.SEGMENTED_LRU);
+        cache.enableCounters(Long::parseLong, Long::toString);
+        return cache;
+    }
+
+    @Test
+    void testIncrementsAreReadAsValues() {
+        LRUCache<String, String> cache = newCache(100, 4, System::currentTimeMillis);
+        assertEquals(1, cache.increment("hits"));
+        assertEquals(2, cache.increment("hits"));
+        assertEquals(-3, cache.incrementBy("hits", -5, 0));
+        assertEquals("-3", cache.get("hits"));
+
+        // an existing value is parsed once and counted on from there
+        cache.put("views", "41");
+        assertEquals(42, cache.increment("views"));
+        assertEquals("42", cache.get("views"));
+        // a plain put ends the counter
+        cache.put("views", "7");
+        assertEquals(8, cache.increment("views"));
+
+        cache.put("name", "abc");
+        assertThrows(NumberFormatException.class, () -> cache.increment("name"));
+        assertEquals("abc", cache.get("name"));
+        cache.put("big", String.valueOf(Long.MAX_VALUE));
+        assertThrows(ArithmeticException.class, () -> cache.increment("big"));
+        assertEquals(String.valueOf(Long.MAX_VALUE), cache.get("big"));
+        assertTrue(cache.remove("hits"));
+        assertEquals(1, cache.increment("hits"));
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+
+        LRUCache<String, String> plain = new LRUCache<>(100, 4);
+        assertThrows(IllegalStateException.class, () -> plain.increment("hits"));
+        plain.shutdown();
+        LRUCache<String, String> clock = new LRUCache<>(100, 4, System::currentTimeMillis, EvictionPolicy.CLOCK);
+        assertThrows(IllegalStateException.class, () -> clock.enableCounters(Long::parseLong, Long::toString));
+        clock.shutdown();
+    }
+
+    @Test
+    void testNullKeyCounts() {
+        LRUCache<String, String> cache = newCache(100, 4, System::currentTimeMillis);
+        // the second increment takes the lock-free path
+        assertEquals(1, cache.increment(null));
+        assertEquals(2, cache.increment(null));
+        assertEquals(12, cache.incrementBy(null, 10, 0));
+        assertEquals("12", cache.get(null));
+        assertTrue(cache.remove(null));
+        assertEquals(1, cache.increment(null));
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testTtlMakesAFixedWindow() {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        LRUCache<String, String> cache = newCache(100, 1, fakeTime::get);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, cache.incrementBy("requests", 1, 1000));
+            fakeTime.addAndGet(100);
+        }
+        // increments do not push the window out, it ends 1000ms after the first one
+        fakeTime.addAndGet(501);
+        assertNull(cache.get("requests"));
+        assertEquals(1, cache.incrementBy("requests", 1, 1000));
+        fakeTime.addAndGet(999);
+        assertEquals(2, cache.incrementBy("requests", 1, 1000));
+
+        // touch moves the window of a live counter
+        assertTrue(cache.touch("requests", 5000));
+        fakeTime.addAndGet(2000);
+        assertEquals(3, cache.incrementBy("requests", 1, 1000));
+        fakeTime.addAndGet(3001);
+        assertEquals(1, cache.incrementBy("requests", 1, 1000));
+        cache.shutdown();
+    }
+
+    @Test
+    void testVersionsCoverIncrements() {
+        LRUCache<String, String> cache = newCache(100, 1, System::currentTimeMillis);
+        cache.increment("c");
+        CacheSegment.Versioned<String> read = cache.getVersioned("c");
+        assertEquals("1", read.value());
+        cache.increment("c");
+        // counted since the read, so the token is stale
+        assertEquals(LRUCache.CAS_CONFLICT, cache.compareAndSet("c", read.version(), "10", 0));
+        read = cache.getVersioned("c");
+        assertEquals("2", read.value());
+        assertTrue(cache.compareAndSet("c", read.version(), "10", 0) > read.version());
+        assertEquals(11, cache.increment("c"));
+
+        assertFalse(cache.replace("c", "10", "0"));
+        assertTrue(cache.replace("c", "11", "0"));
+        assertEquals(1, cache.increment("c"));
+        assertEquals("2", cache.compute("c", (k, v) -> String.valueOf(Long.parseLong(v) + 1)));
+        assertEquals(3, cache.increment("c"));
+        cache.shutdown();
+    }
+
+    @Test
+    void testRemovalsSeeTheCount() throws Exception {
+        LRUCache<String, String> cache = newCache(2, 1, System::currentTimeMillis);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        cache.setRemovalListener((key, value, cause) -> events.add(cause + " " + key + "=" + value), Runnable::run);
+        cache.incrementBy("a", 5, 0);
+        cache.increment("a");
+        cache.put("b", "1");
+        // the counter was only bumped lock-free, so it is still the lru entry but gets another round
+        cache.put("b", "2");
+        cache.increment("a");
+        cache.put("c", "1");
+        cache.put("a", "x");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(List.of("REPLACED b=1", "EVICTED b=2", "REPLACED a=7"), events);
+        cache.shutdown();
+    }
+
+    @Test
+    void testSplitKeepsCounts() {
+        LRUCache<String, String> cache = newCache(64, 1, System::currentTimeMillis);
+        for (int i = 0; i < 32; i++) {
+            cache.incrementBy("k" + i, i, 0);
+        }
+        assertTrue(cache.splitSegments());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i + 1, cache.increment("k" + i));
+        }
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testWriteBehindGetsEveryCountInOrder() throws Exception {
+        Map<String, String> store = new ConcurrentHashMap<>();
+        LRUCache<String, String> cache = newCache(100, 1, System::currentTimeMillis);
+        cache.enableWriteBehind(new CacheWriter<>() {
+            @Override
+            public void writeAll(Map<String, String> entries) {
+                store.putAll(entries);
+            }
+
+            @Override
+            public void deleteAll(Set<String> keys) {
+                store.keySet().removeAll(keys);
+            }
+        }, 10, 10, 100);
+        for (int i = 0; i < 1000; i++) {
+            cache.increment("c");
+        }
+        cache.shutdown();
+        assertEquals(Map.of("c", "1000"), store);
+    }
+
+    @Test
+    void testConcurrentIncrementsLoseNothing() throws InterruptedException {
+        LRUCache<String, String> cache = newCache(1000, 4, System::currentTimeMillis);
+        int threads = 8;
+        int increments = 20_000;
+        AtomicBoolean running = new AtomicBoolean(true);
+        // retires the counters over and over while the writers are at them
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                for (int c = 0; c < 10; c++) {
+                    cache.getVersioned("c" + c);
+                    cache.get("c" + c);
+                }
+            }
+        });
+        reader.start();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    cache.increment("c" + (i % 10));
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        running.set(false);
+        reader.join();
+        pool.shutdown();
+        long total = 0;
+        for (int c = 0; c < 10; c++) {
+            total += Long.parseLong(cache.get("c" + c));
+        }
+        assertEquals((long) threads * increments, total);
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,93 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.TimeSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotKeyReplicaTest {
+    private LRUCache<String, Integer> cache;
+
+    @BeforeEach
+    void setup() {
+        cache = new LRUCache<>(100, 4);
+        cache.enableHotKeyTracking(4, 1.0, 60_000);
+        cache.enableHotKeyReplication(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void testReplicationRequiresTracking() {
+        LRUCache<String, Integer> plain = new LRUCache<>(10, 1);
+        assertThrows(IllegalStateException.class, () -> plain.enableHotKeyReplication(4));
+        plain.shutdown();
+    }
+
+    @Test
+    void testHotKeyServedFromReplica() {
+        cache.put("hot", 1);
+        for (int i = 0; i < 100; i++) cache.get("hot");
+        cache.refreshReplica();
+        assertTrue(cache.getHotKeyReplica().contains("hot"));
+        long hits = cache.getHotKeyReplica().hits();
+        assertEquals(1, cache.get("hot"));
+        assertEquals(hits + 1, cache.getHotKeyReplica().hits());
+    }
+
+    @Test
+    void testWriteInvalidatesReplica() {
+        cache.put("hot", 1);
+        for (int i = 0; i < 100; i++) cache.get("hot");
+        cache.refreshReplica();
+        cache.put("hot", 2);
+        assertFalse(cache.getHotKeyReplica().contains("hot"));
+        assertEquals(2, cache.get("hot"));
+    }
+
+    @Test
+    void testTouchInvalidatesReplica() {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        TimeSource clock = fakeTime::get;
+        LRUCache<String, Integer> timed = new LRUCache<>(100, 4, clock, EvictionPolicy.SEGMENTED_LRU);
+        timed.enableHotKeyTracking(4, 1.0, 60_000);
+        timed.enableHotKeyReplication(4);
+        timed.put("hot", 1);
+        for (int i = 0; i < 100; i++) timed.get("hot");
+        timed.refreshReplica();
+        assertTrue(timed.getHotKeyReplica().contains("hot"));
+        assertTrue(timed.touch("hot", 50));
+        assertFalse(timed.getHotKeyReplica().contains("hot"));
+        fakeTime.addAndGet(100);
+        assertNull(timed.get("hot"));
+        assertNull(timed.peek("hot"));
+        timed.shutdown();
+    }
+
+    @Test
+    void testNoStaleReadsWhileRefreshing() throws InterruptedException {
+        cache.put("hot", 0);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread refresher = new Thread(() -> {
+            while (!done.get()) cache.refreshReplica();
+        });
+        refresher.start();
+        try {
+            for (int i = 1; i <= 50_000; i++) {
+                cache.put("hot", i);
+                assertEquals(i, cache.get("hot"), "Replica served a value older than the last write");
+            }
+        } finally {
+            done.set(true);
+            refresher.join();
+        }
+    }
+}
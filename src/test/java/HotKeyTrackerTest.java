@@ -0,0 +1,70 @@
+import com.mylrucachelib.HotKeyTracker;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.TimeSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotKeyTrackerTest {
+
+    @Test
+    void testIllegalArguments() {
+        TimeSource clock = System::currentTimeMillis;
+        assertThrows(IllegalArgumentException.class, () -> new HotKeyTracker<String>(0, 1.0, 1000, 1, clock));
+        assertThrows(IllegalArgumentException.class, () -> new HotKeyTracker<String>(10, 0, 1000, 1, clock));
+        assertThrows(IllegalArgumentException.class, () -> new HotKeyTracker<String>(10, 1.5, 1000, 1, clock));
+    }
+
+    @Test
+    void testSkewedStreamTopKeys() {
+        HotKeyTracker<Integer> tracker = new HotKeyTracker<>(8, 1.0, 1000, 4, System::currentTimeMillis);
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 3 == 0) tracker.sample(1, 1);
+            else if (i % 5 == 0) tracker.sample(2, 2);
+            else tracker.sample(100 + i, 3); // long tail of one-off keys
+        }
+        List<HotKeyTracker.Entry<Integer>> top = tracker.topKeys(2);
+        assertEquals(1, top.get(0).item());
+        assertEquals(2, top.get(1).item());
+        assertTrue(tracker.trackedKeys() <= 8, "Tracker must keep bounded memory");
+        assertEquals(3, tracker.topSegments(1).get(0).item());
+    }
+
+    @Test
+    void testWindowSlidesOut() {
+        AtomicLong fakeTime = new AtomicLong(0);
+        HotKeyTracker<String> tracker = new HotKeyTracker<>(4, 1.0, 1000, 1, fakeTime::get);
+        tracker.sample("old", 0);
+        fakeTime.set(1000);
+        tracker.rotateIfDue();
+        tracker.sample("new", 0);
+        assertEquals(2, tracker.topKeys(10).size(), "Previous window is still reported");
+        fakeTime.set(2000);
+        tracker.rotateIfDue();
+        List<HotKeyTracker.Entry<String>> top = tracker.topKeys(10);
+        assertEquals(1, top.size());
+        assertEquals("new", top.get(0).item());
+    }
+
+    @Test
+    void testCacheReportsHotKeys() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 4);
+        assertThrows(IllegalStateException.class, () -> cache.hotKeys(1));
+        cache.enableHotKeyTracking(16, 1.0, 10_000);
+        cache.put("hot", "v");
+        for (int i = 0; i < 50; i++) {
+            cache.get("hot");
+            cache.get("key" + (i % 10));
+        }
+        assertEquals("hot", cache.hotKeys(1).get(0).item());
+        assertEquals(51, cache.hotKeys(1).get(0).count());
+        assertFalse(cache.hotSegments(4).isEmpty());
+        assertEquals(16, cache.hotKeyCapacity());
+        assertThrows(IllegalArgumentException.class, () -> cache.hotKeys(0));
+        assertThrows(IllegalArgumentException.class, () -> cache.hotSegments(-1));
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,161 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.DiskTier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyIndexTest {
+    @TempDir
+    Path tempDir;
+
+    private static List<String> prefix(LRUCache<String, String> cache, String prefix) {
+        return cache.scan(prefix, true, prefix + Character.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void testIndexFollowsTheEntries() {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        TimeSource clock = fakeTime::get;
+        LRUCache<String, String> cache = new LRUCache<>(4, 1, clock, EvictionPolicy.SEGMENTED_LRU);
+        cache.put("before", "1");
+        // keys already there are picked up
+        cache.enableKeyIndex(Comparator.naturalOrder());
+        cache.put("session:1:b", "1");
+        cache.put("session:1:a", "1", 50);
+        cache.put("session:2:a", "1");
+        assertEquals(List.of("session:1:a", "session:1:b"), prefix(cache, "session:1:"));
+        assertEquals(List.of("before", "session:1:a", "session:1:b", "session:2:a"), cache.scan(null, true, null, 10));
+
+        // evicted
+        cache.put("other", "1");
+        assertEquals(List.of("other", "session:1:a", "session:1:b", "session:2:a"), cache.scan(null, true, null, 10));
+        // expired entries are skipped and leave with the cleanup
+        fakeTime.addAndGet(100);
+        assertEquals(List.of("session:1:b"), prefix(cache, "session:1:"));
+        // removed
+        assertTrue(cache.remove("session:1:b"));
+        assertEquals(List.of(), prefix(cache, "session:1:"));
+        cache.put("session:1:c", "1");
+        assertEquals(List.of("session:1:c"), prefix(cache, "session:1:"));
+        cache.shutdown();
+
+        LRUCache<String, String> plain = new LRUCache<>(4, 1);
+        assertThrows(IllegalStateException.class, () -> plain.scan(null, true, null, 10));
+        plain.shutdown();
+        LRUCache<String, String> clockCache = new LRUCache<>(4, 1, clock, EvictionPolicy.CLOCK);
+        assertThrows(IllegalStateException.class, () -> clockCache.enableKeyIndex(Comparator.naturalOrder()));
+        clockCache.shutdown();
+    }
+
+    @Test
+    void testPagesCoverTheRangeOnce() {
+        LRUCache<String, String> cache = new LRUCache<>(10_000, 8);
+        cache.enableKeyIndex(Comparator.naturalOrder());
+        for (int i = 0; i < 1000; i++) {
+            cache.put(String.format("user:%04d", i), "v");
+            cache.put(String.format("order:%04d", i), "v");
+        }
+        List<String> seen = new ArrayList<>();
+        String from = "user:";
+        boolean inclusive = true;
+        while (true) {
+            List<String> page = cache.scan(from, inclusive, "user:" + Character.MAX_VALUE, 64);
+            seen.addAll(page);
+            if (page.size() < 64) break;
+            from = page.get(page.size() - 1);
+            inclusive = false;
+        }
+        assertEquals(1000, seen.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(String.format("user:%04d", i), seen.get(i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> cache.scan("user:", true, null, 0));
+        cache.shutdown();
+    }
+
+    @Test
+    void testIndexSurvivesSplit() {
+        LRUCache<String, String> cache = new LRUCache<>(64, 1);
+        cache.enableKeyIndex(Comparator.naturalOrder());
+        for (int i = 0; i < 64; i++) {
+            cache.put("k" + i, "v");
+        }
+        assertTrue(cache.splitSegments());
+        for (int i = 0; i < 32; i++) {
+            cache.remove("k" + i);
+        }
+        for (int i = 64; i < 96; i++) {
+            cache.put("k" + i, "v");
+        }
+        List<String> keys = prefix(cache, "k");
+        assertEquals(cache.size(), keys.size());
+        for (int i = 32; i < 96; i++) {
+            assertTrue(keys.contains("k" + i));
+        }
+        cache.shutdown();
+    }
+
+    @Test
+    void testSpilledKeysStayAndDroppedOnesArePruned() {
+        LRUCache<String, String> cache = new LRUCache<>(10, 1);
+        cache.enableKeyIndex(Comparator.naturalOrder());
+        DiskTier<String, String> tier = new DiskTier<>(tempDir.resolve("tier"), Codecs.STRING, Codecs.STRING, 4096, 4 * 4096);
+        cache.enableDiskTier(tier);
+        String value = "v".repeat(200);
+        for (int i = 0; i < 200; i++) {
+            cache.put(String.format("k%03d", i), value);
+        }
+        // the tier holds what it can, and scan reports exactly what is still there
+        List<String> keys = prefix(cache, "k");
+        assertEquals(cache.size() + tier.size(), keys.size());
+        assertEquals(keys, prefix(cache, "k"));
+        assertTrue(keys.contains("k199"));
+        assertFalse(keys.contains("k000"));
+        cache.shutdown();
+        tier.close();
+    }
+
+    @Test
+    void testConcurrentWritersNeverHideLiveKeys() throws InterruptedException {
+        LRUCache<String, String> cache = new LRUCache<>(1000, 8);
+        cache.enableKeyIndex(Comparator.naturalOrder());
+        for (int i = 0; i < 100; i++) {
+            cache.put("stable:" + i, "v");
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            Thread writer = new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    String key = "churn:" + id + ":" + (i++ % 200);
+                    cache.put(key, "v");
+                    cache.remove(key);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (int round = 0; round < 200; round++) {
+            assertEquals(100, prefix(cache, "stable:").size());
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(List.of(), prefix(cache, "churn:"));
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,105 @@
+import com.mylrucachelib.LRUCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LRUCacheRebalanceTest {
+
+    // small Integer keys hash to themselves, so multiples of 4 all land in segment 0 of 4
+    @Test
+    void testCapacityMovesToPressuredSegment() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(64, 4);
+        int workingSet = 40;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < workingSet; i++) {
+                int key = i * 4;
+                if (cache.get(key) == null) cache.put(key, key);
+            }
+            cache.rebalance();
+        }
+        int[] capacities = cache.segmentCapacities();
+        assertEquals(64, Arrays.stream(capacities).sum(), "Total capacity must not change");
+        assertTrue(capacities[0] >= workingSet, "Hot segment should have grown, got " + Arrays.toString(capacities));
+        for (int i = 0; i < workingSet; i++) {
+            assertEquals(i * 4, cache.get(i * 4), "Working set should fit after rebalancing");
+        }
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testNoRebalanceWithoutPressure() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(64, 4);
+        for (int i = 0; i < 32; i++) cache.put(i, i);
+        cache.rebalance();
+        assertArrayEquals(new int[] {16, 16, 16, 16}, cache.segmentCapacities());
+        cache.shutdown();
+    }
+
+    @Test
+    void testSplitKeepsEntriesAndOrder() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(64, 2);
+        for (int i = 0; i < 64; i++) cache.put(i, i);
+        assertTrue(cache.splitSegments());
+        assertEquals(4, cache.segmentCount());
+        assertEquals(64, cache.size());
+        assertEquals(64, Arrays.stream(cache.segmentCapacities()).sum());
+        for (int i = 0; i < 64; i++) assertEquals(i, cache.get(i));
+        assertTrue(cache.checkSizeInvariance());
+        // recency survives the split: touch everything but 0, the next insert in its segment evicts 0
+        for (int i = 1; i < 64; i++) cache.get(i);
+        cache.put(64, 64);
+        assertNull(cache.get(0));
+        cache.shutdown();
+    }
+
+    @Test
+    void testSplitRefusedWhenSegmentsTooSmall() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(4, 4);
+        assertFalse(cache.splitSegments());
+        assertEquals(4, cache.segmentCount());
+        cache.shutdown();
+    }
+
+    @Test
+    void testConcurrentAccessDuringSplit() throws InterruptedException {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100_000, 2);
+        int keys = 5000;
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            pool.submit(() -> {
+                try {
+                    for (int i = offset; i < keys; i += threads) {
+                        cache.put(i, i);
+                        Integer value = cache.get(i);
+                        if (value == null || value != i) failed.set(true);
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        while (done.getCount() > 0 && cache.segmentCount() < 64) {
+            cache.splitSegments();
+        }
+        done.await();
+        pool.shutdown();
+        assertFalse(failed.get(), "A write was lost or an exception occurred while splitting");
+        assertEquals(keys, cache.size());
+        for (int i = 0; i < keys; i++) assertEquals(i, cache.get(i));
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+}
@@ -1,3 +1,5 @@
+import com.mylrucachelib.CacheSegment;
+import com.mylrucachelib.EvictionPolicy;
 import com.mylrucachelib.LRUCache;
 import com.mylrucachelib.LoggerSetup;
 import com.mylrucachelib.TimeSource;
@@ -5,9 +7,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -42,6 +47,25 @@ public class LRUCacheTest {
         assertEquals('Z', cache.get('Z'));
     }
 
+    @Test
+    void testRemoveAndRemovalHook() {
+        LRUCache<Character,Character> cache = new LRUCache<>(3, 1);
+        List<Character> removed = new ArrayList<>();
+        cache.setRemovalHook(removed::add);
+        cache.put('A', 'A');
+        cache.put('B', 'B');
+        assertTrue(cache.remove('A'));
+        assertFalse(cache.remove('A'));
+        assertNull(cache.get('A'));
+        assertTrue(removed.isEmpty(), "Explicit removes are not reported");
+        cache.put('B', 'Z');
+        cache.put('C', 'C');
+        cache.put('D', 'D');
+        cache.put('E', 'E');
+        assertEquals(List.of('B'), removed, "Only the evicted key is reported");
+        assertTrue(cache.checkSizeInvariance());
+    }
+
     @Test
     void testConcLvlBiggerThanCapacity() {
         LRUCache<Character,Character> cache = new LRUCache<>(5, 16);
@@ -97,4 +121,130 @@ public class LRUCacheTest {
         Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertTrue(cache.checkSizeInvariance(), "Cache did not pass size invariance verification"),
                 "The invariance check went into infinite loop which means it did not pass");
     }
+
+    @Test
+    void testWeigherBoundsTotalWeight() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        cache.setWeigher((key, value) -> value.length(), 10);
+        cache.put("a", "xxxx");
+        cache.put("b", "xxxx");
+        assertEquals(8, cache.weight());
+        cache.put("c", "xxxx"); // a is lru and goes to make room
+        assertNull(cache.get("a"));
+        assertEquals(8, cache.weight());
+        cache.put("b", "x"); // a lighter value frees weight without evicting
+        cache.put("d", "xxxxx");
+        assertEquals(10, cache.weight());
+        assertEquals(List.of("b", "c", "d").size(), cache.size());
+        // heavier than the whole budget: it stays, alone
+        cache.put("e", "x".repeat(20));
+        assertEquals(1, cache.size());
+        assertEquals(20, cache.weight());
+        cache.remove("e");
+        assertEquals(0, cache.weight());
+        assertTrue(cache.checkSizeInvariance());
+        assertFalse(cache.splitSegments());
+        assertThrows(IllegalStateException.class, () -> new LRUCache<String, String>(10, 1, System::currentTimeMillis,
+                com.mylrucachelib.EvictionPolicy.CLOCK).setWeigher((k, v) -> 1, 10));
+    }
+
+    @Test
+    void testConditionalOperations() {
+        for (EvictionPolicy policy : new EvictionPolicy[] {EvictionPolicy.SEGMENTED_LRU, EvictionPolicy.CLOCK}) {
+            AtomicLong fakeTime = new AtomicLong(100000);
+            TimeSource clock = fakeTime::get;
+            LRUCache<String, String> cache = new LRUCache<>(100, 4, clock, policy);
+
+            assertTrue(cache.putIfAbsent("a", "1"));
+            assertFalse(cache.putIfAbsent("a", "2"));
+            assertEquals("1", cache.get("a"));
+
+            assertFalse(cache.replace("a", "2", "3"));
+            assertTrue(cache.replace("a", "1", "3"));
+            assertFalse(cache.replace("missing", null, "x"));
+            assertEquals("3", cache.get("a"));
+
+            assertEquals("31", cache.compute("a", (k, v) -> v + "1"));
+            assertEquals("new", cache.compute("b", (k, v) -> v == null ? "new" : v));
+            assertNull(cache.compute("b", (k, v) -> null));
+            assertNull(cache.get("b"));
+
+            // touch sets a ttl on an entry that had none, replace and compute keep it
+            assertTrue(cache.touch("a", 50));
+            assertFalse(cache.touch("missing", 50));
+            assertTrue(cache.replace("a", "31", "4"));
+            fakeTime.addAndGet(30);
+            assertTrue(cache.touch("a", 50));
+            fakeTime.addAndGet(30);
+            assertEquals("4", cache.get("a"), policy.toString());
+            fakeTime.addAndGet(30);
+            assertNull(cache.get("a"), policy.toString());
+            // an expired entry counts as absent
+            assertTrue(cache.putIfAbsent("a", "5"));
+            assertTrue(cache.touch("a", 0));
+            fakeTime.addAndGet(1_000_000);
+            assertEquals("5", cache.get("a"));
+            assertTrue(cache.checkSizeInvariance());
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void testCompareAndSetVersions() {
+        for (EvictionPolicy policy : new EvictionPolicy[] {EvictionPolicy.SEGMENTED_LRU, EvictionPolicy.CLOCK}) {
+            LRUCache<String, String> cache = new LRUCache<>(100, 4, System::currentTimeMillis, policy);
+            assertNull(cache.getVersioned("k"));
+            assertEquals(LRUCache.CAS_NOT_FOUND, cache.compareAndSet("k", 1, "x", 0));
+            cache.put("k", "1");
+            CacheSegment.Versioned<String> first = cache.getVersioned("k");
+            assertEquals("1", first.value());
+            cache.put("k", "2");
+            // written since the read
+            assertEquals(LRUCache.CAS_CONFLICT, cache.compareAndSet("k", first.version(), "x", 0));
+            CacheSegment.Versioned<String> second = cache.getVersioned("k");
+            assertTrue(second.version() > first.version());
+            long third = cache.compareAndSet("k", second.version(), "3", 0);
+            assertTrue(third > second.version());
+            assertEquals(new CacheSegment.Versioned<>("3", third), cache.getVersioned("k"));
+            // a version from before a remove cannot resurrect the key
+            cache.remove("k");
+            cache.put("k", "4");
+            assertEquals(LRUCache.CAS_CONFLICT, cache.compareAndSet("k", third, "x", 0));
+            cache.shutdown();
+        }
+
+        // versions survive a split
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        cache.put("k", "1");
+        long version = cache.getVersioned("k").version();
+        assertTrue(cache.splitSegments());
+        assertTrue(cache.compareAndSet("k", version, "2", 0) > version);
+        cache.shutdown();
+    }
+
+    @Test
+    void testConcurrentCompareAndSetLosesNoIncrement() throws InterruptedException {
+        LRUCache<String, Integer> cache = new LRUCache<>(100, 4);
+        cache.put("counter", 0);
+        int threads = 4;
+        int increments = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    while (true) {
+                        CacheSegment.Versioned<Integer> current = cache.getVersioned("counter");
+                        if (cache.compareAndSet("counter", current.version(), current.value() + 1, 0) > 0) break;
+                    }
+                    cache.compute("counter", (k, v) -> v + 1);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(2 * threads * increments, cache.get("counter"));
+        cache.shutdown();
+    }
 }
@@ -0,0 +1,163 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.Namespaces;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NamespaceTest {
+    private static String namespaceOf(String key) {
+        int colon = key.indexOf(':');
+        return colon < 0 ? "default" : key.substring(0, colon);
+    }
+
+    private static int live(LRUCache<String, String> cache, String prefix, int n) {
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            if (cache.get(prefix + i) != null) found++;
+        }
+        return found;
+    }
+
+    @Test
+    void testQuotaProtectsAgainstANoisyNeighbour() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        Namespaces<String> spaces = cache.enableNamespaces(NamespaceTest::namespaceOf);
+        spaces.setQuota("orders", 40);
+        spaces.setQuota("batch", 60);
+        for (int i = 0; i < 40; i++) {
+            cache.put("orders:" + i, "v");
+        }
+        // a burst ten times the cache, orders is older than all of it and still keeps its share
+        for (int i = 0; i < 1000; i++) {
+            cache.put("batch:" + i, "v");
+        }
+        assertEquals(40, spaces.namespace("orders").used());
+        assertEquals(60, spaces.namespace("batch").used());
+        assertEquals(940, spaces.namespace("batch").evictions());
+        assertEquals(0, spaces.namespace("orders").evictions());
+        assertEquals(40, live(cache, "orders:", 40));
+        assertEquals(40, spaces.namespace("orders").hits());
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+
+        LRUCache<String, String> clock = new LRUCache<>(100, 1, System::currentTimeMillis, EvictionPolicy.CLOCK);
+        assertThrows(IllegalStateException.class, () -> clock.enableNamespaces(NamespaceTest::namespaceOf));
+        clock.shutdown();
+    }
+
+    @Test
+    void testIdleQuotaIsLentAndTakenBack() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        Namespaces<String> spaces = cache.enableNamespaces(NamespaceTest::namespaceOf);
+        spaces.setQuota("a", 50);
+        spaces.setQuota("b", 50);
+        // b is idle, a grows into its share
+        for (int i = 0; i < 100; i++) {
+            cache.put("a:" + i, "v");
+        }
+        assertEquals(100, spaces.namespace("a").used());
+        assertEquals(50, spaces.namespace("a").borrowed());
+        // full now, a pays for its own growth
+        cache.put("a:100", "v");
+        assertEquals(100, spaces.namespace("a").used());
+        assertNull(cache.get("a:0"));
+
+        // b comes back and reclaims its quota from a, one entry at a time
+        for (int i = 0; i < 60; i++) {
+            cache.put("b:" + i, "v");
+        }
+        assertEquals(50, spaces.namespace("a").used());
+        assertEquals(0, spaces.namespace("a").borrowed());
+        assertEquals(50, spaces.namespace("b").used());
+        // at its quota b makes room out of its own entries
+        assertEquals(50, live(cache, "b:", 60));
+        assertNull(cache.get("b:0"));
+        assertEquals("v", cache.get("b:59"));
+        assertEquals(11, spaces.namespace("b").misses());
+
+        // a namespace without a quota gets the plain lru entry when nobody borrows, and pays for
+        // anything more itself
+        cache.put("other", "v");
+        assertEquals(49, spaces.namespace("a").used());
+        cache.put("other2", "v");
+        assertNull(cache.get("other"));
+        assertEquals("v", cache.get("other2"));
+        assertEquals(1, spaces.namespace("default").used());
+        assertEquals(1, spaces.namespace("default").evictions());
+        assertThrows(IllegalArgumentException.class, () -> spaces.setQuota("a", -1));
+        cache.shutdown();
+    }
+
+    @Test
+    void testBooksFollowEveryWayOut() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        cache.put("a:before", "v");
+        Namespaces<String> spaces = cache.enableNamespaces(NamespaceTest::namespaceOf);
+        assertEquals(1, spaces.namespace("a").used());
+        for (int i = 0; i < 32; i++) {
+            cache.put("a:" + i, "v");
+            cache.put("b:" + i, "v");
+        }
+        assertTrue(cache.remove("a:0"));
+        cache.compute("a:1", (k, v) -> null);
+        cache.put("a:2", "overwritten");
+        assertEquals(31, spaces.namespace("a").used());
+        assertTrue(cache.splitSegments());
+        assertTrue(cache.checkSizeInvariance());
+        assertEquals(31, spaces.namespace("a").used());
+        assertEquals(32, spaces.namespace("b").used());
+        cache.put("a:100", "v");
+        assertEquals(32, spaces.namespace("a").used());
+
+        // weights become the unit once a weigher is set
+        cache.setWeigher((k, v) -> v.length(), 10_000);
+        assertEquals(31 + "overwritten".length(), spaces.namespace("a").used());
+        assertEquals(32, spaces.namespace("b").used());
+        List<String> names = new ArrayList<>();
+        for (Namespaces.Namespace space : spaces.list()) {
+            names.add(space.name());
+        }
+        assertEquals(List.of("a", "b"), names);
+        cache.shutdown();
+    }
+
+    @Test
+    void testConcurrentTenantsKeepTheBooksStraight() throws InterruptedException {
+        LRUCache<String, String> cache = new LRUCache<>(1000, 8);
+        Namespaces<String> spaces = cache.enableNamespaces(NamespaceTest::namespaceOf);
+        for (int t = 0; t < 4; t++) {
+            spaces.setQuota("t" + t, 250);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            pool.submit(() -> {
+                // t0 writes ten times as many keys as the others
+                int keys = id == 0 ? 20_000 : 2_000;
+                for (int i = 0; i < keys; i++) {
+                    cache.put("t" + id + ":" + i, "v");
+                    if (i % 3 == 0) cache.remove("t" + id + ":" + (i / 2));
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        pool.shutdown();
+        long total = 0;
+        for (int t = 0; t < 4; t++) {
+            total += spaces.namespace("t" + t).used();
+        }
+        assertEquals(cache.size(), total);
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,186 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.AsyncSimulator;
+import com.mylrucachelib.Stats;
+import com.mylrucachelib.client.NearCacheClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearCacheClientTest {
+    private static final String HOST = "localhost";
+    private static final int CAPACITY = 4;
+    private AsyncServer server;
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws InterruptedException {
+        String dumpFile = tempDir.resolve("server.dump").toAbsolutePath().toString();
+        server = new AsyncServer();
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(CAPACITY, 1, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long start = System.currentTimeMillis();
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new RuntimeException("Server did not bind port within 5 seconds");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail(message);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testRepeatedGetIsServedLocally() throws IOException {
+        try (NearCacheClient client = new NearCacheClient(HOST, server.getPort(), 16)) {
+            client.put("a", "1");
+            assertEquals("1", client.get("a"));
+            long remote = client.remoteRequests();
+            for (int i = 0; i < 10; i++) {
+                assertEquals("1", client.get("a"));
+            }
+            assertEquals(remote, client.remoteRequests());
+            assertEquals(10, client.nearHits());
+            assertNull(client.get("missing"));
+        }
+    }
+
+    @Test
+    void testWriteFromOtherConnectionInvalidates() throws Exception {
+        try (NearCacheClient reader = new NearCacheClient(HOST, server.getPort(), 16);
+             NearCacheClient writer = new NearCacheClient(HOST, server.getPort(), 16)) {
+            writer.put("k", "old");
+            assertEquals("old", reader.get("k"));
+            writer.put("k", "new");
+            await(() -> reader.invalidations() > 0, "Reader was not told about the write");
+            assertEquals("new", reader.get("k"));
+        }
+    }
+
+    @Test
+    void testEvictionInvalidates() throws Exception {
+        try (NearCacheClient reader = new NearCacheClient(HOST, server.getPort(), 16);
+             NearCacheClient writer = new NearCacheClient(HOST, server.getPort(), 16)) {
+            writer.put("victim", "v");
+            assertEquals("v", reader.get("victim"));
+            for (int i = 0; i < CAPACITY; i++) {
+                writer.put("filler" + i, "f");
+            }
+            await(() -> reader.nearCacheSize() == 0, "Evicted key should leave the near cache");
+            assertNull(reader.get("victim"));
+        }
+    }
+
+    @Test
+    void testExpiryInvalidates() throws Exception {
+        try (NearCacheClient client = new NearCacheClient(HOST, server.getPort(), 16)) {
+            client.put("short", "s", 200);
+            assertEquals("s", client.get("short"));
+            // fill the server segment so the key is not pushed out by an eviction, and keep the near
+            // cache busy with live entries
+            for (int i = 1; i < CAPACITY; i++) {
+                client.put("filler" + i, "f");
+                assertEquals("f", client.get("filler" + i));
+            }
+            assertEquals(CAPACITY, client.nearCacheSize());
+            Thread.sleep(250);
+            // past the ttl the near cache does not serve it, whether or not the janitor push arrived
+            long hits = client.nearHits();
+            assertNull(client.get("short"));
+            assertEquals(hits, client.nearHits());
+            assertEquals("f", client.get("filler1"));
+            await(() -> client.nearCacheSize() == CAPACITY - 1, "Expired key should leave the near cache");
+        }
+    }
+
+    @Test
+    void testTrackingCommand() throws IOException {
+        try (Socket socket = new Socket(HOST, server.getPort());
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("TRACKING maybe");
+            assertEquals("ERROR_USAGE_TRACKING", in.readLine());
+            out.println("TRACKING ON");
+            assertEquals("OK", in.readLine());
+            out.println("PUT x 1");
+            assertEquals("OK", in.readLine());
+            out.println("GET x");
+            assertEquals("VALUE 1", in.readLine());
+            assertEquals(1, server.trackedKeyCount());
+            out.println("PUT x 2");
+            assertEquals("INVALIDATE x", in.readLine());
+            assertEquals("OK", in.readLine());
+            assertEquals(0, server.trackedKeyCount());
+            // a key with a ttl comes with the time it has left
+            out.println("PUT y 1 60000");
+            assertEquals("OK", in.readLine());
+            out.println("GET y");
+            String[] ttl = in.readLine().split(" ");
+            assertEquals("TTL", ttl[0]);
+            assertEquals("y", ttl[1]);
+            long remaining = Long.parseLong(ttl[2]);
+            assertTrue(remaining > 0 && remaining <= 60000, "remaining ttl " + remaining);
+            assertEquals("VALUE 1", in.readLine());
+            out.println("TRACKING OFF");
+            assertEquals("OK", in.readLine());
+        }
+    }
+
+    @Test
+    void testTaggedKeysAreNotTracked() throws IOException {
+        try (Socket socket = new Socket(HOST, server.getPort());
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("TRACKING ON");
+            assertEquals("OK", in.readLine());
+            out.println("TAGPUT t 1 0 group");
+            assertEquals("OK", in.readLine());
+            // the server cannot tell which keys a tag invalidation hits, so the copy is dropped at once
+            out.println("GET t");
+            assertEquals("VALUE 1", in.readLine());
+            assertEquals("INVALIDATE t", in.readLine());
+            assertEquals(0, server.trackedKeyCount());
+            out.println("INVALIDATETAG group");
+            assertEquals("OK", in.readLine());
+            out.println("GET t");
+            assertEquals("NOT_FOUND", in.readLine());
+        }
+    }
+
+    @Test
+    void testSimulatorNearCacheMode() throws Exception {
+        AsyncSimulator simulator = new AsyncSimulator(server.getPort(), 4, 200, CAPACITY, 16);
+        Stats stats = simulator.call();
+        assertEquals(4 * 200, stats.totalReqs());
+        assertEquals(0, stats.failedReqs());
+        assertEquals(4 * 200, simulator.getRemoteRequests() + simulator.getNearCacheHits());
+        assertTrue(simulator.getNearCacheHits() > 0, "Reads of a small key range should hit the near cache");
+    }
+}
@@ -0,0 +1,139 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.Namespaces;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.DiskTier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeekTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPeekIsNotAUse() {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        TimeSource clock = fakeTime::get;
+        LRUCache<String, String> cache = new LRUCache<>(2, 1, clock, EvictionPolicy.SEGMENTED_LRU);
+        Namespaces<String> spaces = cache.enableNamespaces(key -> "all");
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // a get would make b the lru entry
+        assertEquals("1", cache.peek("a"));
+        assertTrue(cache.containsKey("a"));
+        cache.put("c", "3");
+        assertNull(cache.peek("a"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals("2", cache.peek("b"));
+        assertEquals(0, spaces.namespace("all").hits() + spaces.namespace("all").misses());
+
+        cache.put("short", "v", 50);
+        assertEquals("v", cache.peek("short"));
+        fakeTime.addAndGet(100);
+        assertNull(cache.peek("short"));
+        assertFalse(cache.containsKey("short"));
+        cache.shutdown();
+
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<String, String> other = new LRUCache<>(10, 2, System::currentTimeMillis, policy);
+            other.put("k", "v");
+            assertEquals("v", other.peek("k"), policy.toString());
+            assertNull(other.peek("missing"), policy.toString());
+            other.shutdown();
+        }
+    }
+
+    @Test
+    void testPeekSeesCountersTagsAndSplits() {
+        LRUCache<String, String> cache = new LRUCache<>(64, 1);
+        cache.enableCounters(Long::parseLong, Long::toString);
+        for (int i = 0; i < 5; i++) {
+            cache.increment("hits");
+        }
+        // bumped lock-free, the count is still there to read
+        assertEquals("5", cache.peek("hits"));
+        cache.put("tagged", "v", 0, "t");
+        assertEquals("v", cache.peek("tagged"));
+        cache.invalidateTag("t");
+        assertNull(cache.peek("tagged"));
+        for (int i = 0; i < 32; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertTrue(cache.splitSegments());
+        for (int i = 0; i < 32; i++) {
+            assertEquals("v" + i, cache.peek("k" + i));
+        }
+        assertEquals("5", cache.peek("hits"));
+        cache.shutdown();
+
+        LRUCacheSegment<String, String> segment = new LRUCacheSegment<>(4);
+        segment.put(null, "null key");
+        assertEquals("null key", segment.get(null));
+    }
+
+    @Test
+    void testQuietReadLeavesTheDiskTierAlone() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(2, 1);
+        DiskTier<String, String> tier = new DiskTier<>(tempDir.resolve("tier"), Codecs.STRING, Codecs.STRING, 4096, 4 * 4096);
+        cache.enableDiskTier(tier);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertNull(cache.peek("a"));
+        assertTrue(cache.containsKey("a"));
+        assertEquals("1", cache.getIfPresentQuietly("a"));
+        // still only on disk, nothing was evicted to make room for it
+        assertEquals(1, tier.size());
+        assertEquals("2", cache.peek("b"));
+        assertEquals(2, cache.size());
+        cache.shutdown();
+        tier.close();
+    }
+
+    @Test
+    void testPeeksNeverSeeATornEntry() throws InterruptedException {
+        LRUCache<String, String> cache = new LRUCache<>(64, 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread writer = new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    String key = "k" + (i % 100);
+                    // evicts, overwrites and removes under the reader's feet
+                    if (i % 7 == 0) cache.remove(key);
+                    else cache.put(key, key + "=" + i);
+                    i++;
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        AtomicReference<String> torn = new AtomicReference<>();
+        long deadline = System.currentTimeMillis() + 500;
+        long peeks = 0;
+        while (System.currentTimeMillis() < deadline) {
+            String key = "k" + (peeks++ % 100);
+            String value = cache.peek(key);
+            if (value != null && !value.startsWith(key + "=")) torn.set(key + " -> " + value);
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(torn.get());
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,181 @@
+import com.mylrucachelib.persistence.StringSerializer;
+import com.mylrucachelib.primitive.IntObjectLRUCache;
+import com.mylrucachelib.primitive.LongLongLRUCache;
+import com.mylrucachelib.primitive.LongLongSegment;
+import com.mylrucachelib.primitive.LongObjectLRUCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimitiveCacheTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testZeroCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new LongLongSegment(0));
+        assertThrows(IllegalArgumentException.class, () -> new LongLongLRUCache(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LongLongLRUCache(10, 0));
+    }
+
+    @Test
+    void testSegmentEvictsLeastRecentlyUsed() {
+        LongLongSegment segment = new LongLongSegment(3);
+        segment.put(1, 10);
+        segment.put(2, 20);
+        segment.put(3, 30);
+        assertEquals(10, segment.get(1, -1));
+        segment.put(4, 40);
+        assertEquals(-1, segment.get(2, -1), "LRU entry should be evicted");
+        assertEquals(10, segment.get(1, -1));
+        assertEquals(30, segment.get(3, -1));
+        assertEquals(40, segment.get(4, -1));
+        assertEquals(3, segment.size());
+        assertTrue(segment.checkSizeInvariance());
+    }
+
+    @Test
+    void testPutExistingKey() {
+        LongLongLRUCache cache = new LongLongLRUCache(4, 1);
+        cache.put(7, 1);
+        cache.put(7, 2);
+        assertEquals(2, cache.get(7, -1));
+        assertEquals(1, cache.size());
+        assertTrue(cache.containsKey(7));
+        assertFalse(cache.containsKey(8));
+    }
+
+    @Test
+    void testZeroAndNegativeKeys() {
+        LongLongLRUCache cache = new LongLongLRUCache(16, 2);
+        cache.put(0, 5);
+        cache.put(-1, 6);
+        cache.put(Long.MIN_VALUE, 7);
+        assertEquals(5, cache.get(0, -1));
+        assertEquals(6, cache.get(-1, -1));
+        assertEquals(7, cache.get(Long.MIN_VALUE, -1));
+    }
+
+    @Test
+    void testRemoveKeepsProbeChains() {
+        // a single segment with many colliding buckets, checked against a HashMap
+        LongLongLRUCache cache = new LongLongLRUCache(64, 1);
+        Map<Long, Long> expected = new HashMap<>();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < 20_000; i++) {
+            long key = rnd.nextLong(48);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, cache.remove(key));
+            } else {
+                cache.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+        for (var e : expected.entrySet()) {
+            assertEquals(e.getValue(), cache.get(e.getKey(), -1));
+        }
+        assertEquals(expected.size(), cache.size());
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testExpiry() {
+        AtomicLong now = new AtomicLong(1000);
+        LongObjectLRUCache<String> cache = new LongObjectLRUCache<>(8, 1, now::get);
+        cache.put(1, "a", 100);
+        cache.put(2, "b");
+        assertEquals("a", cache.get(1));
+        now.addAndGet(101);
+        assertNull(cache.get(1));
+        assertEquals("b", cache.get(2));
+    }
+
+    @Test
+    void testIntObjectCache() {
+        IntObjectLRUCache<String> cache = new IntObjectLRUCache<>(100, 4);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertEquals(100, cache.size());
+        assertEquals("v999", cache.get(999));
+        assertNull(cache.get(0));
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testForEachVisitsAllEntries() {
+        LongLongLRUCache cache = new LongLongLRUCache(100, 4);
+        for (long i = 0; i < 50; i++) {
+            cache.put(i, i * 2);
+        }
+        Map<Long, Long> seen = new HashMap<>();
+        cache.forEach((key, value, expiry) -> seen.put(key, value));
+        assertEquals(50, seen.size());
+        seen.forEach((k, v) -> assertEquals(k * 2, v));
+    }
+
+    @Test
+    void testConcurrentAccess() throws InterruptedException {
+        LongLongLRUCache cache = new LongLongLRUCache(1000, 8);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 50_000; i++) {
+                    long key = rnd.nextLong(5000);
+                    if (rnd.nextBoolean()) cache.put(key, key + 1);
+                    else {
+                        long value = cache.get(key, -1);
+                        if (value != -1) assertEquals(key + 1, value);
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(cache.size() <= 1000);
+        assertTrue(cache.checkSizeInvariance());
+    }
+
+    @Test
+    void testPersistence() throws IOException {
+        String path = new File(tempDir, "long.dump").getAbsolutePath();
+        LongLongLRUCache cache = new LongLongLRUCache(100, 4);
+        for (long i = 0; i < 60; i++) {
+            cache.put(i, -i);
+        }
+        cache.enablePersistence(path);
+        cache.saveSnapshot();
+
+        LongLongLRUCache restored = new LongLongLRUCache(100, 4);
+        restored.enablePersistence(path);
+        assertEquals(60, restored.size());
+        for (long i = 0; i < 60; i++) {
+            assertEquals(-i, restored.get(i, 1));
+        }
+
+        String objectPath = new File(tempDir, "object.dump").getAbsolutePath();
+        IntObjectLRUCache<String> objects = new IntObjectLRUCache<>(10, 2);
+        objects.put(3, "three");
+        objects.enablePersistence(objectPath, new StringSerializer());
+        objects.saveSnapshot();
+        IntObjectLRUCache<String> restoredObjects = new IntObjectLRUCache<>(10, 2);
+        restoredObjects.enablePersistence(objectPath, new StringSerializer());
+        assertEquals("three", restoredObjects.get(3));
+    }
+}
@@ -0,0 +1,129 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.RemovalCause;
+import com.mylrucachelib.TimeSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RemovalListenerTest {
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < size) {
+            assertTrue(System.currentTimeMillis() < deadline, "only " + list.size() + " of " + size + " delivered");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void testEveryCauseIsReported() throws Exception {
+        for (EvictionPolicy policy : new EvictionPolicy[] {EvictionPolicy.SEGMENTED_LRU, EvictionPolicy.CLOCK}) {
+            AtomicLong fakeTime = new AtomicLong(100000);
+            TimeSource clock = fakeTime::get;
+            LRUCache<String, String> cache = new LRUCache<>(2, 1, clock, policy);
+            List<String> events = Collections.synchronizedList(new ArrayList<>());
+            cache.setRemovalListener((key, value, cause) -> events.add(cause + " " + key + "=" + value));
+
+            cache.put("a", "1");
+            cache.put("a", "2");
+            cache.put("b", "1");
+            cache.get("a");
+            cache.put("c", "1");
+            cache.remove("c");
+            cache.remove("missing");
+            cache.put("d", "1", 10);
+            fakeTime.addAndGet(20);
+            cache.put("d", "2");
+            awaitSize(events, 4);
+            assertEquals(List.of("REPLACED a=1", "EVICTED b=1", "EXPLICIT c=1", "EXPIRED d=1"), events, policy.toString());
+
+            cache.setRemovalListener(null);
+            cache.remove("d");
+            Thread.sleep(50);
+            assertEquals(4, events.size());
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void testSlowListenerDoesNotHoldUpWriters() throws Exception {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100, 4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> evicted = Collections.synchronizedList(new ArrayList<>());
+        cache.setRemovalListener((key, value, cause) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertEquals(RemovalCause.EVICTED, cause);
+            evicted.add(key);
+        }, executor);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        // the listener is parked the whole time, so every eviction is still waiting in the queue
+        assertTrue(evicted.isEmpty());
+        assertTrue(elapsedMs < 2000, "puts took " + elapsedMs + "ms");
+
+        release.countDown();
+        awaitSize(evicted, 9900);
+        assertEquals(9900, evicted.size());
+        cache.shutdown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailingListenerKeepsReceiving() throws Exception {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(10, 1);
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        cache.setRemovalListener((key, value, cause) -> {
+            seen.add(key);
+            if (key % 2 == 0) throw new IllegalStateException("listener bug");
+        });
+        for (int i = 0; i < 20; i++) {
+            cache.remove(i);
+            cache.put(i, i);
+            cache.remove(i);
+        }
+        awaitSize(seen, 20);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, seen);
+        cache.shutdown();
+    }
+
+    @Test
+    void testListenerSurvivesSplit() throws Exception {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(64, 1);
+        List<RemovalCause> causes = Collections.synchronizedList(new ArrayList<>());
+        // a direct executor runs the listener on the delay thread
+        cache.setRemovalListener((key, value, cause) -> causes.add(cause), Runnable::run);
+        for (int i = 0; i < 64; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.splitSegments());
+        for (int i = 0; i < 64; i++) {
+            cache.remove(i);
+        }
+        awaitSize(causes, 64);
+        assertTrue(causes.stream().allMatch(cause -> cause == RemovalCause.EXPLICIT));
+        cache.shutdown();
+    }
+}
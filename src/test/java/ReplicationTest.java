@@ -0,0 +1,366 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTest {
+    private static final String HOST = "localhost";
+    private final List<AsyncServer> servers = new ArrayList<>();
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void stopServers() {
+        for (AsyncServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private AsyncServer startServer(int capacity, AsyncServer primary) throws InterruptedException {
+        return startServer(capacity, primary, 0);
+    }
+
+    private AsyncServer startServer(int capacity, AsyncServer primary, int port) throws InterruptedException {
+        String dumpFile = tempDir.resolve("server" + servers.size() + ".dump").toAbsolutePath().toString();
+        AsyncServer server = new AsyncServer();
+        server.setKeyIndex(true);
+        if (primary != null) server.setReplicaOf(HOST, primary.getPort());
+        servers.add(server);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(capacity, 1, port, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long start = System.currentTimeMillis();
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new RuntimeException("Server did not bind port within 5 seconds");
+            }
+            Thread.sleep(50);
+        }
+        return server;
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail(message);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Conn implements AutoCloseable {
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+
+        Conn(AsyncServer server) throws IOException {
+            socket = new Socket(HOST, server.getPort());
+            out = new PrintWriter(socket.getOutputStream(), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        String send(String line) throws IOException {
+            out.println(line);
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static String get(AsyncServer server, String key) {
+        try (Conn c = new Conn(server)) {
+            return c.send("GET " + key);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testSnapshotThenLiveStream() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        try (Conn p = new Conn(primary)) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("OK", p.send("PUT k" + i + " v" + i));
+            }
+            AsyncServer replica = startServer(100, primary);
+            await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+            assertTrue(replica.replicationInfo().contains("last_sync_entries=20"), replica.replicationInfo());
+            for (int i = 0; i < 20; i++) {
+                assertEquals("VALUE v" + i, get(replica, "k" + i));
+            }
+
+            assertEquals("OK", p.send("PUT k0 changed"));
+            assertEquals("OK", p.send("PUT fresh 1"));
+            await(() -> "VALUE changed".equals(get(replica, "k0")), "Overwrite not replicated");
+            await(() -> "VALUE 1".equals(get(replica, "fresh")), "New key not replicated");
+            assertTrue(primary.replicationInfo().contains("replicas=1"), primary.replicationInfo());
+            assertTrue(primary.replicationInfo().contains("offset=2"), primary.replicationInfo());
+            await(() -> replica.replicationInfo().contains("offset=2"), "Replica offset did not follow");
+        }
+    }
+
+    @Test
+    void testTtlCarriesOver() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            assertEquals("OK", p.send("PUT short v 300"));
+        }
+        await(() -> "VALUE v".equals(get(replica, "short")), "Put with ttl not replicated");
+        // the replica expires the key on the primary's deadline, not one counted from its arrival
+        await(() -> "NOT_FOUND".equals(get(replica, "short")), "Replicated key outlived its ttl");
+    }
+
+    @Test
+    void testConditionalWritesReplicate() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            assertEquals("OK", p.send("PUTIFABSENT a 1"));
+            assertEquals("EXISTS", p.send("PUTIFABSENT a 2"));
+            String version = p.send("GETS a").split(" ")[1];
+            assertTrue(p.send("CAS a " + version + " 3").startsWith("OK "));
+            assertEquals("OK", p.send("PUT gone 1"));
+            assertEquals("DELETED", p.send("DEL gone"));
+            assertEquals("OK", p.send("PUT short v"));
+            assertEquals("TOUCHED", p.send("TOUCH short 300"));
+        }
+        await(() -> "VALUE 3".equals(get(replica, "a")), "CAS not replicated");
+        await(() -> "NOT_FOUND".equals(get(replica, "gone")), "DEL not replicated");
+        try (Conn r = new Conn(replica)) {
+            assertEquals("ERROR_READONLY_REPLICA", r.send("DEL a"));
+        }
+        // the new ttl travels with the touch
+        await(() -> "NOT_FOUND".equals(get(replica, "short")), "TOUCH not replicated");
+    }
+
+    @Test
+    void testCountersReplicate() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            for (int i = 0; i < 50; i++) {
+                p.send("INCR hits");
+            }
+            assertEquals("VALUE 45", p.send("INCRBY hits -5"));
+            assertEquals("VALUE 1", p.send("INCR window 300"));
+            assertEquals("VALUE 2", p.send("INCR window 300"));
+        }
+        await(() -> "VALUE 45".equals(get(replica, "hits")), "INCR not replicated");
+        await(() -> "VALUE 2".equals(get(replica, "window")), "INCR with ttl not replicated");
+        try (Conn r = new Conn(replica)) {
+            assertEquals("ERROR_READONLY_REPLICA", r.send("INCR hits"));
+        }
+        // the window ends on the replica as well
+        await(() -> "NOT_FOUND".equals(get(replica, "window")), "Counter window not replicated");
+    }
+
+    @Test
+    void testIncrementsDuringSnapshotCountOnce() throws Exception {
+        AsyncServer primary = startServer(100_000, null);
+        try (Conn p = new Conn(primary)) {
+            // enough for the snapshot to be written while increments keep coming
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 50_000; i++) {
+                batch.append("PUT k").append(i).append(" v").append(i).append('\n');
+            }
+            p.out.print(batch);
+            p.out.flush();
+            for (int i = 0; i < 50_000; i++) {
+                p.in.readLine();
+            }
+        }
+        Thread incrementer = new Thread(() -> {
+            try (Conn p = new Conn(primary)) {
+                for (int i = 0; i < 2000; i++) {
+                    p.send("INCR hits");
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        incrementer.start();
+        AsyncServer replica = startServer(100_000, primary);
+        incrementer.join();
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        assertEquals("VALUE 2000", get(primary, "hits"));
+        await(() -> "VALUE 2000".equals(get(replica, "hits")), "Replica counter differs from the primary");
+        // and stays there, nothing counted twice is still on its way
+        Thread.sleep(100);
+        assertEquals("VALUE 2000", get(replica, "hits"));
+    }
+
+    @Test
+    void testDeletePrefixReplicates() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            for (int i = 0; i < 20; i++) {
+                p.send("PUT session:7:" + i + " v");
+            }
+            p.send("PUT session:8:0 v");
+            await(() -> "VALUE v".equals(get(replica, "session:8:0")), "Put not replicated");
+            assertEquals("DELETED 20", p.send("DELPREFIX session:7:"));
+        }
+        await(() -> "NOT_FOUND".equals(get(replica, "session:7:19")), "DELPREFIX not replicated");
+        try (Conn r = new Conn(replica)) {
+            assertEquals("KEYS 0 session:8:0", r.send("SCAN session:"));
+            assertEquals("ERROR_READONLY_REPLICA", r.send("DELPREFIX session:"));
+        }
+    }
+
+    @Test
+    void testTagsReplicate() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            assertEquals("OK", p.send("TAGPUT a 1 0 g,h"));
+            assertEquals("OK", p.send("TAGPUT b 1 0 h"));
+            await(() -> "VALUE 1".equals(get(replica, "b")), "TAGPUT not replicated");
+            assertEquals("OK", p.send("INVALIDATETAG g"));
+        }
+        await(() -> "NOT_FOUND".equals(get(replica, "a")), "INVALIDATETAG not replicated");
+        assertEquals("VALUE 1", get(replica, "b"));
+        // a touched entry keeps its tags on the replica
+        try (Conn p = new Conn(primary)) {
+            assertEquals("TOUCHED", p.send("TOUCH b 60000"));
+            assertEquals("OK", p.send("INVALIDATETAG h"));
+        }
+        await(() -> "NOT_FOUND".equals(get(replica, "b")), "Touched entry lost its tags on the replica");
+        try (Conn r = new Conn(replica)) {
+            assertEquals("ERROR_READONLY_REPLICA", r.send("INVALIDATETAG h"));
+            assertEquals("ERROR_READONLY_REPLICA", r.send("TAGPUT c 1 0 h"));
+        }
+    }
+
+    @Test
+    void testEvictionReplicatesAsDelete() throws Exception {
+        // the replica is larger, so only the primary's DEL can remove the evicted key there
+        AsyncServer primary = startServer(2, null);
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            p.send("PUT a 1");
+            p.send("PUT b 2");
+            await(() -> "VALUE 1".equals(get(replica, "a")), "Put not replicated");
+            p.send("PUT c 3");
+            assertEquals("NOT_FOUND", p.send("GET a"));
+        }
+        await(() -> "NOT_FOUND".equals(get(replica, "a")), "Eviction not replicated");
+        assertEquals("VALUE 3", get(replica, "c"));
+    }
+
+    @Test
+    void testReplicaIsReadOnlyUntilPromoted() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        try (Conn p = new Conn(primary)) {
+            p.send("PUT k v");
+        }
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn r = new Conn(replica)) {
+            assertEquals("ERROR_READONLY_REPLICA", r.send("PUT k other"));
+            assertEquals("ERROR_NOT_PRIMARY", r.send("REPLICATE"));
+            assertTrue(r.send("REPLINFO").startsWith("REPLINFO role=replica"));
+
+            primary.stop();
+            await(() -> !replica.replicationInfo().contains("state=streaming"), "Replica did not notice the primary going down");
+            assertEquals("VALUE v", r.send("GET k"));
+
+            assertEquals("OK", r.send("PROMOTE"));
+            assertTrue(r.send("REPLINFO").startsWith("REPLINFO role=primary"));
+            assertEquals("OK", r.send("PUT k other"));
+            assertEquals("VALUE other", r.send("GET k"));
+            assertEquals("ERROR_NOT_REPLICA", r.send("PROMOTE"));
+        }
+    }
+
+    @Test
+    void testSyncDropsKeysThePrimaryDoesNotHave() throws Exception {
+        // the replica comes up from an old dump of its own before it syncs
+        String dumpFile = tempDir.resolve("server1.dump").toAbsolutePath().toString();
+        LRUCache<String, String> old = new LRUCache<>(10, 1);
+        old.enablePersistence(dumpFile, new StringSerializer(), new StringSerializer());
+        old.put("stale", "1");
+        old.put("kept", "old");
+        old.saveSnapshot();
+        old.shutdown();
+
+        AsyncServer primary = startServer(100, null);
+        try (Conn p = new Conn(primary)) {
+            p.send("PUT kept new");
+        }
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        assertEquals("NOT_FOUND", get(replica, "stale"));
+        assertEquals("VALUE new", get(replica, "kept"));
+    }
+
+    @Test
+    void testResyncDropsTaggedKeysThePrimaryLost() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        int port = primary.getPort();
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        try (Conn p = new Conn(primary)) {
+            assertEquals("OK", p.send("TAGPUT tagged 1 0 g"));
+            assertEquals("OK", p.send("PUT plain 1"));
+        }
+        await(() -> "VALUE 1".equals(get(replica, "plain")), "Put not replicated");
+        assertEquals("VALUE 1", get(replica, "tagged"));
+
+        // the primary comes back on the same port without the keys, the replica resyncs against it
+        primary.stop();
+        await(() -> !replica.replicationInfo().contains("state=streaming"), "Replica did not notice the primary going down");
+        AsyncServer restarted = startServer(100, null, port);
+        try (Conn p = new Conn(restarted)) {
+            assertEquals("OK", p.send("PUT other 1"));
+        }
+        await(() -> "VALUE 1".equals(get(replica, "other")), "Replica never resynced");
+        assertEquals("NOT_FOUND", get(replica, "tagged"));
+        assertEquals("NOT_FOUND", get(replica, "plain"));
+    }
+
+    @Test
+    void testReplicaOfPromotedNode() throws Exception {
+        AsyncServer primary = startServer(100, null);
+        try (Conn p = new Conn(primary)) {
+            p.send("PUT kept 1");
+        }
+        AsyncServer replica = startServer(100, primary);
+        await(() -> replica.replicationInfo().contains("state=streaming"), "Replica never finished its sync");
+        replica.promote();
+        try (Conn r = new Conn(replica)) {
+            assertEquals("OK", r.send("PUT written 1"));
+        }
+        AsyncServer follower = startServer(100, replica);
+        await(() -> follower.replicationInfo().contains("state=streaming"), "Follower never finished its sync");
+        assertEquals("VALUE 1", get(follower, "written"));
+        assertEquals("VALUE 1", get(follower, "kept"));
+    }
+}
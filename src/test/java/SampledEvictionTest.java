@@ -0,0 +1,116 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.LoggerSetup;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampledEvictionTest {
+    private static final Logger logger = Logger.getLogger(SampledEvictionTest.class.getName());
+    static {
+        LoggerSetup.setupLogger(SampledEvictionTest.class.getName(), "sampled-eviction-TEST.log", true);
+    }
+
+    private LRUCache<Integer, Integer> newCache(int capacity, EvictionPolicy policy) {
+        return new LRUCache<>(capacity, 16, System::currentTimeMillis, policy);
+    }
+
+    @Test
+    void testGlobalCapacityHolds() {
+        LRUCache<Integer, Integer> cache = newCache(100, EvictionPolicy.SAMPLED_LRU);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(100, cache.size());
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testSegmentMayGrowBeyondItsShare() {
+        LRUCache<Integer, Integer> cache = newCache(64, EvictionPolicy.SAMPLED_LRU);
+        // multiples of 16 all hash to segment 0, a strict split would keep only 4 of them
+        for (int i = 0; i < 40; i++) {
+            cache.put(i * 16, i);
+        }
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, cache.get(i * 16));
+        }
+        cache.shutdown();
+    }
+
+    @Test
+    void testRebalancingNotAllowed() {
+        LRUCache<Integer, Integer> cache = newCache(64, EvictionPolicy.SAMPLED_LRU);
+        assertThrows(IllegalStateException.class, () -> cache.enableRebalancing(0.1, 64));
+        assertFalse(cache.splitSegments());
+        cache.shutdown();
+    }
+
+    @Test
+    void testConcurrentPutsRespectCapacity() throws InterruptedException {
+        LRUCache<Integer, Integer> cache = newCache(500, EvictionPolicy.SAMPLED_LRU);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            pool.submit(() -> {
+                try {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = random.nextInt(5000);
+                        cache.put(key, key);
+                        cache.get(random.nextInt(5000));
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        pool.shutdown();
+        assertFalse(failed.get());
+        assertEquals(500, cache.size());
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    // skewed trace where the hot keys cluster in a few segments
+    private double hitRatio(EvictionPolicy policy) {
+        LRUCache<Integer, Integer> cache = newCache(1000, policy);
+        Random random = new Random(42);
+        int hits = 0;
+        int requests = 200_000;
+        for (int i = 0; i < requests; i++) {
+            int key;
+            if (random.nextDouble() < 0.8) {
+                key = random.nextInt(400) * 16 + random.nextInt(2); // 800 hot keys in 2 of 16 segments
+            } else {
+                key = 100_000 + random.nextInt(50_000);
+            }
+            if (cache.get(key) != null) hits++;
+            else cache.put(key, key);
+        }
+        cache.shutdown();
+        return (double) hits / requests;
+    }
+
+    @Test
+    void testHitRatioOnSkewedTrace() {
+        double segmented = hitRatio(EvictionPolicy.SEGMENTED_LRU);
+        double sampled = hitRatio(EvictionPolicy.SAMPLED_LRU);
+        logger.info(String.format("Skewed trace hit ratio: segmented %.4f, sampled %.4f", segmented, sampled));
+        assertTrue(sampled > segmented, "Sampled global LRU should beat the strict split on a skewed trace");
+    }
+}
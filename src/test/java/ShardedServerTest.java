@@ -0,0 +1,138 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.client.CacheClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedServerTest {
+    private static final String HOST = "localhost";
+    private static final int LOOPS = 4;
+    private AsyncServer server;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws InterruptedException {
+        String dumpFile = tempDir.resolve("server.dump").toAbsolutePath().toString();
+        server = new AsyncServer();
+        server.setEventLoops(LOOPS);
+        server.setNamespaces(true);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(10_000, 16, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() > deadline) throw new RuntimeException("Server did not bind port within 5 seconds");
+            Thread.sleep(20);
+        }
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void testPipelinedCommandsAnswerInOrder() throws IOException {
+        try (Socket socket = new Socket(HOST, server.getPort());
+             OutputStream out = socket.getOutputStream();
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            // one write with keys of every loop, most of them run on a loop other than the connection's
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                batch.append("PUT k").append(i).append(" v").append(i).append('\n');
+                batch.append("GET k").append(i).append('\n');
+                batch.append("INCR c").append(i % 7).append('\n');
+            }
+            batch.append("PEEK k0\nDEL k0\nEXISTS k0\n");
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < 200; i++) {
+                assertEquals("OK", in.readLine());
+                assertEquals("VALUE v" + i, in.readLine());
+                assertEquals("VALUE " + (i / 7 + 1), in.readLine());
+            }
+            assertEquals("VALUE v0", in.readLine());
+            assertEquals("DELETED", in.readLine());
+            assertEquals("NOT_FOUND", in.readLine());
+        }
+    }
+
+    @Test
+    void testConnectionsOnEveryLoopSeeTheSameCache() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(LOOPS * 2);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < LOOPS * 2; t++) {
+            int id = t;
+            writers.add(pool.submit(() -> {
+                try (CacheClient client = new CacheClient(HOST, server.getPort(), 2, 5000)) {
+                    List<CompletableFuture<Void>> puts = new ArrayList<>();
+                    for (int i = 0; i < 250; i++) {
+                        puts.add(client.put("t" + id + ":" + i, "v" + i));
+                    }
+                    CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                    for (int i = 0; i < 250; i++) {
+                        client.increment("shared").get(5, TimeUnit.SECONDS);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        try (CacheClient reader = new CacheClient(HOST, server.getPort(), 4, 5000)) {
+            for (int t = 0; t < LOOPS * 2; t++) {
+                for (int i = 0; i < 250; i += 25) {
+                    assertEquals("v" + i, reader.get("t" + t + ":" + i).get(5, TimeUnit.SECONDS));
+                }
+            }
+            // every increment went through the one loop owning the counter
+            assertEquals(String.valueOf(LOOPS * 2 * 250), reader.get("shared").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testNamespacesAndRefusedFeatures() throws Exception {
+        try (CacheClient plain = new CacheClient(HOST, server.getPort());
+             CacheClient orders = new CacheClient(HOST, server.getPort(), 2, 5000, "orders")) {
+            plain.put("k", "default").get(5, TimeUnit.SECONDS);
+            orders.put("k", "orders").get(5, TimeUnit.SECONDS);
+            assertEquals("default", plain.get("k").get(5, TimeUnit.SECONDS));
+            assertEquals("orders", orders.get("k").get(5, TimeUnit.SECONDS));
+            // invalidations would have to cross loops
+            assertEquals("ERROR_TRACKING_DISABLED", plain.command("TRACKING ON").get(5, TimeUnit.SECONDS));
+            assertEquals("ERROR_REPLICATION_DISABLED", plain.command("REPLICATE").get(5, TimeUnit.SECONDS));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new AsyncServer().setEventLoops(0));
+        AsyncServer replica = new AsyncServer();
+        replica.setEventLoops(2);
+        replica.setReplicaOf(HOST, server.getPort());
+        assertThrows(IllegalStateException.class,
+                () -> replica.start(100, 4, 0, tempDir.resolve("replica.dump").toString()));
+    }
+}
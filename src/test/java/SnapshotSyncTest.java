@@ -0,0 +1,194 @@
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotSyncTest {
+    private static final String HOST = "localhost";
+    private final List<AsyncServer> servers = new ArrayList<>();
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void stopServers() {
+        for (AsyncServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private AsyncServer startServer(int capacity, AsyncServer source) throws InterruptedException {
+        String dumpFile = tempDir.resolve("server" + servers.size() + ".dump").toAbsolutePath().toString();
+        AsyncServer server = new AsyncServer();
+        if (source != null) server.setSyncFrom(HOST, source.getPort());
+        servers.add(server);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(capacity, 4, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        long start = System.currentTimeMillis();
+        while (server.getPort() == 0) {
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new RuntimeException("Server did not bind port within 5 seconds");
+            }
+            Thread.sleep(50);
+        }
+        return server;
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail(message);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) fail("Stream ended inside a line");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void fill(AsyncServer server, int n) throws IOException {
+        try (Socket socket = new Socket(HOST, server.getPort())) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < n; i++) {
+                out.println("PUT key" + i + " value" + i);
+                assertEquals("OK", readLine(in));
+            }
+        }
+    }
+
+    @Test
+    void testNewNodeWarmsUpFromSource() throws Exception {
+        AsyncServer source = startServer(10_000, null);
+        fill(source, 5_000);
+        AsyncServer fresh = startServer(10_000, source);
+        await(() -> fresh.syncInfo().startsWith("state=done"), "Sync did not finish: " + fresh.syncInfo());
+        assertTrue(fresh.syncInfo().contains("entries=5000"), fresh.syncInfo());
+
+        try (Socket socket = new Socket(HOST, fresh.getPort())) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < 5_000; i += 97) {
+                out.println("GET key" + i);
+                assertEquals("VALUE value" + i, readLine(in));
+            }
+            out.println("SYNCINFO");
+            assertTrue(readLine(in).startsWith("SYNCINFO state=done"));
+        }
+    }
+
+    @Test
+    void testSyncStreamsSnapshotAndCloses() throws Exception {
+        AsyncServer source = startServer(1_000, null);
+        fill(source, 300);
+        try (Socket socket = new Socket(HOST, source.getPort())) {
+            socket.getOutputStream().write("SYNC\n".getBytes(StandardCharsets.UTF_8));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String[] header = readLine(in).split(" ");
+            assertEquals("SNAPSHOT", header[0]);
+            byte[] snapshot = in.readNBytes(Integer.parseInt(header[2]));
+            assertEquals(-1, in.read(), "Connection should close after the snapshot");
+
+            LRUCache<String, String> copy = new LRUCache<>(1_000, 1);
+            int restored = new SnapshotManager<>(new StringSerializer(), new StringSerializer(), System::currentTimeMillis)
+                    .readFrom(new ByteArrayInputStream(snapshot), copy);
+            assertEquals(300, restored);
+            assertEquals("value42", copy.get("key42"));
+            copy.shutdown();
+        }
+        // the temp file is gone once it was sent
+        await(() -> {
+            try (Stream<Path> files = Files.list(tempDir)) {
+                return files.noneMatch(p -> p.getFileName().toString().startsWith("snapshot-"));
+            } catch (IOException e) {
+                return false;
+            }
+        }, "Snapshot temp file left behind");
+    }
+
+    @Test
+    void testLocalDeletesDuringSyncStick() throws Exception {
+        AsyncServer source = startServer(100_000, null);
+        fill(source, 50_000);
+        AsyncServer fresh = new AsyncServer();
+        fresh.setSyncFrom(HOST, source.getPort());
+        fresh.setKeyIndex(true);
+        servers.add(fresh);
+        Thread serverThread = new Thread(() -> {
+            try {
+                fresh.start(100_000, 4, 0, tempDir.resolve("fresh.dump").toString());
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        await(() -> fresh.getPort() != 0, "Server did not start");
+        // whether a delete lands before or after its key is restored, the key must stay gone
+        try (Socket socket = new Socket(HOST, fresh.getPort())) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.println("DELPREFIX key1");
+            assertTrue(readLine(in).startsWith("DELETED "));
+            for (int i = 0; i < 50_000; i += 7) {
+                out.println("DEL key" + i);
+                String reply = readLine(in);
+                assertTrue(reply.equals("DELETED") || reply.equals("NOT_FOUND"), reply);
+            }
+            await(() -> fresh.syncInfo().startsWith("state=done"), "Sync did not finish: " + fresh.syncInfo());
+            for (int i = 0; i < 50_000; i++) {
+                out.println("GET key" + i);
+                String expected = i % 7 == 0 || String.valueOf(i).startsWith("1") ? "NOT_FOUND" : "VALUE value" + i;
+                assertEquals(expected, readLine(in), "key" + i);
+            }
+        }
+    }
+
+    @Test
+    void testSyncFromMissingSourceFails() throws Exception {
+        AsyncServer source = startServer(10, null);
+        int port = source.getPort();
+        source.stop();
+        AsyncServer fresh = new AsyncServer();
+        fresh.setSyncFrom(HOST, port);
+        servers.add(fresh);
+        Thread serverThread = new Thread(() -> {
+            try {
+                fresh.start(10, 1, 0, tempDir.resolve("fresh.dump").toString());
+            } catch (IOException ignored) {}
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        await(() -> fresh.syncInfo().startsWith("state=failed"), "Sync should fail: " + fresh.syncInfo());
+        // the node still comes up empty and serves
+        await(() -> fresh.getPort() != 0, "Server did not start");
+    }
+}
@@ -0,0 +1,236 @@
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.TimeSource;
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.DiskTier;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TagInvalidationTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testInvalidatedTagsTurnIntoMisses() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 4);
+        cache.put("user:1:profile", "p", 0, "user:1");
+        cache.put("user:1:feed", "f", 0, "user:1", "feeds");
+        cache.put("user:2:feed", "f", 0, "user:2", "feeds");
+        cache.put("plain", "v");
+        assertArrayEquals(new String[] {"user:1", "feeds"}, cache.tagsOf("user:1:feed"));
+        assertNull(cache.tagsOf("plain"));
+
+        cache.invalidateTag("user:1");
+        assertNull(cache.get("user:1:profile"));
+        assertNull(cache.get("user:1:feed"));
+        assertEquals("f", cache.get("user:2:feed"));
+        assertEquals("v", cache.get("plain"));
+
+        // written after the invalidation, so it is live again
+        cache.put("user:1:profile", "p2", 0, "user:1");
+        assertEquals("p2", cache.get("user:1:profile"));
+        cache.invalidateTag("feeds");
+        assertNull(cache.get("user:2:feed"));
+        assertEquals("p2", cache.get("user:1:profile"));
+
+        // a plain put drops the tags
+        cache.put("user:1:profile", "p3");
+        cache.invalidateTag("user:1");
+        assertEquals("p3", cache.get("user:1:profile"));
+        assertTrue(cache.checkSizeInvariance());
+
+        assertThrows(IllegalArgumentException.class, () -> cache.put("k", "v", 0, (String) null));
+        assertThrows(IllegalArgumentException.class, () -> cache.invalidateTag(null));
+        cache.shutdown();
+
+        LRUCache<String, String> clock = new LRUCache<>(100, 4, System::currentTimeMillis, EvictionPolicy.CLOCK);
+        assertThrows(IllegalStateException.class, () -> clock.put("k", "v", 0, "t"));
+        clock.shutdown();
+    }
+
+    @Test
+    void testTaggedPutsUnderEveryPolicy() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<String, String> cache = new LRUCache<>(100, 4, System::currentTimeMillis, policy);
+            if (policy == EvictionPolicy.CLOCK) {
+                assertThrows(IllegalStateException.class, () -> cache.put("k", "v", 0, "t"), policy.toString());
+                cache.shutdown();
+                continue;
+            }
+            for (int i = 0; i < 20; i++) {
+                cache.put("k" + i, "v" + i, 0, i % 2 == 0 ? "even" : "odd");
+            }
+            assertEquals("v0", cache.get("k0"), policy.toString());
+            assertEquals("v1", cache.peek("k1"), policy.toString());
+            cache.invalidateTag("even");
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i % 2 == 0 ? null : "v" + i, cache.get("k" + i), policy + " k" + i);
+            }
+            assertTrue(cache.checkSizeInvariance(), policy.toString());
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void testPerEntityTagsArePruned() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(10_000, 4);
+        // older than every invalidation, and must not hold the pruning back
+        cache.put("keep", "v", 0, "stable");
+        for (int i = 0; i < 3000; i++) {
+            cache.put("user:" + i, "v", 0, "user:" + i);
+            cache.invalidateTag("user:" + i);
+        }
+        cache.put("user:0", "v2", 0, "user:0");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.invalidatedTagCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, cache.invalidatedTagCount());
+        // the records are gone, the entries they made stale stay gone
+        for (int i = 1; i < 3000; i++) {
+            assertNull(cache.get("user:" + i));
+        }
+        assertEquals("v2", cache.get("user:0"));
+        assertEquals("v", cache.get("keep"));
+        cache.invalidateTag("user:0");
+        assertNull(cache.get("user:0"));
+        assertEquals("v", cache.get("keep"));
+        cache.shutdown();
+    }
+
+    @Test
+    void testStaleEntriesLeaveAsExpired() throws Exception {
+        AtomicLong fakeTime = new AtomicLong(100000);
+        TimeSource clock = fakeTime::get;
+        LRUCache<String, String> cache = new LRUCache<>(3, 1, clock, EvictionPolicy.SEGMENTED_LRU);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        cache.setRemovalListener((key, value, cause) -> events.add(cause + " " + key), Runnable::run);
+        cache.put("a", "1", 0, "t");
+        cache.put("b", "1", 0, "t");
+        cache.put("c", "1");
+        cache.invalidateTag("t");
+        // like an expired entry, a stale one waits for an eviction or the janitor
+        cache.put("d", "1");
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("c"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(List.of("EXPIRED a", "EXPIRED b"), events);
+        assertEquals(2, cache.size());
+
+        // the ttl still applies to tagged entries
+        cache.put("e", "1", 50, "u");
+        fakeTime.addAndGet(100);
+        assertNull(cache.get("e"));
+        cache.shutdown();
+    }
+
+    @Test
+    void testTaggedEntriesStayInMemory() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(4, 1);
+        DiskTier<String, String> tier = new DiskTier<>(tempDir.resolve("tier"), Codecs.STRING, Codecs.STRING, 4096, 16 * 4096);
+        cache.enableDiskTier(tier);
+        for (int i = 0; i < 8; i++) {
+            cache.put("tagged" + i, "v", 0, "t");
+        }
+        cache.put("plain", "v");
+        cache.invalidateTag("t");
+        // evicted tagged entries were never spilled, so the tier cannot bring them back untagged
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.get("tagged" + i));
+        }
+        cache.shutdown();
+        tier.close();
+
+        String dumpFile = tempDir.resolve("cache.dump").toString();
+        LRUCache<String, String> saved = new LRUCache<>(10, 1);
+        saved.enablePersistence(dumpFile, new StringSerializer(), new StringSerializer());
+        saved.put("tagged", "v", 0, "t");
+        saved.put("plain", "v");
+        saved.saveSnapshot();
+        saved.shutdown();
+        LRUCache<String, String> restored = new LRUCache<>(10, 1);
+        restored.enablePersistence(dumpFile, new StringSerializer(), new StringSerializer());
+        assertEquals("v", restored.get("plain"));
+        assertNull(restored.get("tagged"));
+        restored.shutdown();
+    }
+
+    @Test
+    void testLargeTagInvalidatesWhileTrafficRuns() throws InterruptedException {
+        LRUCache<String, String> cache = new LRUCache<>(20_000, 8);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("item:" + i, "v", 0, "catalog");
+        }
+        cache.put("other", "v", 0, "unrelated");
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                cache.get("item:" + (i++ % 10_000));
+            }
+        });
+        reader.start();
+        long start = System.nanoTime();
+        cache.invalidateTag("catalog");
+        long tookMs = (System.nanoTime() - start) / 1_000_000;
+        running.set(false);
+        reader.join();
+        // one counter bump, nothing walks the 10k entries
+        assertTrue(tookMs < 100, "invalidateTag took " + tookMs + "ms");
+        for (int i = 0; i < 10_000; i++) {
+            assertNull(cache.get("item:" + i));
+        }
+        assertEquals("v", cache.get("other"));
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testConcurrentPutsNeverSurviveAnOverlappingInvalidation() throws InterruptedException {
+        LRUCache<String, String> cache = new LRUCache<>(1000, 4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            Thread writer = new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    cache.put("k" + id + ":" + (i++ % 50), "v", 0, "t");
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        Thread.sleep(50);
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // every put finished before this, so none of them may outlive it
+        cache.invalidateTag("t");
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 50; i++) {
+                assertNull(cache.get("k" + t + ":" + i));
+            }
+        }
+        assertTrue(cache.splitSegments());
+        cache.put("after", "v", 0, "t");
+        assertEquals("v", cache.get("after"));
+        cache.invalidateTag("t");
+        assertNull(cache.get("after"));
+        cache.shutdown();
+    }
+}
@@ -21,6 +21,7 @@ public class ThreadedServerTest {
     @BeforeEach
     void startServer() {
         service = new ThreadedServer();
+        service.setKeyIndex(true);
         Thread server = new Thread(() -> {
             try {
                 service.start(CAPACITY, CONC_LVL, PORT);
@@ -141,6 +142,106 @@ public class ThreadedServerTest {
         }
     }
 
+    @Test
+    void testConditionalCommands() throws IOException {
+        try (Socket socket = new Socket("localhost", service.getPort());
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            writer.println("putifabsent k v1");
+            assertEquals("OK", reader.readLine());
+            writer.println("putifabsent k v2");
+            assertEquals("EXISTS", reader.readLine());
+            writer.println("gets k");
+            String[] gets = reader.readLine().split(" ");
+            assertEquals("VALUE", gets[0]);
+            assertEquals("v1", gets[2]);
+            writer.println("cas k " + gets[1] + " v3");
+            assertTrue(reader.readLine().startsWith("OK "));
+            writer.println("cas k " + gets[1] + " v4");
+            assertEquals("EXISTS", reader.readLine());
+            writer.println("touch k 0");
+            assertEquals("TOUCHED", reader.readLine());
+            writer.println("touch k soon");
+            assertEquals("ERROR_USAGE_TOUCH", reader.readLine());
+            writer.println("del k");
+            assertEquals("DELETED", reader.readLine());
+            writer.println("del k");
+            assertEquals("NOT_FOUND", reader.readLine());
+            writer.println("cas k 1 v5");
+            assertEquals("NOT_FOUND", reader.readLine());
+        }
+    }
+
+    @Test
+    void testScanCommands() throws IOException {
+        try (Socket socket = new Socket("localhost", service.getPort());
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            for (String key : new String[] {"p:b", "p:a", "p:c", "q:a"}) {
+                writer.println("put " + key + " v");
+                assertEquals("OK", reader.readLine());
+            }
+            writer.println("scan p: 0 2");
+            assertEquals("KEYS >p:b p:a p:b", reader.readLine());
+            writer.println("scan p: >p:b 2");
+            assertEquals("KEYS 0 p:c", reader.readLine());
+            writer.println("delprefix p:");
+            assertEquals("DELETED 3", reader.readLine());
+            writer.println("scan p:");
+            assertEquals("KEYS 0", reader.readLine());
+            writer.println("get q:a");
+            assertEquals("VALUE v", reader.readLine());
+            writer.println("scan p: 0 zero");
+            assertEquals("ERROR_USAGE_SCAN", reader.readLine());
+        }
+    }
+
+    @Test
+    void testTagCommands() throws IOException {
+        try (Socket socket = new Socket("localhost", service.getPort());
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            writer.println("tagput a 1 0 x,y");
+            assertEquals("OK", reader.readLine());
+            writer.println("tagput b 1 0 y");
+            assertEquals("OK", reader.readLine());
+            writer.println("invalidatetag x");
+            assertEquals("OK", reader.readLine());
+            writer.println("get a");
+            assertEquals("NOT_FOUND", reader.readLine());
+            writer.println("get b");
+            assertEquals("VALUE 1", reader.readLine());
+            writer.println("tagput c 1 0");
+            assertEquals("ERROR_USAGE_TAGPUT", reader.readLine());
+            writer.println("invalidatetag");
+            assertEquals("ERROR_USAGE_INVALIDATETAG", reader.readLine());
+        }
+    }
+
+    @Test
+    void testCounterCommands() throws IOException {
+        try (Socket socket = new Socket("localhost", service.getPort());
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            writer.println("incr n");
+            assertEquals("VALUE 1", reader.readLine());
+            writer.println("incrby n -6 1000");
+            assertEquals("VALUE -5", reader.readLine());
+            writer.println("decr n");
+            assertEquals("VALUE -6", reader.readLine());
+            writer.println("get n");
+            assertEquals("VALUE -6", reader.readLine());
+            writer.println("put s text");
+            assertEquals("OK", reader.readLine());
+            writer.println("incr s");
+            assertEquals("ERROR_NOT_A_NUMBER", reader.readLine());
+            writer.println("incrby n");
+            assertEquals("ERROR_USAGE_INCRBY", reader.readLine());
+            writer.println("decr n soon");
+            assertEquals("ERROR_USAGE_DECR", reader.readLine());
+        }
+    }
+
     // verify correctness of service work & responses concurrently
     @Test
     void testConcurrentClientsAtOnce() {
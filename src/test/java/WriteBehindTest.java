@@ -0,0 +1,162 @@
+import com.mylrucachelib.CacheWriter;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.WriteBehind;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindTest {
+    // in-memory store that records every batch and can be made to hang or fail
+    private static class FakeStore implements CacheWriter<String, String> {
+        final Map<String, String> data = new ConcurrentHashMap<>();
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public void writeAll(Map<String, String> entries) throws Exception {
+            gate.await();
+            if (failuresLeft.getAndDecrement() > 0) throw new IOException("store down");
+            data.putAll(entries);
+            batches.add(entries.size());
+            writes.addAndGet(entries.size());
+        }
+
+        @Override
+        public void deleteAll(Set<String> keys) throws Exception {
+            gate.await();
+            data.keySet().removeAll(keys);
+            batches.add(keys.size());
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void testLastWritePerKeyWins() throws Exception {
+        FakeStore store = new FakeStore();
+        LRUCache<String, String> cache = new LRUCache<>(1000, 4);
+        cache.enableWriteBehind(store, 1000, 200, 1000);
+        WriteBehind<String, String> writeBehind = cache.getWriteBehind();
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot", "v" + i);
+        }
+        cache.put("a", "1");
+        cache.put("gone", "1");
+        cache.remove("gone");
+        await(() -> writeBehind.dirtyCount() == 0);
+        assertEquals(Map.of("hot", "v99", "a", "1"), store.data);
+        assertEquals(2, store.writes.get());
+        assertEquals(3, writeBehind.flushedEntries());
+        cache.shutdown();
+    }
+
+    @Test
+    void testFullBatchFlushesBeforeTheInterval() throws Exception {
+        FakeStore store = new FakeStore();
+        LRUCache<String, String> cache = new LRUCache<>(1000, 4);
+        cache.enableWriteBehind(store, 10, 60_000, 100);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        await(() -> store.data.size() == 10);
+        assertEquals(List.of(10), store.batches);
+        cache.shutdown();
+    }
+
+    @Test
+    void testDirtyEntriesAreNotEvicted() throws Exception {
+        FakeStore store = new FakeStore();
+        store.gate = new CountDownLatch(1);
+        LRUCache<String, String> cache = new LRUCache<>(10, 1);
+        cache.enableWriteBehind(store, 5, 10, 100);
+        for (int i = 0; i < 20; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        // the store hangs, so everything is still dirty and the segment runs over capacity
+        assertEquals(20, cache.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("v" + i, cache.get("k" + i));
+        }
+        assertTrue(cache.checkSizeInvariance());
+
+        store.gate.countDown();
+        await(() -> cache.getWriteBehind().dirtyCount() == 0);
+        assertEquals(20, store.data.size());
+        // clean again, the next put brings the segment back to its capacity
+        cache.put("x", "x");
+        assertEquals(10, cache.size());
+        assertEquals("x", cache.get("x"));
+        cache.shutdown();
+    }
+
+    @Test
+    void testFailedBatchesAreRetried() throws Exception {
+        FakeStore store = new FakeStore();
+        store.failuresLeft.set(2);
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        cache.enableWriteBehind(store, 10, 10, 100);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        await(() -> store.data.size() == 2);
+        assertEquals(2, cache.getWriteBehind().failures());
+        assertEquals(Map.of("a", "1", "b", "2"), store.data);
+        cache.shutdown();
+    }
+
+    @Test
+    void testWritersWaitWhileTheQueueIsFull() throws Exception {
+        FakeStore store = new FakeStore();
+        store.gate = new CountDownLatch(1);
+        LRUCache<String, String> cache = new LRUCache<>(1000, 1);
+        cache.enableWriteBehind(store, 10, 10, 20);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 50; i++) {
+                cache.put("k" + i, "v" + i);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(writer.isDone());
+        assertTrue(cache.getWriteBehind().dirtyCount() <= 21);
+        assertTrue(cache.getWriteBehind().blockedWrites() > 0);
+
+        store.gate.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        await(() -> store.data.size() == 50);
+        cache.shutdown();
+    }
+
+    @Test
+    void testShutdownFlushesWhatIsLeft() {
+        FakeStore store = new FakeStore();
+        LRUCache<String, String> cache = new LRUCache<>(100, 2);
+        cache.enableWriteBehind(store, 100, 60_000, 100);
+        for (int i = 0; i < 30; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertTrue(store.data.isEmpty());
+        cache.shutdown();
+        assertEquals(30, store.data.size());
+        assertEquals(0, cache.getWriteBehind().dirtyCount());
+    }
+}
@@ -0,0 +1,42 @@
+package benchmark;
+
+import com.mylrucachelib.ClockCacheSegment;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@Threads(64)
+public class ClockCacheSegmentBenchmark {
+    private ClockCacheSegment<Integer, Integer> cache;
+
+    @Param({"100", "10000", "1000000"})
+    private int capacity;
+
+    @Setup
+    public void setup() {
+        cache = new ClockCacheSegment<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            cache.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public void testPut(Blackhole bh) {
+        int id = ThreadLocalRandom.current().nextInt(capacity*2);
+        cache.put(id, id);
+    }
+
+    @Benchmark
+    public void testGet(Blackhole bh) {
+        int id = ThreadLocalRandom.current().nextInt(capacity);
+        bh.consume(cache.get(id));
+    }
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.client.ClusterClient;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// aggregate throughput of a cluster of local AsyncServer nodes. every op is a batch of
+// BATCH keys, so one op/s here is BATCH requests/s against the cluster
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ClusterClientBenchmark {
+    private static final int KEY_RANGE = 10_000;
+    private static final int BATCH = 64;
+    private final List<AsyncServer> servers = new ArrayList<>();
+    private ClusterClient cluster;
+    private Path dumpDir;
+
+    @Param({"1", "2", "4"})
+    private int nodes;
+
+    @Setup
+    public void setup() throws Exception {
+        dumpDir = Files.createTempDirectory("cluster-bench");
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            AsyncServer server = new AsyncServer();
+            String dumpFile = dumpDir.resolve("node" + i + ".dump").toString();
+            Thread t = new Thread(() -> {
+                try {
+                    server.start(KEY_RANGE, 16, 0, dumpFile);
+                } catch (IOException ignored) {}
+            });
+            t.setDaemon(true);
+            t.start();
+            while (server.getPort() == 0) Thread.sleep(10);
+            servers.add(server);
+            addresses.add("localhost:" + server.getPort());
+        }
+        cluster = new ClusterClient(addresses);
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        for (int i = 0; i < KEY_RANGE; i++) {
+            puts.add(cluster.put("key" + i, "value" + i));
+        }
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+        servers.forEach(AsyncServer::stop);
+        servers.clear();
+    }
+
+    @Benchmark
+    public void testGetAll(Blackhole bh) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        List<String> keys = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            keys.add("key" + rnd.nextInt(KEY_RANGE));
+        }
+        bh.consume(cluster.getAll(keys).join());
+    }
+
+    @Benchmark
+    public void testPutBatch() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        CompletableFuture<?>[] puts = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            int k = rnd.nextInt(KEY_RANGE);
+            puts[i] = cluster.put("key" + k, "value" + k);
+        }
+        CompletableFuture.allOf(puts).join();
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -0,0 +1,106 @@
+package benchmark;
+
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.Serializer;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// writeUTF through StringSerializer against the varint + UTF-8 string codec, on heap and direct buffers
+// and through the stream adapter that snapshots use
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"16", "1024"})
+    private int length;
+
+    @Param({"true", "false"})
+    private boolean ascii;
+
+    private String value;
+    private final StringSerializer serializer = new StringSerializer();
+    private final Serializer<String> adapter = Serializer.of(Codecs.STRING);
+    private ByteArrayOutputStream bytesOut;
+    private DataOutputStream streamOut;
+    private byte[] streamEncoded;
+    private byte[] adapterEncoded;
+    private ByteBuffer heap;
+    private ByteBuffer direct;
+    private ByteBuffer heapEncoded;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ascii ? (char) ('a' + i % 26) : (i % 4 == 0 ? 'é' : (char) ('a' + i % 26)));
+        }
+        value = sb.toString();
+        bytesOut = new ByteArrayOutputStream(length * 3 + 16);
+        streamOut = new DataOutputStream(bytesOut);
+        serializer.serialize(streamOut, value);
+        streamEncoded = bytesOut.toByteArray();
+        bytesOut.reset();
+        adapter.serialize(streamOut, value);
+        adapterEncoded = bytesOut.toByteArray();
+        heap = ByteBuffer.allocate(length * 3 + 16);
+        direct = ByteBuffer.allocateDirect(length * 3 + 16);
+        heapEncoded = ByteBuffer.allocate(length * 3 + 16);
+        Codecs.STRING.encode(value, heapEncoded);
+        heapEncoded.flip();
+    }
+
+    @Benchmark
+    public int streamEncode() throws IOException {
+        bytesOut.reset();
+        serializer.serialize(streamOut, value);
+        return bytesOut.size();
+    }
+
+    @Benchmark
+    public int codecEncodeHeap() {
+        heap.clear();
+        Codecs.STRING.encode(value, heap);
+        return heap.position();
+    }
+
+    @Benchmark
+    public int codecEncodeDirect() {
+        direct.clear();
+        Codecs.STRING.encode(value, direct);
+        return direct.position();
+    }
+
+    @Benchmark
+    public String streamDecode() throws IOException {
+        return serializer.deserialize(new DataInputStream(new ByteArrayInputStream(streamEncoded)));
+    }
+
+    @Benchmark
+    public String codecDecodeHeap() {
+        heapEncoded.rewind();
+        return Codecs.STRING.decode(heapEncoded);
+    }
+
+    @Benchmark
+    public int adapterEncode() throws IOException {
+        bytesOut.reset();
+        adapter.serialize(streamOut, value);
+        return bytesOut.size();
+    }
+
+    @Benchmark
+    public String adapterDecode() throws IOException {
+        return adapter.deserialize(new DataInputStream(new ByteArrayInputStream(adapterEncoded)));
+    }
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import com.mylrucachelib.LRUCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 32 threads on 10 hot counters. compute is how a counter had to be kept before: parse the string,
+// add, format it again, all under the segment lock. incrementBy keeps the number and bumps it with a CAS
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+    private static final int COUNTERS = 10;
+    private LRUCache<String, String> cache;
+    private String[] keys;
+
+    @Param({"compute", "incrementBy"})
+    private String mode;
+
+    @Param({"0", "60000"})
+    private long ttlMs;
+
+    @Setup
+    public void setup() {
+        cache = new LRUCache<>(10_000, 16);
+        cache.enableCounters(Long::parseLong, Long::toString);
+        keys = new String[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            keys[i] = "counter:" + i;
+            cache.put(keys[i], "0", ttlMs);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public long increment() {
+        String key = keys[ThreadLocalRandom.current().nextInt(COUNTERS)];
+        if (mode.equals("compute")) {
+            return Long.parseLong(cache.compute(key, (k, v) -> String.valueOf(Long.parseLong(v) + 1)));
+        }
+        return cache.incrementBy(key, 1, ttlMs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -20,9 +20,17 @@ public class LRUCacheHotSpotBenchmark {
     @Param({"100000"}) // 100k items
     private int capacity;
 
+    // 0 = plain segments, otherwise hot keys are replicated outside the segment locks
+    @Param({"0", "64"})
+    private int replicaSize;
+
     private final double hotTrafficFraction = 0.8;
     private int hotKeyRange;
 
+    // a handful of keys taking 30% of reads
+    private final double heavyHitterFraction = 0.3;
+    private final int heavyHitters = 8;
+
     @Setup
     public void setup() {
         cache = new LRUCache<>(capacity, 16);
@@ -31,6 +39,15 @@ public class LRUCacheHotSpotBenchmark {
         }
         // first 20% of keys are HOT
         this.hotKeyRange = (int) (capacity * 0.2);
+        if (replicaSize > 0) {
+            cache.enableHotKeyTracking(replicaSize, 0.01, 1000);
+            cache.enableHotKeyReplication(replicaSize);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.shutdown();
     }
 
     @Benchmark
@@ -52,4 +69,20 @@ public class LRUCacheHotSpotBenchmark {
             bh.consume(cache.get(key));
         }
     }
+
+    @Benchmark
+    public void testHeavyHitterWorkload(Blackhole bh) {
+        int key;
+        if (ThreadLocalRandom.current().nextDouble() < heavyHitterFraction) {
+            key = ThreadLocalRandom.current().nextInt(heavyHitters);
+        } else {
+            key = ThreadLocalRandom.current().nextInt(capacity);
+        }
+
+        if (ThreadLocalRandom.current().nextDouble() < 0.01) {
+            cache.put(key, key);
+        } else {
+            bh.consume(cache.get(key));
+        }
+    }
 }
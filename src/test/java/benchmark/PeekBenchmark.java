@@ -0,0 +1,59 @@
+package benchmark;
+
+import com.mylrucachelib.LRUCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// probes next to writers on few segments. get takes the segment lock to move the entry, peek reads
+// optimistically and neither waits for the writers nor makes them wait
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeekBenchmark {
+    private static final int KEYS = 10_000;
+    private LRUCache<Integer, Integer> cache;
+
+    @Param({"get", "peek"})
+    private String read;
+
+    // share of the operations that are puts
+    @Param({"0.1", "0.5"})
+    private double writeRatio;
+
+    @Setup
+    public void setup() {
+        cache = new LRUCache<>(KEYS, 4);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void mix(Blackhole bh) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(KEYS);
+        if (random.nextDouble() < writeRatio) {
+            cache.put(key, key);
+        } else if (read.equals("peek")) {
+            bh.consume(cache.peek(key));
+        } else {
+            bh.consume(cache.get(key));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -0,0 +1,69 @@
+package benchmark;
+
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.primitive.LongLongLRUCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// boxed LRUCache<Long,Long> against the long -> long cache on the same key stream
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@Threads(64)
+public class PrimitiveCacheBenchmark {
+    private LRUCache<Long, Long> boxed;
+    private LongLongLRUCache primitive;
+
+    @Param({"10000", "1000000"})
+    private int capacity;
+
+    @Setup
+    public void setup() {
+        boxed = new LRUCache<>(capacity, 16);
+        primitive = new LongLongLRUCache(capacity, 16);
+        for (long i = 0; i < capacity; i++) {
+            boxed.put(i, i);
+            primitive.put(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        boxed.shutdown();
+        primitive.shutdown();
+    }
+
+    @Benchmark
+    public void testBoxedGet(Blackhole bh) {
+        long id = ThreadLocalRandom.current().nextLong(capacity);
+        bh.consume(boxed.get(id));
+    }
+
+    @Benchmark
+    public void testPrimitiveGet(Blackhole bh) {
+        long id = ThreadLocalRandom.current().nextLong(capacity);
+        bh.consume(primitive.get(id, -1));
+    }
+
+    @Benchmark
+    public void testBoxedPut() {
+        long id = ThreadLocalRandom.current().nextLong(capacity * 2L);
+        boxed.put(id, id);
+    }
+
+    @Benchmark
+    public void testPrimitivePut() {
+        long id = ThreadLocalRandom.current().nextLong(capacity * 2L);
+        primitive.put(id, id);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -0,0 +1,52 @@
+package benchmark;
+
+import com.mylrucachelib.LRUCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// put into a full cache, so about every other put evicts, with no listener against a no-op one.
+// the difference is the queueing on the writer's side, delivery runs on the common pool
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemovalListenerBenchmark {
+    private LRUCache<Integer, Integer> cache;
+
+    @Param({"none", "noop"})
+    private String listener;
+
+    @Param({"10000"})
+    private int capacity;
+
+    @Setup
+    public void setup() {
+        cache = new LRUCache<>(capacity, 16);
+        if (listener.equals("noop")) {
+            cache.setRemovalListener((key, value, cause) -> {});
+        }
+        for (int i = 0; i < capacity; i++) {
+            cache.put(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void putEvicting() {
+        int id = ThreadLocalRandom.current().nextInt(capacity * 2);
+        cache.put(id, id);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
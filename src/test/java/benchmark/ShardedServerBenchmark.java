@@ -0,0 +1,80 @@
+package benchmark;
+
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.client.CacheClient;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// one AsyncServer with a single event loop against the shard-per-core mode. every op is a batch of BATCH
+// requests, 90% GET and 10% PUT. the client threads are the cores to compare, run with -t 8, -t 16, -t 32
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ShardedServerBenchmark {
+    private static final int KEY_RANGE = 10_000;
+    private static final int BATCH = 64;
+    private AsyncServer server;
+    private CacheClient client;
+    private Path dumpDir;
+
+    @Param({"1", "4"})
+    private int loops;
+
+    @Setup
+    public void setup() throws Exception {
+        dumpDir = Files.createTempDirectory("sharded-bench");
+        server = new AsyncServer();
+        server.setEventLoops(loops);
+        String dumpFile = dumpDir.resolve("node.dump").toString();
+        Thread t = new Thread(() -> {
+            try {
+                server.start(KEY_RANGE, 16, 0, dumpFile);
+            } catch (IOException ignored) {}
+        });
+        t.setDaemon(true);
+        t.start();
+        while (server.getPort() == 0) Thread.sleep(10);
+        // enough connections to land on every loop
+        client = new CacheClient("localhost", server.getPort(), 8, 5000);
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        for (int i = 0; i < KEY_RANGE; i++) {
+            puts.add(client.put("key" + i, "value" + i));
+        }
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public void testMixedBatch(Blackhole bh) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        CompletableFuture<?>[] ops = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            int k = rnd.nextInt(KEY_RANGE);
+            ops[i] = rnd.nextInt(10) == 0 ? client.put("key" + k, "value" + k) : client.get("key" + k);
+        }
+        CompletableFuture.allOf(ops).join();
+        bh.consume(ops);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+}
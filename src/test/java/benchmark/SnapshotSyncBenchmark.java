@@ -0,0 +1,103 @@
+package benchmark;
+
+import com.mylrucachelib.AsyncServer;
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// time for a fresh node to warm up from a running one over SYNC, from start() until the last entry
+// is restored. the source loads a generated dump, so only the two live caches sit on the heap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xms5g", "-Xmx5g"})
+public class SnapshotSyncBenchmark {
+    private static final int SEGMENTS = 16;
+    private AsyncServer source;
+    private AsyncServer fresh;
+    private Path dir;
+    private int round;
+
+    @Param({"1000000", "10000000"})
+    private int entries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("sync-bench");
+        Path dump = dir.resolve("source.dump");
+        new SnapshotManager<>(new StringSerializer(), new StringSerializer(), System::currentTimeMillis)
+                .writeTo(dump, new PersistentCache<String, String>() {
+                    @Override
+                    public int size() {
+                        return entries;
+                    }
+
+                    @Override
+                    public void forEach(LRUCacheSegment.EntryConsumer<String, String> action) {
+                        for (int i = 0; i < entries; i++) {
+                            action.accept("key" + i, "value-" + i + "-0123456789", 0);
+                        }
+                    }
+
+                    @Override
+                    public void put(String key, String value, long ttlMs) {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+        source = start(dump, null);
+    }
+
+    private AsyncServer start(Path dump, AsyncServer syncFrom) throws InterruptedException {
+        AsyncServer server = new AsyncServer();
+        if (syncFrom != null) server.setSyncFrom("localhost", syncFrom.getPort());
+        Thread t = new Thread(() -> {
+            try {
+                server.start(entries, SEGMENTS, 0, dump.toString());
+            } catch (IOException ignored) {}
+        });
+        t.setDaemon(true);
+        t.start();
+        while (server.getPort() == 0) Thread.sleep(1);
+        return server;
+    }
+
+    @Benchmark
+    public String warmUp() throws Exception {
+        fresh = start(dir.resolve("fresh" + round++ + ".dump"), source);
+        String info;
+        while (!(info = fresh.syncInfo()).startsWith("state=done")) {
+            if (info.startsWith("state=failed")) throw new IllegalStateException("Sync failed: " + info);
+            Thread.sleep(1);
+        }
+        return info;
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopFresh() {
+        if (fresh != null) {
+            System.out.println(fresh.syncInfo());
+            fresh.stop();
+            fresh = null;
+            System.gc();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        source.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
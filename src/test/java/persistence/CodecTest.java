@@ -0,0 +1,115 @@
+package persistence;
+
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.persistence.Codec;
+import com.mylrucachelib.persistence.CodecRegistry;
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.Serializer;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodecTest {
+    @TempDir
+    Path tempDir;
+
+    record Point(int x, long y, String label) {}
+
+    record Tagged(Point point, byte[] payload, boolean flag, double weight) {}
+
+    private static <T> T roundTrip(Codec<T> codec, T value, boolean direct) {
+        int size = codec.encodedSize(value);
+        ByteBuffer buf = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        codec.encode(value, buf);
+        assertEquals(size, buf.position(), "encodedSize must match what encode wrote");
+        buf.flip();
+        T decoded = codec.decode(buf);
+        assertFalse(buf.hasRemaining());
+        return decoded;
+    }
+
+    @Test
+    void testStringsRoundTripAsRawUtf8() {
+        String big = "x".repeat(100_000); // past the 64KB of writeUTF
+        for (String s : List.of("", "hello", "héllo wörld", "日本語", "emoji 😀 pair", big)) {
+            assertEquals(s, roundTrip(Codecs.STRING, s, false));
+            assertEquals(s, roundTrip(Codecs.STRING, s, true));
+        }
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        Codecs.STRING.encode("é", buf);
+        // one length byte, then standard UTF-8
+        assertArrayEquals(new byte[] {2, (byte) 0xC3, (byte) 0xA9}, java.util.Arrays.copyOf(buf.array(), 3));
+        assertEquals(3, Codecs.STRING.encodedSize(big) - big.length());
+        // a lone surrogate becomes '?', as with String.getBytes
+        String lone = "a\uD800b";
+        assertEquals(new String(lone.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                roundTrip(Codecs.STRING, lone, false));
+    }
+
+    @Test
+    void testPrimitivesAndVarints() {
+        for (int v : new int[] {0, 1, -1, 63, -64, 64, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertEquals(v, roundTrip(Codecs.VAR_INT, v, false));
+            assertEquals(v, roundTrip(Codecs.INT, v, true));
+        }
+        for (long v : new long[] {0, -1, 300, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(v, roundTrip(Codecs.VAR_LONG, v, false));
+            assertEquals(v, roundTrip(Codecs.LONG, v, true));
+        }
+        assertEquals(1, Codecs.VAR_INT.encodedSize(-1));
+        assertEquals(5, Codecs.VAR_INT.encodedSize(Integer.MIN_VALUE));
+        assertEquals(10, Codecs.VAR_LONG.encodedSize(Long.MIN_VALUE));
+        assertEquals(2.5, roundTrip(Codecs.DOUBLE, 2.5, false));
+        assertArrayEquals(new byte[] {1, 2, 3}, roundTrip(Codecs.BYTES, new byte[] {1, 2, 3}, true));
+
+        ByteBuffer malformed = ByteBuffer.wrap(new byte[] {-1, -1, -1, -1, -1, -1});
+        assertThrows(IllegalArgumentException.class, () -> Codecs.getVarInt(malformed));
+    }
+
+    @Test
+    void testRegistryBuildsRecordCodecs() {
+        CodecRegistry registry = new CodecRegistry();
+        Codec<Tagged> codec = registry.codecFor(Tagged.class);
+        Tagged value = new Tagged(new Point(-3, 1L << 40, "p"), new byte[] {9, 8}, true, 0.5);
+        Tagged decoded = roundTrip(codec, value, false);
+        assertEquals(value.point(), decoded.point());
+        assertArrayEquals(value.payload(), decoded.payload());
+        assertTrue(decoded.flag());
+        assertEquals(0.5, decoded.weight());
+        assertSame(codec, registry.codecFor(Tagged.class));
+
+        assertThrows(IllegalArgumentException.class, () -> registry.codecFor(Thread.class));
+        registry.register(Integer.class, Codecs.VAR_INT);
+        assertEquals(1, registry.codecFor(Integer.class).encodedSize(5));
+    }
+
+    @Test
+    void testStreamAdapterPersistsLargeValues() throws IOException {
+        String path = tempDir.resolve("codec.dump").toString();
+        String big = "é".repeat(50_000);
+        LRUCache<String, String> cache = new LRUCache<>(10, 1);
+        cache.enablePersistence(path, Serializer.of(Codecs.STRING), Serializer.of(Codecs.STRING));
+        cache.put("big", big);
+        cache.put("small", "v");
+        cache.saveSnapshot();
+
+        LRUCache<String, String> restored = new LRUCache<>(10, 1);
+        restored.enablePersistence(path, Serializer.of(Codecs.STRING), Serializer.of(Codecs.STRING));
+        assertEquals(big, restored.get("big"));
+        assertEquals("v", restored.get("small"));
+
+        // the old serializer cannot hold it at all
+        LRUCache<String, String> legacy = new LRUCache<>(10, 1);
+        legacy.enablePersistence(tempDir.resolve("legacy.dump").toString(), new StringSerializer(), new StringSerializer());
+        legacy.put("big", big);
+        assertThrows(IOException.class, legacy::saveSnapshot);
+    }
+}
@@ -0,0 +1,139 @@
+package persistence;
+
+import com.mylrucachelib.EvictionPolicy;
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.persistence.Codecs;
+import com.mylrucachelib.persistence.DiskTier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskTierTest {
+    @TempDir
+    Path tempDir;
+
+    private DiskTier<String, String> tier(int segmentBytes, long maxBytes) {
+        return new DiskTier<>(tempDir.resolve("tier"), Codecs.STRING, Codecs.STRING, segmentBytes, maxBytes);
+    }
+
+    @Test
+    void testEvictedEntriesAreServedFromDisk() {
+        LRUCache<String, String> cache = new LRUCache<>(100, 1);
+        DiskTier<String, String> tier = tier(64 * 1024, 1 << 20);
+        cache.enableDiskTier(tier);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, tier.size());
+        assertEquals("v0", cache.get("k0"));
+        // promoted: back in memory, gone from disk, and something else took its place there
+        assertFalse(tier.containsKey("k0"));
+        assertTrue(tier.containsKey("k100"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + i, cache.get("k" + i));
+        }
+        assertNull(cache.get("missing"));
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+    }
+
+    @Test
+    void testRemovingSpilledKeysKeepsTheSampledCount() {
+        LRUCache<String, String> cache = new LRUCache<>(10, 4, System::currentTimeMillis, EvictionPolicy.SAMPLED_LRU);
+        DiskTier<String, String> tier = tier(64 * 1024, 1 << 20);
+        cache.enableDiskTier(tier);
+        for (int i = 0; i < 30; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(10, cache.size());
+        // whatever is only on disk was never counted in memory
+        for (int i = 0; i < 30; i++) {
+            if (tier.containsKey("k" + i)) assertTrue(cache.remove("k" + i));
+        }
+        for (int i = 30; i < 60; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(10, cache.size());
+        assertTrue(cache.checkSizeInvariance());
+        cache.shutdown();
+        tier.close();
+    }
+
+    @Test
+    void testWritesNeverLeaveAStaleCopyOnDisk() {
+        LRUCache<String, String> cache = new LRUCache<>(10, 1);
+        cache.enableDiskTier(tier(64 * 1024, 1 << 20));
+        cache.put("key", "old");
+        for (int i = 0; i < 20; i++) {
+            cache.put("filler" + i, "x");
+        }
+        assertTrue(cache.getDiskTier().containsKey("key"));
+        cache.put("key", "new");
+        assertFalse(cache.getDiskTier().containsKey("key"));
+        for (int i = 20; i < 40; i++) {
+            cache.put("filler" + i, "x");
+        }
+        assertEquals("new", cache.get("key"));
+
+        for (int i = 40; i < 60; i++) {
+            cache.put("filler" + i, "x");
+        }
+        assertTrue(cache.remove("key"));
+        assertNull(cache.get("key"));
+        cache.shutdown();
+    }
+
+    @Test
+    void testCompactionKeepsLiveRecordsAndFreesSegments() {
+        DiskTier<String, String> tier = tier(4096, 1 << 20);
+        String value = "v".repeat(100);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                tier.put("k" + i, value + round, 0);
+            }
+        }
+        long before = tier.diskBytes();
+        tier.compactNow();
+        assertTrue(tier.diskBytes() < before, before + " -> " + tier.diskBytes());
+        assertTrue(tier.compacted() > 0);
+        assertEquals(100, tier.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(value + 4, tier.get("k" + i));
+        }
+        tier.close();
+    }
+
+    @Test
+    void testOldestSegmentsAreDroppedAndExpiredEntriesMiss() {
+        AtomicLong now = new AtomicLong(1_000);
+        DiskTier<String, String> tier = new DiskTier<>(tempDir.resolve("small"), Codecs.STRING, Codecs.STRING,
+                4096, 4 * 4096, now::get);
+        List<String> lost = new ArrayList<>();
+        tier.setDropHook(lost::add);
+        String value = "v".repeat(200);
+        for (int i = 0; i < 200; i++) {
+            tier.put("k" + i, value, 0);
+        }
+        assertTrue(tier.diskBytes() <= 4 * 4096);
+        assertFalse(lost.isEmpty());
+        assertEquals(lost.size(), tier.dropped());
+        assertNull(tier.get("k0"));
+        assertEquals(value, tier.get("k199"));
+        assertEquals(200, tier.size() + lost.size());
+
+        tier.put("ttl", "x", 2_000);
+        assertEquals("x", tier.get("ttl"));
+        now.set(2_001);
+        assertNull(tier.take("ttl"));
+        assertFalse(tier.containsKey("ttl"));
+        assertTrue(lost.contains("ttl"));
+        tier.close();
+    }
+}
@@ -0,0 +1,109 @@
+package persistence;
+
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.SnapshotScheduler;
+import com.mylrucachelib.SnapshotScheduler.SavePoint;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScheduledSnapshotTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSnapshotLetsWritersInAndStaysPointInTime() {
+        LRUCache<String, String> cache = new LRUCache<>(10_000, 1);
+        for (int i = 0; i < 2000; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        Map<String, String> seen = new HashMap<>();
+        int[] duplicates = new int[1];
+        cache.forEachRun(new PersistentCache.RunConsumer<>() {
+            @Override
+            public void startRun() {}
+
+            @Override
+            public void accept(String key, String value, long expiryTime, long idleMs, int hits) {
+                if (seen.isEmpty()) {
+                    // the walk is paused in its first slice, the segment must still take writes
+                    CompletableFuture.runAsync(() -> {
+                        cache.put("k0", "changed");
+                        cache.remove("k1");
+                        cache.get("k1500");
+                        cache.put("new", "x");
+                    }).orTimeout(5, TimeUnit.SECONDS).join();
+                }
+                if (seen.put(key, value) != null) duplicates[0]++;
+            }
+        });
+        assertEquals(0, duplicates[0]);
+        assertEquals(2000, seen.size());
+        assertEquals("v0", seen.get("k0"));
+        assertEquals("v1", seen.get("k1"));
+        assertTrue(seen.containsKey("k1500"));
+        assertFalse(seen.containsKey("new"));
+    }
+
+    @Test
+    void testSavesOnceEnoughWritesCameIn() throws Exception {
+        String path = tempDir.resolve("scheduled.dump").toString();
+        LRUCache<String, String> cache = new LRUCache<>(100, 4);
+        cache.enablePersistence(path, new StringSerializer(), new StringSerializer());
+        try (SnapshotScheduler scheduler = new SnapshotScheduler(cache, 0, new SavePoint(200, 10))) {
+            for (int i = 0; i < 5; i++) {
+                cache.put("k" + i, "v" + i);
+            }
+            Thread.sleep(500);
+            assertEquals(0, scheduler.snapshots());
+            assertEquals(5, scheduler.pendingWrites());
+
+            for (int i = 5; i < 15; i++) {
+                cache.put("k" + i, "v" + i);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (scheduler.snapshots() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, scheduler.snapshots());
+            assertEquals(15, scheduler.lastEntries());
+            assertEquals(Files.size(Path.of(path)), scheduler.lastBytes());
+            assertTrue(scheduler.lastDurationMs() >= 0);
+            assertTrue(scheduler.stalenessMs() < 5000);
+            assertEquals(0, scheduler.pendingWrites());
+            assertEquals(0, scheduler.failures());
+        }
+        LRUCache<String, String> restored = new LRUCache<>(100, 4);
+        restored.enablePersistence(path, new StringSerializer(), new StringSerializer());
+        assertEquals("v14", restored.get("k14"));
+    }
+
+    @Test
+    void testThrottleCapsTheWriteRate() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(10_000, 4);
+        String value = "x".repeat(100);
+        for (int i = 0; i < 2000; i++) {
+            cache.put("k" + i, value);
+        }
+        SnapshotManager<String, String> manager = new SnapshotManager<>(tempDir.resolve("throttled.dump").toString(),
+                new StringSerializer(), new StringSerializer(), System::currentTimeMillis);
+        manager.setMaxBytesPerSecond(500_000);
+        long start = System.nanoTime();
+        manager.save(cache);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        long bytes = Files.size(tempDir.resolve("throttled.dump"));
+        assertTrue(bytes > 200_000);
+        assertTrue(elapsedMs >= bytes * 1000 / 500_000 - 150, "took " + elapsedMs + "ms for " + bytes + " bytes");
+    }
+}
@@ -0,0 +1,156 @@
+package persistence;
+
+import com.mylrucachelib.LRUCache;
+import com.mylrucachelib.LRUCacheSegment;
+import com.mylrucachelib.persistence.PersistentCache;
+import com.mylrucachelib.persistence.SnapshotManager;
+import com.mylrucachelib.persistence.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarmStartTest {
+    @TempDir
+    Path tempDir;
+
+    private static List<String> keysInOrder(LRUCache<String, String> cache) {
+        List<String> keys = new ArrayList<>();
+        cache.forEach((key, value, expiry) -> keys.add(key));
+        return keys;
+    }
+
+    private static LRUCache<String, String> load(String path, int capacity, int concurrency) {
+        LRUCache<String, String> cache = new LRUCache<>(capacity, concurrency);
+        cache.enablePersistence(path, new StringSerializer(), new StringSerializer());
+        return cache;
+    }
+
+    @Test
+    void testRestoreKeepsRecencyOrder() throws IOException {
+        String path = tempDir.resolve("order.dump").toString();
+        LRUCache<String, String> cache = load(path, 5, 1);
+        for (String key : List.of("a", "b", "c", "d", "e")) {
+            cache.put(key, key);
+        }
+        cache.get("a");
+        cache.saveSnapshot();
+
+        LRUCache<String, String> restored = load(path, 5, 1);
+        assertEquals(List.of("a", "e", "d", "c", "b"), keysInOrder(restored));
+        // the coldest key goes first, not the hottest
+        restored.put("x", "x");
+        assertNull(restored.get("b"));
+        assertEquals("a", restored.get("a"));
+    }
+
+    @Test
+    void testSmallerCacheKeepsTheHottest() throws IOException {
+        String path = tempDir.resolve("smaller.dump").toString();
+        LRUCache<String, String> cache = load(path, 10, 1);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        cache.saveSnapshot();
+
+        LRUCache<String, String> restored = load(path, 3, 1);
+        assertEquals(List.of("k9", "k8", "k7"), keysInOrder(restored));
+    }
+
+    @Test
+    void testAccessMetadataMergesSegmentsByRecency() throws Exception {
+        String path = tempDir.resolve("metadata.dump").toString();
+        LRUCache<String, String> cache = new LRUCache<>(100, 4);
+        cache.enableAccessMetadata();
+        cache.enablePersistence(path, new StringSerializer(), new StringSerializer());
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            cache.put("k" + i, "v" + i);
+            cache.get("k" + i); // access time only moves on hits
+            expected.add(0, "k" + i);
+            Thread.sleep(2);
+        }
+        cache.saveSnapshot();
+
+        // one segment on the other side, so the four saved runs have to interleave by access time
+        LRUCache<String, String> restored = new LRUCache<>(100, 1);
+        restored.enableAccessMetadata();
+        restored.enablePersistence(path, new StringSerializer(), new StringSerializer());
+        assertEquals(expected, keysInOrder(restored));
+    }
+
+    @Test
+    void testHotSetLoadsFirst() throws Exception {
+        String path = tempDir.resolve("hot.dump").toString();
+        LRUCache<String, String> cache = load(path, 100, 1);
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        cache.saveSnapshot();
+
+        List<String> hot = new ArrayList<>();
+        PersistentCache<String, String> sink = new PersistentCache<>() {
+            @Override
+            public int size() {
+                return hot.size();
+            }
+
+            @Override
+            public void forEach(LRUCacheSegment.EntryConsumer<String, String> action) {}
+
+            @Override
+            public void put(String key, String value, long ttlMs) {
+                hot.add(key);
+            }
+        };
+        SnapshotManager<String, String> manager = new SnapshotManager<>(path, new StringSerializer(), new StringSerializer(), System::currentTimeMillis);
+        assertEquals(10, manager.loadHot(sink, 0.1));
+        assertEquals(List.of("k99", "k98", "k97", "k96", "k95", "k94", "k93", "k92", "k91", "k90"), hot);
+        assertEquals(90, manager.loadCold(sink, 0.1));
+
+        LRUCache<String, String> restored = new LRUCache<>(100, 1);
+        restored.enablePersistence(path, new StringSerializer(), new StringSerializer(), 0.1);
+        assertEquals("v95", restored.get("k95"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (restored.isRestoring()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Background restore did not finish");
+            Thread.sleep(5);
+        }
+        assertEquals(100, restored.size());
+        assertEquals("k95", keysInOrder(restored).get(0));
+        assertEquals("k0", keysInOrder(restored).get(99));
+    }
+
+    @Test
+    void testVersionOneFilesStillLoad() throws IOException {
+        Path path = tempDir.resolve("v1.dump");
+        try (FileOutputStream fos = new FileOutputStream(path.toFile())) {
+            CheckedOutputStream cos = new CheckedOutputStream(fos, new CRC32());
+            DataOutputStream out = new DataOutputStream(cos);
+            out.writeInt(0xCAFEBABE);
+            out.writeInt(1);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(3);
+            // v1 was written mru first as well
+            for (String key : List.of("c", "b", "a")) {
+                out.writeUTF(key);
+                out.writeUTF(key.toUpperCase());
+                out.writeLong(0);
+            }
+            out.flush();
+            out.writeLong(cos.getChecksum().getValue());
+        }
+        LRUCache<String, String> restored = load(path.toString(), 10, 1);
+        assertEquals(List.of("c", "b", "a"), keysInOrder(restored));
+        assertEquals("B", restored.get("b"));
+    }
+}